@@ -35,6 +35,8 @@ public class SecurityConfig {
             .authorizeRequests()
             .antMatchers("/api/auth/**").permitAll()
             .antMatchers("/ws/**").permitAll()
+            // 终端跟踪能读到原始按键（包括密码），只允许管理员使用
+            .antMatchers("/actuator/terminaltrace/**", "/actuator/terminaltrace").hasRole("ADMIN")
             .anyRequest().authenticated();
 
         http.addFilterBefore(jwtAuthenticationFilter, UsernamePasswordAuthenticationFilter.class);
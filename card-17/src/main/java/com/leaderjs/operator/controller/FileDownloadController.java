@@ -1,85 +1,661 @@
 package com.leaderjs.operator.controller;
 
+import com.jcraft.jsch.ChannelExec;
 import com.jcraft.jsch.ChannelSftp;
-import com.jcraft.jsch.JSch;
-import com.jcraft.jsch.Session;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.SftpATTRS;
+import com.jcraft.jsch.SftpException;
 import com.leaderjs.operator.model.Operator;
 import com.leaderjs.operator.repository.OperatorRepository;
+import com.leaderjs.operator.service.DirectoryListingCache;
+import com.leaderjs.operator.service.HttpDownloadExecutor;
+import com.leaderjs.operator.service.SSHSessionManager;
+import com.leaderjs.operator.service.SSHSessionManager.PooledSftp;
+import com.leaderjs.operator.service.SSHSessionManager.SSHSessionLease;
+import com.leaderjs.operator.service.SftpTransferEngine;
+import com.leaderjs.operator.service.TransferBandwidthScheduler;
+import com.leaderjs.operator.service.TransferBandwidthScheduler.Throttle;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.io.InputStreamResource;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.ContentDisposition;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.servlet.http.HttpServletRequest;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Optional;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
+/**
+ * 通过 HTTP 下载远程文件。响应体流式写出，支持 Content-Length、Range 分段（206）和 If-Modified-Since，
+ * 中断的下载可以续传，大文件可以多段并行下载。
+ * <p>
+ * 请求线程只用共享会话查询文件属性，查询完即归还。响应体在 {@link HttpDownloadExecutor} 上写出，
+ * 写出时才借出共享会话、SFTP 通道和带宽，写完后归还；响应体没有机会写出时（客户端提前断开、请求出错）不占用任何资源。
+ * <p>
+ * /api/download/archive 把远程目录打包后流式返回：tar.gz 在远端通过 exec 通道运行 tar，
+ * zip 通过 SFTP 遍历目录逐个写入，两者内存占用都与目录大小无关。
+ * <p>
+ * 响应体写出时按请求用户（未登录时按客户端地址）向 {@link TransferBandwidthScheduler} 申请带宽。
+ */
 @RestController
 @RequestMapping("/api")
 public class FileDownloadController {
     private static final Logger logger = LoggerFactory.getLogger(FileDownloadController.class);
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final String FORMAT_TAR_GZ = "tar.gz";
+    private static final String FORMAT_ZIP = "zip";
+    // 打包前统计的目录原始大小（字节），客户端据此估算进度；统计失败或超时时不返回
+    private static final String SOURCE_BYTES_HEADER = "X-Archive-Source-Bytes";
+    private static final int STDERR_LIMIT = 4096;
 
     @Autowired
     private OperatorRepository operatorRepository;
 
+    @Autowired
+    private SSHSessionManager sessionManager;
+
+    @Autowired
+    private SftpTransferEngine transferEngine;
+
+    @Autowired
+    private TransferBandwidthScheduler bandwidth;
+
+    @Autowired
+    private HttpDownloadExecutor downloadExecutor;
+
+    @Value("${app.ssh.archive.size-timeout-ms:5000}")
+    private long archiveSizeTimeoutMillis;
+
     @GetMapping("/download")
-    public ResponseEntity<InputStreamResource> downloadFile(
+    public ResponseEntity<StreamingResponseBody> downloadFile(
             @RequestParam String path,
-            HttpServletRequest request) {
+            @RequestHeader(value = HttpHeaders.RANGE, required = false) String rangeHeader,
+            HttpServletRequest request,
+            ServletWebRequest webRequest) {
+        // 从请求中获取 operatorId
+        String operatorId = request.getHeader("X-Operator-Id");
+        if (operatorId == null) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        // 获取 Operator 信息
+        Optional<Operator> operator = operatorRepository.findById(operatorId);
+        if (operator.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+
+        String party = TransferBandwidthScheduler.party(
+                request.getUserPrincipal() != null ? request.getUserPrincipal().getName() : null, request.getRemoteAddr());
+        SSHSessionLease lease = null;
+        PooledSftp sftp = null;
         try {
-            // 从请求中获取 operatorId
-            String operatorId = request.getHeader("X-Operator-Id");
-            if (operatorId == null) {
+            // 复用共享 SSH 会话，从通道池借出 SFTP 通道
+            lease = sessionManager.acquire(operator.get());
+            sftp = lease.borrowSftp();
+
+            SftpATTRS attrs = sftp.channel().stat(path);
+            if (attrs.isDir()) {
+                release(sftp, lease);
                 return ResponseEntity.badRequest().build();
             }
+            long size = attrs.getSize();
+            long lastModified = Integer.toUnsignedLong(attrs.getMTime()) * 1000L;
 
-            // 获取 Operator 信息
-            Operator operator = operatorRepository.findById(operatorId)
-                    .orElseThrow(() -> new RuntimeException("Operator not found: " + operatorId));
+            // If-Modified-Since 命中时返回 304，不读取文件
+            if (webRequest.checkNotModified(lastModified)) {
+                release(sftp, lease);
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED).build();
+            }
 
-            // 建立 SFTP 连接
-            JSch jsch = new JSch();
-            Session session = jsch.getSession(
-                operator.getUsername(),
-                operator.getHost(),
-                operator.getPort()
-            );
-            session.setPassword(operator.getPassword());
-            session.setConfig("StrictHostKeyChecking", "no");
-            session.connect(30000);
+            HttpHeaders headers = new HttpHeaders();
+            String filename = path.substring(path.lastIndexOf('/') + 1);
+            headers.setContentDisposition(ContentDisposition.attachment().filename(filename, StandardCharsets.UTF_8).build());
+            headers.setCacheControl("no-cache");
+            headers.set(HttpHeaders.ACCEPT_RANGES, "bytes");
+            headers.setLastModified(lastModified);
 
-            ChannelSftp sftpChannel = (ChannelSftp) session.openChannel("sftp");
-            sftpChannel.connect(3000);
+            ByteRange range = ifRangeMatches(request, lastModified)
+                    ? selectRange(rangeHeader, size) : ByteRange.whole(size);
+            if (range == null) {
+                release(sftp, lease);
+                return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+                        .header(HttpHeaders.CONTENT_RANGE, "bytes */" + size)
+                        .build();
+            }
+            long start = range.start();
+            long length = range.length();
+            HttpStatus status = HttpStatus.OK;
+            if (range.partial()) {
+                status = HttpStatus.PARTIAL_CONTENT;
+                headers.set(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + (start + length - 1) + "/" + size);
+            }
+            headers.setContentLength(length);
 
-            try {
-                // 获取文件输入流
-                InputStream inputStream = sftpChannel.get(path);
-                
-                // 获取文件名
-                String filename = path.substring(path.lastIndexOf('/') + 1);
-                
-                // 设置响应头
-                HttpHeaders headers = new HttpHeaders();
-                headers.add(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=" + filename);
-                headers.add(HttpHeaders.CACHE_CONTROL, "no-cache, no-store, must-revalidate");
-                headers.add(HttpHeaders.PRAGMA, "no-cache");
-                headers.add(HttpHeaders.EXPIRES, "0");
-
-                // 返回文件流
-                return ResponseEntity.ok()
+            release(sftp, lease);
+            sftp = null;
+            lease = null;
+            if (!downloadExecutor.begin(request)) {
+                return serviceUnavailable();
+            }
+            return ResponseEntity.status(status)
                     .headers(headers)
                     .contentType(MediaType.APPLICATION_OCTET_STREAM)
-                    .body(new InputStreamResource(inputStream));
-            } finally {
-                sftpChannel.disconnect();
-                session.disconnect();
+                    .body(new SftpRangeBody(operator.get(), party, path, start, length));
+        } catch (SftpException e) {
+            logger.warn("文件下载失败: {}, {}", path, e.getMessage());
+            release(sftp, lease);
+            if (e.id == ChannelSftp.SSH_FX_NO_SUCH_FILE) {
+                return ResponseEntity.notFound().build();
+            }
+            if (e.id == ChannelSftp.SSH_FX_PERMISSION_DENIED) {
+                return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
             }
+            return ResponseEntity.internalServerError().build();
+        } catch (JSchException e) {
+            // 多半是通道池已满或 SSH 连接失败，客户端稍后重试
+            logger.error("文件下载失败: {}", path, e);
+            release(sftp, lease);
+            return serviceUnavailable();
         } catch (Exception e) {
             logger.error("文件下载失败: {}", path, e);
+            release(sftp, lease);
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+
+    /**
+     * 把远程目录打包下载，format 为 tar.gz（默认）或 zip。打包大小事先未知，以分块传输编码返回。
+     */
+    @GetMapping("/download/archive")
+    public ResponseEntity<StreamingResponseBody> downloadArchive(
+            @RequestParam String path,
+            @RequestParam(defaultValue = FORMAT_TAR_GZ) String format,
+            HttpServletRequest request) {
+        String operatorId = request.getHeader("X-Operator-Id");
+        String directory = DirectoryListingCache.normalize(path);
+        if (operatorId == null || directory.isEmpty() || directory.equals("/") || directory.endsWith("..")
+                || !(FORMAT_TAR_GZ.equals(format) || FORMAT_ZIP.equals(format))) {
+            return ResponseEntity.badRequest().build();
+        }
+        Optional<Operator> operator = operatorRepository.findById(operatorId);
+        if (operator.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+
+        String party = TransferBandwidthScheduler.party(
+                request.getUserPrincipal() != null ? request.getUserPrincipal().getName() : null, request.getRemoteAddr());
+        SSHSessionLease lease = null;
+        PooledSftp sftp = null;
+        try {
+            lease = sessionManager.acquire(operator.get());
+            sftp = lease.borrowSftp();
+            if (!sftp.channel().stat(directory).isDir()) {
+                release(sftp, lease);
+                return ResponseEntity.badRequest().build();
+            }
+            sftp.close();
+            sftp = null;
+
+            int slash = directory.lastIndexOf('/');
+            String name = directory.substring(slash + 1);
+            HttpHeaders headers = new HttpHeaders();
+            headers.setContentDisposition(ContentDisposition.attachment()
+                    .filename(name + "." + format, StandardCharsets.UTF_8).build());
+            headers.setCacheControl("no-cache");
+            long sourceBytes = sourceBytes(lease, directory);
+            if (sourceBytes >= 0) {
+                headers.set(SOURCE_BYTES_HEADER, Long.toString(sourceBytes));
+            }
+
+            lease.close();
+            lease = null;
+
+            StreamingResponseBody body;
+            if (FORMAT_ZIP.equals(format)) {
+                body = new SftpZipBody(operator.get(), party, directory, name);
+                headers.setContentType(MediaType.parseMediaType("application/zip"));
+            } else {
+                String parent = slash > 0 ? directory.substring(0, slash) : slash == 0 ? "/" : ".";
+                body = new TarGzBody(operator.get(), party, parent, name);
+                headers.setContentType(MediaType.parseMediaType("application/gzip"));
+            }
+            if (!downloadExecutor.begin(request)) {
+                return serviceUnavailable();
+            }
+            logger.info("开始打包下载目录: {}, 格式: {}", directory, format);
+            return ResponseEntity.ok().headers(headers).body(body);
+        } catch (SftpException e) {
+            logger.warn("打包下载失败: {}, {}", directory, e.getMessage());
+            release(sftp, lease);
+            if (e.id == ChannelSftp.SSH_FX_NO_SUCH_FILE) {
+                return ResponseEntity.notFound().build();
+            }
+            if (e.id == ChannelSftp.SSH_FX_PERMISSION_DENIED) {
+                return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+            }
+            return ResponseEntity.internalServerError().build();
+        } catch (JSchException e) {
+            logger.error("打包下载失败: {}", directory, e);
+            release(sftp, lease);
+            return serviceUnavailable();
+        } catch (Exception e) {
+            logger.error("打包下载失败: {}", directory, e);
+            release(sftp, lease);
             return ResponseEntity.internalServerError().build();
         }
     }
-} 
\ No newline at end of file
+
+    /**
+     * 用 du 统计目录的原始大小，失败或超时返回 -1。
+     */
+    private long sourceBytes(SSHSessionLease lease, String directory) {
+        ChannelExec exec = null;
+        try {
+            exec = lease.openExec("du -sb -- " + quote(directory) + " 2>/dev/null");
+            InputStream in = exec.getInputStream();
+            lease.connect(exec);
+            long deadline = System.currentTimeMillis() + archiveSizeTimeoutMillis;
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] buffer = new byte[256];
+            while (System.currentTimeMillis() < deadline) {
+                while (in.available() > 0) {
+                    int n = in.read(buffer);
+                    if (n < 0) {
+                        break;
+                    }
+                    output.write(buffer, 0, n);
+                }
+                if (exec.isClosed() && in.available() == 0) {
+                    String result = output.toString(StandardCharsets.UTF_8).trim();
+                    int tab = result.indexOf('\t');
+                    return exec.getExitStatus() == 0 && tab > 0 ? Long.parseLong(result.substring(0, tab)) : -1;
+                }
+                Thread.sleep(20);
+            }
+            logger.info("统计目录大小超时: {}", directory);
+            return -1;
+        } catch (Exception e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            logger.warn("统计目录大小失败: {}", directory, e);
+            return -1;
+        } finally {
+            if (exec != null) {
+                exec.disconnect();
+            }
+        }
+    }
+
+    /**
+     * 用单引号包裹 shell 参数。
+     */
+    private static String quote(String argument) {
+        return "'" + argument.replace("'", "'\\''") + "'";
+    }
+
+    /**
+     * 选择要返回的区间。没有 Range、无法解析或请求多个区间时返回完整文件；
+     * 区间超出文件末尾（或文件为空）时返回 null，调用方应返回 416。
+     */
+    static ByteRange selectRange(String rangeHeader, long size) {
+        if (rangeHeader == null) {
+            return ByteRange.whole(size);
+        }
+        List<HttpRange> ranges;
+        try {
+            ranges = HttpRange.parseRanges(rangeHeader);
+        } catch (IllegalArgumentException e) {
+            ranges = List.of();
+        }
+        // 只支持单个区间，多区间时按完整文件返回
+        if (ranges.size() != 1) {
+            return ByteRange.whole(size);
+        }
+        HttpRange range = ranges.get(0);
+        long start;
+        long length;
+        try {
+            start = range.getRangeStart(size);
+            length = range.getRangeEnd(size) - start + 1;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (size == 0 || start >= size || length <= 0) {
+            return null;
+        }
+        return new ByteRange(start, length, true);
+    }
+
+    /**
+     * If-Range 中的日期与文件修改时间不一致时文件已变化，忽略 Range 返回完整文件。
+     */
+    static boolean ifRangeMatches(HttpServletRequest request, long lastModified) {
+        if (request.getHeader(HttpHeaders.IF_RANGE) == null) {
+            return true;
+        }
+        try {
+            return request.getDateHeader(HttpHeaders.IF_RANGE) / 1000 == lastModified / 1000;
+        } catch (IllegalArgumentException e) {
+            // ETag 形式的 If-Range，本接口不提供 ETag
+            return false;
+        }
+    }
+
+    /**
+     * 响应的字节区间，partial 为 false 时是完整文件。
+     */
+    record ByteRange(long start, long length, boolean partial) {
+        static ByteRange whole(long size) {
+            return new ByteRange(0, size, false);
+        }
+    }
+
+    private static <T> ResponseEntity<T> serviceUnavailable() {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, "1")
+                .build();
+    }
+
+    private static void release(PooledSftp sftp, SSHSessionLease lease) {
+        if (sftp != null) {
+            sftp.close();
+        }
+        if (lease != null) {
+            lease.close();
+        }
+    }
+
+    /**
+     * 在远端运行 tar 打包，标准输出原样写出。标准错误直接写入有上限的内存缓冲区，
+     * 不经过管道，避免错误输出写满时阻塞整个 SSH 会话。标准输出同样先写入暂存文件，
+     * 慢速客户端和限速等待不会让通道停止读取。
+     */
+    private class TarGzBody implements StreamingResponseBody {
+        private final Operator operator;
+        private final String party;
+        private final String parent;
+        private final String name;
+
+        TarGzBody(Operator operator, String party, String parent, String name) {
+            this.operator = operator;
+            this.party = party;
+            this.parent = parent;
+            this.name = name;
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            ChannelExec exec = null;
+            long written = 0;
+            try (SSHSessionLease lease = sessionManager.acquire(operator);
+                 Throttle throttle = bandwidth.open(party)) {
+                // 以 - 开头的目录名加上 ./，避免被当作 tar 选项
+                String member = name.startsWith("-") ? "./" + name : name;
+                exec = lease.openExec("tar -czf - -C " + quote(parent) + " " + quote(member));
+                LimitedBuffer stderr = new LimitedBuffer(STDERR_LIMIT);
+                exec.setErrStream(stderr);
+                try (InputStream in = transferEngine.decouple(exec.getInputStream())) {
+                    lease.connect(exec);
+
+                    byte[] buffer = new byte[BUFFER_SIZE];
+                    int n;
+                    while ((n = in.read(buffer)) != -1) {
+                        throttle.acquire(n);
+                        out.write(buffer, 0, n);
+                        written += n;
+                    }
+                    out.flush();
+                }
+
+                // 输出结束后通道随即关闭，等待退出码
+                for (int i = 0; i < 100 && !exec.isClosed(); i++) {
+                    Thread.sleep(10);
+                }
+                int exitStatus = exec.getExitStatus();
+                if (exitStatus == 1) {
+                    // GNU tar 在打包过程中文件发生变化时返回 1，归档仍然可用
+                    logger.warn("打包过程中文件发生变化: {}/{}, {}", parent, name, stderr);
+                } else if (exitStatus != 0) {
+                    // 响应已开始发送，只能中断传输让客户端感知失败
+                    throw new IOException("tar 退出码 " + exitStatus + ": " + stderr);
+                }
+                logger.info("打包下载完成: {}/{}, {} bytes", parent, name, written);
+            } catch (JSchException e) {
+                throw new IOException(e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            } finally {
+                if (exec != null) {
+                    exec.disconnect();
+                }
+            }
+        }
+    }
+
+    /**
+     * 通过 SFTP 深度优先遍历目录，逐个文件写入 zip。内存中只保留当前目录的列表和待遍历的目录路径。
+     * 符号链接不跟随，避免循环；无权限读取的文件跳过。
+     */
+    private class SftpZipBody implements StreamingResponseBody {
+        private final Operator operator;
+        private final String party;
+        private final String directory;
+        private final String name;
+
+        SftpZipBody(Operator operator, String party, String directory, String name) {
+            this.operator = operator;
+            this.party = party;
+            this.directory = directory;
+            this.name = name;
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            try (SSHSessionLease lease = sessionManager.acquire(operator);
+                 Throttle throttle = bandwidth.open(party)) {
+                PooledSftp sftp = lease.borrowSftp();
+                writeZip(out, lease, sftp, throttle);
+            } catch (JSchException e) {
+                throw new IOException(e);
+            }
+        }
+
+        private void writeZip(OutputStream out, SSHSessionLease lease, PooledSftp sftp, Throttle throttle)
+                throws IOException {
+            ChannelSftp channel = sftp.channel();
+            boolean readFailed = false;
+            int files = 0;
+            try {
+                ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(out, BUFFER_SIZE));
+                byte[] buffer = new byte[BUFFER_SIZE];
+                Deque<String> pending = new ArrayDeque<>();
+                pending.push("");
+                while (!pending.isEmpty()) {
+                    String relative = pending.pop();
+                    String remoteDirectory = relative.isEmpty() ? directory : directory + "/" + relative;
+                    String entryPrefix = relative.isEmpty() ? name + "/" : name + "/" + relative + "/";
+                    zip.putNextEntry(new ZipEntry(entryPrefix));
+                    zip.closeEntry();
+
+                    List<ChannelSftp.LsEntry> children = new ArrayList<>();
+                    try {
+                        channel.ls(remoteDirectory, entry -> {
+                            children.add(entry);
+                            return ChannelSftp.LsEntrySelector.CONTINUE;
+                        });
+                    } catch (SftpException e) {
+                        logger.warn("打包时无法读取目录，已跳过: {}, {}", remoteDirectory, e.getMessage());
+                        continue;
+                    }
+                    for (ChannelSftp.LsEntry child : children) {
+                        String childName = child.getFilename();
+                        if (childName.equals(".") || childName.equals("..") || child.getAttrs().isLink()) {
+                            continue;
+                        }
+                        String childRelative = relative.isEmpty() ? childName : relative + "/" + childName;
+                        if (child.getAttrs().isDir()) {
+                            pending.push(childRelative);
+                            continue;
+                        }
+                        if (!child.getAttrs().isReg()) {
+                            continue;
+                        }
+                        InputStream in;
+                        try {
+                            in = transferEngine.openRead(lease, sftp, remoteDirectory + "/" + childName, 0,
+                                    child.getAttrs().getSize());
+                        } catch (SftpException e) {
+                            logger.warn("打包时无法读取文件，已跳过: {}/{}, {}", remoteDirectory, childName, e.getMessage());
+                            continue;
+                        }
+                        try (in) {
+                            ZipEntry entry = new ZipEntry(name + "/" + childRelative);
+                            entry.setTime(Integer.toUnsignedLong(child.getAttrs().getMTime()) * 1000L);
+                            zip.putNextEntry(entry);
+                            int n;
+                            while (true) {
+                                try {
+                                    n = in.read(buffer);
+                                } catch (IOException e) {
+                                    readFailed = true;
+                                    throw e;
+                                }
+                                if (n == -1) {
+                                    break;
+                                }
+                                throttle.acquire(n);
+                                zip.write(buffer, 0, n);
+                            }
+                            zip.closeEntry();
+                            files++;
+                        }
+                    }
+                }
+                zip.finish();
+                zip.flush();
+                logger.info("打包下载完成: {}, {} 个文件", directory, files);
+            } finally {
+                if (readFailed) {
+                    sftp.invalidate();
+                } else {
+                    sftp.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * 只保留前 limit 个字节的输出流，用于收集远端命令的错误输出。
+     */
+    private static class LimitedBuffer extends ByteArrayOutputStream {
+        private final int limit;
+
+        LimitedBuffer(int limit) {
+            this.limit = limit;
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            super.write(b, off, Math.max(0, Math.min(len, limit - count)));
+        }
+
+        @Override
+        public synchronized void write(int b) {
+            if (count < limit) {
+                super.write(b);
+            }
+        }
+
+        @Override
+        public synchronized String toString() {
+            return toString(StandardCharsets.UTF_8).trim();
+        }
+    }
+
+    /**
+     * 从 offset 开始写出 length 字节，写出时借出共享会话和 SFTP 通道，写完或失败后归还。
+     */
+    private class SftpRangeBody implements StreamingResponseBody {
+        private final Operator operator;
+        private final String party;
+        private final String path;
+        private final long offset;
+        private final long length;
+
+        SftpRangeBody(Operator operator, String party, String path, long offset, long length) {
+            this.operator = operator;
+            this.party = party;
+            this.path = path;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            try (SSHSessionLease lease = sessionManager.acquire(operator);
+                 Throttle throttle = bandwidth.open(party)) {
+                writeRange(out, lease, lease.borrowSftp(), throttle);
+            } catch (JSchException e) {
+                throw new IOException(e);
+            }
+        }
+
+        private void writeRange(OutputStream out, SSHSessionLease lease, PooledSftp sftp, Throttle throttle)
+                throws IOException {
+            boolean readFailed = false;
+            try (InputStream in = transferEngine.openRead(lease, sftp, path, offset, length)) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                long remaining = length;
+                while (remaining > 0) {
+                    int n;
+                    try {
+                        n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                    } catch (IOException e) {
+                        readFailed = true;
+                        throw e;
+                    }
+                    if (n == -1) {
+                        // 文件在下载过程中被截短
+                        readFailed = true;
+                        throw new IOException("文件长度与 Content-Length 不一致: " + path);
+                    }
+                    throttle.acquire(n);
+                    out.write(buffer, 0, n);
+                    remaining -= n;
+                }
+                out.flush();
+            } catch (SftpException e) {
+                readFailed = true;
+                throw new IOException(e);
+            } finally {
+                // 客户端中断（断点续传、分段下载时常见）不影响通道，读取失败时通道状态不确定，不再放回池中
+                if (readFailed) {
+                    sftp.invalidate();
+                } else {
+                    sftp.close();
+                }
+            }
+        }
+    }
+}
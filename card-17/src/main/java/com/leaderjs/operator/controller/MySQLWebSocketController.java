@@ -1,18 +1,34 @@
 package com.leaderjs.operator.controller;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.leaderjs.operator.model.Operator;
 import com.leaderjs.operator.repository.OperatorRepository;
+import com.leaderjs.operator.service.BufferedWebSocketSession;
+import com.leaderjs.operator.service.MySQLConnectionPools;
+import com.leaderjs.operator.service.MySQLConsoleSession;
+import com.leaderjs.operator.service.MySQLQueryExecutor;
+import com.leaderjs.operator.service.MySQLQueryQueue;
+import com.leaderjs.operator.service.MySQLResultCache;
+import com.leaderjs.operator.service.MySQLResultCodec;
+import com.leaderjs.operator.service.MySQLResultStream;
+import com.leaderjs.operator.service.WebSocketSendBuffers;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.socket.*;
 import org.springframework.web.socket.handler.TextWebSocketHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.StringWriter;
 import java.sql.*;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Controller
 public class MySQLWebSocketController extends TextWebSocketHandler {
@@ -22,9 +38,49 @@ public class MySQLWebSocketController extends TextWebSocketHandler {
     @Autowired
     private OperatorRepository operatorRepository;
 
-    // 存储WebSocket会话和对应的MySQL连接
+    @Autowired
+    private WebSocketSendBuffers sendBuffers;
+
+    @Autowired
+    private MySQLConnectionPools mysqlPools;
+
+    @Autowired
+    private MySQLQueryExecutor queryExecutor;
+
+    @Autowired
+    private MySQLResultCache resultCache;
+
+    @Value("${app.mysql.query.timeout-seconds:300}")
+    private int queryTimeoutSeconds;
+
+    @Value("${app.mysql.query.max-queued:16}")
+    private int maxQueued;
+
+    @Value("${app.mysql.query.text-max-rows:1000}")
+    private int textMaxRows;
+
+    @Value("${app.mysql.stream.batch-rows:500}")
+    private int streamBatchRows;
+
+    @Value("${app.mysql.stream.batch-bytes:1048576}")
+    private long streamBatchBytes;
+
+    @Value("${app.mysql.stream.max-rows:100000}")
+    private int streamMaxRows;
+
+    @Value("${app.mysql.stream.initial-credit:2000}")
+    private long streamInitialCredit;
+
+    @Value("${app.mysql.stream.credit-timeout-ms:30000}")
+    private long streamCreditTimeoutMillis;
+
+    // 存储WebSocket会话和对应的MySQL控制台，控制台按语句从 operator 的连接池借出连接
     private final Map<String, WebSocketSession> webSocketSessions = new ConcurrentHashMap<>();
-    private final Map<String, Connection> mysqlConnections = new ConcurrentHashMap<>();
+    private final Map<String, MySQLConsoleSession> consoles = new ConcurrentHashMap<>();
+    private final Map<String, BufferedWebSocketSession> outboundSessions = new ConcurrentHashMap<>();
+    // 每个控制台的语句队列，按 WebSocket 会话 ID 索引
+    private final Map<String, MySQLQueryQueue> queues = new ConcurrentHashMap<>();
+    private final AtomicLong querySequence = new AtomicLong();
 
     private String extractConnectionId(WebSocketSession session) {
         String path = session.getUri().getPath();
@@ -46,6 +102,9 @@ public class MySQLWebSocketController extends TextWebSocketHandler {
         
         logger.info("WebSocket连接已建立，operatorId: {}", operatorId);
         webSocketSessions.put(operatorId, session);
+        // 查询结果经过有界发送缓冲区发送
+        BufferedWebSocketSession outbound = sendBuffers.wrap(session, WebSocketSendBuffers.HANDLER_MYSQL);
+        outboundSessions.put(session.getId(), outbound);
 
         // 获取Operator信息
         Optional<Operator> operatorOpt = operatorRepository.findById(operatorId);
@@ -57,106 +116,401 @@ public class MySQLWebSocketController extends TextWebSocketHandler {
         logger.info("找到Operator: {}", operator.getName());
 
         try {
-            // 建立MySQL连接
-            String url = String.format("jdbc:mysql://%s:%d?useSSL=false&allowPublicKeyRetrieval=true&serverTimezone=UTC",
-                    operator.getHost(),
-                    operator.getPort());
-            
-            Connection conn = DriverManager.getConnection(
-                url,
-                operator.getUsername(),
-                operator.getPassword()
-            );
-            
+            // 获取 operator 的连接池，首次使用时建立第一个连接
+            MySQLConsoleSession console = mysqlPools.openSession(operator);
             logger.info("MySQL连接已建立");
-            mysqlConnections.put(operatorId, conn);
+            consoles.put(session.getId(), console);
+            queues.put(session.getId(), new MySQLQueryQueue(console, queryExecutor, maxQueued,
+                    query -> sendStatus(outbound, query)));
             
             // 发送连接成功消息
             Map<String, Object> response = new HashMap<>();
             response.put("type", "connection_established");
             response.put("message", "MySQL连接已建立");
-            session.sendMessage(new TextMessage(objectMapper.writeValueAsString(response)));
+            outbound.sendMessage(new TextMessage(objectMapper.writeValueAsString(response)));
             
         } catch (Exception e) {
             logger.error("建立MySQL连接时发生错误", e);
             Map<String, Object> errorResponse = new HashMap<>();
             errorResponse.put("type", "error");
             errorResponse.put("message", "Failed to establish MySQL connection: " + e.getMessage());
-            session.sendMessage(new TextMessage(objectMapper.writeValueAsString(errorResponse)));
-            session.close(CloseStatus.SERVER_ERROR.withReason("Failed to establish MySQL connection: " + e.getMessage()));
+            outbound.sendMessage(new TextMessage(objectMapper.writeValueAsString(errorResponse)));
+            outbound.close(CloseStatus.SERVER_ERROR.withReason("Failed to establish MySQL connection: " + e.getMessage()));
         }
     }
 
     @Override
     public void handleTextMessage(WebSocketSession session, TextMessage message) throws Exception {
-        String operatorId = extractConnectionId(session);
-        Connection conn = mysqlConnections.get(operatorId);
+        MySQLConsoleSession console = consoles.get(session.getId());
+        BufferedWebSocketSession buffered = outboundSessions.get(session.getId());
+        WebSocketSession outbound = buffered != null ? buffered : session;
         
-        if (conn == null || conn.isClosed()) {
+        if (console == null) {
             throw new RuntimeException("MySQL连接未建立或已关闭");
         }
 
+        MySQLQueryQueue queue = queues.get(session.getId());
+        JsonNode control = parseControl(message.getPayload());
+        if (control != null) {
+            String id = control.path("id").asText(null);
+            switch (control.path("type").asText()) {
+                case "query" -> submitStreamingQuery(queue, console, outbound, control);
+                case "credit" -> {
+                    MySQLQueryQueue.Query running = queue.running();
+                    if (running != null && running.stream() != null && (id == null || id.equals(running.id()))) {
+                        running.stream().grant(control.path("rows").asLong());
+                    }
+                }
+                case "cancel" -> {
+                    if (id == null || !queue.cancel(id)) {
+                        sendError(outbound, id, "查询不存在或已结束: " + id);
+                    }
+                }
+                default -> sendError(outbound, id, "未知的消息类型: " + control.path("type").asText());
+            }
+            return;
+        }
+
         String sql = message.getPayload();
         logger.info("收到SQL查询: {}", sql);
+        submit(queue, outbound, "q" + querySequence.incrementAndGet(), sql, query -> {
+            // 结果在归还连接之后再发送，发送缓冲区满时不占用连接
+            Map<String, Object> response = console.execute(sql, conn -> executeStatement(conn, query));
+            response.put("id", query.id());
+            outbound.sendMessage(new TextMessage(objectMapper.writeValueAsString(response)));
+        });
+    }
 
-        try (Statement stmt = conn.createStatement()) {
-            boolean isQuery = stmt.execute(sql);
-            
-            Map<String, Object> response = new HashMap<>();
-            response.put("type", "query_result");
-            
-            if (isQuery) {
-                // 处理查询结果
-                try (ResultSet rs = stmt.getResultSet()) {
-                    ResultSetMetaData metaData = rs.getMetaData();
-                    int columnCount = metaData.getColumnCount();
-                    
-                    // 获取列名
-                    List<String> columns = new ArrayList<>();
-                    for (int i = 1; i <= columnCount; i++) {
-                        columns.add(metaData.getColumnName(i));
+    /**
+     * 以 { 开头且带有 type 字段的 JSON 对象是控制消息，其余文本按 SQL 执行。
+     */
+    private JsonNode parseControl(String payload) {
+        if (!payload.stripLeading().startsWith("{")) {
+            return null;
+        }
+        try {
+            JsonNode node = objectMapper.readTree(payload);
+            return node.isObject() && node.path("type").isTextual() ? node : null;
+        } catch (JsonProcessingException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 流式查询：{"type":"query","id":"...","sql":"...","batchSize":500,"credit":2000,"timeoutSeconds":60}。
+     * 结果依次以 result_columns、若干 result_rows 和 result_end 帧返回，客户端处理完数据行后用
+     * {"type":"credit","id":"...","rows":n} 授予新的额度，用 {"type":"cancel","id":"..."} 取消。
+     * <p>
+     * 只读语句可以带上 "cacheTtlSeconds":n 使用结果缓存，"bypassCache":true 跳过缓存重新查询并刷新缓存。
+     * 缓存的结果在 result_columns 和 result_end 帧中带有 "cached":true 和结果的存在时长 "ageMs"。
+     */
+    private void submitStreamingQuery(MySQLQueryQueue queue, MySQLConsoleSession console, WebSocketSession outbound,
+                                      JsonNode control) throws IOException {
+        String id = control.path("id").asText("q" + querySequence.incrementAndGet());
+        String sql = control.path("sql").asText("");
+        if (sql.isBlank()) {
+            sendError(outbound, id, "SQL不能为空");
+            return;
+        }
+        int batchRows = Math.min(Math.max(1, control.path("batchSize").asInt(streamBatchRows)), streamBatchRows);
+        long credit = control.path("credit").asLong(streamInitialCredit);
+        int timeout = queryTimeout(control.path("timeoutSeconds").asInt(0));
+        int cacheTtl = resultCache.ttlSeconds(control.path("cacheTtlSeconds").asInt(0));
+        boolean bypassCache = control.path("bypassCache").asBoolean(false);
+        logger.info("收到流式SQL查询: {}, {}", id, sql);
+        submit(queue, outbound, id, sql, query -> {
+            MySQLResultStream stream = new MySQLResultStream(batchRows, streamBatchBytes, streamMaxRows, credit,
+                    streamCreditTimeoutMillis);
+            query.attach(stream);
+            // 缓存键在执行时确定，前面排队的 USE 已经生效
+            MySQLResultCache.Key cacheKey = cacheTtl > 0 ? cacheKey(console, sql) : null;
+            if (cacheKey != null) {
+                if (bypassCache) {
+                    resultCache.recordBypass();
+                } else {
+                    MySQLResultCache.Entry cached = resultCache.get(cacheKey);
+                    if (cached != null) {
+                        replay(id, stream, cached, outbound);
+                        return;
                     }
-                    
-                    // 获取数据行
-                    List<List<Object>> rows = new ArrayList<>();
-                    while (rs.next()) {
-                        List<Object> row = new ArrayList<>();
-                        for (int i = 1; i <= columnCount; i++) {
-                            row.add(rs.getObject(i));
+                }
+            }
+            MySQLResultCache.Recorder recorder = cacheKey != null ? resultCache.recorder(cacheKey, cacheTtl) : null;
+            console.execute(sql, conn -> {
+                streamStatement(conn, query, stream, timeout, recorder, outbound);
+                return null;
+            });
+        });
+    }
+
+    /**
+     * 只读语句且控制台没有固定连接时才使用缓存，否则返回 null。
+     */
+    private MySQLResultCache.Key cacheKey(MySQLConsoleSession console, String sql) {
+        if (!MySQLConsoleSession.isReadOnly(sql) || console.isPinned()) {
+            return null;
+        }
+        return MySQLResultCache.Key.of(console.operatorId(), console.catalog(), sql);
+    }
+
+    /**
+     * 发送缓存的结果，同样按客户端的接收额度发送。
+     */
+    private void replay(String id, MySQLResultStream stream, MySQLResultCache.Entry cached, WebSocketSession outbound)
+            throws IOException {
+        long ageMillis = cached.ageMillis();
+        Map<String, Object> columns = columnsFrame(id, cached.names(), cached.types(), cached.tags());
+        columns.put("cached", true);
+        columns.put("ageMs", ageMillis);
+        outbound.sendMessage(new TextMessage(objectMapper.writeValueAsString(columns)));
+        for (int i = 0; i < cached.batches().size(); i++) {
+            int count = cached.counts().get(i);
+            stream.acquire(count);
+            outbound.sendMessage(new TextMessage(rowsFrame(id, count, cached.batches().get(i))));
+        }
+        Map<String, Object> end = endFrame(id, cached.rowCount(), cached.truncated());
+        end.put("cached", true);
+        end.put("ageMs", ageMillis);
+        outbound.sendMessage(new TextMessage(objectMapper.writeValueAsString(end)));
+    }
+
+    /**
+     * 语句入队，失败时向客户端发送带查询 ID 的错误消息，状态帧由队列的监听器发送。
+     */
+    private void submit(MySQLQueryQueue queue, WebSocketSession outbound, String id, String sql,
+                        MySQLQueryQueue.Task task) throws IOException {
+        MySQLQueryQueue.Query query = queue.submit(id, sql, running -> {
+            try {
+                task.run(running);
+            } catch (Exception e) {
+                logger.error("执行SQL查询时发生错误: {}", running.id(), e);
+                try {
+                    sendError(outbound, running.id(), "Failed to execute SQL query: " + e.getMessage());
+                } catch (IOException ex) {
+                    logger.debug("发送错误消息失败", ex);
+                }
+                throw e;
+            }
+        });
+        if (query == null) {
+            sendError(outbound, id, "排队的SQL语句过多，请等待前面的语句执行完成");
+        }
+    }
+
+    /**
+     * 客户端指定的超时不超过配置的上限，未指定时使用上限。
+     */
+    private int queryTimeout(int requested) {
+        if (queryTimeoutSeconds <= 0) {
+            return Math.max(0, requested);
+        }
+        return requested > 0 ? Math.min(requested, queryTimeoutSeconds) : queryTimeoutSeconds;
+    }
+
+    private void sendStatus(WebSocketSession outbound, MySQLQueryQueue.Query query) {
+        Map<String, Object> frame = new HashMap<>();
+        frame.put("type", "query_status");
+        frame.put("id", query.id());
+        frame.put("state", query.state().name().toLowerCase(Locale.ROOT));
+        frame.put("queuedMs", query.queuedMillis());
+        frame.put("runMs", query.runMillis());
+        if (query.error() != null) {
+            frame.put("error", query.error());
+        }
+        try {
+            outbound.sendMessage(new TextMessage(objectMapper.writeValueAsString(frame)));
+        } catch (IOException e) {
+            logger.debug("发送查询状态失败: {}", query.id(), e);
+        }
+    }
+
+    private void streamStatement(Connection conn, MySQLQueryQueue.Query query, MySQLResultStream stream, int timeout,
+                                 MySQLResultCache.Recorder recorder, WebSocketSession outbound)
+            throws SQLException, IOException {
+        String id = query.id();
+        try (Statement stmt = stream.createStatement(conn)) {
+            stmt.setQueryTimeout(timeout);
+            query.attach(stmt);
+            try {
+                if (!stmt.execute(query.sql())) {
+                    Map<String, Object> response = new HashMap<>();
+                    response.put("type", "query_result");
+                    response.put("id", id);
+                    response.put("affected_rows", stmt.getUpdateCount());
+                    outbound.sendMessage(new TextMessage(objectMapper.writeValueAsString(response)));
+                    return;
+                }
+                try (ResultSet rs = stmt.getResultSet()) {
+                    stream.stream(rs, new MySQLResultStream.Sink() {
+                        @Override
+                        public void columns(MySQLResultCodec codec) throws IOException {
+                            Map<String, Object> frame = columnsFrame(id, codec.names(), codec.types(), codec.tags());
+                            outbound.sendMessage(new TextMessage(objectMapper.writeValueAsString(frame)));
+                            if (recorder != null) {
+                                recorder.columns(codec);
+                            }
+                        }
+
+                        @Override
+                        public void rows(MySQLResultCodec.Batch batch) throws IOException {
+                            String data = encodeData(batch);
+                            outbound.sendMessage(new TextMessage(rowsFrame(id, batch.size(), data)));
+                            if (recorder != null) {
+                                recorder.rows(batch.size(), data);
+                            }
                         }
-                        rows.add(row);
+
+                        @Override
+                        public void end(long rowCount, boolean truncated) throws IOException {
+                            Map<String, Object> frame = endFrame(id, rowCount, truncated);
+                            outbound.sendMessage(new TextMessage(objectMapper.writeValueAsString(frame)));
+                            if (recorder != null) {
+                                recorder.end(rowCount, truncated);
+                            }
+                        }
+                    });
+                }
+            } finally {
+                // 连接归还之前解除登记，取消不会落到连接的下一个使用者上
+                query.detach();
+            }
+        }
+    }
+
+    /**
+     * 直接发送 SQL 文本时一次性返回整个结果，同样逐行读取。结果整体放在内存中，
+     * 超过 app.mysql.query.text-max-rows 的部分截断并标记 truncated，大结果应使用流式查询。
+     */
+    private Map<String, Object> executeStatement(Connection conn, MySQLQueryQueue.Query query)
+            throws SQLException, IOException {
+        MySQLResultStream stream = new MySQLResultStream(streamBatchRows, streamBatchBytes,
+                Math.min(textMaxRows, streamMaxRows), Long.MAX_VALUE, streamCreditTimeoutMillis);
+        query.attach(stream);
+        try (Statement stmt = stream.createStatement(conn)) {
+            stmt.setQueryTimeout(queryTimeout(0));
+            query.attach(stmt);
+            try {
+                boolean isQuery = stmt.execute(query.sql());
+
+                Map<String, Object> response = new HashMap<>();
+                response.put("type", "query_result");
+
+                if (isQuery) {
+                    // 处理查询结果
+                    try (ResultSet rs = stmt.getResultSet()) {
+                        List<List<Object>> rows = new ArrayList<>();
+                        stream.stream(rs, new MySQLResultStream.Sink() {
+                            @Override
+                            public void columns(MySQLResultCodec codec) {
+                                response.put("columns", codec.names());
+                                response.put("tags", codec.tags());
+                            }
+
+                            @Override
+                            public void rows(MySQLResultCodec.Batch batch) {
+                                rows.addAll(batch.toRows());
+                            }
+
+                            @Override
+                            public void end(long rowCount, boolean truncated) {
+                                if (truncated) {
+                                    response.put("truncated", true);
+                                }
+                            }
+                        });
+                        response.put("rows", rows);
                     }
-                    
-                    response.put("columns", columns);
-                    response.put("rows", rows);
+                } else {
+                    // 处理更新操作
+                    int affectedRows = stmt.getUpdateCount();
+                    response.put("affected_rows", affectedRows);
                 }
-            } else {
-                // 处理更新操作
-                int affectedRows = stmt.getUpdateCount();
-                response.put("affected_rows", affectedRows);
+                return response;
+            } finally {
+                query.detach();
             }
-            
-            session.sendMessage(new TextMessage(objectMapper.writeValueAsString(response)));
-            
-        } catch (Exception e) {
-            logger.error("执行SQL查询时发生错误", e);
-            Map<String, Object> errorResponse = new HashMap<>();
-            errorResponse.put("type", "error");
-            errorResponse.put("message", "Failed to execute SQL query: " + e.getMessage());
-            session.sendMessage(new TextMessage(objectMapper.writeValueAsString(errorResponse)));
         }
     }
 
+    private Map<String, Object> columnsFrame(String id, List<String> names, List<String> types, List<String> tags) {
+        Map<String, Object> frame = new HashMap<>();
+        frame.put("type", "result_columns");
+        frame.put("id", id);
+        frame.put("columns", names);
+        frame.put("types", types);
+        frame.put("tags", tags);
+        return frame;
+    }
+
+    private Map<String, Object> endFrame(String id, long rowCount, boolean truncated) {
+        Map<String, Object> frame = new HashMap<>();
+        frame.put("type", "result_end");
+        frame.put("id", id);
+        frame.put("rowCount", rowCount);
+        frame.put("truncated", truncated);
+        return frame;
+    }
+
+    /**
+     * 按列编码一批数据：[[第 1 列...], [第 2 列...]]，值直接写入 JsonGenerator，不经过中间的 Map 和装箱对象。
+     */
+    private String encodeData(MySQLResultCodec.Batch batch) throws IOException {
+        StringWriter writer = new StringWriter((int) Math.min(batch.bytes() + 16, Integer.MAX_VALUE));
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(writer)) {
+            batch.writeColumns(generator);
+        }
+        return writer.toString();
+    }
+
+    /**
+     * 数据行帧：{"type":"result_rows","id":"...","count":n,"data":[[第 1 列...], [第 2 列...]]}。
+     */
+    private String rowsFrame(String id, int count, String data) throws IOException {
+        StringWriter writer = new StringWriter(data.length() + 64);
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(writer)) {
+            generator.writeStartObject();
+            generator.writeStringField("type", "result_rows");
+            generator.writeStringField("id", id);
+            generator.writeNumberField("count", count);
+            generator.writeFieldName("data");
+            generator.writeRawValue(data);
+            generator.writeEndObject();
+        }
+        return writer.toString();
+    }
+
+    private void sendError(WebSocketSession outbound, String id, String message) throws IOException {
+        Map<String, Object> errorResponse = new HashMap<>();
+        errorResponse.put("type", "error");
+        if (id != null) {
+            errorResponse.put("id", id);
+        }
+        errorResponse.put("message", message);
+        outbound.sendMessage(new TextMessage(objectMapper.writeValueAsString(errorResponse)));
+    }
+
     @Override
     public void afterConnectionClosed(WebSocketSession session, CloseStatus status) throws Exception {
         String connectionId = extractConnectionId(session);
         logger.info("WebSocket连接已关闭，connectionId: {}, status: {}", connectionId, status);
+
+        // 释放发送缓冲区
+        BufferedWebSocketSession outbound = outboundSessions.remove(session.getId());
+        if (outbound != null) {
+            outbound.release();
+        }
         
-        // 关闭MySQL连接
-        Connection conn = mysqlConnections.remove(connectionId);
-        if (conn != null && !conn.isClosed()) {
-            conn.close();
-            logger.info("MySQL连接已关闭");
+        // 取消排队和执行中的语句，执行线程随后归还连接
+        MySQLQueryQueue queue = queues.remove(session.getId());
+        if (queue != null) {
+            queue.close();
+        }
+
+        // 关闭MySQL控制台，固定在控制台上的连接回滚或断开
+        MySQLConsoleSession console = consoles.remove(session.getId());
+        if (console != null) {
+            console.close();
+            logger.info("MySQL控制台已关闭");
         }
         
         webSocketSessions.remove(connectionId);
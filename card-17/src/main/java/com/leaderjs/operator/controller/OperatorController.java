@@ -2,6 +2,9 @@ package com.leaderjs.operator.controller;
 
 import com.leaderjs.operator.model.Operator;
 import com.leaderjs.operator.repository.OperatorRepository;
+import com.leaderjs.operator.service.MySQLConnectionPools;
+import com.leaderjs.operator.service.MySQLResultCache;
+import com.leaderjs.operator.service.SSHSessionManager;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
@@ -17,6 +20,15 @@ public class OperatorController {
     @Autowired
     private OperatorRepository operatorRepository;
 
+    @Autowired
+    private SSHSessionManager sessionManager;
+
+    @Autowired
+    private MySQLConnectionPools mysqlPools;
+
+    @Autowired
+    private MySQLResultCache mysqlResultCache;
+
     // 获取所有operators
     @GetMapping("/operators")
     public List<Operator> getAllOperators(
@@ -74,7 +86,10 @@ public class OperatorController {
                     existingOperator.setProject(operatorDetails.getProject());
                     existingOperator.setLogo(operatorDetails.getLogo());
                     existingOperator.setUrl(operatorDetails.getUrl());
-                    return ResponseEntity.ok(operatorRepository.save(existingOperator));
+                    Operator saved = operatorRepository.save(existingOperator);
+                    // 缓存的查询结果可能来自修改前的连接信息
+                    mysqlResultCache.invalidate(id);
+                    return ResponseEntity.ok(saved);
                 })
                 .orElse(ResponseEntity.notFound().build());
     }
@@ -85,6 +100,11 @@ public class OperatorController {
         return operatorRepository.findById(id)
                 .map(operator -> {
                     operatorRepository.delete(operator);
+                    // 关闭该 operator 的共享SSH会话
+                    sessionManager.closeSessions(id);
+                    // 关闭该 operator 的MySQL连接池，清除缓存的查询结果
+                    mysqlPools.closePool(id);
+                    mysqlResultCache.invalidate(id);
                     return ResponseEntity.ok().build();
                 })
                 .orElse(ResponseEntity.notFound().build());
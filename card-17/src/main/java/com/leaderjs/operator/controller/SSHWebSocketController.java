@@ -1,30 +1,53 @@
 package com.leaderjs.operator.controller;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.jcraft.jsch.Channel;
 import com.jcraft.jsch.ChannelSftp;
-import com.jcraft.jsch.JSch;
-import com.jcraft.jsch.Session;
 import com.jcraft.jsch.SftpATTRS;
+import com.jcraft.jsch.SftpException;
 import com.jcraft.jsch.ChannelShell;
 import com.leaderjs.operator.model.Operator;
 import com.leaderjs.operator.repository.OperatorRepository;
+import com.leaderjs.operator.service.BinaryDownload;
+import com.leaderjs.operator.service.BufferedWebSocketSession;
+import com.leaderjs.operator.service.DirectoryListingCache;
+import com.leaderjs.operator.service.PagedListing;
+import com.leaderjs.operator.service.RemoteEntry;
+import com.leaderjs.operator.service.ResumableUpload;
+import com.leaderjs.operator.service.ResumableUploadRegistry;
+import com.leaderjs.operator.service.SSHSessionManager;
+import com.leaderjs.operator.service.SSHSessionManager.PooledSftp;
+import com.leaderjs.operator.service.SSHSessionManager.SSHSessionLease;
+import com.leaderjs.operator.service.SSHTransferExecutor;
+import com.leaderjs.operator.service.SftpTransferEngine;
+import com.leaderjs.operator.service.TerminalSession;
+import com.leaderjs.operator.service.TerminalProtocol;
+import com.leaderjs.operator.service.TerminalSessionRegistry;
+import com.leaderjs.operator.service.TransferBandwidthScheduler;
+import com.leaderjs.operator.service.TransferBandwidthScheduler.Throttle;
+import com.leaderjs.operator.service.WebSocketSendBuffers;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Controller;
+import org.springframework.util.MultiValueMap;
 import org.springframework.web.socket.*;
 import org.springframework.web.socket.handler.TextWebSocketHandler;
+import org.springframework.web.util.UriComponentsBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.Base64;
 import java.util.HashMap;
 import java.util.List;
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.Arrays;
 
 @Controller
@@ -32,31 +55,73 @@ public class SSHWebSocketController extends TextWebSocketHandler {
     private static final Logger logger = LoggerFactory.getLogger(SSHWebSocketController.class);
     private final ObjectMapper objectMapper = new ObjectMapper();
 
+    private static final String MODE_BINARY = "binary";
+    // 只用于传输文件的附加连接，不打开终端，可与终端连接并行发送上传数据块
+    private static final String MODE_TRANSFER = "transfer";
+    private static final String UPLOAD_OWNER_ATTRIBUTE = "ssh.uploadOwner";
+    // 可续传数据块帧头：8 字节上传ID + 8 字节偏移量，均为大端序
+    private static final int UPLOAD_CHUNK_HEADER_SIZE = 16;
+    private static final String BINARY_MODE_ATTRIBUTE = "ssh.binaryMode";
+    private static final String UPLOAD_MODE_BUFFERED = "buffered";
+
     @Autowired
     private OperatorRepository operatorRepository;
 
-    // 存储WebSocket会话和对应的SSH会话
+    private final SSHSessionManager sessionManager;
+    private final TerminalSessionRegistry terminalRegistry;
+    private final WebSocketSendBuffers sendBuffers;
+    private final SSHTransferExecutor transferExecutor;
+    private final ResumableUploadRegistry resumableUploads;
+    private final DirectoryListingCache listingCache;
+    private final SftpTransferEngine transferEngine;
+    private final TransferBandwidthScheduler bandwidth;
+
+    // 存储WebSocket会话和对应的SSH会话，按 WebSocket 会话ID索引，同一 operator 的多个标签页互不干扰
     private final Map<String, WebSocketSession> webSocketSessions = new ConcurrentHashMap<>();
-    private final Map<String, Session> sshSessions = new ConcurrentHashMap<>();
-    private final Map<String, Channel> sshChannels = new ConcurrentHashMap<>();
-    private final Map<String, ChannelSftp> sftpChannels = new ConcurrentHashMap<>();
+    private final Map<String, TerminalSession> terminals = new ConcurrentHashMap<>();
+    // 进行中的上传借出的 SFTP 通道，上传结束时归还到通道池
+    private final Map<String, PooledSftp> uploadChannels = new ConcurrentHashMap<>();
     private final Map<String, FileUploadState> fileUploadStates = new ConcurrentHashMap<>();
+    private final Map<String, BufferedWebSocketSession> outboundSessions = new ConcurrentHashMap<>();
+    // 进行中的二进制下载，键为 WebSocket 会话ID + ":" + downloadId
+    private final Map<String, BinaryDownload> downloads = new ConcurrentHashMap<>();
+    private final AtomicInteger downloadSequence = new AtomicInteger();
+    // 每个连接当前的分页目录列表，新的分页请求取消上一个
+    private final Map<String, PagedListing> pagedListings = new ConcurrentHashMap<>();
 
-    private String bytesToHex(byte[] bytes, int length) {
-        StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < length; i++) {
-            sb.append(String.format("%02X ", bytes[i]));
-        }
-        return sb.toString();
-    }
+    @Value("${app.ssh.download.chunk-bytes:65536}")
+    private int downloadChunkBytes;
 
-    private String bytesToHex(byte[] bytes) {
-        return bytesToHex(bytes, bytes.length);
-    }
+    @Value("${app.ssh.download.window-bytes:524288}")
+    private long downloadWindowBytes;
+
+    @Value("${app.ssh.download.ack-timeout-ms:60000}")
+    private long downloadAckTimeoutMillis;
+
+    @Value("${app.ssh.listing.max-page-size:1000}")
+    private int listingMaxPageSize;
+
+    @Value("${app.ssh.listing.max-entries:500000}")
+    private int listingMaxEntries;
+
+    @Value("${app.ssh.listing.page-timeout-ms:60000}")
+    private long listingPageTimeoutMillis;
 
     @Autowired
-    public SSHWebSocketController(OperatorRepository operatorRepository) {
+    public SSHWebSocketController(OperatorRepository operatorRepository, SSHSessionManager sessionManager,
+                                  TerminalSessionRegistry terminalRegistry, WebSocketSendBuffers sendBuffers,
+                                  SSHTransferExecutor transferExecutor, ResumableUploadRegistry resumableUploads,
+                                  DirectoryListingCache listingCache, SftpTransferEngine transferEngine,
+                                  TransferBandwidthScheduler bandwidth) {
         this.operatorRepository = operatorRepository;
+        this.sessionManager = sessionManager;
+        this.terminalRegistry = terminalRegistry;
+        this.sendBuffers = sendBuffers;
+        this.transferExecutor = transferExecutor;
+        this.resumableUploads = resumableUploads;
+        this.listingCache = listingCache;
+        this.transferEngine = transferEngine;
+        this.bandwidth = bandwidth;
     }
 
     @Override
@@ -64,249 +129,484 @@ public class SSHWebSocketController extends TextWebSocketHandler {
         String operatorId = extractOperatorId(session);
         logger.info("WebSocket连接已建立，operatorId: {}", operatorId);
         
-        webSocketSessions.put(operatorId, session);
+        webSocketSessions.put(session.getId(), session);
+        // 所有发送都经过有界发送缓冲区，慢客户端不会阻塞输出泵
+        BufferedWebSocketSession outbound = sendBuffers.wrap(session, WebSocketSendBuffers.HANDLER_SSH);
+        outboundSessions.put(session.getId(), outbound);
+
+        // ?mode=binary 时终端输出以 BinaryMessage 发送原始字节，xterm.js 可直接消费
+        MultiValueMap<String, String> query = UriComponentsBuilder.fromUri(session.getUri()).build().getQueryParams();
+        boolean binaryMode = MODE_BINARY.equals(query.getFirst("mode"));
+        session.getAttributes().put(BINARY_MODE_ATTRIBUTE, binaryMode);
+        session.getAttributes().put(UPLOAD_OWNER_ATTRIBUTE, operatorId + "@" + principalName(session));
+
+        if (MODE_TRANSFER.equals(query.getFirst("mode"))) {
+            logger.info("文件传输连接已建立，operatorId: {}", operatorId);
+            return;
+        }
+
+        // 携带恢复令牌时重新绑定到脱离中的终端，回放缓冲的输出后继续实时输出
+        String resumeToken = query.getFirst("resume");
+        if (resumeToken != null) {
+            TerminalSession terminal = terminalRegistry.resume(resumeToken, operatorId, principalName(session));
+            if (terminal != null) {
+                terminals.put(session.getId(), terminal);
+                sendTerminalInfo(outbound, terminal, true);
+                terminal.attach(outbound, binaryMode);
+                return;
+            }
+            logger.info("恢复令牌无效或已过期，新建终端: {}", resumeToken);
+        }
 
         // 获取Operator信息
         Operator operator = operatorRepository.findById(operatorId)
                 .orElseThrow(() -> new RuntimeException("Operator not found: " + operatorId));
         logger.info("找到Operator: {}", operator.getName());
 
+        SSHSessionLease lease = null;
         try {
-            // // 建立SSH连接
-            // JSch jsch = new JSch();
-            // Session sshSession = jsch.getSession(
-            //     operator.getUsername(),
-            //     operator.getHost(),
-            //     operator.getPort()
-            // );
-            // sshSession.setPassword(operator.getPassword());
-            // sshSession.setConfig("StrictHostKeyChecking", "no");
-            // // 设置终端类型为 xterm
-            // sshSession.setConfig("TerminalType", "xterm");
-            // logger.info("正在连接SSH服务器: {}:{}", operator.getHost(), operator.getPort());
-            // sshSession.connect(30000); // 30秒超时
-            // logger.info("SSH连接已建立");
-
-            // // 打开SSH通道
-            // Channel channel = sshSession.openChannel("shell");
-            // // 设置通道的终端类型
-            // ChannelShell shell = (ChannelShell) channel;
-            // shell.setPty(true); // ✅ 必须启用伪终端
-            // shell.setPtyType("xterm"); // ✅ 使用现代终端类型
-            // // 关键：告诉远程服务器终端语言环境使用 UTF-8
-            // shell.setEnv("LANG", "en_US.UTF-8");
-            // shell.setEnv("LC_ALL", "en_US.UTF-8");
-            // shell.setEnv("TERM", "xterm");
-            // channel.connect(3000);
-            // logger.info("SSH通道已打开");
-
-
-            // // 存储SSH会话和通道
-            // sshSessions.put(operatorId, sshSession);
-            // sshChannels.put(operatorId, channel);
-
-            JSch jsch = new JSch();
-            Session sshSession = jsch.getSession(operator.getUsername(), operator.getHost(), operator.getPort());
-            sshSession.setPassword(operator.getPassword());
-            sshSession.setConfig("StrictHostKeyChecking", "no");
-            
-            logger.info("正在连接SSH服务器: {}:{}", operator.getHost(), operator.getPort());
-            sshSession.connect(30000); // 30秒超时
-            logger.info("SSH连接已建立");
-            
-            // 打开 shell 通道
-            // ChannelShell shell = (ChannelShell) sshSession.openChannel("shell");
+            // 复用 operator 的共享 SSH 会话，只有首次连接才进行完整握手
+            lease = sessionManager.acquire(operator);
+
             // 打开SSH通道
-            Channel channel = sshSession.openChannel("shell");
+            ChannelShell shell = lease.openShell();
             // 设置通道的终端类型
-            ChannelShell shell = (ChannelShell) channel;
             shell.setPty(true);                 // 必须开启伪终端
             shell.setPtyType("xterm");         // 模拟 xterm 终端
             shell.setEnv("LANG", "en_US.UTF-8");
             shell.setEnv("LC_ALL", "en_US.UTF-8");
-            // shell.setEnv("TERM", "xterm");
             
-            shell.connect(3000);
+            lease.connect(shell);
             logger.info("SSH通道已打开");
             
-            // 存储 session & shell
-            sshSessions.put(operatorId, sshSession);
-            sshChannels.put(operatorId, shell);
-            
-
+            // 登记终端，绑定当前连接后启动输出泵
+            TerminalSession terminal = terminalRegistry.open(operatorId, principalName(session), lease, shell);
+            lease = null;
+            terminals.put(session.getId(), terminal);
+            sendTerminalInfo(outbound, terminal, false);
+            terminal.attach(outbound, binaryMode);
 
-
-            // 启动线程读取SSH输出
-            new Thread(() -> {
-                try {
-                    InputStream in = channel.getInputStream();
-                    byte[] buffer = new byte[1024];
-                    int i;
-                    while ((i = in.read(buffer)) != -1) {
-                        // String output = new String(buffer, 0, i);
-                        String output = new String(buffer, 0, i, StandardCharsets.UTF_8);
-
-                        logger.debug("SSH输出: {}", output);
-                        logger.debug("SSH回显/输出: {}", output);
-                        logger.debug("SSH回显/输出 (hex): {}", bytesToHex(buffer, i));
-                        session.sendMessage(new TextMessage(output));
-                    }
-                } catch (Exception e) {
-                    logger.error("读取SSH输出时发生错误", e);
-                }
-            }).start();
+            if (!terminalRegistry.start(terminal)) {
+                terminals.remove(session.getId());
+                terminalRegistry.terminate(terminal);
+                session.close(CloseStatus.SERVICE_OVERLOAD.withReason("Too many open terminals"));
+            }
         } catch (Exception e) {
             logger.error("建立SSH连接时发生错误", e);
+            if (lease != null) {
+                lease.close();
+            }
             session.close(CloseStatus.SERVER_ERROR.withReason("Failed to establish SSH connection: " + e.getMessage()));
         }
     }
 
     @Override
     protected void handleTextMessage(WebSocketSession session, TextMessage message) throws Exception {
-        String operatorId = extractOperatorId(session);
         String payload = message.getPayload();
-        logger.debug("收到WebSocket消息，operatorId: {}, message: {}", operatorId, payload);
-        logger.debug("收到WebSocket输入: {}", payload);
-        logger.debug("收到WebSocket输入 (hex): {}", bytesToHex(payload.getBytes(StandardCharsets.UTF_8)));
+        // 终端输入走快速路径，只比较首字符，不做 JSON 解析
+        if (!TerminalProtocol.isControl(payload)) {
+            writeInput(session, payload);
+            return;
+        }
 
+        TerminalProtocol.Control control;
         try {
-            // 尝试解析JSON消息
-            Map<String, Object> jsonMessage = objectMapper.readValue(payload, Map.class);
-            String type = (String) jsonMessage.get("type");
-
-            if ("file_upload_start".equals(type)) {
-                handleFileUploadStart(operatorId, jsonMessage);
-            } else if ("file_upload_end".equals(type)) {
-                handleFileUploadEnd(operatorId, jsonMessage);
-            } else if ("file_download".equals(type)) {
-                handleFileDownload(operatorId, jsonMessage, session);
-            } else if ("list_files".equals(type)) {
-                handleListFiles(operatorId, jsonMessage, session);
-            }
-        } catch (Exception e) {
-            // 如果不是JSON消息，则作为普通SSH命令处理
-            Channel channel = sshChannels.get(operatorId);
-            if (channel != null && channel.isConnected()) {
-                OutputStream out = channel.getOutputStream();
-                byte[] inputBytes = payload.getBytes(StandardCharsets.UTF_8);
-                out.write(inputBytes);
-                out.flush();
-                // 使用 UTF-8 编码发送数据
-                // out.write(payload.getBytes(StandardCharsets.UTF_8));
-                // out.flush();
-                logger.debug("已发送到SSH通道: {}", payload);
-                logger.debug("已发送到SSH通道 (hex): {}", bytesToHex(inputBytes));
-                logger.debug("消息已发送到SSH通道: {}", payload);
-
-                // 如果是 cd 命令，同步更新 SFTP 通道的工作目录
-                if (payload.trim().startsWith("cd ")) {
-                    String newPath = payload.trim().substring(3).trim();
-                    ChannelSftp sftpChannel = sftpChannels.get(operatorId);
-                    if (sftpChannel != null && sftpChannel.isConnected()) {
-                        try {
-                            sftpChannel.cd(newPath);
-                            logger.info("SFTP通道工作目录已更新为: {}", newPath);
-                        } catch (Exception ex) {
-                            logger.error("更新SFTP通道工作目录失败", ex);
-                        }
-                    }
-                }
+            control = TerminalProtocol.decode(payload);
+        } catch (IOException e) {
+            // 引导字符后不是有效的 JSON，仍作为终端输入
+            writeInput(session, payload);
+            return;
+        }
+
+        WebSocketSession outbound = outbound(session);
+        if (control instanceof TerminalProtocol.FileUploadStart start) {
+            handleFileUploadStart(session.getId(), start);
+        } else if (control instanceof TerminalProtocol.FileUploadEnd end) {
+            handleFileUploadEnd(session, end, outbound);
+        } else if (control instanceof TerminalProtocol.FileDownload download) {
+            if (MODE_BINARY.equals(download.mode()) && !isBinaryMode(session)) {
+                handleBinaryDownload(session.getId(), download, outbound);
             } else {
-                logger.warn("SSH通道未连接或不存在");
+                handleFileDownload(session.getId(), download, outbound);
+            }
+        } else if (control instanceof TerminalProtocol.FileDownloadAck ack) {
+            BinaryDownload binaryDownload = downloads.get(session.getId() + ":" + ack.downloadId());
+            if (binaryDownload != null) {
+                binaryDownload.ack(ack.received());
+            }
+        } else if (control instanceof TerminalProtocol.FileDownloadCancel cancel) {
+            BinaryDownload binaryDownload = downloads.get(session.getId() + ":" + cancel.downloadId());
+            if (binaryDownload != null) {
+                binaryDownload.cancel();
             }
+        } else if (control instanceof TerminalProtocol.UploadOpen open) {
+            handleUploadOpen(session, open, outbound);
+        } else if (control instanceof TerminalProtocol.UploadStatus status) {
+            ResumableUpload upload = findUpload(session, status.uploadId(), outbound);
+            if (upload != null) {
+                outbound.sendMessage(TerminalProtocol.control(objectMapper.writeValueAsString(upload.status())));
+            }
+        } else if (control instanceof TerminalProtocol.UploadCommit commit) {
+            handleUploadCommit(session, commit, outbound);
+        } else if (control instanceof TerminalProtocol.UploadAbort abort) {
+            ResumableUpload upload = findUpload(session, abort.uploadId(), outbound);
+            if (upload != null) {
+                resumableUploads.remove(upload);
+            }
+        } else if (control instanceof TerminalProtocol.ListFiles listFiles) {
+            handleListFiles(session, listFiles, outbound);
+        } else if (control instanceof TerminalProtocol.Resize resize) {
+            handleResize(session.getId(), resize);
         }
     }
 
+    private void writeInput(WebSocketSession session, String payload) throws IOException {
+        // 原始输入需要排查时通过 actuator 的 terminaltrace 端点按终端开启跟踪
+        TerminalSession terminal = terminals.get(session.getId());
+        if (terminal == null || !terminal.getShell().isConnected()) {
+            logger.warn("SSH通道未连接或不存在");
+            return;
+        }
+        byte[] inputBytes = payload.getBytes(StandardCharsets.UTF_8);
+        terminal.writeInput(inputBytes, 0, inputBytes.length);
+    }
+
     @Override
     protected void handleBinaryMessage(WebSocketSession session, BinaryMessage message) {
-        String operatorId = extractOperatorId(session);
-        FileUploadState uploadState = fileUploadStates.get(operatorId);
+        String sessionId = session.getId();
+        if (writeUploadChunk(session, message.getPayload())) {
+            return;
+        }
+        FileUploadState uploadState = fileUploadStates.get(sessionId);
+
+        // 二进制模式下，上传之外的二进制帧是终端输入，原样写入SSH通道
+        if (uploadState == null && isBinaryMode(session)) {
+            writeToChannel(sessionId, message.getPayload());
+            return;
+        }
         
         if (uploadState != null) {
-            ChannelSftp sftpChannel = sftpChannels.get(operatorId);
-            if (sftpChannel != null && sftpChannel.isConnected()) {
-                try {
-                    // 将文件数据写入临时文件
-                    uploadState.writeChunk(message.getPayload().array());
-                } catch (IOException e) {
-                    logger.error("写入文件数据失败", e);
-                }
+            PooledSftp sftp = uploadChannels.get(sessionId);
+            if (sftp != null && sftp.channel().isConnected()) {
+                uploadState.writeChunk(message.getPayload());
             }
         }
     }
 
-    private void handleFileUploadStart(String operatorId, Map<String, Object> message) {
-        String filename = (String) message.get("filename");
-        long size = ((Number) message.get("size")).longValue();
-        String directory = (String) message.get("directory");
+    private void handleFileUploadStart(String sessionId, TerminalProtocol.FileUploadStart message) {
+        String filename = message.filename();
+        long size = message.size();
+        String directory = message.directory();
         
+        FileUploadState uploadState = null;
+        PooledSftp sftp = null;
         try {
-            // 在开始上传时创建 SFTP 通道
-            Session sshSession = sshSessions.get(operatorId);
-            if (sshSession != null && sshSession.isConnected()) {
-                // 创建 SFTP 通道
-                ChannelSftp sftpChannel = (ChannelSftp) sshSession.openChannel("sftp");
-                sftpChannel.connect(3000);
-                logger.info("SFTP通道已打开");
-                
-                try {
-                    // 切换到指定目录
-                    sftpChannel.cd(directory);
-                    logger.info("SFTP已切换到目录: {}", directory);
-                } catch (Exception e) {
-                    logger.warn("无法切换到目录 {}，使用默认目录 /root", directory);
-                    sftpChannel.cd("/root");
+            // 在开始上传时从通道池借出 SFTP 通道
+            SSHSessionLease lease = leaseOf(sessionId);
+            if (lease != null && lease.isConnected()) {
+                sftp = lease.borrowSftp();
+
+                // 池化通道不切换目录，目标目录不存在时使用默认目录 /root
+                String targetDirectory = directory;
+                if (!isDirectory(sftp.channel(), directory)) {
+                    logger.warn("目录 {} 不存在，使用默认目录 /root", directory);
+                    targetDirectory = "/root";
+                }
+                String remotePath = remotePath(targetDirectory, filename);
+
+                // 默认直接写入远程文件，不经过本地磁盘
+                if (UPLOAD_MODE_BUFFERED.equals(message.mode())) {
+                    uploadState = new FileUploadState(filename, remotePath, size);
+                } else {
+                    // 先写入同目录下的临时文件，收齐后再改名覆盖目标，中断的上传不会破坏已有文件
+                    String partPath = remotePath(targetDirectory,
+                            "." + filename + ".part-" + Long.toHexString(ThreadLocalRandom.current().nextLong()));
+                    Throttle throttle = bandwidth.open(partyOf(sessionId));
+                    try {
+                        uploadState = new FileUploadState(filename, remotePath, size, sftp.channel(), partPath,
+                                sftp.channel().put(partPath), throttle);
+                    } catch (Exception e) {
+                        throttle.close();
+                        throw e;
+                    }
+                }
+                PooledSftp previous = uploadChannels.put(sessionId, sftp);
+                sftp = null;
+                if (previous != null) {
+                    // 上一次上传没有结束消息，删除其远程临时文件并丢弃通道
+                    FileUploadState abandoned = fileUploadStates.remove(sessionId);
+                    if (abandoned != null) {
+                        abandoned.cleanup();
+                    }
+                    previous.invalidate();
                 }
-                
-                sftpChannels.put(operatorId, sftpChannel);
             }
 
-            FileUploadState uploadState = new FileUploadState(filename, size);
-            fileUploadStates.put(operatorId, uploadState);
-            logger.info("开始接收文件上传: {}, 大小: {} bytes, 目录: {}", filename, size, directory);
+            if (uploadState == null) {
+                uploadState = new FileUploadState(filename, filename, size);
+            }
+            fileUploadStates.put(sessionId, uploadState);
+            logger.info("开始接收文件上传: {}, 大小: {} bytes, 目录: {}, 直传: {}", filename, size, directory,
+                    uploadState.isPassThrough());
         } catch (IOException e) {
             logger.error("创建文件上传状态失败", e);
         } catch (Exception e) {
             logger.error("创建SFTP通道失败", e);
+        } finally {
+            if (sftp != null) {
+                sftp.close();
+            }
         }
     }
 
-    private void handleFileUploadEnd(String operatorId, Map<String, Object> message) {
-        String filename = (String) message.get("filename");
-        FileUploadState uploadState = fileUploadStates.remove(operatorId);
-        
-        if (uploadState != null) {
-            ChannelSftp sftpChannel = sftpChannels.get(operatorId);
-            if (sftpChannel != null && sftpChannel.isConnected()) {
-                try {
-                    // 直接上传到当前目录
-                    sftpChannel.put(uploadState.getTempFile().getAbsolutePath(), filename);
-                    logger.info("文件上传完成: {}", filename);
-                } catch (Exception e) {
-                    logger.error("文件上传失败: {}", filename, e);
-                } finally {
-                    // 清理临时文件
-                    uploadState.cleanup();
-                    // 关闭 SFTP 通道
-                    sftpChannel.disconnect();
-                    sftpChannels.remove(operatorId);
-                    logger.info("SFTP通道已关闭");
+    private boolean isDirectory(ChannelSftp sftpChannel, String directory) {
+        if (directory == null || directory.isEmpty()) {
+            return false;
+        }
+        try {
+            return sftpChannel.stat(directory).isDir();
+        } catch (SftpException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 目录下文件的远程路径，没有目录时相对于登录目录。
+     */
+    private static String remotePath(String directory, String filename) {
+        if (directory == null || directory.isEmpty()) {
+            return filename;
+        }
+        return directory.endsWith("/") ? directory + filename : directory + "/" + filename;
+    }
+
+    private void handleUploadOpen(WebSocketSession session, TerminalProtocol.UploadOpen message,
+                                  WebSocketSession outbound) throws IOException {
+        ResumableUpload upload;
+        if (message.uploadId() != null) {
+            // 断线重连后续传
+            upload = findUpload(session, message.uploadId(), outbound);
+            if (upload == null) {
+                return;
+            }
+        } else {
+            if (message.filename() == null || message.size() < 0) {
+                sendUploadError(outbound, null, "缺少文件名或文件大小");
+                return;
+            }
+            try {
+                upload = resumableUploads.open(uploadOwner(session), message.filename(), message.directory(),
+                        message.size());
+            } catch (IOException e) {
+                logger.warn("创建可续传上传失败: {}, {}", message.filename(), e.getMessage());
+                sendUploadError(outbound, null, e.getMessage());
+                return;
+            }
+        }
+        outbound.sendMessage(TerminalProtocol.control(objectMapper.writeValueAsString(upload.status())));
+    }
+
+    /**
+     * 写入可续传上传的数据块，帧头中的上传ID属于当前所有者时返回 true。
+     */
+    private boolean writeUploadChunk(WebSocketSession session, ByteBuffer payload) {
+        if (payload.remaining() < UPLOAD_CHUNK_HEADER_SIZE) {
+            return false;
+        }
+        int position = payload.position();
+        ResumableUpload upload = resumableUploads.find(payload.getLong(position), uploadOwner(session));
+        if (upload == null) {
+            return false;
+        }
+        long offset = payload.getLong(position + 8);
+        ByteBuffer data = payload.duplicate();
+        data.position(position + UPLOAD_CHUNK_HEADER_SIZE);
+        int length = data.remaining();
+        WebSocketSession outbound = outbound(session);
+        try {
+            upload.write(offset, data);
+            Map<String, Object> ack = new LinkedHashMap<>();
+            ack.put("type", "upload_ack");
+            ack.put("uploadId", upload.getIdHex());
+            ack.put("offset", offset);
+            ack.put("length", length);
+            outbound.sendMessage(TerminalProtocol.control(objectMapper.writeValueAsString(ack)));
+        } catch (IOException e) {
+            logger.error("写入上传数据块失败: {}, offset: {}", upload.getIdHex(), offset, e);
+            sendUploadError(outbound, upload.getIdHex(), "写入数据块失败: " + e.getMessage());
+        }
+        return true;
+    }
+
+    /**
+     * 数据收齐后在传输线程上整体上传到 SFTP。提交失败时保留暂存文件，客户端可以重试提交。
+     */
+    private void handleUploadCommit(WebSocketSession session, TerminalProtocol.UploadCommit message,
+                                    WebSocketSession outbound) throws IOException {
+        ResumableUpload upload = findUpload(session, message.uploadId(), outbound);
+        if (upload == null) {
+            return;
+        }
+        if (!upload.isComplete()) {
+            outbound.sendMessage(TerminalProtocol.control(objectMapper.writeValueAsString(upload.status())));
+            sendUploadError(outbound, upload.getIdHex(), "数据尚未收齐");
+            return;
+        }
+        if (!resumableUploads.beginCommit(upload)) {
+            sendUploadError(outbound, upload.getIdHex(), "上传正在提交");
+            return;
+        }
+        String operatorId = extractOperatorId(session);
+        String party = bandwidthParty(session);
+        boolean submitted = transferExecutor.submit(() -> {
+            try {
+                Operator operator = operatorRepository.findById(operatorId)
+                        .orElseThrow(() -> new IOException("Operator not found: " + operatorId));
+                try (SSHSessionLease lease = sessionManager.acquire(operator);
+                     PooledSftp sftp = lease.borrowSftp();
+                     Throttle throttle = bandwidth.open(party)) {
+                    transferEngine.upload(lease, sftp, upload.getStagingFile(),
+                            remotePath(upload.getDirectory(), upload.getFilename()), throttle);
                 }
+                listingCache.invalidateParent(upload.getOwner(), remotePath(upload.getDirectory(), upload.getFilename()));
+                resumableUploads.remove(upload);
+                logger.info("可续传上传完成: {}, 文件: {}", upload.getIdHex(), upload.getFilename());
+                Map<String, Object> complete = new LinkedHashMap<>();
+                complete.put("type", "upload_complete");
+                complete.put("uploadId", upload.getIdHex());
+                complete.put("filename", upload.getFilename());
+                complete.put("size", upload.getSize());
+                outbound.sendMessage(TerminalProtocol.control(objectMapper.writeValueAsString(complete)));
+            } catch (Exception e) {
+                logger.error("提交上传失败: {}", upload.getIdHex(), e);
+                resumableUploads.abortCommit(upload);
+                sendUploadError(outbound, upload.getIdHex(), "提交上传失败: " + e.getMessage());
             }
+        });
+        if (!submitted) {
+            resumableUploads.abortCommit(upload);
+            sendUploadError(outbound, upload.getIdHex(), "同时进行的文件传输过多，请稍后重试");
         }
     }
 
-    private void handleFileDownload(String operatorId, Map<String, Object> message, WebSocketSession session) {
-        String filename = (String) message.get("filename");
+    private ResumableUpload findUpload(WebSocketSession session, String uploadId, WebSocketSession outbound) {
+        ResumableUpload upload = null;
+        try {
+            upload = uploadId != null ? resumableUploads.find(ResumableUpload.parseId(uploadId), uploadOwner(session)) : null;
+        } catch (NumberFormatException e) {
+            // 按不存在处理
+        }
+        if (upload == null) {
+            sendUploadError(outbound, uploadId, "上传不存在或已过期");
+        }
+        return upload;
+    }
+
+    private void sendUploadError(WebSocketSession outbound, String uploadId, String message) {
+        try {
+            Map<String, Object> errorMessage = new LinkedHashMap<>();
+            errorMessage.put("type", "error");
+            if (uploadId != null) {
+                errorMessage.put("uploadId", uploadId);
+            }
+            errorMessage.put("message", message);
+            outbound.sendMessage(TerminalProtocol.control(objectMapper.writeValueAsString(errorMessage)));
+        } catch (Exception e) {
+            logger.error("发送错误消息失败", e);
+        }
+    }
+
+    private void sendError(WebSocketSession outbound, String message) {
+        sendUploadError(outbound, null, message);
+    }
+
+    private String uploadOwner(WebSocketSession session) {
+        return (String) session.getAttributes().get(UPLOAD_OWNER_ATTRIBUTE);
+    }
+
+    private void handleFileUploadEnd(WebSocketSession webSocketSession, TerminalProtocol.FileUploadEnd message,
+                                     WebSocketSession session) {
+        String sessionId = webSocketSession.getId();
+        String filename = message.filename();
+        FileUploadState uploadState = fileUploadStates.remove(sessionId);
+        if (uploadState == null) {
+            return;
+        }
+        PooledSftp sftp = uploadChannels.remove(sessionId);
+        if (sftp == null || !sftp.channel().isConnected()) {
+            uploadState.cleanup();
+            if (sftp != null) {
+                sftp.invalidate();
+            }
+            return;
+        }
+        // 收尾（改名或从临时文件上传）要等待远程确认和带宽配额，在传输线程上执行，不阻塞同一连接的终端输入
+        String owner = uploadOwner(webSocketSession);
+        String party = bandwidthParty(webSocketSession);
+        if (!transferExecutor.submit(() -> finishUpload(sessionId, owner, party, filename, uploadState, sftp, session))) {
+            uploadState.cleanup();
+            sftp.close();
+            sendError(session, "同时进行的文件传输过多，请稍后重试");
+        }
+    }
+
+    private void finishUpload(String sessionId, String owner, String party, String filename,
+                              FileUploadState uploadState, PooledSftp sftp, WebSocketSession session) {
+        try {
+            if (uploadState.isPassThrough()) {
+                // 关闭远程输出流，等待剩余写入确认，大小一致后改名为目标文件
+                uploadState.finish();
+            } else {
+                // 上传到开始时确定的目标路径
+                SSHSessionLease lease = leaseOf(sessionId);
+                try (Throttle throttle = bandwidth.open(party)) {
+                    if (lease != null) {
+                        transferEngine.upload(lease, sftp, uploadState.getTempFile().toPath(),
+                                uploadState.getRemotePath(), throttle);
+                    } else {
+                        try (InputStream in = throttle.wrap(new FileInputStream(uploadState.getTempFile()))) {
+                            sftp.channel().put(in, uploadState.getRemotePath());
+                        }
+                    }
+                }
+            }
+            listingCache.invalidateParent(owner, uploadState.getRemotePath());
+            logger.info("文件上传完成: {}, {} bytes", filename, uploadState.getReceivedSize());
+        } catch (Exception e) {
+            logger.error("文件上传失败: {}", filename, e);
+            // 先在通道上删除远程临时文件，再决定是否丢弃通道
+            uploadState.cleanup();
+            if (!(e instanceof SftpException)) {
+                sftp.invalidate();
+            }
+            sendError(session, "文件上传失败: " + e.getMessage());
+        } finally {
+            // 清理临时文件
+            uploadState.cleanup();
+            // 归还 SFTP 通道
+            sftp.close();
+        }
+    }
+
+    /**
+     * Base64 分块下载。读取和限速等待在传输线程上进行，不阻塞同一连接的终端输入。
+     */
+    private void handleFileDownload(String sessionId, TerminalProtocol.FileDownload message, WebSocketSession session) {
+        if (!transferExecutor.submit(() -> runFileDownload(sessionId, message, session))) {
+            sendError(session, "文件下载失败: 同时进行的文件传输过多，请稍后重试");
+        }
+    }
+
+    private void runFileDownload(String sessionId, TerminalProtocol.FileDownload message, WebSocketSession session) {
+        String filename = message.filename();
         logger.info("开始下载文件: {}", filename);
 
         try {
             // 创建 SFTP 通道
-            Session sshSession = sshSessions.get(operatorId);
-            if (sshSession != null && sshSession.isConnected()) {
-                ChannelSftp sftpChannel = (ChannelSftp) sshSession.openChannel("sftp");
-                sftpChannel.connect(3000);
-                logger.info("SFTP通道已打开");
+            SSHSessionLease lease = leaseOf(sessionId);
+            if (lease != null && lease.isConnected()) {
+                PooledSftp sftp = lease.borrowSftp();
+                ChannelSftp sftpChannel = sftp.channel();
 
                 try {
                     // 获取文件大小
@@ -318,15 +618,17 @@ public class SSHWebSocketController extends TextWebSocketHandler {
                     startMessage.put("type", "file_download_start");
                     startMessage.put("filename", filename);
                     startMessage.put("totalSize", fileSize);
-                    session.sendMessage(new TextMessage(objectMapper.writeValueAsString(startMessage)));
+                    session.sendMessage(TerminalProtocol.control(objectMapper.writeValueAsString(startMessage)));
 
                     // 读取文件内容
-                    try (InputStream in = sftpChannel.get(filename)) {
+                    try (Throttle throttle = bandwidth.open(partyOf(sessionId));
+                         InputStream in = transferEngine.openRead(lease, sftp, filename, 0, fileSize)) {
                         byte[] buffer = new byte[1024 * 1024]; // 1MB 块大小
                         int bytesRead;
                         long totalBytesRead = 0;
                         
                         while ((bytesRead = in.read(buffer)) != -1) {
+                            throttle.acquire(bytesRead);
                             // 将块转换为Base64
                             String base64Chunk = Base64.getEncoder().encodeToString(
                                 Arrays.copyOfRange(buffer, 0, bytesRead)
@@ -337,7 +639,7 @@ public class SSHWebSocketController extends TextWebSocketHandler {
                             chunkMessage.put("type", "file_download_chunk");
                             chunkMessage.put("content", base64Chunk);
                             chunkMessage.put("chunkSize", bytesRead);
-                            session.sendMessage(new TextMessage(objectMapper.writeValueAsString(chunkMessage)));
+                            session.sendMessage(TerminalProtocol.control(objectMapper.writeValueAsString(chunkMessage)));
                             
                             totalBytesRead += bytesRead;
                             logger.debug("已发送 {} 字节，总进度: {}/{}", 
@@ -347,13 +649,18 @@ public class SSHWebSocketController extends TextWebSocketHandler {
                         // 发送下载完成消息
                         Map<String, Object> endMessage = new HashMap<>();
                         endMessage.put("type", "file_download_end");
-                        session.sendMessage(new TextMessage(objectMapper.writeValueAsString(endMessage)));
+                        session.sendMessage(TerminalProtocol.control(objectMapper.writeValueAsString(endMessage)));
                         
                         logger.info("文件下载完成: {}", filename);
                     }
+                } catch (Exception e) {
+                    if (!(e instanceof SftpException)) {
+                        // 传输中途失败，通道状态不确定，不再放回池中
+                        sftp.invalidate();
+                    }
+                    throw e;
                 } finally {
-                    sftpChannel.disconnect();
-                    logger.info("SFTP通道已关闭");
+                    sftp.close();
                 }
             }
         } catch (Exception e) {
@@ -362,55 +669,81 @@ public class SSHWebSocketController extends TextWebSocketHandler {
                 Map<String, String> errorMessage = new HashMap<>();
                 errorMessage.put("type", "error");
                 errorMessage.put("message", "文件下载失败: " + e.getMessage());
-                session.sendMessage(new TextMessage(objectMapper.writeValueAsString(errorMessage)));
+                session.sendMessage(TerminalProtocol.control(objectMapper.writeValueAsString(errorMessage)));
             } catch (Exception ex) {
                 logger.error("发送错误消息失败", ex);
             }
         }
     }
 
-    private void handleListFiles(String operatorId, Map<String, Object> message, WebSocketSession session) {
-        String path = (String) message.get("path");
-        logger.info("列出目录内容: {}", path);
-
+    /**
+     * 二进制流式下载，在传输线程上执行。二进制终端模式下终端输出本身就是二进制帧，无法区分，仍走 Base64 分块。
+     */
+    private void handleBinaryDownload(String sessionId, TerminalProtocol.FileDownload message, WebSocketSession session) {
+        String filename = message.filename();
+        logger.info("开始二进制下载文件: {}", filename);
         try {
-            // 创建 SFTP 通道
-            Session sshSession = sshSessions.get(operatorId);
-            if (sshSession != null && sshSession.isConnected()) {
-                ChannelSftp sftpChannel = (ChannelSftp) sshSession.openChannel("sftp");
-                sftpChannel.connect(3000);
-                logger.info("SFTP通道已打开");
+            SSHSessionLease lease = leaseOf(sessionId);
+            if (lease == null || !lease.isConnected()) {
+                throw new IOException("SSH通道未连接");
+            }
+            // SFTP 通道由传输线程从通道池借出，池满时在传输线程上等待
+            int downloadId = downloadSequence.incrementAndGet();
+            String key = sessionId + ":" + downloadId;
+            BinaryDownload download = new BinaryDownload(downloadId, lease, transferEngine, bandwidth,
+                    partyOf(sessionId), filename, session,
+                    downloadChunkBytes, downloadWindowBytes, downloadAckTimeoutMillis, () -> downloads.remove(key));
+            downloads.put(key, download);
+            if (!transferExecutor.submit(download)) {
+                downloads.remove(key);
+                throw new IOException("同时进行的文件传输过多，请稍后重试");
+            }
+        } catch (Exception e) {
+            logger.error("文件下载失败: {}", filename, e);
+            try {
+                Map<String, String> errorMessage = new HashMap<>();
+                errorMessage.put("type", "error");
+                errorMessage.put("message", "文件下载失败: " + e.getMessage());
+                session.sendMessage(TerminalProtocol.control(objectMapper.writeValueAsString(errorMessage)));
+            } catch (Exception ex) {
+                logger.error("发送错误消息失败", ex);
+            }
+        }
+    }
 
-                try {
-                    // 切换到指定目录
-                    sftpChannel.cd(path);
-                    
-                    // 获取目录内容
-                    List<Map<String, Object>> files = new ArrayList<>();
-                    for (Object entry : sftpChannel.ls(".")) {
-                        ChannelSftp.LsEntry lsEntry = (ChannelSftp.LsEntry) entry;
-                        Map<String, Object> fileInfo = new HashMap<>();
-                        fileInfo.put("name", lsEntry.getFilename());
-                        fileInfo.put("type", lsEntry.getAttrs().isDir() ? "directory" : "file");
-                        if (!lsEntry.getAttrs().isDir()) {
-                            fileInfo.put("size", lsEntry.getAttrs().getSize());
-                            fileInfo.put("modified", new Date(lsEntry.getAttrs().getMTime() * 1000L).toString());
-                        }
-                        files.add(fileInfo);
-                    }
+    /**
+     * 列出目录。缓存未过 TTL 时直接返回；已过 TTL 时先返回旧列表（stale 为 true），
+     * 再在传输线程上刷新，内容有变化时补发一次 file_list。带 refresh 时先使缓存失效。
+     */
+    private void handleListFiles(WebSocketSession webSocketSession, TerminalProtocol.ListFiles message,
+                                 WebSocketSession session) {
+        if (message.pageSize() != null || message.cursor() != null) {
+            handlePagedListFiles(webSocketSession, message, session);
+            return;
+        }
+        String path = message.path();
+        String owner = uploadOwner(webSocketSession);
+        logger.info("列出目录内容: {}", path);
+        if (Boolean.TRUE.equals(message.refresh())) {
+            listingCache.invalidate(owner, path);
+        }
 
-                    // 发送文件列表
-                    Map<String, Object> response = new HashMap<>();
-                    response.put("type", "file_list");
-                    response.put("path", path);
-                    response.put("files", files);
-                    session.sendMessage(new TextMessage(objectMapper.writeValueAsString(response)));
-                    
-                    logger.info("已发送目录内容: {}", path);
-                } finally {
-                    sftpChannel.disconnect();
-                    logger.info("SFTP通道已关闭");
+        try {
+            SSHSessionLease lease = leaseOf(webSocketSession.getId());
+            DirectoryListingCache.Lookup cached = listingCache.get(owner, path);
+            if (cached != null) {
+                boolean stale = cached.freshness() == DirectoryListingCache.Freshness.STALE;
+                sendFileList(session, path, cached.listing(), stale);
+                if (stale && lease != null && lease.isConnected()) {
+                    refreshListing(lease, owner, path, cached.listing(),
+                            fresh -> sendFileList(session, path, fresh, false));
                 }
+                return;
+            }
+
+            if (lease != null && lease.isConnected()) {
+                sendFileList(session, path, loadListing(lease, owner, path), false);
+                logger.info("已发送目录内容: {}", path);
             }
         } catch (Exception e) {
             logger.error("获取目录内容失败: {}", path, e);
@@ -418,47 +751,273 @@ public class SSHWebSocketController extends TextWebSocketHandler {
                 Map<String, String> errorMessage = new HashMap<>();
                 errorMessage.put("type", "error");
                 errorMessage.put("message", "获取目录内容失败: " + e.getMessage());
-                session.sendMessage(new TextMessage(objectMapper.writeValueAsString(errorMessage)));
+                session.sendMessage(TerminalProtocol.control(objectMapper.writeValueAsString(errorMessage)));
             } catch (Exception ex) {
                 logger.error("发送错误消息失败", ex);
             }
         }
     }
 
+    /**
+     * 分页列出目录，读取和等待都在传输线程上进行。
+     */
+    private void handlePagedListFiles(WebSocketSession webSocketSession, TerminalProtocol.ListFiles message,
+                                      WebSocketSession session) {
+        String sessionId = webSocketSession.getId();
+        if (message.cursor() != null) {
+            int separator = message.cursor().lastIndexOf(':');
+            PagedListing listing = pagedListings.get(sessionId);
+            int offset;
+            try {
+                offset = separator > 0 ? Integer.parseInt(message.cursor().substring(separator + 1)) : -1;
+            } catch (NumberFormatException e) {
+                offset = -1;
+            }
+            if (listing == null || offset < 0 || !listing.getToken().equals(message.cursor().substring(0, separator))) {
+                sendError(session, "目录列表已失效，请重新列出");
+                return;
+            }
+            int pageSize = message.pageSize() != null ? clampPageSize(message.pageSize()) : listing.getPageSize();
+            int pageOffset = offset;
+            boolean submitted = transferExecutor.submit(() -> {
+                try {
+                    listing.sendPage(pageOffset, pageSize);
+                } catch (IOException e) {
+                    logger.error("获取目录内容失败: {}", message.path(), e);
+                    sendError(session, "获取目录内容失败: " + e.getMessage());
+                }
+            });
+            if (!submitted) {
+                sendError(session, "同时进行的文件传输过多，请稍后重试");
+            }
+            return;
+        }
+
+        SSHSessionLease lease = leaseOf(sessionId);
+        if (lease == null || !lease.isConnected()) {
+            sendError(session, "SSH通道未连接");
+            return;
+        }
+        String owner = uploadOwner(webSocketSession);
+        String path = message.path();
+        logger.info("分页列出目录内容: {}", path);
+        if (Boolean.TRUE.equals(message.refresh())) {
+            listingCache.invalidate(owner, path);
+        }
+        PagedListing listing = new PagedListing(Long.toHexString(ThreadLocalRandom.current().nextLong()), lease,
+                path, session, clampPageSize(message.pageSize()), listingMaxEntries, listingPageTimeoutMillis,
+                message.sort(), "desc".equals(message.order()), message.prefix(), message.filter());
+        DirectoryListingCache.Lookup cached = listingCache.get(owner, path);
+        if (cached != null) {
+            // 缓存命中时直接分页，已过 TTL 时在后台刷新，内容有变化再以新列表重新分页
+            boolean stale = cached.freshness() == DirectoryListingCache.Freshness.STALE;
+            listing.fromCache(cached.listing().entries(), stale);
+            if (stale) {
+                refreshListing(lease, owner, path, cached.listing(), fresh -> {
+                    if (pagedListings.get(sessionId) == listing) {
+                        startPagedListing(sessionId, listing.copy(Long.toHexString(ThreadLocalRandom.current().nextLong()))
+                                .fromCache(fresh.entries(), false), session);
+                    }
+                });
+            }
+        } else {
+            long generation = listingCache.generation();
+            listing.onFullListing(entries -> listingCache.put(owner, path, entries, generation));
+        }
+        startPagedListing(sessionId, listing, session);
+    }
+
+    private void startPagedListing(String sessionId, PagedListing listing, WebSocketSession session) {
+        PagedListing previous = pagedListings.put(sessionId, listing);
+        if (previous != null) {
+            previous.cancel();
+        }
+        if (!transferExecutor.submit(listing)) {
+            pagedListings.remove(sessionId, listing);
+            sendError(session, "同时进行的文件传输过多，请稍后重试");
+        }
+    }
+
+    private int clampPageSize(Integer pageSize) {
+        return pageSize == null || pageSize <= 0 ? listingMaxPageSize : Math.min(pageSize, listingMaxPageSize);
+    }
+
+    private DirectoryListingCache.Listing loadListing(SSHSessionLease lease, String owner, String path) throws Exception {
+        long generation = listingCache.generation();
+        try (PooledSftp sftp = lease.borrowSftp()) {
+            // 逐条接收目录项，池化通道不切换目录
+            List<RemoteEntry> entries = new ArrayList<>();
+            sftp.channel().ls(path, lsEntry -> {
+                if (!lsEntry.getFilename().equals(".") && !lsEntry.getFilename().equals("..")) {
+                    entries.add(RemoteEntry.of(lsEntry));
+                }
+                return ChannelSftp.LsEntrySelector.CONTINUE;
+            });
+            return listingCache.put(owner, path, entries, generation);
+        }
+    }
+
+    /**
+     * 在传输线程上刷新已过 TTL 的目录列表，内容有变化时回调新的列表。
+     */
+    private void refreshListing(SSHSessionLease lease, String owner, String path,
+                                DirectoryListingCache.Listing stale, ListingConsumer onChanged) {
+        if (!listingCache.beginRefresh(owner, path)) {
+            return;
+        }
+        boolean submitted = transferExecutor.submit(() -> {
+            try {
+                DirectoryListingCache.Listing fresh = loadListing(lease, owner, path);
+                if (!fresh.entries().equals(stale.entries())) {
+                    onChanged.accept(fresh);
+                }
+            } catch (Exception e) {
+                logger.warn("后台刷新目录内容失败: {}", path, e);
+            } finally {
+                listingCache.endRefresh(owner, path);
+            }
+        });
+        if (!submitted) {
+            listingCache.endRefresh(owner, path);
+        }
+    }
+
+    private void sendFileList(WebSocketSession session, String path, DirectoryListingCache.Listing listing,
+                              boolean stale) throws IOException {
+        List<Map<String, Object>> files = new ArrayList<>(listing.entries().size());
+        for (RemoteEntry entry : listing.entries()) {
+            files.add(entry.toMessage());
+        }
+        Map<String, Object> response = new HashMap<>();
+        response.put("type", "file_list");
+        response.put("path", path);
+        response.put("files", files);
+        response.put("stale", stale);
+        session.sendMessage(TerminalProtocol.control(objectMapper.writeValueAsString(response)));
+    }
+
+    @FunctionalInterface
+    private interface ListingConsumer {
+        void accept(DirectoryListingCache.Listing listing) throws IOException;
+    }
+
+    private void handleResize(String sessionId, TerminalProtocol.Resize message) {
+        TerminalSession terminal = terminals.get(sessionId);
+        if (terminal != null && message.cols() > 0 && message.rows() > 0) {
+            terminal.resize(message.cols(), message.rows());
+        }
+    }
+
     @Override
     public void afterConnectionClosed(WebSocketSession session, CloseStatus status) throws Exception {
         String operatorId = extractOperatorId(session);
         logger.info("WebSocket连接已关闭，operatorId: {}, status: {}", operatorId, status);
+
+        // 释放发送缓冲区
+        BufferedWebSocketSession outbound = outboundSessions.remove(session.getId());
+        if (outbound != null) {
+            outbound.release();
+        }
         
+        // 取消进行中的二进制下载
+        String downloadPrefix = session.getId() + ":";
+        downloads.forEach((key, download) -> {
+            if (key.startsWith(downloadPrefix)) {
+                download.cancel();
+            }
+        });
+
+        // 停止读取分页目录
+        PagedListing pagedListing = pagedListings.remove(session.getId());
+        if (pagedListing != null) {
+            pagedListing.cancel();
+        }
+
         // 清理文件上传状态
-        FileUploadState uploadState = fileUploadStates.remove(operatorId);
+        FileUploadState uploadState = fileUploadStates.remove(session.getId());
         if (uploadState != null) {
             uploadState.cleanup();
         }
 
-        // 关闭SFTP通道
-        ChannelSftp sftpChannel = sftpChannels.remove(operatorId);
-        if (sftpChannel != null) {
-            sftpChannel.disconnect();
-            logger.info("SFTP通道已关闭");
+        // 上传中断，远程输出流状态不确定，断开借出的 SFTP 通道
+        PooledSftp sftp = uploadChannels.remove(session.getId());
+        if (sftp != null) {
+            sftp.invalidate();
         }
 
-        // 关闭SSH通道
-        Channel channel = sshChannels.remove(operatorId);
-        if (channel != null) {
-            channel.disconnect();
-            logger.info("SSH通道已关闭");
+        // 非正常关闭（刷新页面、网络中断）时终端脱离并保留一段时间，等待携带恢复令牌重连
+        TerminalSession terminal = terminals.remove(session.getId());
+        if (terminal != null) {
+            if (CloseStatus.NORMAL.equalsCode(status)) {
+                terminalRegistry.terminate(terminal);
+                logger.info("SSH通道已关闭");
+            } else {
+                terminalRegistry.detach(terminal, outbound);
+            }
         }
 
-        // 关闭SSH会话
-        Session sshSession = sshSessions.remove(operatorId);
-        if (sshSession != null) {
-            sshSession.disconnect();
-            logger.info("SSH会话已关闭");
+        // 移除WebSocket会话
+        webSocketSessions.remove(session.getId());
+    }
+
+    private void writeToChannel(String sessionId, ByteBuffer payload) {
+        TerminalSession terminal = terminals.get(sessionId);
+        if (terminal == null || !terminal.getShell().isConnected()) {
+            logger.warn("SSH通道未连接或不存在");
+            return;
+        }
+        try {
+            if (payload.hasArray()) {
+                terminal.writeInput(payload.array(), payload.arrayOffset() + payload.position(), payload.remaining());
+            } else {
+                byte[] bytes = new byte[payload.remaining()];
+                payload.get(bytes);
+                terminal.writeInput(bytes, 0, bytes.length);
+            }
+        } catch (IOException e) {
+            logger.error("写入SSH通道失败", e);
         }
+    }
 
-        // 移除WebSocket会话
-        webSocketSessions.remove(operatorId);
+    private void sendTerminalInfo(WebSocketSession outbound, TerminalSession terminal, boolean resumed) throws IOException {
+        Map<String, Object> info = new HashMap<>();
+        info.put("type", "terminal_session");
+        info.put("resumeToken", terminal.getId());
+        info.put("resumed", resumed);
+        outbound.sendMessage(TerminalProtocol.control(objectMapper.writeValueAsString(info)));
+    }
+
+    private SSHSessionLease leaseOf(String sessionId) {
+        TerminalSession terminal = terminals.get(sessionId);
+        return terminal != null ? terminal.getLease() : null;
+    }
+
+    private WebSocketSession outbound(WebSocketSession session) {
+        WebSocketSession outbound = outboundSessions.get(session.getId());
+        return outbound != null ? outbound : session;
+    }
+
+    private String principalName(WebSocketSession session) {
+        return session.getPrincipal() != null ? session.getPrincipal().getName() : null;
+    }
+
+    /**
+     * 带宽份额的归属：WebSocket 连接没有登录身份时按客户端地址区分，取不到地址时按连接区分。
+     */
+    private String bandwidthParty(WebSocketSession session) {
+        InetSocketAddress remote = session.getRemoteAddress();
+        String client = remote != null && remote.getAddress() != null
+                ? remote.getAddress().getHostAddress() : "ws-" + session.getId();
+        return TransferBandwidthScheduler.party(principalName(session), client);
+    }
+
+    private String partyOf(String sessionId) {
+        WebSocketSession session = webSocketSessions.get(sessionId);
+        return session != null ? bandwidthParty(session) : TransferBandwidthScheduler.party(null, "ws-" + sessionId);
+    }
+
+    private boolean isBinaryMode(WebSocketSession session) {
+        return Boolean.TRUE.equals(session.getAttributes().get(BINARY_MODE_ATTRIBUTE));
     }
 
     private String extractOperatorId(WebSocketSession session) {
@@ -466,24 +1025,119 @@ public class SSHWebSocketController extends TextWebSocketHandler {
         return path.substring(path.lastIndexOf('/') + 1);
     }
 
+    /**
+     * 一次文件上传。直传模式下数据直接写入 SFTP 远程输出流，在途数据受 SSH 通道窗口限制，
+     * 远端写得慢时阻塞接收线程，通过 TCP 反压到浏览器；缓冲模式下先写入本地临时文件，结束时再上传。
+     */
     private static class FileUploadState {
         private final String filename;
+        private final String remotePath;
         private final long totalSize;
         private final File tempFile;
-        private final FileOutputStream outputStream;
+        private final OutputStream outputStream;
+        // 直传模式写入的远程临时文件，完成前不动目标文件
+        private final ChannelSftp channel;
+        private final String partPath;
+        private boolean committed;
+        private boolean cleanedUp;
+        // 直传模式的带宽配额：写入在消息处理线程上进行，等待令牌会延迟同一连接的终端输入，只记账不等待
+        private final Throttle throttle;
         private long receivedSize;
+        private IOException failure;
 
-        public FileUploadState(String filename, long totalSize) throws IOException {
+        public FileUploadState(String filename, String remotePath, long totalSize) throws IOException {
             this.filename = filename;
+            this.remotePath = remotePath;
             this.totalSize = totalSize;
             this.tempFile = File.createTempFile("upload_", "_" + filename);
             this.outputStream = new FileOutputStream(tempFile);
+            this.channel = null;
+            this.partPath = null;
+            this.throttle = null;
             this.receivedSize = 0;
         }
 
-        public void writeChunk(byte[] chunk) throws IOException {
-            outputStream.write(chunk);
-            receivedSize += chunk.length;
+        public FileUploadState(String filename, String remotePath, long totalSize, ChannelSftp channel,
+                               String partPath, OutputStream remoteStream, Throttle throttle) {
+            this.filename = filename;
+            this.remotePath = remotePath;
+            this.totalSize = totalSize;
+            this.tempFile = null;
+            this.outputStream = remoteStream;
+            this.channel = channel;
+            this.partPath = partPath;
+            this.throttle = throttle;
+            this.receivedSize = 0;
+        }
+
+        public boolean isPassThrough() {
+            return tempFile == null;
+        }
+
+        public void writeChunk(ByteBuffer chunk) {
+            if (failure != null) {
+                // 已经失败，丢弃后续数据，结束时报告错误
+                return;
+            }
+            try {
+                int length = chunk.remaining();
+                if (chunk.hasArray()) {
+                    outputStream.write(chunk.array(), chunk.arrayOffset() + chunk.position(), length);
+                } else {
+                    byte[] bytes = new byte[length];
+                    chunk.get(bytes);
+                    outputStream.write(bytes);
+                }
+                receivedSize += length;
+                if (throttle != null) {
+                    throttle.charge(length);
+                }
+            } catch (IOException e) {
+                failure = e;
+                logger.error("写入文件数据失败: {}", filename, e);
+            }
+        }
+
+        /**
+         * 直传模式下关闭远程输出流，收到的大小与声明一致时把临时文件改名为目标文件。
+         * 写入过程中出现的错误和大小不一致在这里抛出，临时文件由 cleanup 删除。
+         */
+        public void finish() throws IOException, SftpException {
+            if (failure != null) {
+                throw failure;
+            }
+            outputStream.close();
+            if (receivedSize != totalSize) {
+                throw new IOException("上传数据不完整: 收到 " + receivedSize + " / " + totalSize + " bytes");
+            }
+            try {
+                channel.rename(partPath, remotePath);
+            } catch (SftpException e) {
+                // SFTP v3 的 rename 不覆盖已存在的文件，删除目标后重试
+                if (e.id != ChannelSftp.SSH_FX_FAILURE || !exists(remotePath)) {
+                    throw e;
+                }
+                channel.rm(remotePath);
+                channel.rename(partPath, remotePath);
+            }
+            committed = true;
+        }
+
+        private boolean exists(String path) {
+            try {
+                channel.stat(path);
+                return true;
+            } catch (SftpException e) {
+                return false;
+            }
+        }
+
+        public long getReceivedSize() {
+            return receivedSize;
+        }
+
+        public String getRemotePath() {
+            return remotePath;
         }
 
         public File getTempFile() {
@@ -491,12 +1145,29 @@ public class SSHWebSocketController extends TextWebSocketHandler {
         }
 
         public void cleanup() {
+            if (cleanedUp) {
+                return;
+            }
+            cleanedUp = true;
             try {
                 outputStream.close();
-                tempFile.delete();
             } catch (IOException e) {
-                logger.error("清理临时文件失败", e);
+                logger.error("关闭上传输出流失败", e);
+            }
+            if (tempFile != null) {
+                tempFile.delete();
+            }
+            if (partPath != null && !committed && channel.isConnected()) {
+                // 上传中断或失败，删除远程临时文件
+                try {
+                    channel.rm(partPath);
+                } catch (SftpException e) {
+                    logger.warn("删除上传临时文件失败: {}", partPath, e);
+                }
+            }
+            if (throttle != null) {
+                throttle.close();
             }
         }
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,75 @@
+package com.leaderjs.operator.controller;
+
+import com.leaderjs.operator.service.TerminalSession;
+import com.leaderjs.operator.service.TerminalSessionRegistry;
+import com.leaderjs.operator.service.TerminalTrace;
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 终端 I/O 跟踪端点：
+ * GET /actuator/terminaltrace 列出终端，POST /actuator/terminaltrace/{id} 开启跟踪，
+ * GET /actuator/terminaltrace/{id} 导出记录，DELETE /actuator/terminaltrace/{id} 关闭跟踪。
+ * <p>
+ * 记录中包含原始按键（包括 sudo 等输入的密码），默认不暴露；需要时在 management.endpoints.web.exposure.include
+ * 中加上 terminaltrace，SecurityConfig 限制只有 ADMIN 角色可以访问。
+ */
+@Component
+@Endpoint(id = "terminaltrace")
+public class TerminalTraceEndpoint {
+
+    private final TerminalSessionRegistry terminalRegistry;
+
+    public TerminalTraceEndpoint(TerminalSessionRegistry terminalRegistry) {
+        this.terminalRegistry = terminalRegistry;
+    }
+
+    @ReadOperation
+    public List<Map<String, Object>> terminals() {
+        List<Map<String, Object>> result = new ArrayList<>();
+        for (TerminalSession terminal : terminalRegistry.list()) {
+            Map<String, Object> info = new LinkedHashMap<>();
+            info.put("id", terminal.getId());
+            info.put("operatorId", terminal.getOperatorId());
+            info.put("user", terminal.getUser());
+            info.put("detached", terminal.isDetached());
+            info.put("tracing", terminal.getTrace() != null);
+            result.add(info);
+        }
+        return result;
+    }
+
+    @ReadOperation
+    public Map<String, Object> dump(@Selector String id) {
+        TerminalSession terminal = terminalRegistry.find(id);
+        TerminalTrace trace = terminal != null ? terminal.getTrace() : null;
+        // 返回 null 时 actuator 响应 404
+        return trace != null ? trace.dump() : null;
+    }
+
+    @WriteOperation
+    public Map<String, Object> enable(@Selector String id) {
+        TerminalTrace trace = terminalRegistry.enableTrace(id);
+        return trace != null ? trace.dump() : null;
+    }
+
+    @DeleteOperation
+    public Map<String, Object> disable(@Selector String id) {
+        if (!terminalRegistry.disableTrace(id)) {
+            return null;
+        }
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("id", id);
+        result.put("tracing", false);
+        return result;
+    }
+}
@@ -0,0 +1,219 @@
+package com.leaderjs.operator.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.SftpException;
+import com.leaderjs.operator.service.SSHSessionManager.PooledSftp;
+import com.leaderjs.operator.service.SSHSessionManager.SSHSessionLease;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 通过 WebSocket 以二进制帧流式下载一个远程文件。
+ * <p>
+ * 协议：先发送 JSON 头 {@code file_download_start}（含 downloadId、totalSize、chunkSize、window），
+ * 随后是若干 BinaryMessage，每帧前 4 个字节是大端序的 downloadId，其余为文件数据，最后发送 {@code file_download_end}。
+ * 客户端用 {@code file_download_ack} 回报已收到的字节数，至少每收到半个窗口回报一次；未确认的字节达到窗口时暂停读取。
+ * <p>
+ * 数据块直接读入固定的环形缓冲区并原样发送，不做 Base64 和拷贝。缓冲区只有在它所承载的数据被客户端确认后才会复用，
+ * 因此发送缓冲区里排队的帧不会被覆盖。
+ * <p>
+ * SFTP 通道在传输线程上从共享会话的通道池借出，下载结束后归还。大文件由 {@link SftpTransferEngine}
+ * 借出附加通道并行读取。
+ */
+public class BinaryDownload implements Runnable {
+    private static final Logger logger = LoggerFactory.getLogger(BinaryDownload.class);
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final int HEADER_SIZE = 4;
+
+    private final int id;
+    private final SSHSessionLease lease;
+    private final SftpTransferEngine transferEngine;
+    private final TransferBandwidthScheduler bandwidth;
+    private final String party;
+    private final String filename;
+    private final WebSocketSession session;
+    private final int chunkSize;
+    private final long window;
+    private final long ackTimeoutNanos;
+    private final Runnable onFinish;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition acknowledged = lock.newCondition();
+    private long sent;
+    private long acked;
+    private boolean cancelled;
+
+    public BinaryDownload(int id, SSHSessionLease lease, SftpTransferEngine transferEngine,
+                          TransferBandwidthScheduler bandwidth, String party, String filename,
+                          WebSocketSession session, int chunkSize, long window, long ackTimeoutMillis,
+                          Runnable onFinish) {
+        this.id = id;
+        this.lease = lease;
+        this.transferEngine = transferEngine;
+        this.bandwidth = bandwidth;
+        this.party = party;
+        this.filename = filename;
+        this.session = session;
+        this.chunkSize = chunkSize;
+        this.window = Math.max(window, chunkSize);
+        this.ackTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(ackTimeoutMillis);
+        this.onFinish = onFinish;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * 客户端确认已收到的累计字节数。
+     */
+    public void ack(long received) {
+        lock.lock();
+        try {
+            if (received > acked) {
+                acked = Math.min(received, sent);
+                acknowledged.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void cancel() {
+        lock.lock();
+        try {
+            cancelled = true;
+            acknowledged.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void run() {
+        PooledSftp pooled = null;
+        try {
+            pooled = lease.borrowSftp();
+            ChannelSftp sftp = pooled.channel();
+            long totalSize = sftp.stat(filename).getSize();
+            Map<String, Object> start = message("file_download_start");
+            start.put("filename", filename);
+            start.put("totalSize", totalSize);
+            start.put("mode", "binary");
+            start.put("chunkSize", chunkSize);
+            start.put("window", window);
+            session.sendMessage(TerminalProtocol.control(objectMapper.writeValueAsString(start)));
+
+            // 窗口内最多有 window / chunkSize 个未确认的块，再多一个用于读取下一块
+            int slots = (int) (window / chunkSize) + 1;
+            byte[][] buffers = new byte[slots][];
+            long[] slotEnds = new long[slots];
+            try (TransferBandwidthScheduler.Throttle throttle = bandwidth.open(party);
+                 InputStream in = transferEngine.openRead(lease, pooled, filename, 0, totalSize)) {
+                for (int chunk = 0; ; chunk++) {
+                    int slot = chunk % slots;
+                    if (!awaitCredit(slotEnds[slot])) {
+                        logger.info("文件下载已取消: {}", filename);
+                        return;
+                    }
+                    if (buffers[slot] == null) {
+                        buffers[slot] = new byte[HEADER_SIZE + chunkSize];
+                        ByteBuffer.wrap(buffers[slot]).putInt(id);
+                    }
+                    int length = readChunk(in, buffers[slot]);
+                    if (length == 0) {
+                        break;
+                    }
+                    throttle.acquire(length);
+                    lock.lock();
+                    try {
+                        sent += length;
+                        slotEnds[slot] = sent;
+                    } finally {
+                        lock.unlock();
+                    }
+                    session.sendMessage(new BinaryMessage(ByteBuffer.wrap(buffers[slot], 0, HEADER_SIZE + length)));
+                }
+            }
+
+            Map<String, Object> end = message("file_download_end");
+            end.put("filename", filename);
+            end.put("totalSize", sent);
+            session.sendMessage(TerminalProtocol.control(objectMapper.writeValueAsString(end)));
+            logger.info("文件下载完成: {}, {} bytes", filename, sent);
+        } catch (Exception e) {
+            logger.error("文件下载失败: {}", filename, e);
+            if (pooled != null && !(e instanceof SftpException)) {
+                // 传输中途失败，通道状态不确定，不再放回池中
+                pooled.invalidate();
+            }
+            try {
+                Map<String, Object> error = message("error");
+                error.put("message", "文件下载失败: " + e.getMessage());
+                session.sendMessage(TerminalProtocol.control(objectMapper.writeValueAsString(error)));
+            } catch (Exception ex) {
+                logger.error("发送错误消息失败", ex);
+            }
+        } finally {
+            if (pooled != null) {
+                pooled.close();
+            }
+            onFinish.run();
+        }
+    }
+
+    /**
+     * 等待客户端确认：窗口有余量，且要复用的缓冲区上的数据已被确认。
+     *
+     * @return 下载被取消时返回 false
+     */
+    private boolean awaitCredit(long slotEnd) throws IOException, InterruptedException {
+        long remaining = ackTimeoutNanos;
+        lock.lock();
+        try {
+            while (!cancelled && (acked < slotEnd || sent - acked >= window)) {
+                if (remaining <= 0) {
+                    throw new IOException("等待客户端确认超时");
+                }
+                remaining = acknowledged.awaitNanos(remaining);
+            }
+            return !cancelled;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 尽量读满一个块，SFTP 流每次只返回一个数据包。返回 0 表示文件结束。
+     */
+    private int readChunk(InputStream in, byte[] buffer) throws IOException {
+        int length = 0;
+        while (length < chunkSize) {
+            int n = in.read(buffer, HEADER_SIZE + length, chunkSize - length);
+            if (n == -1) {
+                break;
+            }
+            length += n;
+        }
+        return length;
+    }
+
+    private Map<String, Object> message(String type) {
+        Map<String, Object> message = new LinkedHashMap<>();
+        message.put("type", type);
+        message.put("downloadId", id);
+        return message;
+    }
+}
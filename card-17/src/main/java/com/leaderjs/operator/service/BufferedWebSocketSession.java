@@ -0,0 +1,342 @@
+package com.leaderjs.operator.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.WebSocketSessionDecorator;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 带有界发送缓冲区的 WebSocket 会话，参照 ConcurrentWebSocketSessionDecorator。
+ * 调用方线程只负责入队，实际发送在共享发送线程上进行，慢客户端不会阻塞 SSH 输出泵。
+ * <p>
+ * 缓冲超过上限时：sendOutput 发送的终端输出按溢出策略处理；sendMessage 发送的控制/数据消息不会被丢弃，
+ * 也不因溢出关闭会话，一律等待缓冲区排空（单条消息本身可能大于上限，例如 Base64 下载块）。
+ * 单次发送超过时间上限时关闭会话：底层 Tomcat 会话的阻塞发送超时设为同一时长，
+ * {@link WebSocketSendBuffers} 的巡检线程另外关闭发送卡住的会话，卡住的发送不会长期占用共享发送线程。
+ */
+public class BufferedWebSocketSession extends WebSocketSessionDecorator {
+    private static final Logger logger = LoggerFactory.getLogger(BufferedWebSocketSession.class);
+
+    public enum OverflowPolicy {
+        /** 丢弃缓冲区中较早的终端输出，保留最新部分 */
+        DROP,
+        /** 阻塞生产者，SSH 输出泵随之停止读取通道 */
+        PAUSE,
+        /** 关闭会话 */
+        CLOSE
+    }
+
+    private static final class Entry {
+        final WebSocketMessage<?> message;
+        final int size;
+        final boolean droppable;
+        final byte[] pooled;
+
+        Entry(WebSocketMessage<?> message, boolean droppable, byte[] pooled) {
+            this.message = message;
+            this.size = message.getPayloadLength();
+            this.droppable = droppable;
+            this.pooled = pooled;
+        }
+    }
+
+    private final WebSocketSendBuffers owner;
+    private final String handler;
+    private final int bufferSizeLimit;
+    private final long sendTimeLimitNanos;
+    private final OverflowPolicy policy;
+    private final Executor sendExecutor;
+    private final ByteArrayPool bufferPool;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition drained = lock.newCondition();
+    private final Deque<Entry> queue = new ArrayDeque<>();
+    private boolean flushing;
+    private volatile long bufferedBytes;
+    private volatile long highWaterMark;
+    private volatile long sendStartNanos;
+    private volatile boolean closing;
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    BufferedWebSocketSession(WebSocketSession delegate, WebSocketSendBuffers owner, String handler,
+                             int bufferSizeLimit, long sendTimeLimitMillis, OverflowPolicy policy,
+                             Executor sendExecutor, ByteArrayPool bufferPool) {
+        super(delegate);
+        this.owner = owner;
+        this.handler = handler;
+        this.bufferSizeLimit = bufferSizeLimit;
+        this.sendTimeLimitNanos = TimeUnit.MILLISECONDS.toNanos(sendTimeLimitMillis);
+        this.policy = policy;
+        this.sendExecutor = sendExecutor;
+        this.bufferPool = bufferPool;
+    }
+
+    /**
+     * 发送控制或数据消息，不会因缓冲区溢出被丢弃。
+     */
+    @Override
+    public void sendMessage(WebSocketMessage<?> message) throws IOException {
+        enqueue(new Entry(message, false, null));
+    }
+
+    /**
+     * 发送终端输出，缓冲区溢出时按策略处理。
+     */
+    public void sendOutput(WebSocketMessage<?> message) throws IOException {
+        enqueue(new Entry(message, true, null));
+    }
+
+    /**
+     * 以二进制帧发送终端输出。数据拷贝到池化数组中，调用返回后 buffer 即可复用。
+     */
+    public void sendOutput(byte[] buffer, int offset, int length) throws IOException {
+        byte[] pooled = bufferPool.acquire(length);
+        System.arraycopy(buffer, offset, pooled, 0, length);
+        enqueue(new Entry(new BinaryMessage(ByteBuffer.wrap(pooled, 0, length)), true, pooled));
+    }
+
+    /**
+     * 关闭前先等待已入队的消息发送完毕（最多等待发送时间上限），保证错误消息先于关闭帧到达。
+     */
+    @Override
+    public void close(CloseStatus status) throws IOException {
+        long remaining = sendTimeLimitNanos;
+        lock.lock();
+        try {
+            while (bufferedBytes > 0 && !closing && remaining > 0) {
+                remaining = drained.awaitNanos(remaining);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            lock.unlock();
+        }
+        getDelegate().close(status);
+    }
+
+    public long getBufferedBytes() {
+        return bufferedBytes;
+    }
+
+    public long getHighWaterMark() {
+        return highWaterMark;
+    }
+
+    public String getHandler() {
+        return handler;
+    }
+
+    private void enqueue(Entry entry) throws IOException {
+        if (closing || !isOpen()) {
+            bufferPool.release(entry.pooled);
+            return;
+        }
+        long start = sendStartNanos;
+        if (start != 0 && System.nanoTime() - start > sendTimeLimitNanos) {
+            owner.onOverflow(handler, "send_time_limit");
+            closeForOverflow("Send time limit exceeded");
+            bufferPool.release(entry.pooled);
+            return;
+        }
+
+        boolean schedule = false;
+        boolean overflow;
+        lock.lock();
+        try {
+            queue.add(entry);
+            bufferedBytes += entry.size;
+            if (bufferedBytes > highWaterMark) {
+                highWaterMark = bufferedBytes;
+            }
+            if (!flushing) {
+                flushing = true;
+                schedule = true;
+            }
+            overflow = bufferedBytes > bufferSizeLimit;
+        } finally {
+            lock.unlock();
+        }
+
+        if (schedule) {
+            try {
+                sendExecutor.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                logger.warn("发送线程池已满，关闭会话: {}", getId());
+                closeForOverflow("Send executor saturated");
+                return;
+            }
+        }
+        if (overflow) {
+            handleOverflow(entry);
+        }
+    }
+
+    private void handleOverflow(Entry entry) throws IOException {
+        OverflowPolicy effective = policy;
+        if (!entry.droppable) {
+            // 控制/数据消息由发送方控制节奏，只等待排空
+            effective = OverflowPolicy.PAUSE;
+        }
+        owner.onOverflow(handler, effective.name().toLowerCase());
+
+        switch (effective) {
+            case DROP:
+                dropOldestOutput(entry);
+                break;
+            case PAUSE:
+                awaitDrained();
+                break;
+            case CLOSE:
+            default:
+                closeForOverflow("Send buffer size limit exceeded");
+                break;
+        }
+    }
+
+    private void dropOldestOutput(Entry newest) {
+        lock.lock();
+        try {
+            Iterator<Entry> it = queue.iterator();
+            while (bufferedBytes > bufferSizeLimit && it.hasNext()) {
+                Entry candidate = it.next();
+                if (candidate == newest) {
+                    break;
+                }
+                if (candidate.droppable) {
+                    it.remove();
+                    bufferedBytes -= candidate.size;
+                    bufferPool.release(candidate.pooled);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void awaitDrained() throws IOException {
+        long remaining = sendTimeLimitNanos;
+        lock.lock();
+        try {
+            while (bufferedBytes > bufferSizeLimit && !closing) {
+                if (remaining <= 0) {
+                    break;
+                }
+                remaining = drained.awaitNanos(remaining);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("等待发送缓冲区排空时被中断");
+        } finally {
+            lock.unlock();
+        }
+        if (remaining <= 0 && bufferedBytes > bufferSizeLimit && !closing) {
+            owner.onOverflow(handler, "send_time_limit");
+            closeForOverflow("Send time limit exceeded");
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            Entry entry;
+            lock.lock();
+            try {
+                entry = queue.poll();
+                if (entry == null) {
+                    flushing = false;
+                    return;
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            sendStartNanos = System.nanoTime();
+            try {
+                getDelegate().sendMessage(entry.message);
+            } catch (Exception e) {
+                logger.debug("发送WebSocket消息失败，session: {}", getId(), e);
+                closing = true;
+                release();
+                bufferPool.release(entry.pooled);
+                return;
+            } finally {
+                sendStartNanos = 0;
+            }
+
+            lock.lock();
+            try {
+                bufferedBytes -= entry.size;
+                drained.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            bufferPool.release(entry.pooled);
+        }
+    }
+
+    /**
+     * 当前发送是否已超过时间上限，由巡检线程调用。
+     */
+    boolean isSendStalled(long now) {
+        long start = sendStartNanos;
+        return start != 0 && !closing && now - start > sendTimeLimitNanos;
+    }
+
+    /**
+     * 关闭发送卡住的会话，底层连接关闭后阻塞中的发送随之失败，发送线程得以释放。
+     */
+    void abortStalledSend() {
+        closeForOverflow("Send time limit exceeded");
+    }
+
+    private void closeForOverflow(String reason) {
+        if (closing) {
+            return;
+        }
+        closing = true;
+        logger.warn("WebSocket发送缓冲区溢出，关闭会话: {}, 原因: {}", getId(), reason);
+        try {
+            getDelegate().close(CloseStatus.SESSION_NOT_RELIABLE.withReason(reason));
+        } catch (IOException e) {
+            logger.debug("关闭WebSocket会话失败", e);
+        }
+    }
+
+    /**
+     * 会话关闭时调用：清空未发送的消息并上报高水位。
+     */
+    public void release() {
+        closing = true;
+        if (!released.compareAndSet(false, true)) {
+            return;
+        }
+        lock.lock();
+        try {
+            Entry entry;
+            while ((entry = queue.poll()) != null) {
+                bufferedBytes -= entry.size;
+                bufferPool.release(entry.pooled);
+            }
+            flushing = false;
+            drained.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        owner.onRelease(this);
+    }
+}
@@ -0,0 +1,53 @@
+package com.leaderjs.operator.service;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 固定大小 byte[] 的简单对象池，避免终端输出路径上反复分配大数组。
+ */
+public class ByteArrayPool {
+    private final int arraySize;
+    private final int maxPooled;
+    private final ConcurrentLinkedQueue<byte[]> free = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooled = new AtomicInteger();
+
+    public ByteArrayPool(int arraySize, int maxPooled) {
+        this.arraySize = arraySize;
+        this.maxPooled = maxPooled;
+    }
+
+    public int getArraySize() {
+        return arraySize;
+    }
+
+    /**
+     * 取出一个至少 minSize 大小的数组；超过池内数组大小时直接分配，不进入池。
+     */
+    public byte[] acquire(int minSize) {
+        if (minSize > arraySize) {
+            return new byte[minSize];
+        }
+        byte[] array = free.poll();
+        if (array == null) {
+            return new byte[arraySize];
+        }
+        pooled.decrementAndGet();
+        return array;
+    }
+
+    public void release(byte[] array) {
+        if (array == null || array.length != arraySize) {
+            return;
+        }
+        if (pooled.incrementAndGet() <= maxPooled) {
+            free.offer(array);
+        } else {
+            pooled.decrementAndGet();
+        }
+    }
+
+    public int getPooledCount() {
+        return pooled.get();
+    }
+}
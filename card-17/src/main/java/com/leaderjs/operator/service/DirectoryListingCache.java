@@ -0,0 +1,221 @@
+package com.leaderjs.operator.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 远程目录列表缓存，按 operator + 用户（与共享 SSH 会话一致）和规范化路径索引。
+ * <p>
+ * 在 TTL 内直接返回缓存；超过 TTL 但未超过过期时间时先返回旧列表，由调用方在后台刷新（stale-while-revalidate）；
+ * 超过过期时间的条目视为不存在。缓存按估算的内存占用设上限，超出时淘汰最久未访问的目录。
+ * 门户自身修改目录（上传完成）时主动失效，客户端也可以在列目录时要求跳过缓存（list_files 的 refresh）。
+ */
+@Service
+public class DirectoryListingCache {
+    private static final Logger logger = LoggerFactory.getLogger(DirectoryListingCache.class);
+
+    // 每个条目和每个目录项的固定开销估算（记录对象、字符串头、列表引用）
+    private static final int ENTRY_OVERHEAD_BYTES = 256;
+    private static final int FILE_OVERHEAD_BYTES = 96;
+
+    public enum Freshness { FRESH, STALE }
+
+    /**
+     * 一个目录的列表快照，按服务端返回的顺序，entries 不可修改。
+     */
+    public record Listing(List<RemoteEntry> entries, long loadedAt, long estimatedBytes) {
+    }
+
+    public record Lookup(Listing listing, Freshness freshness) {
+    }
+
+    private final long ttlMillis;
+    private final long maxStaleMillis;
+    private final long maxBytes;
+    // 访问顺序的 LRU，所有访问都在 this 上同步
+    private final LinkedHashMap<String, Listing> entries = new LinkedHashMap<>(64, 0.75f, true);
+    // 正在后台刷新的键，避免同一目录并发刷新
+    private final Set<String> refreshing = new HashSet<>();
+    private long totalBytes;
+    // 每次失效加一；读取开始后发生过失效的结果不写入缓存，避免旧列表覆盖失效
+    private long generation;
+
+    private final Counter hits;
+    private final Counter staleHits;
+    private final Counter misses;
+
+    public DirectoryListingCache(MeterRegistry meterRegistry,
+                                 @Value("${app.ssh.listing-cache.ttl-ms:5000}") long ttlMillis,
+                                 @Value("${app.ssh.listing-cache.max-stale-ms:60000}") long maxStaleMillis,
+                                 @Value("${app.ssh.listing-cache.max-bytes:16777216}") long maxBytes) {
+        this.ttlMillis = ttlMillis;
+        this.maxStaleMillis = Math.max(ttlMillis, maxStaleMillis);
+        this.maxBytes = maxBytes;
+
+        // 同名计量器共用一个描述，结果由 result 标签区分：hit 命中、stale 返回过期列表并后台刷新、miss 未命中
+        this.hits = Counter.builder("ssh.listing.cache").tag("result", "hit")
+                .description("目录列表缓存的查询次数").register(meterRegistry);
+        this.staleHits = Counter.builder("ssh.listing.cache").tag("result", "stale")
+                .description("目录列表缓存的查询次数").register(meterRegistry);
+        this.misses = Counter.builder("ssh.listing.cache").tag("result", "miss")
+                .description("目录列表缓存的查询次数").register(meterRegistry);
+        Gauge.builder("ssh.listing.cache.bytes", this, DirectoryListingCache::getTotalBytes)
+                .description("目录列表缓存估算占用的内存")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 查找缓存，没有或已过期时返回 null。
+     */
+    public synchronized Lookup get(String owner, String path) {
+        String key = key(owner, path);
+        Listing listing = entries.get(key);
+        long age = listing != null ? System.currentTimeMillis() - listing.loadedAt() : Long.MAX_VALUE;
+        if (age < ttlMillis) {
+            hits.increment();
+            return new Lookup(listing, Freshness.FRESH);
+        }
+        if (age < maxStaleMillis) {
+            staleHits.increment();
+            return new Lookup(listing, Freshness.STALE);
+        }
+        if (listing != null) {
+            remove(key);
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * 读取目录前调用，结果连同该值一起交给 {@link #put}。
+     */
+    public synchronized long generation() {
+        return generation;
+    }
+
+    /**
+     * 缓存一个刚读取的目录列表，超过内存上限时淘汰最久未访问的目录。
+     *
+     * @param readGeneration 开始读取前的 {@link #generation()}，之后发生过失效时只返回列表不缓存
+     */
+    public Listing put(String owner, String path, List<RemoteEntry> remoteEntries, long readGeneration) {
+        long estimatedBytes = ENTRY_OVERHEAD_BYTES;
+        for (RemoteEntry entry : remoteEntries) {
+            estimatedBytes += FILE_OVERHEAD_BYTES + 2L * entry.name().length();
+        }
+        Listing listing = new Listing(List.copyOf(remoteEntries), System.currentTimeMillis(), estimatedBytes);
+        if (estimatedBytes > maxBytes) {
+            // 单个目录超过整个缓存上限，不缓存
+            return listing;
+        }
+        String key = key(owner, path);
+        synchronized (this) {
+            if (generation != readGeneration) {
+                return listing;
+            }
+            remove(key);
+            entries.put(key, listing);
+            totalBytes += estimatedBytes;
+            Iterator<Map.Entry<String, Listing>> eldest = entries.entrySet().iterator();
+            while (totalBytes > maxBytes && eldest.hasNext()) {
+                Map.Entry<String, Listing> entry = eldest.next();
+                totalBytes -= entry.getValue().estimatedBytes();
+                eldest.remove();
+            }
+        }
+        return listing;
+    }
+
+    /**
+     * 标记开始后台刷新，同一目录已在刷新时返回 false。
+     */
+    public synchronized boolean beginRefresh(String owner, String path) {
+        return refreshing.add(key(owner, path));
+    }
+
+    public synchronized void endRefresh(String owner, String path) {
+        refreshing.remove(key(owner, path));
+    }
+
+    /**
+     * 门户修改了目录内容，使该目录的缓存失效。
+     */
+    public synchronized void invalidate(String owner, String path) {
+        generation++;
+        if (remove(key(owner, path))) {
+            logger.debug("目录列表缓存已失效: {} {}", owner, path);
+        }
+    }
+
+    /**
+     * 使文件所在目录的缓存失效。
+     */
+    public void invalidateParent(String owner, String filePath) {
+        String normalized = normalize(filePath);
+        int slash = normalized.lastIndexOf('/');
+        if (slash < 0) {
+            invalidate(owner, "");
+        } else {
+            invalidate(owner, slash == 0 ? "/" : normalized.substring(0, slash));
+        }
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    private boolean remove(String key) {
+        Listing removed = entries.remove(key);
+        if (removed == null) {
+            return false;
+        }
+        totalBytes -= removed.estimatedBytes();
+        return true;
+    }
+
+    private static String key(String owner, String path) {
+        return owner + "\n" + normalize(path);
+    }
+
+    /**
+     * 按字面规范化路径：合并重复的斜杠，去掉 "." 和末尾斜杠，解析 ".."。不解析符号链接，
+     * 相对路径（相对于登录目录）保持相对。
+     */
+    public static String normalize(String path) {
+        if (path == null || path.isEmpty()) {
+            return "";
+        }
+        boolean absolute = path.startsWith("/");
+        Deque<String> segments = new ArrayDeque<>();
+        for (String segment : path.split("/")) {
+            if (segment.isEmpty() || segment.equals(".")) {
+                continue;
+            }
+            if (segment.equals("..")) {
+                if (!segments.isEmpty() && !segments.peekLast().equals("..")) {
+                    segments.removeLast();
+                } else if (!absolute) {
+                    segments.addLast(segment);
+                }
+                continue;
+            }
+            segments.addLast(segment);
+        }
+        String joined = String.join("/", segments);
+        return absolute ? "/" + joined : joined;
+    }
+}
@@ -0,0 +1,113 @@
+package com.leaderjs.operator.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+import org.springframework.stereotype.Service;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.async.AsyncWebRequest;
+import org.springframework.web.context.request.async.CallableProcessingInterceptor;
+import org.springframework.web.context.request.async.WebAsyncManager;
+import org.springframework.web.context.request.async.WebAsyncUtils;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.concurrent.Callable;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * HTTP 下载响应体的执行器：/api/download 的 StreamingResponseBody 在这里写出，不占用 Spring MVC 默认的异步线程池，
+ * 也不受全局异步超时的限制。
+ * <p>
+ * 同时写出的响应数量有上限，名额在返回响应体之前占用，超出时由调用方直接返回 503；
+ * 名额在异步请求结束时归还，无论响应体写完、出错、超时还是客户端提前断开。
+ */
+@Service
+public class HttpDownloadExecutor implements DisposableBean {
+    private static final Logger logger = LoggerFactory.getLogger(HttpDownloadExecutor.class);
+    private static final String INTERCEPTOR_KEY = HttpDownloadExecutor.class.getName();
+
+    private final ThreadPoolExecutor executor;
+    private final TaskExecutorAdapter taskExecutor;
+    private final int maxConcurrent;
+    private final long timeoutMillis;
+    private final AtomicInteger active = new AtomicInteger();
+    private final Counter rejectedCounter;
+
+    public HttpDownloadExecutor(MeterRegistry meterRegistry,
+                                @Value("${app.ssh.http-download.max-concurrent:64}") int maxConcurrent,
+                                @Value("${app.ssh.http-download.timeout-ms:0}") long timeoutMillis) {
+        this.maxConcurrent = Math.max(1, maxConcurrent);
+        this.timeoutMillis = timeoutMillis;
+        AtomicInteger sequence = new AtomicInteger();
+        // 线程数由名额约束，名额归还时线程可能还没回到池中，线程池本身不设上限，避免偶发拒绝
+        this.executor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS,
+                new SynchronousQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "http-download-" + sequence.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.taskExecutor = new TaskExecutorAdapter(executor);
+
+        Gauge.builder("http.download.active", active, AtomicInteger::get)
+                .description("正在写出的HTTP下载响应")
+                .register(meterRegistry);
+        this.rejectedCounter = Counter.builder("http.download.rejected")
+                .description("因达到上限被拒绝的HTTP下载")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 为请求占用一个名额，并让随后返回的 StreamingResponseBody 在本执行器上写出。
+     * 只应在确定返回响应体时调用。
+     *
+     * @return 达到上限时返回 false，调用方应返回 503
+     */
+    public boolean begin(HttpServletRequest request) {
+        if (active.incrementAndGet() > maxConcurrent) {
+            active.decrementAndGet();
+            rejectedCounter.increment();
+            logger.warn("HTTP下载已达上限，拒绝新的下载");
+            return false;
+        }
+        WebAsyncManager asyncManager = WebAsyncUtils.getAsyncManager(request);
+        asyncManager.setTaskExecutor(taskExecutor);
+        asyncManager.registerCallableInterceptor(INTERCEPTOR_KEY, new SlotInterceptor());
+        return true;
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 设置本次请求的异步超时，异步请求结束时归还名额。
+     */
+    private final class SlotInterceptor implements CallableProcessingInterceptor {
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        @Override
+        public <T> void beforeConcurrentHandling(NativeWebRequest request, Callable<T> task) {
+            if (request instanceof AsyncWebRequest asyncRequest) {
+                // 0 表示不限制，下载大文件可能持续很久
+                asyncRequest.setTimeout(timeoutMillis);
+            }
+        }
+
+        @Override
+        public <T> void afterCompletion(NativeWebRequest request, Callable<T> task) {
+            if (released.compareAndSet(false, true)) {
+                active.decrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.leaderjs.operator.service;
+
+import com.leaderjs.operator.model.Operator;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * MySQL 连接池：每个 operator 一个 HikariCP 连接池，所有 /ws/mysql 控制台共享，
+ * 刷新页面或多人同时打开控制台都不再重新建立 TCP 连接和认证。
+ * <p>
+ * 连接池指标由 HikariCP 以 hikaricp.connections.* 上报（pool 标签为 mysql-{operatorId}），
+ * 其中 hikaricp.connections.acquire 是借出连接的等待时间，hikaricp.connections.usage 是连接的占用时长。
+ * <p>
+ * 每个 operator 的连接数上限默认为 app.mysql.pool.max-size，可以用 app.mysql.pool.operators.{operatorId}.max-size 单独设置。
+ */
+@Service
+public class MySQLConnectionPools implements DisposableBean {
+    private static final Logger logger = LoggerFactory.getLogger(MySQLConnectionPools.class);
+
+    private final MeterRegistry meterRegistry;
+    private final Environment environment;
+    private final Map<String, Pool> pools = new ConcurrentHashMap<>();
+
+    private final int maxSize;
+    private final int minIdle;
+    private final long connectionTimeoutMillis;
+    private final long idleTimeoutMillis;
+    private final long maxLifetimeMillis;
+    private final long validationTimeoutMillis;
+    private final long keepaliveMillis;
+
+    public MySQLConnectionPools(MeterRegistry meterRegistry, Environment environment,
+                                @Value("${app.mysql.pool.max-size:5}") int maxSize,
+                                @Value("${app.mysql.pool.min-idle:0}") int minIdle,
+                                @Value("${app.mysql.pool.connection-timeout-ms:10000}") long connectionTimeoutMillis,
+                                @Value("${app.mysql.pool.idle-timeout-ms:300000}") long idleTimeoutMillis,
+                                @Value("${app.mysql.pool.max-lifetime-ms:1800000}") long maxLifetimeMillis,
+                                @Value("${app.mysql.pool.validation-timeout-ms:3000}") long validationTimeoutMillis,
+                                @Value("${app.mysql.pool.keepalive-ms:0}") long keepaliveMillis) {
+        this.meterRegistry = meterRegistry;
+        this.environment = environment;
+        this.maxSize = Math.max(1, maxSize);
+        this.minIdle = Math.max(0, minIdle);
+        this.connectionTimeoutMillis = connectionTimeoutMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.maxLifetimeMillis = maxLifetimeMillis;
+        this.validationTimeoutMillis = validationTimeoutMillis;
+        this.keepaliveMillis = keepaliveMillis;
+    }
+
+    /**
+     * 为 operator 打开一个控制台会话，连接按语句从连接池借出。
+     */
+    public MySQLConsoleSession openSession(Operator operator) {
+        return new MySQLConsoleSession(operator.getId(), dataSource(operator));
+    }
+
+    /**
+     * 获取 operator 的连接池，首次使用时创建。operator 的地址或账号变化后旧连接池关闭，按新信息重建。
+     * 创建连接池时会建立第一个连接，目标库不可用时抛出异常，不缓存失败的连接池。
+     */
+    public HikariDataSource dataSource(Operator operator) {
+        String fingerprint = fingerprint(operator);
+        Pool pool = pools.compute(operator.getId(), (id, existing) -> {
+            if (existing != null && existing.fingerprint().equals(fingerprint) && !existing.dataSource().isClosed()) {
+                return existing;
+            }
+            if (existing != null) {
+                logger.info("MySQL连接信息已变化，关闭旧连接池: {}", id);
+                existing.dataSource().close();
+            }
+            return new Pool(fingerprint, create(operator));
+        });
+        return pool.dataSource();
+    }
+
+    /**
+     * 关闭 operator 的连接池，例如 operator 被删除时。借出的连接随之中断。
+     */
+    public void closePool(String operatorId) {
+        Pool pool = pools.remove(operatorId);
+        if (pool != null) {
+            pool.dataSource().close();
+            logger.info("MySQL连接池已关闭: {}", operatorId);
+        }
+    }
+
+    private HikariDataSource create(Operator operator) {
+        HikariConfig config = new HikariConfig();
+        config.setPoolName("mysql-" + operator.getId());
+        config.setJdbcUrl(String.format("jdbc:mysql://%s:%d?useSSL=false&allowPublicKeyRetrieval=true&serverTimezone=UTC",
+                operator.getHost(),
+                operator.getPort()));
+        config.setUsername(operator.getUsername());
+        config.setPassword(operator.getPassword());
+        int operatorMaxSize = environment.getProperty("app.mysql.pool.operators." + operator.getId() + ".max-size",
+                Integer.class, maxSize);
+        config.setMaximumPoolSize(Math.max(1, operatorMaxSize));
+        config.setMinimumIdle(Math.min(minIdle, config.getMaximumPoolSize()));
+        config.setConnectionTimeout(connectionTimeoutMillis);
+        config.setIdleTimeout(idleTimeoutMillis);
+        config.setMaxLifetime(maxLifetimeMillis);
+        config.setValidationTimeout(validationTimeoutMillis);
+        config.setKeepaliveTime(keepaliveMillis);
+        config.setMetricRegistry(meterRegistry);
+        HikariDataSource dataSource = new HikariDataSource(config);
+        logger.info("MySQL连接池已创建: {}, 连接数上限 {}", config.getPoolName(), config.getMaximumPoolSize());
+        return dataSource;
+    }
+
+    private static String fingerprint(Operator operator) {
+        return operator.getHost() + ":" + operator.getPort() + "/" + operator.getUsername() + "/"
+                + Objects.hashCode(operator.getPassword());
+    }
+
+    @Override
+    public void destroy() {
+        pools.values().forEach(pool -> pool.dataSource().close());
+        pools.clear();
+    }
+
+    private record Pool(String fingerprint, HikariDataSource dataSource) {
+    }
+}
@@ -0,0 +1,360 @@
+package com.leaderjs.operator.service;
+
+import com.mysql.cj.MysqlConnection;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 一个 MySQL 控制台（WebSocket 会话）的连接使用方式：每条语句从连接池借出连接，执行完即归还。
+ * <p>
+ * 以下情况连接固定在本会话上，不再每条语句归还：
+ * <ul>
+ * <li>BEGIN / START TRANSACTION 开始的事务，COMMIT 或 ROLLBACK 之后归还；</li>
+ * <li>SET、LOCK TABLES、CREATE TEMPORARY TABLE、PREPARE，以及 GET_LOCK、INTO @变量、:= 赋值等建立了会话级状态的语句，
+ * 连接保持到控制台关闭，关闭时直接断开，状态不会带给下一个借用者。</li>
+ * </ul>
+ * USE 不固定连接：控制台记录选择的数据库，每次借出连接时用 {@link Connection#setCatalog} 切换过去。
+ * MySQL 无法取消已选择的数据库，没有选择数据库的控制台借到留有其他控制台所选数据库的连接时，断开该连接重新借出。
+ */
+public class MySQLConsoleSession implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(MySQLConsoleSession.class);
+    // 语句执行后在连接上留下状态：用户变量赋值和命名锁
+    private static final String SESSION_STATE_REGEX = "\\bINTO\\s+@|:=|\\bGET_LOCK\\s*\\(";
+    private static final Pattern SESSION_STATE_PATTERN = Pattern.compile(SESSION_STATE_REGEX);
+    // 语句有副作用或结果依赖当前连接：@ 用户变量和 @@ 系统变量（默认取会话值）、会话相关的函数
+    private static final Pattern SIDE_EFFECT_PATTERN = Pattern.compile(SESSION_STATE_REGEX
+            + "|\\bFOR\\s+(UPDATE|SHARE)\\b|\\bLOCK\\s+IN\\s+SHARE\\s+MODE\\b|\\bINTO\\b|@"
+            + "|\\b(RELEASE_LOCK|RELEASE_ALL_LOCKS|SLEEP|BENCHMARK|LAST_INSERT_ID|FOUND_ROWS|ROW_COUNT"
+            + "|CONNECTION_ID|RAND|UUID|NEXTVAL|DATABASE|SCHEMA|USER|SESSION_USER|SYSTEM_USER|CURRENT_ROLE)\\s*\\("
+            + "|\\bCURRENT_USER\\b");
+    // 结果属于当前连接的 SHOW：上一条语句的警告和错误、会话的状态和变量（不写 GLOBAL 时默认取会话值）、会话的 profile
+    private static final Pattern SESSION_SHOW_PATTERN = Pattern.compile("(?s)SHOW\\s+("
+            + "(((SESSION|LOCAL)\\s+)?(STATUS|VARIABLES)|WARNINGS|ERRORS|PROFILES?)\\b|COUNT\\s*\\().*");
+    private static final Pattern USE_PATTERN = Pattern.compile("(?is)USE\\s+(`(?:[^`]|``)+`|[^\\s;`]+)\\s*;?\\s*");
+
+    private final String operatorId;
+    private final HikariDataSource dataSource;
+    // 固定在本会话上的连接，访问都在 this 上同步
+    private Connection pinned;
+    private boolean inTransaction;
+    private boolean sessionState;
+    private String catalog;
+    private boolean busy;
+    private boolean closed;
+
+    MySQLConsoleSession(String operatorId, HikariDataSource dataSource) {
+        this.operatorId = operatorId;
+        this.dataSource = dataSource;
+    }
+
+    public String operatorId() {
+        return operatorId;
+    }
+
+    /**
+     * USE 选择的数据库，未选择时为 null。
+     */
+    public synchronized String catalog() {
+        return catalog;
+    }
+
+    /**
+     * 是否处于事务中或有会话级状态，此时语句的结果可能依赖会话，不应使用缓存的结果。
+     */
+    public synchronized boolean isPinned() {
+        return inTransaction || sessionState;
+    }
+
+    /**
+     * 在借出的连接上执行一条语句，work 负责执行 sql 并发送结果。语句的类型决定执行后连接是否固定在会话上。
+     */
+    public <T> T execute(String sql, Work<T> work) throws SQLException, IOException {
+        Kind kind = classify(sql);
+        Connection connection;
+        boolean borrowed;
+        String selectedCatalog;
+        synchronized (this) {
+            if (closed) {
+                throw new SQLException("MySQL控制台已关闭");
+            }
+            if (busy) {
+                throw new SQLException("上一条语句仍在执行");
+            }
+            busy = true;
+            connection = pinned;
+            borrowed = connection == null;
+            selectedCatalog = catalog;
+        }
+        boolean succeeded = false;
+        try {
+            if (borrowed) {
+                connection = borrow(selectedCatalog);
+            }
+            T result = work.run(connection);
+            succeeded = true;
+            return result;
+        } finally {
+            afterStatement(connection, kind, sql, succeeded);
+        }
+    }
+
+    /**
+     * 从连接池借出连接并切换到控制台选择的数据库。控制台没有选择数据库时，
+     * 连接上不能留有其他控制台选择的数据库，否则断开重新借出，新建立的连接没有选择数据库。
+     */
+    private Connection borrow(String selectedCatalog) throws SQLException {
+        while (true) {
+            Connection connection = dataSource.getConnection();
+            try {
+                if (selectedCatalog != null) {
+                    connection.setCatalog(selectedCatalog);
+                    return connection;
+                }
+                // 没有选择数据库时驱动返回空字符串
+                String current = connection.getCatalog();
+                if (current == null || current.isEmpty()) {
+                    return connection;
+                }
+            } catch (SQLException | RuntimeException e) {
+                connection.close();
+                throw e;
+            }
+            dataSource.evictConnection(connection);
+        }
+    }
+
+    /**
+     * 根据刚执行的语句更新连接的固定状态，不再固定的连接归还连接池。
+     */
+    private void afterStatement(Connection connection, Kind kind, String sql, boolean succeeded) throws SQLException {
+        String usedCatalog = succeeded && kind == Kind.USE ? useTarget(sql) : null;
+        boolean syncFailed = false;
+        if (usedCatalog != null && connection != null && !connection.isClosed()) {
+            // 语句中的 USE 驱动不会记录，同步给驱动，之后借出时才能判断连接上选择的数据库
+            try {
+                connection.setCatalog(usedCatalog);
+            } catch (SQLException e) {
+                logger.warn("同步选择的数据库失败，断开连接", e);
+                syncFailed = true;
+            }
+        }
+        boolean evict;
+        boolean rollback = false;
+        synchronized (this) {
+            busy = false;
+            if (connection == null) {
+                // 没有借到连接
+                return;
+            }
+            if (connection.isClosed()) {
+                // 连接已断开（HikariCP 在致命错误后关闭代理连接），事务和会话状态随之丢失
+                if (pinned == connection) {
+                    logger.warn("MySQL控制台固定的连接已断开，事务和会话状态已丢失");
+                }
+                pinned = null;
+                inTransaction = false;
+                sessionState = false;
+                return;
+            }
+            if (succeeded) {
+                switch (kind) {
+                    case USE -> catalog = usedCatalog;
+                    case BEGIN -> inTransaction = true;
+                    case END -> inTransaction = false;
+                    case SESSION_STATE -> sessionState = true;
+                    default -> {
+                    }
+                }
+            }
+            if (closed || syncFailed) {
+                // 执行期间控制台已关闭，或连接上选择的数据库无法确定，连接由这里处理
+                pinned = null;
+                evict = sessionState || syncFailed;
+                rollback = inTransaction;
+                if (syncFailed) {
+                    inTransaction = false;
+                    sessionState = false;
+                }
+            } else if (inTransaction || sessionState) {
+                pinned = connection;
+                return;
+            } else {
+                pinned = null;
+                evict = false;
+            }
+        }
+        release(connection, evict, rollback);
+    }
+
+    /**
+     * 关闭控制台。有会话级状态的连接直接断开；只是处于事务中的连接回滚后归还。
+     * 语句正在执行时由执行线程在语句结束后处理连接。
+     */
+    @Override
+    public void close() {
+        Connection connection;
+        boolean evict;
+        boolean rollback;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (busy || pinned == null) {
+                return;
+            }
+            connection = pinned;
+            evict = sessionState;
+            rollback = inTransaction;
+            pinned = null;
+        }
+        try {
+            release(connection, evict, rollback);
+        } catch (SQLException e) {
+            logger.warn("归还MySQL连接失败", e);
+        }
+    }
+
+    /**
+     * 中止正在执行的语句：连接池有空闲连接时在旁路连接上执行 KILL QUERY，
+     * 否则交给驱动的 Statement.cancel()（驱动自己新建一个连接执行 KILL QUERY）。
+     */
+    public void cancel(Statement statement) {
+        try {
+            long threadId = statement.getConnection().unwrap(MysqlConnection.class).getId();
+            HikariPoolMXBean pool = dataSource.getHikariPoolMXBean();
+            if (pool != null && pool.getIdleConnections() > 0) {
+                try (Connection side = dataSource.getConnection();
+                     Statement kill = side.createStatement()) {
+                    kill.execute("KILL QUERY " + threadId);
+                    return;
+                } catch (SQLException e) {
+                    logger.debug("旁路连接执行 KILL QUERY 失败，改用 Statement.cancel()", e);
+                }
+            }
+            statement.cancel();
+        } catch (SQLException e) {
+            logger.warn("取消SQL查询失败", e);
+        }
+    }
+
+    private void release(Connection connection, boolean evict, boolean rollback) throws SQLException {
+        if (rollback && !evict) {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("ROLLBACK");
+            } catch (SQLException e) {
+                logger.warn("回滚未完成的事务失败，断开连接", e);
+                evict = true;
+            }
+        }
+        if (evict) {
+            dataSource.evictConnection(connection);
+        } else {
+            connection.close();
+        }
+    }
+
+    static Kind classify(String sql) {
+        String statement = stripLeadingComments(sql);
+        String upper = statement.toUpperCase(Locale.ROOT);
+        if (USE_PATTERN.matcher(statement).matches()) {
+            return Kind.USE;
+        }
+        if (startsWithWord(upper, "BEGIN") || upper.startsWith("START ")
+                && startsWithWord(upper.substring(6).stripLeading(), "TRANSACTION")) {
+            return Kind.BEGIN;
+        }
+        if (startsWithWord(upper, "COMMIT")
+                || startsWithWord(upper, "ROLLBACK") && !upper.matches("(?s)ROLLBACK\\s+(WORK\\s+)?TO\\b.*")) {
+            return Kind.END;
+        }
+        // SET 包括 SET autocommit = 0：关闭自动提交后每条语句都在事务中，直到控制台关闭都保留连接
+        if (startsWithWord(upper, "SET") || startsWithWord(upper, "LOCK") || startsWithWord(upper, "PREPARE")
+                || upper.matches("(?s)CREATE\\s+TEMPORARY\\b.*") || SESSION_STATE_PATTERN.matcher(upper).find()) {
+            return Kind.SESSION_STATE;
+        }
+        return Kind.OTHER;
+    }
+
+    /**
+     * 判断语句是否只读且结果只取决于数据：SELECT（不含加锁读、INTO、变量读写和有副作用或依赖会话的函数）、
+     * SHOW（不含警告、错误、会话状态和会话变量）、DESCRIBE 和 EXPLAIN（不含 EXPLAIN ANALYZE）。
+     * 缓存键不区分连接，结果依赖连接的语句不能缓存。判断保守，字符串中出现这些关键字时也视为非只读。
+     */
+    public static boolean isReadOnly(String sql) {
+        String upper = stripLeadingComments(sql).toUpperCase(Locale.ROOT);
+        if (startsWithWord(upper, "SHOW")) {
+            return !SESSION_SHOW_PATTERN.matcher(upper).matches();
+        }
+        if (startsWithWord(upper, "DESC") || startsWithWord(upper, "DESCRIBE")) {
+            return true;
+        }
+        if (startsWithWord(upper, "EXPLAIN")) {
+            return !upper.matches("(?s)EXPLAIN\\s+ANALYZE\\b.*");
+        }
+        return startsWithWord(upper, "SELECT") && !SIDE_EFFECT_PATTERN.matcher(upper).find();
+    }
+
+    private static String useTarget(String sql) {
+        Matcher matcher = USE_PATTERN.matcher(stripLeadingComments(sql));
+        if (!matcher.matches()) {
+            return null;
+        }
+        String name = matcher.group(1);
+        if (name.startsWith("`")) {
+            name = name.substring(1, name.length() - 1).replace("``", "`");
+        }
+        return name;
+    }
+
+    private static boolean startsWithWord(String upper, String word) {
+        return upper.startsWith(word)
+                && (upper.length() == word.length() || !Character.isLetterOrDigit(upper.charAt(word.length())));
+    }
+
+    /**
+     * 去掉语句开头的空白、块注释和行注释（-- 和 #），MySQL 的可执行注释保留。
+     */
+    private static String stripLeadingComments(String sql) {
+        int i = 0;
+        int length = sql.length();
+        while (i < length) {
+            char c = sql.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (sql.startsWith("/*", i) && !sql.startsWith("/*!", i)) {
+                int end = sql.indexOf("*/", i + 2);
+                i = end < 0 ? length : end + 2;
+            } else if (c == '#' || sql.startsWith("--", i)
+                    && (i + 2 == length || Character.isWhitespace(sql.charAt(i + 2)))) {
+                int end = sql.indexOf('\n', i);
+                i = end < 0 ? length : end + 1;
+            } else {
+                break;
+            }
+        }
+        return sql.substring(i);
+    }
+
+    enum Kind {
+        USE, BEGIN, END, SESSION_STATE, OTHER
+    }
+
+    /**
+     * 在借出的连接上执行语句。
+     */
+    @FunctionalInterface
+    public interface Work<T> {
+        T run(Connection connection) throws SQLException, IOException;
+    }
+}
@@ -0,0 +1,72 @@
+package com.leaderjs.operator.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * MySQL 查询执行器：控制台的语句都在这里执行，消息处理线程只负责入队，执行期间仍能处理
+ * 同一会话发来的接收额度和取消消息。每个控制台同一时刻只有一条语句在执行器上，顺序由 {@link MySQLQueryQueue} 保证；
+ * 同时执行的语句达到上限时，后续语句在执行器队列中等待空闲线程。
+ */
+@Service
+public class MySQLQueryExecutor implements DisposableBean {
+    private static final Logger logger = LoggerFactory.getLogger(MySQLQueryExecutor.class);
+
+    private final ThreadPoolExecutor executor;
+    private final Counter rejectedCounter;
+
+    public MySQLQueryExecutor(MeterRegistry meterRegistry,
+                              @Value("${app.mysql.query.max-concurrent:32}") int maxConcurrent) {
+        AtomicInteger sequence = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(maxConcurrent, maxConcurrent, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "mysql-query-" + sequence.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.AbortPolicy());
+        this.executor.allowCoreThreadTimeOut(true);
+
+        Gauge.builder("mysql.query.active", executor, ThreadPoolExecutor::getActiveCount)
+                .description("正在执行的SQL语句")
+                .register(meterRegistry);
+        Gauge.builder("mysql.query.waiting", executor, e -> e.getQueue().size())
+                .description("等待执行线程的SQL语句")
+                .register(meterRegistry);
+        this.rejectedCounter = Counter.builder("mysql.query.rejected")
+                .description("执行器关闭后被拒绝的SQL语句")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 提交一个查询任务。
+     *
+     * @return 执行器已关闭时返回 false
+     */
+    public boolean submit(Runnable query) {
+        try {
+            executor.execute(query);
+            return true;
+        } catch (RejectedExecutionException e) {
+            rejectedCounter.increment();
+            logger.warn("查询执行器已关闭，拒绝新的查询");
+            return false;
+        }
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdownNow();
+    }
+}
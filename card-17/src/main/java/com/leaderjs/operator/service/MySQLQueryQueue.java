@@ -0,0 +1,284 @@
+package com.leaderjs.operator.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * 一个 MySQL 控制台的查询队列：语句按收到的顺序在 {@link MySQLQueryExecutor} 上逐条执行，
+ * 消息处理线程只负责入队。每条语句有查询 ID，排队中的语句直接移出队列，执行中的语句通过
+ * {@link MySQLConsoleSession#cancel(Statement)} 中止。状态变化（queued、running、done、failed、cancelled）通知给 listener。
+ */
+public class MySQLQueryQueue {
+    private static final Logger logger = LoggerFactory.getLogger(MySQLQueryQueue.class);
+
+    public enum State {
+        QUEUED, RUNNING, DONE, FAILED, CANCELLED
+    }
+
+    private final MySQLConsoleSession console;
+    private final MySQLQueryExecutor executor;
+    private final int maxQueued;
+    private final Listener listener;
+
+    // 以下字段访问都在 this 上同步
+    private final Deque<Query> pending = new ArrayDeque<>();
+    private Query running;
+    private boolean closed;
+
+    public MySQLQueryQueue(MySQLConsoleSession console, MySQLQueryExecutor executor, int maxQueued, Listener listener) {
+        this.console = console;
+        this.executor = executor;
+        this.maxQueued = Math.max(1, maxQueued);
+        this.listener = listener;
+    }
+
+    /**
+     * 语句入队，队列已满或控制台已关闭时返回 null。
+     */
+    public Query submit(String id, String sql, Task task) {
+        Query query = new Query(id, sql, task);
+        boolean start;
+        synchronized (this) {
+            if (closed || pending.size() >= maxQueued) {
+                return null;
+            }
+            pending.addLast(query);
+            start = running == null;
+        }
+        listener.status(query);
+        if (start) {
+            runNext();
+        }
+        return query;
+    }
+
+    /**
+     * 取消排队中或执行中的语句，查询 ID 不存在或已结束时返回 false。
+     */
+    public boolean cancel(String id) {
+        Query target = null;
+        synchronized (this) {
+            for (Query query : pending) {
+                if (query.id.equals(id)) {
+                    target = query;
+                    break;
+                }
+            }
+            if (target != null) {
+                pending.remove(target);
+                target.finish(State.CANCELLED, null);
+            } else if (running != null && running.id.equals(id)) {
+                target = running;
+            }
+        }
+        if (target == null) {
+            return false;
+        }
+        if (target.state == State.CANCELLED) {
+            listener.status(target);
+        } else {
+            target.cancel(console);
+        }
+        return true;
+    }
+
+    /**
+     * 当前执行中的语句。
+     */
+    public synchronized Query running() {
+        return running;
+    }
+
+    /**
+     * 关闭队列：排队中的语句取消，执行中的语句中止。
+     */
+    public void close() {
+        List<Query> dropped;
+        Query current;
+        synchronized (this) {
+            closed = true;
+            dropped = new ArrayList<>(pending);
+            pending.clear();
+            current = running;
+        }
+        dropped.forEach(query -> query.finish(State.CANCELLED, null));
+        if (current != null) {
+            current.cancel(console);
+        }
+    }
+
+    private void runNext() {
+        Query next;
+        synchronized (this) {
+            if (running != null || pending.isEmpty()) {
+                return;
+            }
+            next = pending.pollFirst();
+            running = next;
+        }
+        if (!executor.submit(() -> run(next))) {
+            synchronized (this) {
+                running = null;
+            }
+            next.finish(State.FAILED, "查询执行器已关闭");
+            listener.status(next);
+        }
+    }
+
+    private void run(Query query) {
+        query.start();
+        listener.status(query);
+        State state = State.DONE;
+        String error = null;
+        try {
+            query.task.run(query);
+        } catch (Exception e) {
+            state = query.cancelRequested ? State.CANCELLED : State.FAILED;
+            error = e.getMessage();
+            if (state == State.FAILED) {
+                logger.warn("执行SQL查询失败: {}, {}", query.id, e.getMessage());
+            }
+        } finally {
+            query.finish(state, error);
+            synchronized (this) {
+                running = null;
+            }
+        }
+        listener.status(query);
+        runNext();
+    }
+
+    /**
+     * 一条排队执行的语句。执行期间 task 通过 {@link #attach(Statement)} 登记正在执行的语句，
+     * 在归还连接之前调用 {@link #detach()}，取消只作用于本语句。
+     */
+    public static final class Query {
+        private final String id;
+        private final String sql;
+        private final Task task;
+        private final long queuedAt = System.nanoTime();
+        private volatile long startedAt;
+        private volatile long finishedAt;
+        private volatile State state = State.QUEUED;
+        private volatile String error;
+        private volatile boolean cancelRequested;
+        private volatile MySQLResultStream stream;
+        // 以下字段访问都在 this 上同步
+        private Statement statement;
+
+        private Query(String id, String sql, Task task) {
+            this.id = id;
+            this.sql = sql;
+            this.task = task;
+        }
+
+        public String id() {
+            return id;
+        }
+
+        public String sql() {
+            return sql;
+        }
+
+        public State state() {
+            return state;
+        }
+
+        public String error() {
+            return error;
+        }
+
+        public MySQLResultStream stream() {
+            return stream;
+        }
+
+        /**
+         * 排队时长（毫秒），尚未开始执行时为截至目前的时长。
+         */
+        public long queuedMillis() {
+            long end = startedAt != 0 ? startedAt : finishedAt != 0 ? finishedAt : System.nanoTime();
+            return (end - queuedAt) / 1_000_000;
+        }
+
+        /**
+         * 执行时长（毫秒），未开始执行时为 0。
+         */
+        public long runMillis() {
+            if (startedAt == 0) {
+                return 0;
+            }
+            return ((finishedAt != 0 ? finishedAt : System.nanoTime()) - startedAt) / 1_000_000;
+        }
+
+        /**
+         * 登记流式结果，取消时随之中止。
+         */
+        public void attach(MySQLResultStream stream) {
+            this.stream = stream;
+            if (cancelRequested) {
+                stream.abort();
+            }
+        }
+
+        public synchronized void attach(Statement statement) throws SQLException {
+            if (cancelRequested) {
+                throw new SQLException("查询已取消");
+            }
+            this.statement = statement;
+        }
+
+        public synchronized void detach() {
+            statement = null;
+        }
+
+        private void start() {
+            startedAt = System.nanoTime();
+            state = State.RUNNING;
+        }
+
+        private void finish(State state, String error) {
+            finishedAt = System.nanoTime();
+            this.state = state;
+            this.error = error;
+        }
+
+        /**
+         * 在语句对象上持锁中止，语句结束后 detach 要等这里完成，KILL QUERY 不会落到同一连接的下一条语句上。
+         */
+        private void cancel(MySQLConsoleSession console) {
+            cancelRequested = true;
+            MySQLResultStream current = stream;
+            if (current != null) {
+                current.abort();
+            }
+            synchronized (this) {
+                if (statement != null) {
+                    console.cancel(statement);
+                }
+            }
+        }
+    }
+
+    /**
+     * 在执行器线程上执行一条语句。
+     */
+    @FunctionalInterface
+    public interface Task {
+        void run(Query query) throws Exception;
+    }
+
+    /**
+     * 语句状态变化的通知，可能在消息处理线程或执行器线程上调用。
+     */
+    @FunctionalInterface
+    public interface Listener {
+        void status(Query query);
+    }
+}
@@ -0,0 +1,317 @@
+package com.leaderjs.operator.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 只读查询的结果缓存：看板上反复执行的诊断查询（复制状态、information_schema 中的表大小、进程列表等）
+ * 在有效期内直接返回缓存的结果，不再访问数据库。
+ * <p>
+ * 客户端按查询选择使用缓存并指定有效期（不超过 app.mysql.cache.max-ttl-seconds），也可以跳过缓存强制重新查询。
+ * 缓存键是 operator、当前数据库和规范化后的 SQL，只缓存 {@link MySQLConsoleSession#isReadOnly(String)} 判定为只读的语句，
+ * 控制台处于事务中或有会话级状态时不使用缓存。缓存的是编码好的批数据，总大小不超过 app.mysql.cache.max-bytes，
+ * 超出时淘汰最久未使用的结果；单个结果超过 app.mysql.cache.max-entry-bytes 时不缓存。
+ * <p>
+ * 命中情况以 mysql.cache.requests 上报（result 标签为 hit、miss、bypass）。
+ */
+@Service
+public class MySQLResultCache {
+    // 每个条目的固定开销估算
+    private static final long ENTRY_OVERHEAD = 256;
+
+    private final long maxBytes;
+    private final long maxEntryBytes;
+    private final int maxTtlSeconds;
+
+    // 按访问顺序排列，最久未使用的在前；访问都在 this 上同步
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter bypasses;
+    private final Counter evictions;
+
+    public MySQLResultCache(MeterRegistry meterRegistry,
+                            @Value("${app.mysql.cache.max-bytes:67108864}") long maxBytes,
+                            @Value("${app.mysql.cache.max-entry-bytes:4194304}") long maxEntryBytes,
+                            @Value("${app.mysql.cache.max-ttl-seconds:300}") int maxTtlSeconds) {
+        this.maxBytes = Math.max(0, maxBytes);
+        this.maxEntryBytes = Math.min(Math.max(0, maxEntryBytes), this.maxBytes);
+        this.maxTtlSeconds = Math.max(0, maxTtlSeconds);
+
+        this.hits = Counter.builder("mysql.cache.requests").tag("result", "hit")
+                .description("结果缓存的查询次数")
+                .register(meterRegistry);
+        this.misses = Counter.builder("mysql.cache.requests").tag("result", "miss")
+                .description("结果缓存的查询次数")
+                .register(meterRegistry);
+        this.bypasses = Counter.builder("mysql.cache.requests").tag("result", "bypass")
+                .description("结果缓存的查询次数")
+                .register(meterRegistry);
+        this.evictions = Counter.builder("mysql.cache.evictions")
+                .description("因容量不足被淘汰的缓存结果")
+                .register(meterRegistry);
+        Gauge.builder("mysql.cache.bytes", this, MySQLResultCache::bytes)
+                .description("缓存结果占用的估算字节数")
+                .register(meterRegistry);
+        Gauge.builder("mysql.cache.entries", this, MySQLResultCache::size)
+                .description("缓存的结果数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 客户端请求的有效期不超过配置的上限，返回 0 表示不使用缓存。
+     */
+    public int ttlSeconds(int requested) {
+        return maxBytes == 0 ? 0 : Math.min(Math.max(0, requested), maxTtlSeconds);
+    }
+
+    /**
+     * 查找未过期的结果，同时记录命中或未命中。
+     */
+    public synchronized Entry get(Key key) {
+        Entry entry = entries.get(key);
+        if (entry != null && entry.expired()) {
+            remove(key);
+            entry = null;
+        }
+        (entry != null ? hits : misses).increment();
+        return entry;
+    }
+
+    /**
+     * 记录一次客户端要求跳过缓存的查询，查询结果仍会存入缓存。
+     */
+    public void recordBypass() {
+        bypasses.increment();
+    }
+
+    public synchronized void put(Key key, Entry entry) {
+        if (entry.bytes > maxEntryBytes) {
+            return;
+        }
+        remove(key);
+        entries.put(key, entry);
+        totalBytes += entry.bytes;
+        Iterator<Map.Entry<Key, Entry>> eldest = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && eldest.hasNext()) {
+            Entry evicted = eldest.next().getValue();
+            eldest.remove();
+            totalBytes -= evicted.bytes;
+            if (!evicted.expired()) {
+                evictions.increment();
+            }
+        }
+    }
+
+    /**
+     * 清除 operator 的所有缓存结果，例如 operator 被修改或删除时。
+     */
+    public synchronized void invalidate(String operatorId) {
+        Iterator<Map.Entry<Key, Entry>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Key, Entry> next = iterator.next();
+            if (next.getKey().operatorId().equals(operatorId)) {
+                totalBytes -= next.getValue().bytes;
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * 边发送边记录一个结果，结果完整发送后存入缓存，超过单条上限时放弃记录。
+     */
+    public Recorder recorder(Key key, int ttlSeconds) {
+        return new Recorder(key, TimeUnit.SECONDS.toNanos(ttlSeconds));
+    }
+
+    private void remove(Key key) {
+        Entry removed = entries.remove(key);
+        if (removed != null) {
+            totalBytes -= removed.bytes;
+        }
+    }
+
+    private synchronized long bytes() {
+        return totalBytes;
+    }
+
+    private synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * 缓存键。SQL 规范化时合并引号之外的连续空白并去掉末尾的分号，大小写保持不变。
+     */
+    public record Key(String operatorId, String catalog, String sql) {
+        public static Key of(String operatorId, String catalog, String sql) {
+            return new Key(operatorId, catalog, normalize(sql));
+        }
+    }
+
+    static String normalize(String sql) {
+        StringBuilder normalized = new StringBuilder(sql.length());
+        char quote = 0;
+        boolean space = false;
+        for (int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (quote != 0) {
+                normalized.append(c);
+                if (c == '\\' && quote != '`' && i + 1 < sql.length()) {
+                    normalized.append(sql.charAt(++i));
+                } else if (c == quote) {
+                    quote = 0;
+                }
+            } else if (Character.isWhitespace(c)) {
+                space = true;
+            } else {
+                if (space && normalized.length() > 0) {
+                    normalized.append(' ');
+                }
+                space = false;
+                if (c == '\'' || c == '"' || c == '`') {
+                    quote = c;
+                }
+                normalized.append(c);
+            }
+        }
+        int end = normalized.length();
+        while (end > 0 && (normalized.charAt(end - 1) == ';' || normalized.charAt(end - 1) == ' ')) {
+            end--;
+        }
+        normalized.setLength(end);
+        return normalized.toString();
+    }
+
+    /**
+     * 一个缓存的结果：列信息和按列编码的各批数据（result_rows 帧中 data 字段的 JSON 文本）。
+     */
+    public static final class Entry {
+        private final List<String> names;
+        private final List<String> types;
+        private final List<String> tags;
+        private final List<String> batches;
+        private final List<Integer> counts;
+        private final long rowCount;
+        private final boolean truncated;
+        private final long bytes;
+        private final long createdAt = System.currentTimeMillis();
+        private final long expiresAt;
+
+        private Entry(Recorder recorder, long rowCount, boolean truncated) {
+            this.names = recorder.names;
+            this.types = recorder.types;
+            this.tags = recorder.tags;
+            this.batches = recorder.batches;
+            this.counts = recorder.counts;
+            this.rowCount = rowCount;
+            this.truncated = truncated;
+            this.bytes = recorder.bytes;
+            this.expiresAt = System.nanoTime() + recorder.ttlNanos;
+        }
+
+        public List<String> names() {
+            return names;
+        }
+
+        public List<String> types() {
+            return types;
+        }
+
+        public List<String> tags() {
+            return tags;
+        }
+
+        public List<String> batches() {
+            return batches;
+        }
+
+        public List<Integer> counts() {
+            return counts;
+        }
+
+        public long rowCount() {
+            return rowCount;
+        }
+
+        public boolean truncated() {
+            return truncated;
+        }
+
+        /**
+         * 结果从数据库读出至今的毫秒数。
+         */
+        public long ageMillis() {
+            return Math.max(0, System.currentTimeMillis() - createdAt);
+        }
+
+        private boolean expired() {
+            return System.nanoTime() - expiresAt >= 0;
+        }
+    }
+
+    /**
+     * 记录正在发送的结果，在 end 时存入缓存。
+     */
+    public final class Recorder {
+        private final Key key;
+        private final long ttlNanos;
+        private List<String> names;
+        private List<String> types;
+        private List<String> tags;
+        private final List<String> batches = new ArrayList<>();
+        private final List<Integer> counts = new ArrayList<>();
+        private long bytes = ENTRY_OVERHEAD;
+        private boolean abandoned;
+
+        private Recorder(Key key, long ttlNanos) {
+            this.key = key;
+            this.ttlNanos = ttlNanos;
+        }
+
+        public void columns(MySQLResultCodec codec) {
+            names = codec.names();
+            types = codec.types();
+            tags = codec.tags();
+            for (int i = 0; i < names.size(); i++) {
+                bytes += 2L * (names.get(i).length() + types.get(i).length() + tags.get(i).length());
+            }
+        }
+
+        public void rows(int count, String data) {
+            if (abandoned) {
+                return;
+            }
+            // Java 字符串按每字符两字节计
+            bytes += 2L * data.length();
+            if (bytes > maxEntryBytes) {
+                abandoned = true;
+                batches.clear();
+                counts.clear();
+                return;
+            }
+            batches.add(data);
+            counts.add(count);
+        }
+
+        /**
+         * 结果发送完成，存入缓存。
+         */
+        public void end(long rowCount, boolean truncated) {
+            if (!abandoned && names != null) {
+                put(key, new Entry(this, rowCount, truncated));
+            }
+        }
+    }
+}
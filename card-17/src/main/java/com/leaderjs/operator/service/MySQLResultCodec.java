@@ -0,0 +1,383 @@
+package com.leaderjs.operator.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 查询结果的列式编码：按 ResultSetMetaData.getColumnType 为每列确定类型标记，用对应的 getter 读取，
+ * 整数、浮点数和布尔值存放在基本类型数组中，不逐个装箱。一批数据按列输出为 JSON 数组，每列一个数组。
+ * <p>
+ * 各类型标记的 JSON 表示：
+ * <ul>
+ * <li>int：数字，超出 JavaScript 安全整数范围（±2^53）的值以字符串表示；</li>
+ * <li>double：数字；</li>
+ * <li>decimal：字符串，保留精确值，BIGINT UNSIGNED 也按 decimal 处理；</li>
+ * <li>bool：true / false；</li>
+ * <li>date、time、datetime：MySQL 返回的文本，如 2024-01-31、12:00:00、2024-01-31 12:00:00，不做时区换算；</li>
+ * <li>binary：Base64 字符串；</li>
+ * <li>string：字符串，JSON 列也以文本发送。</li>
+ * </ul>
+ * NULL 在任何列中都是 null。
+ */
+public final class MySQLResultCodec {
+    // JavaScript Number 能精确表示的整数范围
+    private static final long MAX_SAFE_INTEGER = (1L << 53) - 1;
+    // 估算批大小时数字和布尔值按固定字节数计
+    private static final int VALUE_BYTES = 8;
+
+    public enum Tag {
+        INT, DOUBLE, DECIMAL, BOOL, DATE, TIME, DATETIME, BINARY, STRING;
+
+        public String wireName() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private final List<String> names;
+    private final List<String> types;
+    private final Tag[] tags;
+
+    private MySQLResultCodec(List<String> names, List<String> types, Tag[] tags) {
+        this.names = names;
+        this.types = types;
+        this.tags = tags;
+    }
+
+    public static MySQLResultCodec of(ResultSetMetaData metaData) throws SQLException {
+        int columnCount = metaData.getColumnCount();
+        List<String> names = new ArrayList<>(columnCount);
+        List<String> types = new ArrayList<>(columnCount);
+        Tag[] tags = new Tag[columnCount];
+        for (int i = 1; i <= columnCount; i++) {
+            names.add(metaData.getColumnLabel(i));
+            types.add(metaData.getColumnTypeName(i));
+            tags[i - 1] = tag(metaData, i);
+        }
+        return new MySQLResultCodec(names, types, tags);
+    }
+
+    private static Tag tag(ResultSetMetaData metaData, int column) throws SQLException {
+        return switch (metaData.getColumnType(column)) {
+            case Types.TINYINT, Types.SMALLINT, Types.INTEGER -> Tag.INT;
+            // BIGINT UNSIGNED 可能超出 long 的范围
+            case Types.BIGINT -> metaData.isSigned(column) ? Tag.INT : Tag.DECIMAL;
+            // TINYINT(1) 和 BIT(1) 驱动都报告为 BIT
+            case Types.BIT -> metaData.getPrecision(column) <= 1 ? Tag.BOOL : Tag.INT;
+            case Types.BOOLEAN -> Tag.BOOL;
+            case Types.REAL, Types.FLOAT, Types.DOUBLE -> Tag.DOUBLE;
+            case Types.DECIMAL, Types.NUMERIC -> Tag.DECIMAL;
+            case Types.DATE -> Tag.DATE;
+            case Types.TIME -> Tag.TIME;
+            case Types.TIMESTAMP, Types.TIMESTAMP_WITH_TIMEZONE -> Tag.DATETIME;
+            case Types.BINARY, Types.VARBINARY, Types.LONGVARBINARY, Types.BLOB -> Tag.BINARY;
+            default -> Tag.STRING;
+        };
+    }
+
+    public List<String> names() {
+        return names;
+    }
+
+    /**
+     * MySQL 的列类型名，如 VARCHAR、DECIMAL。
+     */
+    public List<String> types() {
+        return types;
+    }
+
+    /**
+     * 每列的类型标记，决定该列在批数据中的 JSON 表示。
+     */
+    public List<String> tags() {
+        List<String> wireNames = new ArrayList<>(tags.length);
+        for (Tag tag : tags) {
+            wireNames.add(tag.wireName());
+        }
+        return wireNames;
+    }
+
+    public Batch newBatch(int capacity) {
+        return new Batch(tags, Math.max(1, capacity));
+    }
+
+    /**
+     * 一批数据行，按列存放。批可以 clear 后重复使用。
+     */
+    public static final class Batch {
+        private final Column[] columns;
+        private int size;
+        private long bytes;
+
+        private Batch(Tag[] tags, int capacity) {
+            columns = new Column[tags.length];
+            for (int i = 0; i < tags.length; i++) {
+                columns[i] = switch (tags[i]) {
+                    case INT -> new LongColumn(capacity);
+                    case DOUBLE -> new DoubleColumn(capacity);
+                    case BOOL -> new BoolColumn();
+                    default -> new ObjectColumn(tags[i], capacity);
+                };
+            }
+        }
+
+        /**
+         * 读取结果集的当前行追加到批中。
+         */
+        public void read(ResultSet resultSet) throws SQLException {
+            for (int i = 0; i < columns.length; i++) {
+                bytes += columns[i].read(resultSet, i + 1, size);
+            }
+            size++;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        /**
+         * 估算的编码后字节数。
+         */
+        public long bytes() {
+            return bytes;
+        }
+
+        public void clear() {
+            for (Column column : columns) {
+                column.clear();
+            }
+            size = 0;
+            bytes = 0;
+        }
+
+        /**
+         * 输出为列数组的数组：[[第 1 列的值...], [第 2 列的值...], ...]。
+         */
+        public void writeColumns(JsonGenerator generator) throws IOException {
+            generator.writeStartArray();
+            for (Column column : columns) {
+                generator.writeStartArray();
+                for (int row = 0; row < size; row++) {
+                    column.write(generator, row);
+                }
+                generator.writeEndArray();
+            }
+            generator.writeEndArray();
+        }
+
+        /**
+         * 转换为按行的列表，值的类型与 JSON 表示一致（binary 为 Base64 字符串）。
+         */
+        public List<List<Object>> toRows() {
+            List<List<Object>> rows = new ArrayList<>(size);
+            for (int row = 0; row < size; row++) {
+                List<Object> values = new ArrayList<>(columns.length);
+                for (Column column : columns) {
+                    values.add(column.value(row));
+                }
+                rows.add(values);
+            }
+            return rows;
+        }
+    }
+
+    private abstract static class Column {
+        final BitSet nulls = new BitSet();
+
+        /**
+         * 读取一个值存入 row 位置，返回估算的字节数。
+         */
+        abstract long read(ResultSet resultSet, int index, int row) throws SQLException;
+
+        abstract void write(JsonGenerator generator, int row) throws IOException;
+
+        abstract Object value(int row);
+
+        void clear() {
+            nulls.clear();
+        }
+    }
+
+    private static final class LongColumn extends Column {
+        private long[] values;
+
+        LongColumn(int capacity) {
+            values = new long[capacity];
+        }
+
+        @Override
+        long read(ResultSet resultSet, int index, int row) throws SQLException {
+            if (row == values.length) {
+                values = Arrays.copyOf(values, row * 2);
+            }
+            values[row] = resultSet.getLong(index);
+            if (resultSet.wasNull()) {
+                nulls.set(row);
+            }
+            return VALUE_BYTES;
+        }
+
+        @Override
+        void write(JsonGenerator generator, int row) throws IOException {
+            if (nulls.get(row)) {
+                generator.writeNull();
+            } else if (!safe(values[row])) {
+                generator.writeString(Long.toString(values[row]));
+            } else {
+                generator.writeNumber(values[row]);
+            }
+        }
+
+        @Override
+        Object value(int row) {
+            if (nulls.get(row)) {
+                return null;
+            }
+            return safe(values[row]) ? values[row] : Long.toString(values[row]);
+        }
+
+        private static boolean safe(long value) {
+            return value >= -MAX_SAFE_INTEGER && value <= MAX_SAFE_INTEGER;
+        }
+    }
+
+    private static final class DoubleColumn extends Column {
+        private double[] values;
+
+        DoubleColumn(int capacity) {
+            values = new double[capacity];
+        }
+
+        @Override
+        long read(ResultSet resultSet, int index, int row) throws SQLException {
+            if (row == values.length) {
+                values = Arrays.copyOf(values, row * 2);
+            }
+            values[row] = resultSet.getDouble(index);
+            if (resultSet.wasNull()) {
+                nulls.set(row);
+            }
+            return VALUE_BYTES;
+        }
+
+        @Override
+        void write(JsonGenerator generator, int row) throws IOException {
+            if (nulls.get(row)) {
+                generator.writeNull();
+            } else {
+                generator.writeNumber(values[row]);
+            }
+        }
+
+        @Override
+        Object value(int row) {
+            return nulls.get(row) ? null : values[row];
+        }
+    }
+
+    private static final class BoolColumn extends Column {
+        private final BitSet values = new BitSet();
+
+        @Override
+        long read(ResultSet resultSet, int index, int row) throws SQLException {
+            values.set(row, resultSet.getBoolean(index));
+            if (resultSet.wasNull()) {
+                nulls.set(row);
+            }
+            return VALUE_BYTES;
+        }
+
+        @Override
+        void write(JsonGenerator generator, int row) throws IOException {
+            if (nulls.get(row)) {
+                generator.writeNull();
+            } else {
+                generator.writeBoolean(values.get(row));
+            }
+        }
+
+        @Override
+        Object value(int row) {
+            return nulls.get(row) ? null : values.get(row);
+        }
+
+        @Override
+        void clear() {
+            super.clear();
+            values.clear();
+        }
+    }
+
+    /**
+     * 以字符串（binary 为字节数组）存放的列。
+     */
+    private static final class ObjectColumn extends Column {
+        private final Tag tag;
+        private Object[] values;
+
+        ObjectColumn(Tag tag, int capacity) {
+            this.tag = tag;
+            values = new Object[capacity];
+        }
+
+        @Override
+        long read(ResultSet resultSet, int index, int row) throws SQLException {
+            if (row == values.length) {
+                values = Arrays.copyOf(values, row * 2);
+            }
+            Object value = switch (tag) {
+                case DECIMAL -> {
+                    BigDecimal decimal = resultSet.getBigDecimal(index);
+                    yield decimal != null ? decimal.toPlainString() : null;
+                }
+                case BINARY -> resultSet.getBytes(index);
+                // 日期时间取 MySQL 返回的文本，不经过 JVM 时区换算
+                default -> resultSet.getString(index);
+            };
+            values[row] = value;
+            if (value == null) {
+                nulls.set(row);
+                return VALUE_BYTES;
+            }
+            if (value instanceof byte[] data) {
+                return data.length * 4L / 3;
+            }
+            return ((String) value).length();
+        }
+
+        @Override
+        void write(JsonGenerator generator, int row) throws IOException {
+            Object value = values[row];
+            if (value == null) {
+                generator.writeNull();
+            } else if (value instanceof byte[] data) {
+                generator.writeBinary(data);
+            } else {
+                generator.writeString((String) value);
+            }
+        }
+
+        @Override
+        Object value(int row) {
+            Object value = values[row];
+            return value instanceof byte[] data ? Base64.getEncoder().encodeToString(data) : value;
+        }
+
+        @Override
+        void clear() {
+            super.clear();
+            Arrays.fill(values, null);
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.leaderjs.operator.service;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 流式读取一个查询结果：MySQL 驱动逐行读取（fetchSize = Integer.MIN_VALUE），先发送列信息，
+ * 再按批发送数据行，内存中最多保留一批。数据行由 {@link MySQLResultCodec} 按列类型读取并按列存放。
+ * <p>
+ * 客户端用接收额度（行数）控制发送速度，额度用完后停止读取结果，直到客户端授予新的额度；
+ * 服务端在读满 maxRows 行后停止并标记结果被截断。总行数限制通过 setMaxRows 交给服务端执行，
+ * 截断时不必读完剩余的结果。
+ */
+public class MySQLResultStream {
+    private final int batchRows;
+    private final long batchBytes;
+    private final int maxRows;
+    private final long creditTimeoutNanos;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition granted = lock.newCondition();
+    private long credit;
+    private boolean aborted;
+
+    public MySQLResultStream(int batchRows, long batchBytes, int maxRows, long initialCredit, long creditTimeoutMillis) {
+        this.batchRows = Math.max(1, batchRows);
+        this.batchBytes = Math.max(1, batchBytes);
+        this.maxRows = Math.max(1, maxRows);
+        this.credit = Math.max(0, initialCredit);
+        this.creditTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(creditTimeoutMillis);
+    }
+
+    /**
+     * 创建逐行读取的语句，服务端最多返回 maxRows + 1 行，多出的一行用来判断是否截断。
+     */
+    public Statement createStatement(Connection connection) throws SQLException {
+        Statement statement = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        statement.setFetchSize(Integer.MIN_VALUE);
+        if (maxRows < Integer.MAX_VALUE) {
+            statement.setMaxRows(maxRows + 1);
+        }
+        return statement;
+    }
+
+    /**
+     * 读取并发送整个结果，返回发送的行数。
+     */
+    public long stream(ResultSet resultSet, Sink sink) throws SQLException, IOException {
+        MySQLResultCodec codec = MySQLResultCodec.of(resultSet.getMetaData());
+        sink.columns(codec);
+
+        MySQLResultCodec.Batch batch = codec.newBatch(batchRows);
+        long count = 0;
+        boolean truncated = false;
+        while (true) {
+            // 额度用完时当前批已经发出，等待新的额度后再读下一行
+            awaitCredit();
+            if (!resultSet.next()) {
+                break;
+            }
+            if (count == maxRows) {
+                truncated = true;
+                break;
+            }
+            batch.read(resultSet);
+            count++;
+            if (consumeCredit() == 0 || batch.size() >= batchRows || batch.bytes() >= batchBytes) {
+                sink.rows(batch);
+                batch.clear();
+            }
+        }
+        if (batch.size() > 0) {
+            sink.rows(batch);
+        }
+        sink.end(count, truncated);
+        return count;
+    }
+
+    /**
+     * 发送已经读好的一批行（例如缓存的结果）之前等待额度，额度可以因此变为负数，客户端归还后恢复。
+     */
+    public void acquire(int rows) throws IOException {
+        awaitCredit();
+        lock.lock();
+        try {
+            if (credit != Long.MAX_VALUE) {
+                credit -= rows;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 客户端授予更多的接收额度。
+     */
+    public void grant(long rows) {
+        if (rows <= 0) {
+            return;
+        }
+        lock.lock();
+        try {
+            credit = credit > Long.MAX_VALUE - rows ? Long.MAX_VALUE : credit + rows;
+            granted.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 中止读取，例如客户端断开时。正在等待额度的读取方随即抛出异常。
+     */
+    public void abort() {
+        lock.lock();
+        try {
+            aborted = true;
+            granted.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void awaitCredit() throws IOException {
+        lock.lock();
+        try {
+            long remaining = creditTimeoutNanos;
+            while (!aborted && credit <= 0) {
+                if (remaining <= 0) {
+                    throw new IOException("等待客户端接收额度超时");
+                }
+                remaining = granted.awaitNanos(remaining);
+            }
+            if (aborted) {
+                throw new IOException("查询已中止");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("等待接收额度被中断");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private long consumeCredit() {
+        lock.lock();
+        try {
+            return credit == Long.MAX_VALUE ? credit : --credit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 结果的接收方，依次收到列信息、若干批数据行和结束标记。批对象在 rows 返回后会被清空重用。
+     */
+    public interface Sink {
+        void columns(MySQLResultCodec codec) throws IOException;
+
+        void rows(MySQLResultCodec.Batch batch) throws IOException;
+
+        void end(long rowCount, boolean truncated) throws IOException;
+    }
+}
@@ -0,0 +1,322 @@
+package com.leaderjs.operator.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jcraft.jsch.ChannelSftp;
+import com.leaderjs.operator.service.SSHSessionManager.PooledSftp;
+import com.leaderjs.operator.service.SSHSessionManager.SSHSessionLease;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * 分页列出超大目录。通过 {@link ChannelSftp#ls(String, ChannelSftp.LsEntrySelector)} 逐条接收目录项，
+ * 名称前缀和过滤条件在接收时就地应用，只保留紧凑的 {@link RemoteEntry}，不构建完整的 LsEntry 向量。
+ * 目录已在 {@link DirectoryListingCache} 中时直接从缓存的目录项分页，不访问 SFTP。
+ * <p>
+ * 协议：每页一条 {@code file_list}，含 offset、files、cursor（下一页的续传令牌，没有更多时为 null）、
+ * complete（目录是否已读完）。不排序时读满第一页就立即发送，其余目录项继续在后台读取；
+ * 要求排序时读完整个目录再排序发送。客户端带 cursor 再发 {@code list_files} 取下一页，
+ * 尚未读到的页在传输线程上等待。
+ */
+public class PagedListing implements Runnable {
+    private static final Logger logger = LoggerFactory.getLogger(PagedListing.class);
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final String token;
+    private final SSHSessionLease lease;
+    private final String path;
+    private final WebSocketSession session;
+    private final int pageSize;
+    private final int maxEntries;
+    private final long pageTimeoutMillis;
+    private final String sort;
+    private final boolean descending;
+    private final String prefix;
+    private final String filter;
+    private final Comparator<RemoteEntry> order;
+    // 缓存的目录项，非空时不读取 SFTP
+    private List<RemoteEntry> cached;
+    private boolean stale;
+    private Consumer<List<RemoteEntry>> onFullListing;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition progressed = lock.newCondition();
+    private final List<RemoteEntry> entries = new ArrayList<>();
+    private boolean complete;
+    private boolean truncated;
+    private boolean cancelled;
+    private boolean firstPageSent;
+    private IOException failure;
+
+    /**
+     * @param sort   name、size 或 modified，为空时按服务端返回的顺序
+     * @param prefix 名称前缀
+     * @param filter 名称包含该字符串（不区分大小写）
+     */
+    public PagedListing(String token, SSHSessionLease lease, String path, WebSocketSession session, int pageSize,
+                        int maxEntries, long pageTimeoutMillis, String sort, boolean descending, String prefix,
+                        String filter) {
+        this.token = token;
+        this.lease = lease;
+        this.path = path;
+        this.session = session;
+        this.pageSize = pageSize;
+        this.maxEntries = maxEntries;
+        this.pageTimeoutMillis = pageTimeoutMillis;
+        this.sort = sort;
+        this.descending = descending;
+        this.prefix = prefix != null && !prefix.isEmpty() ? prefix : null;
+        this.filter = filter != null && !filter.isEmpty() ? filter.toLowerCase(Locale.ROOT) : null;
+        Comparator<RemoteEntry> comparator = comparator(sort);
+        this.order = comparator != null && descending ? comparator.reversed() : comparator;
+    }
+
+    /**
+     * 以相同的路径、排序和过滤条件创建新的分页列表，用于缓存刷新后重新分页。
+     */
+    public PagedListing copy(String newToken) {
+        return new PagedListing(newToken, lease, path, session, pageSize, maxEntries, pageTimeoutMillis, sort,
+                descending, prefix, filter);
+    }
+
+    /**
+     * 从缓存的目录项分页，不读取 SFTP。
+     *
+     * @param stale 缓存已超过 TTL，页中带 stale 标记，调用方负责后台刷新
+     */
+    public PagedListing fromCache(List<RemoteEntry> cachedEntries, boolean stale) {
+        this.cached = cachedEntries;
+        this.stale = stale;
+        return this;
+    }
+
+    /**
+     * 从 SFTP 完整读取了目录（没有前缀和过滤条件、没有截断）时，以服务端顺序回调全部目录项，用于写入缓存。
+     */
+    public PagedListing onFullListing(Consumer<List<RemoteEntry>> callback) {
+        this.onFullListing = callback;
+        return this;
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public void cancel() {
+        lock.lock();
+        try {
+            cancelled = true;
+            progressed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            if (cached != null) {
+                for (RemoteEntry entry : cached) {
+                    if (!accept(entry)) {
+                        break;
+                    }
+                }
+            } else {
+                try (PooledSftp sftp = lease.borrowSftp()) {
+                    sftp.channel().ls(path, lsEntry -> accept(RemoteEntry.of(lsEntry))
+                            ? ChannelSftp.LsEntrySelector.CONTINUE
+                            : ChannelSftp.LsEntrySelector.BREAK);
+                }
+            }
+
+            List<RemoteEntry> fullListing = null;
+            lock.lock();
+            try {
+                if (cancelled) {
+                    return;
+                }
+                if (cached == null && !truncated && prefix == null && filter == null) {
+                    fullListing = List.copyOf(entries);
+                }
+                if (order != null) {
+                    entries.sort(order);
+                }
+                complete = true;
+                progressed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            if (fullListing != null && onFullListing != null) {
+                onFullListing.accept(fullListing);
+            }
+            if (!isFirstPageSent()) {
+                sendPage(0, pageSize);
+            }
+            logger.info("目录读取完成: {}, {} 项", path, entries.size());
+        } catch (Exception e) {
+            logger.error("获取目录内容失败: {}", path, e);
+            lock.lock();
+            try {
+                failure = e instanceof IOException io ? io : new IOException(e.getMessage(), e);
+                progressed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            sendError("获取目录内容失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 接收一个目录项。
+     *
+     * @return 需要停止读取（已取消或达到上限）时返回 false
+     */
+    private boolean accept(RemoteEntry entry) {
+        String name = entry.name();
+        if (name.equals(".") || name.equals("..") || !matches(name)) {
+            return true;
+        }
+        boolean sendFirstPage;
+        lock.lock();
+        try {
+            if (cancelled) {
+                return false;
+            }
+            if (entries.size() >= maxEntries) {
+                truncated = true;
+                return false;
+            }
+            entries.add(entry);
+            progressed.signalAll();
+            // 不排序时读满第一页就发送，不等整个目录读完
+            sendFirstPage = order == null && !firstPageSent && entries.size() == pageSize;
+        } finally {
+            lock.unlock();
+        }
+        if (sendFirstPage) {
+            try {
+                sendPage(0, pageSize);
+            } catch (IOException e) {
+                logger.warn("发送目录第一页失败: {}", path, e);
+                cancel();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean matches(String name) {
+        if (prefix != null && !name.startsWith(prefix)) {
+            return false;
+        }
+        return filter == null || name.toLowerCase(Locale.ROOT).contains(filter);
+    }
+
+    /**
+     * 发送从 offset 开始的一页，目录项还没读到时等待。在传输线程上调用。
+     */
+    public void sendPage(int offset, int limit) throws IOException {
+        List<Map<String, Object>> files = new ArrayList<>(limit);
+        boolean listingComplete;
+        int total;
+        long remaining = TimeUnit.MILLISECONDS.toNanos(pageTimeoutMillis);
+        lock.lock();
+        try {
+            // 排序时只能在读完后分页
+            while (!cancelled && failure == null && !complete
+                    && (order != null || entries.size() < offset + limit)) {
+                if (remaining <= 0) {
+                    throw new IOException("读取目录超时");
+                }
+                remaining = progressed.awaitNanos(remaining);
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            if (cancelled) {
+                return;
+            }
+            int end = Math.min(entries.size(), offset + limit);
+            for (int i = offset; i < end; i++) {
+                files.add(entries.get(i).toMessage());
+            }
+            listingComplete = complete;
+            total = entries.size();
+            if (offset == 0) {
+                firstPageSent = true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("读取目录被中断", e);
+        } finally {
+            lock.unlock();
+        }
+
+        int next = offset + files.size();
+        Map<String, Object> page = new LinkedHashMap<>();
+        page.put("type", "file_list");
+        page.put("path", path);
+        page.put("offset", offset);
+        page.put("files", files);
+        page.put("cursor", listingComplete && next >= total ? null : token + ":" + next);
+        page.put("complete", listingComplete);
+        page.put("stale", stale);
+        if (listingComplete) {
+            page.put("total", total);
+            page.put("truncated", truncated);
+        }
+        session.sendMessage(TerminalProtocol.control(objectMapper.writeValueAsString(page)));
+    }
+
+    private boolean isFirstPageSent() {
+        lock.lock();
+        try {
+            return firstPageSent;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void sendError(String message) {
+        try {
+            Map<String, Object> error = new LinkedHashMap<>();
+            error.put("type", "error");
+            error.put("path", path);
+            error.put("message", message);
+            session.sendMessage(TerminalProtocol.control(objectMapper.writeValueAsString(error)));
+        } catch (Exception e) {
+            logger.error("发送错误消息失败", e);
+        }
+    }
+
+    private static Comparator<RemoteEntry> comparator(String sort) {
+        if (sort == null || sort.isEmpty()) {
+            return null;
+        }
+        return switch (sort) {
+            case "size" -> Comparator.comparingLong(RemoteEntry::size).thenComparing(RemoteEntry::name);
+            case "modified" -> Comparator.comparingInt(RemoteEntry::mtime).thenComparing(RemoteEntry::name);
+            default -> Comparator.comparing(RemoteEntry::name);
+        };
+    }
+}
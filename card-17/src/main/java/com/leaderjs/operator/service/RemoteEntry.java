@@ -0,0 +1,33 @@
+package com.leaderjs.operator.service;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.SftpATTRS;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 远程目录中的一项，只保留文件列表需要的字段，供目录缓存和分页列表使用。
+ */
+public record RemoteEntry(String name, boolean directory, long size, int mtime) {
+
+    public static RemoteEntry of(ChannelSftp.LsEntry lsEntry) {
+        SftpATTRS attrs = lsEntry.getAttrs();
+        return new RemoteEntry(lsEntry.getFilename(), attrs.isDir(), attrs.getSize(), attrs.getMTime());
+    }
+
+    /**
+     * file_list 消息中的文件信息，格式与前端约定一致。
+     */
+    public Map<String, Object> toMessage() {
+        Map<String, Object> fileInfo = new HashMap<>();
+        fileInfo.put("name", name);
+        fileInfo.put("type", directory ? "directory" : "file");
+        if (!directory) {
+            fileInfo.put("size", size);
+            fileInfo.put("modified", new Date(mtime * 1000L).toString());
+        }
+        return fileInfo;
+    }
+}
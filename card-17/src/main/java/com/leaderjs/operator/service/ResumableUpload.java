@@ -0,0 +1,186 @@
+package com.leaderjs.operator.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 可续传的分块上传。每个数据块带偏移量，通过 FileChannel 按位置写入本地暂存文件，
+ * 已收到的区间合并记录，多个连接可以并行写入同一个上传。全部收齐后由调用方经 {@link SftpTransferEngine} 上传到 SFTP
+ * （大文件多通道按偏移量写入）。
+ * <p>
+ * 数据块不直接按偏移量写入远程文件，而是先在本地暂存：上传按 operator + 用户登记，可以在 WebSocket 断开后
+ * 从新的连接续传，暂存文件不依赖某个连接的共享会话和 SFTP 通道；远程目标文件在全部收齐后才出现，
+ * 中途放弃的上传不会在远端留下残缺文件；处理数据块的消息线程只做本地写入，不等待远端确认。
+ * 代价是暂存文件占用本地磁盘，由 app.ssh.upload.max-bytes 和 max-open-per-owner 限制。
+ */
+public class ResumableUpload {
+    private final long id;
+    private final String owner;
+    private final String filename;
+    private final String directory;
+    private final long size;
+    private final Path stagingFile;
+    private final FileChannel channel;
+    // 已收到的区间，起点 -> 终点（不含），互不相交且不相邻
+    private final TreeMap<Long, Long> ranges = new TreeMap<>();
+    private long receivedBytes;
+    private volatile long lastActivity = System.currentTimeMillis();
+    private volatile boolean committing;
+
+    ResumableUpload(long id, String owner, String filename, String directory, long size, Path stagingFile)
+            throws IOException {
+        this.id = id;
+        this.owner = owner;
+        this.filename = filename;
+        this.directory = directory;
+        this.size = size;
+        this.stagingFile = stagingFile;
+        this.channel = FileChannel.open(stagingFile, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * JSON 中使用的上传ID，16 位十六进制，避免 64 位整数在 JavaScript 中丢失精度。
+     */
+    public String getIdHex() {
+        return formatId(id);
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    public String getFilename() {
+        return filename;
+    }
+
+    public String getDirectory() {
+        return directory;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public Path getStagingFile() {
+        return stagingFile;
+    }
+
+    public long getLastActivity() {
+        return lastActivity;
+    }
+
+    public boolean isCommitting() {
+        return committing;
+    }
+
+    void setCommitting(boolean committing) {
+        this.committing = committing;
+    }
+
+    /**
+     * 在 offset 处写入一个数据块，可由多个线程并发调用。
+     */
+    public void write(long offset, ByteBuffer data) throws IOException {
+        int length = data.remaining();
+        if (offset < 0 || offset + length > size) {
+            throw new IOException("数据块超出文件范围: offset=" + offset + ", length=" + length);
+        }
+        if (committing) {
+            throw new IOException("上传已提交");
+        }
+        long position = offset;
+        while (data.hasRemaining()) {
+            position += channel.write(data, position);
+        }
+        addRange(offset, offset + length);
+        lastActivity = System.currentTimeMillis();
+    }
+
+    private synchronized void addRange(long start, long end) {
+        if (start == end) {
+            return;
+        }
+        // 与前一个区间重叠或相邻时合并
+        Map.Entry<Long, Long> floor = ranges.floorEntry(start);
+        if (floor != null && floor.getValue() >= start) {
+            start = floor.getKey();
+            end = Math.max(end, floor.getValue());
+            receivedBytes -= floor.getValue() - floor.getKey();
+            ranges.remove(floor.getKey());
+        }
+        // 吞并后续重叠或相邻的区间
+        Map.Entry<Long, Long> next;
+        while ((next = ranges.ceilingEntry(start)) != null && next.getKey() <= end) {
+            end = Math.max(end, next.getValue());
+            receivedBytes -= next.getValue() - next.getKey();
+            ranges.remove(next.getKey());
+        }
+        ranges.put(start, end);
+        receivedBytes += end - start;
+    }
+
+    /**
+     * 从 0 开始连续收到的字节数，客户端从这里续传即可。
+     */
+    public synchronized long getContiguousBytes() {
+        Map.Entry<Long, Long> first = ranges.firstEntry();
+        return first != null && first.getKey() == 0 ? first.getValue() : 0;
+    }
+
+    public synchronized boolean isComplete() {
+        return getContiguousBytes() == size;
+    }
+
+    public synchronized Map<String, Object> status() {
+        List<long[]> received = new ArrayList<>(ranges.size());
+        ranges.forEach((start, end) -> received.add(new long[]{start, end}));
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("type", "upload_status");
+        status.put("uploadId", getIdHex());
+        status.put("filename", filename);
+        status.put("size", size);
+        status.put("receivedBytes", receivedBytes);
+        status.put("contiguousBytes", getContiguousBytes());
+        status.put("ranges", received);
+        status.put("complete", getContiguousBytes() == size);
+        return status;
+    }
+
+    /**
+     * 关闭并删除暂存文件。
+     */
+    void discard() {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+            // 暂存文件随后删除
+        }
+        try {
+            Files.deleteIfExists(stagingFile);
+        } catch (IOException ignored) {
+            // 临时目录中的残留文件不影响功能
+        }
+    }
+
+    public static String formatId(long id) {
+        return String.format("%016x", id);
+    }
+
+    public static long parseId(String hex) {
+        return Long.parseUnsignedLong(hex, 16);
+    }
+}
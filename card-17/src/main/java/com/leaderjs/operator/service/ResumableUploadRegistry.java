@@ -0,0 +1,147 @@
+package com.leaderjs.operator.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.SecureRandom;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 可续传上传的注册表。上传与 WebSocket 连接无关，连接断开后凭上传ID继续；
+ * 超过保留时间没有新数据的上传连同暂存文件一起清理。
+ * <p>
+ * 暂存文件占用本地磁盘，单个文件的大小和每个所有者同时进行的上传数都有上限。
+ */
+@Service
+public class ResumableUploadRegistry implements DisposableBean {
+    private static final Logger logger = LoggerFactory.getLogger(ResumableUploadRegistry.class);
+
+    private final Map<Long, ResumableUpload> uploads = new ConcurrentHashMap<>();
+    private final SecureRandom random = new SecureRandom();
+    private final ScheduledExecutorService reaper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "upload-reaper");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Path stagingDirectory;
+    private final long retentionMillis;
+    private final long maxBytes;
+    private final int maxOpenPerOwner;
+
+    public ResumableUploadRegistry(MeterRegistry meterRegistry,
+                                   @Value("${app.ssh.upload.staging-dir:${java.io.tmpdir}/operator-uploads}") String stagingDirectory,
+                                   @Value("${app.ssh.upload.retention-ms:3600000}") long retentionMillis,
+                                   @Value("${app.ssh.upload.max-bytes:4294967296}") long maxBytes,
+                                   @Value("${app.ssh.upload.max-open-per-owner:8}") int maxOpenPerOwner) throws IOException {
+        this.stagingDirectory = Files.createDirectories(Paths.get(stagingDirectory));
+        this.retentionMillis = retentionMillis;
+        this.maxBytes = maxBytes;
+        this.maxOpenPerOwner = Math.max(1, maxOpenPerOwner);
+        long period = Math.max(1000, retentionMillis / 4);
+        reaper.scheduleWithFixedDelay(this::expire, period, period, TimeUnit.MILLISECONDS);
+
+        Gauge.builder("ssh.upload.resumable.open", uploads, Map::size)
+                .description("进行中的可续传上传")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 创建上传，在暂存目录中创建对应的文件。文件超过大小上限或所有者进行中的上传已达上限时抛出异常。
+     *
+     * @param owner operatorId 与用户，只有同一所有者的连接可以写入、查询和提交
+     */
+    public synchronized ResumableUpload open(String owner, String filename, String directory, long size)
+            throws IOException {
+        if (size > maxBytes) {
+            throw new IOException("文件大小超过上限: " + size + " > " + maxBytes + " bytes");
+        }
+        int open = 0;
+        for (ResumableUpload upload : uploads.values()) {
+            if (upload.getOwner().equals(owner)) {
+                open++;
+            }
+        }
+        if (open >= maxOpenPerOwner) {
+            throw new IOException("进行中的上传过多（上限 " + maxOpenPerOwner + " 个），请先完成或取消已有的上传");
+        }
+        while (true) {
+            long id = random.nextLong();
+            if (uploads.containsKey(id)) {
+                continue;
+            }
+            ResumableUpload upload = new ResumableUpload(id, owner, filename, directory, size,
+                    stagingDirectory.resolve(ResumableUpload.formatId(id) + ".part"));
+            uploads.put(id, upload);
+            logger.info("创建可续传上传: {}, 文件: {}, 大小: {} bytes", upload.getIdHex(), filename, size);
+            return upload;
+        }
+    }
+
+    /**
+     * 查找属于 owner 的上传，不存在或不属于 owner 时返回 null。
+     */
+    public ResumableUpload find(long id, String owner) {
+        ResumableUpload upload = uploads.get(id);
+        return upload != null && upload.getOwner().equals(owner) ? upload : null;
+    }
+
+    /**
+     * 开始提交，防止同一个上传被重复提交。
+     */
+    public boolean beginCommit(ResumableUpload upload) {
+        synchronized (upload) {
+            if (upload.isCommitting()) {
+                return false;
+            }
+            upload.setCommitting(true);
+            return true;
+        }
+    }
+
+    /**
+     * 提交失败时恢复为可写状态，客户端可以重试提交。
+     */
+    public void abortCommit(ResumableUpload upload) {
+        synchronized (upload) {
+            upload.setCommitting(false);
+        }
+    }
+
+    public void remove(ResumableUpload upload) {
+        if (uploads.remove(upload.getId(), upload)) {
+            upload.discard();
+        }
+    }
+
+    private void expire() {
+        long deadline = System.currentTimeMillis() - retentionMillis;
+        uploads.values().removeIf(upload -> {
+            if (upload.isCommitting() || upload.getLastActivity() > deadline) {
+                return false;
+            }
+            logger.info("可续传上传超过保留时间，已清理: {}", upload.getIdHex());
+            upload.discard();
+            return true;
+        });
+    }
+
+    @Override
+    public void destroy() {
+        reaper.shutdownNow();
+        uploads.values().forEach(ResumableUpload::discard);
+        uploads.clear();
+    }
+}
@@ -0,0 +1,185 @@
+package com.leaderjs.operator.service;
+
+import com.jcraft.jsch.JSch;
+import com.leaderjs.operator.model.Operator;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SSH 终端指标：回显延迟、输入输出字节数与帧数、SSH 连接各阶段耗时，
+ * 均按 operator、category、provider 打标签。
+ * <p>
+ * 连接阶段通过 JSch 的全局 Logger 取得：JSch 在调用线程上同步完成 socket 连接、密钥交换和认证，
+ * 并在每个阶段结束时输出 INFO 日志，这里用 ThreadLocal 只记录正在计时的线程，其余日志直接忽略。
+ */
+@Service
+public class SSHMetrics {
+    private static final String PHASE_SOCKET = "socket";
+    private static final String PHASE_KEX = "kex";
+    private static final String PHASE_AUTH = "auth";
+    private static final String PHASE_CHANNEL = "channel";
+
+    private final MeterRegistry meterRegistry;
+    private final ThreadLocal<ConnectTiming> connectTiming = new ThreadLocal<>();
+
+    public SSHMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        JSch.setLogger(new ConnectPhaseLogger());
+    }
+
+    public Tags tags(Operator operator) {
+        return Tags.of(
+                "operator", valueOrUnknown(operator.getName()),
+                "category", valueOrUnknown(operator.getCategory()),
+                "provider", valueOrUnknown(operator.getProvider()));
+    }
+
+    /**
+     * 为一个终端创建计量器，同一 operator 的终端共享同一组时间序列。
+     */
+    public TerminalMeters terminalMeters(Tags tags) {
+        return new TerminalMeters(tags);
+    }
+
+    /**
+     * 开始为当前线程上的 Session.connect 计时，必须在 finally 中调用 {@link #endConnect}。
+     */
+    public void beginConnect() {
+        connectTiming.set(new ConnectTiming(System.nanoTime()));
+    }
+
+    /**
+     * 结束计时，只有连接成功时才记录各阶段耗时。
+     */
+    public void endConnect(Tags tags, boolean succeeded) {
+        ConnectTiming timing = connectTiming.get();
+        connectTiming.remove();
+        if (timing == null || !succeeded) {
+            return;
+        }
+        long now = System.nanoTime();
+        long socket = timing.socketAt != 0 ? timing.socketAt : timing.startedAt;
+        long kex = timing.kexAt != 0 ? timing.kexAt : socket;
+        recordPhase(tags, PHASE_SOCKET, socket - timing.startedAt);
+        recordPhase(tags, PHASE_KEX, kex - socket);
+        recordPhase(tags, PHASE_AUTH, now - kex);
+    }
+
+    public void recordChannelOpen(Tags tags, long nanos) {
+        recordPhase(tags, PHASE_CHANNEL, nanos);
+    }
+
+    private void recordPhase(Tags tags, String phase, long nanos) {
+        Timer.builder("ssh.connect.phase")
+                .description("SSH连接各阶段耗时：socket连接、密钥交换、认证、通道打开")
+                .tags(tags)
+                .tag("phase", phase)
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofMillis(1))
+                .maximumExpectedValue(Duration.ofSeconds(30))
+                .register(meterRegistry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    private static String valueOrUnknown(String value) {
+        return value == null || value.isEmpty() ? "unknown" : value;
+    }
+
+    private static final class ConnectTiming {
+        private final long startedAt;
+        private long socketAt;
+        private long kexAt;
+
+        private ConnectTiming(long startedAt) {
+            this.startedAt = startedAt;
+        }
+    }
+
+    private final class ConnectPhaseLogger implements com.jcraft.jsch.Logger {
+        @Override
+        public boolean isEnabled(int level) {
+            return level == INFO && connectTiming.get() != null;
+        }
+
+        @Override
+        public void log(int level, String message) {
+            ConnectTiming timing = connectTiming.get();
+            if (timing == null) {
+                return;
+            }
+            if (timing.socketAt == 0 && message.startsWith("Connection established")) {
+                timing.socketAt = System.nanoTime();
+            } else if (timing.kexAt == 0 && message.startsWith("SSH_MSG_NEWKEYS received")) {
+                timing.kexAt = System.nanoTime();
+            }
+        }
+    }
+
+    /**
+     * 单个终端的计量器。回显延迟取输入写入通道到下一次读到输出的时间，
+     * 只记录尚未得到回应的第一次输入，连续输入不会重复计时。
+     */
+    public final class TerminalMeters {
+        private final Timer echoLatency;
+        private final Counter bytesIn;
+        private final Counter bytesOut;
+        private final Counter framesIn;
+        private final Counter framesOut;
+        private volatile long pendingInputAt;
+
+        private TerminalMeters(Tags tags) {
+            this.echoLatency = Timer.builder("ssh.terminal.echo.latency")
+                    .description("终端输入写入SSH通道到读到下一段输出的时间，近似回显延迟")
+                    .tags(tags)
+                    .publishPercentileHistogram()
+                    .minimumExpectedValue(Duration.ofMillis(1))
+                    .maximumExpectedValue(Duration.ofSeconds(10))
+                    .register(meterRegistry);
+            this.bytesIn = bytes(tags, "in");
+            this.bytesOut = bytes(tags, "out");
+            this.framesIn = frames(tags, "in");
+            this.framesOut = frames(tags, "out");
+        }
+
+        private Counter bytes(Tags tags, String direction) {
+            return Counter.builder("ssh.terminal.bytes")
+                    .description("终端输入输出字节数")
+                    .baseUnit("bytes")
+                    .tags(tags)
+                    .tag("direction", direction)
+                    .register(meterRegistry);
+        }
+
+        private Counter frames(Tags tags, String direction) {
+            return Counter.builder("ssh.terminal.frames")
+                    .description("终端输入输出的WebSocket帧数")
+                    .tags(tags)
+                    .tag("direction", direction)
+                    .register(meterRegistry);
+        }
+
+        public void input(int length) {
+            if (pendingInputAt == 0) {
+                pendingInputAt = System.nanoTime();
+            }
+            bytesIn.increment(length);
+            framesIn.increment();
+        }
+
+        public void output(int length) {
+            long inputAt = pendingInputAt;
+            if (inputAt != 0) {
+                pendingInputAt = 0;
+                echoLatency.record(System.nanoTime() - inputAt, TimeUnit.NANOSECONDS);
+            }
+            bytesOut.increment(length);
+            framesOut.increment();
+        }
+    }
+}
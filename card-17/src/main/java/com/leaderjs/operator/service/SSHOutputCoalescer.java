@@ -0,0 +1,79 @@
+package com.leaderjs.operator.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 终端输出合并器：把 SSH 通道的小块输出合并成较大的帧再交给 WebSocket。
+ * 输出空闲后的第一块数据（例如按键回显）立即发送；连续输出时在字节阈值或时间窗口到达时发送。
+ */
+public class SSHOutputCoalescer {
+
+    // 连续输出时轮询通道可读字节的间隔
+    private static final long POLL_NANOS = TimeUnit.MICROSECONDS.toNanos(500);
+
+    /**
+     * 合并后的输出接收方。buffer 在返回后会被复用，需要保留数据时必须自行拷贝。
+     */
+    @FunctionalInterface
+    public interface Sink {
+        void write(byte[] buffer, int offset, int length) throws IOException;
+    }
+
+    private final InputStream in;
+    private final Sink sink;
+    private final byte[] buffer;
+    private final long windowNanos;
+
+    public SSHOutputCoalescer(InputStream in, Sink sink, int flushBytes, long flushWindowMillis) {
+        this.in = in;
+        this.sink = sink;
+        this.buffer = new byte[Math.max(flushBytes, 1024)];
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(flushWindowMillis, 0));
+    }
+
+    /**
+     * 持续读取直到通道关闭，在调用线程上执行。
+     */
+    public void run() throws IOException {
+        long lastFlush = System.nanoTime() - windowNanos;
+        int length;
+        while ((length = in.read(buffer, 0, buffer.length)) != -1) {
+            long now = System.nanoTime();
+            if (now - lastFlush < windowNanos) {
+                // 上一帧刚发出，处于连续输出中：在窗口内继续攒数据
+                length = fill(length, now + windowNanos);
+            } else {
+                // 空闲后的第一块输出：只带上已经到达的数据，立即发送
+                length = fill(length, now);
+            }
+            sink.write(buffer, 0, length);
+            lastFlush = System.nanoTime();
+        }
+    }
+
+    private int fill(int length, long deadline) throws IOException {
+        while (length < buffer.length) {
+            int available = in.available();
+            if (available > 0) {
+                int n = in.read(buffer, length, Math.min(available, buffer.length - length));
+                if (n == -1) {
+                    break;
+                }
+                length += n;
+                continue;
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                break;
+            }
+            LockSupport.parkNanos(Math.min(POLL_NANOS, remaining));
+            if (Thread.currentThread().isInterrupted()) {
+                break;
+            }
+        }
+        return length;
+    }
+}
@@ -0,0 +1,136 @@
+package com.leaderjs.operator.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 终端输出泵执行器：负责把 SSH 通道的输出搬运到 WebSocket。
+ * JDK 21+ 上使用虚拟线程，JDK 17 上退化为小栈的平台线程池；两种情况下同时运行的泵数量都受上限约束。
+ */
+@Service
+public class SSHOutputPumpExecutor implements DisposableBean {
+    private static final Logger logger = LoggerFactory.getLogger(SSHOutputPumpExecutor.class);
+
+    // 泵循环调用层次很浅，平台线程不需要默认的 1MB 栈
+    private static final long PLATFORM_STACK_SIZE = 256 * 1024;
+
+    private final ThreadPoolExecutor executor;
+    private final Map<String, Future<?>> pumps = new ConcurrentHashMap<>();
+    private final Counter rejectedCounter;
+    private final boolean virtualThreads;
+
+    public SSHOutputPumpExecutor(MeterRegistry meterRegistry,
+                                 @Value("${app.ssh.pump.max-sessions:256}") int maxSessions,
+                                 @Value("${app.ssh.pump.queue-capacity:0}") int queueCapacity) {
+        ThreadFactory virtualFactory = virtualThreadFactory();
+        this.virtualThreads = virtualFactory != null;
+        ThreadFactory threadFactory = virtualThreads ? virtualFactory : platformThreadFactory();
+
+        BlockingQueue<Runnable> queue = queueCapacity > 0
+                ? new ArrayBlockingQueue<>(queueCapacity)
+                : new SynchronousQueue<>();
+        this.executor = new ThreadPoolExecutor(maxSessions, maxSessions, 60, TimeUnit.SECONDS,
+                queue, threadFactory, new ThreadPoolExecutor.AbortPolicy());
+        // 终端关闭后线程不常驻
+        this.executor.allowCoreThreadTimeOut(true);
+
+        Gauge.builder("ssh.pump.active", executor, ThreadPoolExecutor::getActiveCount)
+                .description("正在运行的终端输出泵")
+                .register(meterRegistry);
+        Gauge.builder("ssh.pump.queued", executor, e -> e.getQueue().size())
+                .description("等待线程的终端输出泵")
+                .register(meterRegistry);
+        this.rejectedCounter = Counter.builder("ssh.pump.rejected")
+                .description("因达到上限被拒绝的终端输出泵")
+                .register(meterRegistry);
+
+        logger.info("终端输出泵执行器已创建，上限: {}, 队列: {}, 虚拟线程: {}", maxSessions, queueCapacity, virtualThreads);
+    }
+
+    /**
+     * 启动一个输出泵。
+     *
+     * @return 达到上限被拒绝时返回 false
+     */
+    public boolean start(String pumpId, Runnable pump) {
+        // 先登记再提交：泵结束（包括被取消）时只移除自己的登记，不会留下已结束的泵，也不会移除同名的新泵
+        FutureTask<Void> task = new FutureTask<>(pump, null) {
+            @Override
+            protected void done() {
+                pumps.remove(pumpId, this);
+            }
+        };
+        pumps.put(pumpId, task);
+        try {
+            executor.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            pumps.remove(pumpId, task);
+            rejectedCounter.increment();
+            logger.warn("终端输出泵已达上限，拒绝: {}", pumpId);
+            return false;
+        }
+    }
+
+    /**
+     * 停止输出泵。调用方应同时断开 SSH 通道，使阻塞中的 read 立即返回。
+     */
+    public void stop(String pumpId) {
+        Future<?> future = pumps.remove(pumpId);
+        if (future != null) {
+            future.cancel(true);
+        }
+    }
+
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 通过反射创建虚拟线程工厂，项目以 release 17 编译，运行在 JDK 21+ 时才可用。
+     * 注意 JSch 的管道流在 synchronized 中 wait，JDK 24 之前会钉住载体线程，上限仍然需要。
+     */
+    private static ThreadFactory virtualThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder$OfVirtual");
+            builder = builderType.getMethod("name", String.class, long.class).invoke(builder, "ssh-pump-", 0L);
+            return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static ThreadFactory platformThreadFactory() {
+        AtomicInteger sequence = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(null, runnable, "ssh-pump-" + sequence.incrementAndGet(), PLATFORM_STACK_SIZE);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
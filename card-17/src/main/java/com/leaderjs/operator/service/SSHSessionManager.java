@@ -1,60 +1,640 @@
 package com.leaderjs.operator.service;
 
 import com.jcraft.jsch.Channel;
+import com.jcraft.jsch.ChannelExec;
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.ChannelShell;
 import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.JSchException;
 import com.jcraft.jsch.Session;
+import com.jcraft.jsch.SftpException;
+import com.leaderjs.operator.model.Operator;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+/**
+ * SSH 连接管理：同一个 operator 的终端和文件操作共享已认证的 JSch Session，终端、SFTP、exec 通道都在其上复用。
+ * Session 按引用计数管理，无人使用超过空闲时间后关闭。
+ * <p>
+ * 服务端限制每个连接同时打开的通道数（OpenSSH 的 MaxSessions，默认 10），每个 Session 上的终端、exec 通道
+ * 和 SFTP 通道池合计不超过 app.ssh.session.max-channels：通道池的名额预先留出，每个租约占用一个终端或 exec 名额，
+ * 名额用完时为同一 operator 再建立一个 Session。
+ * <p>
+ * 握手在锁外进行，同一 Session 的其他获取者等待握手结果；握手期间归还租约、回收空闲通道不受影响。
+ * <p>
+ * 每个共享 Session 维护一个小的 SFTP 通道池，列目录、下载、上传按操作借出已连接的通道，用完归还，
+ * 省去每次打开 SFTP 子系统的往返；同一标签页并发的操作各自使用不同的通道。
+ * <p>
+ * 共享 Session 记录创建时 operator 的连接信息和指标标签，获取时发现 operator 已修改（主机、端口、用户名、密码、
+ * 名称、分类、服务商）则不再复用旧 Session：它退出共享，现有的终端和传输继续使用，最后一个租约归还后关闭。
+ */
 @Service
-public class SSHSessionManager {
-    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
-    private final Map<String, Channel> channels = new ConcurrentHashMap<>();
+public class SSHSessionManager implements DisposableBean {
+    private static final Logger logger = LoggerFactory.getLogger(SSHSessionManager.class);
 
-    public Session createSession(String operatorId, String host, int port, String username, String password) throws Exception {
-        JSch jsch = new JSch();
-        Session session = jsch.getSession(username, host, port);
-        session.setPassword(password);
-        session.setConfig("StrictHostKeyChecking", "no");
-        session.connect(30000);
-        sessions.put(operatorId, session);
-        return session;
+    private final SSHMetrics sshMetrics;
+    private final Map<String, SharedSession> sessions = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService idleReaper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "ssh-session-reaper");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Value("${app.ssh.session.connect-timeout-ms:30000}")
+    private int connectTimeoutMillis;
+
+    @Value("${app.ssh.session.channel-connect-timeout-ms:3000}")
+    private int channelConnectTimeoutMillis;
+
+    @Value("${app.ssh.session.idle-timeout-ms:300000}")
+    private long idleTimeoutMillis;
+
+    private final int sftpPoolMaxSize;
+    // 每个 Session 上终端和 exec 通道的名额，max-channels 扣除通道池后的部分
+    private final int channelSlots;
+    private final long sftpBorrowTimeoutMillis;
+    private final long sftpValidateAfterMillis;
+    private final long sftpIdleTimeoutMillis;
+    private final int sftpBulkRequests;
+
+    public SSHSessionManager(SSHMetrics sshMetrics, MeterRegistry meterRegistry,
+                             @Value("${app.ssh.sftp-pool.max-size:4}") int sftpPoolMaxSize,
+                             @Value("${app.ssh.sftp-pool.borrow-timeout-ms:10000}") long sftpBorrowTimeoutMillis,
+                             @Value("${app.ssh.sftp-pool.validate-after-ms:30000}") long sftpValidateAfterMillis,
+                             @Value("${app.ssh.sftp-pool.idle-timeout-ms:60000}") long sftpIdleTimeoutMillis,
+                             @Value("${app.ssh.sftp-pool.bulk-requests:64}") int sftpBulkRequests,
+                             @Value("${app.ssh.session.max-channels:10}") int maxChannels) {
+        this.sshMetrics = sshMetrics;
+        // 通道池至少给终端或 exec 留出一个名额
+        int channelLimit = Math.max(2, maxChannels);
+        this.sftpPoolMaxSize = Math.max(1, Math.min(sftpPoolMaxSize, channelLimit - 1));
+        this.channelSlots = channelLimit - this.sftpPoolMaxSize;
+        this.sftpBorrowTimeoutMillis = sftpBorrowTimeoutMillis;
+        this.sftpValidateAfterMillis = sftpValidateAfterMillis;
+        this.sftpIdleTimeoutMillis = sftpIdleTimeoutMillis;
+        this.sftpBulkRequests = Math.max(1, sftpBulkRequests);
+        long evictPeriod = Math.max(1000, sftpIdleTimeoutMillis / 2);
+        idleReaper.scheduleWithFixedDelay(this::evictIdleSftp, evictPeriod, evictPeriod, TimeUnit.MILLISECONDS);
+
+        Gauge.builder("ssh.sessions.open", sessions, Map::size)
+                .description("已建立的共享SSH会话")
+                .register(meterRegistry);
+        Gauge.builder("ssh.sftp.pool.channels", sessions, map -> countSftp(map, false))
+                .description("SFTP通道池中已打开的通道（含借出）")
+                .register(meterRegistry);
+        Gauge.builder("ssh.sftp.pool.idle", sessions, map -> countSftp(map, true))
+                .description("SFTP通道池中空闲的通道")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 获取 operator 的共享 Session，租约占用一个终端或 exec 通道名额。已有的 Session 名额都用完时新建一个，
+     * 没有可用连接时才进行完整的 SSH 握手。使用完毕后必须调用 {@link SSHSessionLease#close()} 归还。
+     */
+    public SSHSessionLease acquire(Operator operator) throws JSchException {
+        int index = 0;
+        while (true) {
+            String key = operator.getId() + "#" + index;
+            SharedSession shared = sessions.computeIfAbsent(key, k -> new SharedSession(k, operator));
+            CompletableFuture<Session> connecting;
+            boolean connectHere = false;
+            synchronized (shared) {
+                if (shared.closed) {
+                    // 刚被空闲回收，重新创建
+                    continue;
+                }
+                if (!shared.matches(operator)) {
+                    retire(shared);
+                    continue;
+                }
+                if (shared.channelsReserved >= channelSlots) {
+                    index++;
+                    continue;
+                }
+                shared.references++;
+                shared.channelsReserved++;
+                if (shared.idleClose != null) {
+                    shared.idleClose.cancel(false);
+                    shared.idleClose = null;
+                }
+                if (shared.session != null && shared.session.isConnected()) {
+                    return new SSHSessionLease(shared, shared.session);
+                }
+                if (shared.connecting == null) {
+                    shared.connecting = new CompletableFuture<>();
+                    connectHere = true;
+                }
+                connecting = shared.connecting;
+            }
+            if (connectHere) {
+                shared.connect(operator, connecting);
+            }
+            try {
+                return new SSHSessionLease(shared, connecting.get());
+            } catch (ExecutionException e) {
+                release(shared, 1);
+                Throwable cause = e.getCause();
+                throw cause instanceof JSchException jsch ? jsch : new JSchException("SSH连接失败", cause);
+            } catch (InterruptedException e) {
+                release(shared, 1);
+                Thread.currentThread().interrupt();
+                throw new JSchException("等待SSH连接被中断", e);
+            }
+        }
+    }
+
+    /**
+     * 立即关闭 operator 的所有共享 Session，例如 operator 的连接信息发生变化时。
+     */
+    public void closeSessions(String operatorId) {
+        sessions.values().removeIf(shared -> {
+            if (!shared.key.startsWith(operatorId + "#")) {
+                return false;
+            }
+            synchronized (shared) {
+                shared.close();
+            }
+            return true;
+        });
     }
 
-    public Channel createChannel(String operatorId) throws Exception {
-        Session session = sessions.get(operatorId);
-        if (session == null) {
-            throw new IllegalStateException("No active session for operator: " + operatorId);
+    /**
+     * operator 已修改，旧 Session 退出共享，没有租约时立即关闭。调用方持有 shared 的锁。
+     */
+    private void retire(SharedSession shared) {
+        sessions.remove(shared.key, shared);
+        shared.retired = true;
+        logger.info("operator 连接信息已变化，SSH会话不再共享: {}", shared.key);
+        if (shared.references == 0) {
+            shared.close();
         }
+    }
+
+    private void release(SharedSession shared, int channels) {
+        synchronized (shared) {
+            shared.references--;
+            shared.channelsReserved -= channels;
+            if (shared.references > 0 || shared.closed) {
+                return;
+            }
+            if (shared.retired) {
+                shared.close();
+                logger.info("已退出共享的SSH会话最后一个租约已归还，已关闭: {}", shared.key);
+                return;
+            }
+            if (shared.session == null) {
+                // 握手失败，没有可保留的连接
+                shared.close();
+                sessions.remove(shared.key, shared);
+                return;
+            }
+            shared.idleClose = idleReaper.schedule(() -> closeIfIdle(shared), idleTimeoutMillis, TimeUnit.MILLISECONDS);
+        }
+    }
 
-        Channel channel = session.openChannel("shell");
-        channel.connect(3000);
-        channels.put(operatorId, channel);
-        return channel;
+    private void closeIfIdle(SharedSession shared) {
+        synchronized (shared) {
+            if (shared.references > 0 || shared.closed) {
+                return;
+            }
+            shared.close();
+            sessions.remove(shared.key, shared);
+            logger.info("SSH会话空闲超时已关闭: {}", shared.key);
+        }
     }
 
-    public void closeSession(String operatorId) {
-        Channel channel = channels.remove(operatorId);
-        if (channel != null) {
-            channel.disconnect();
+    /**
+     * 断开空闲超时的池化 SFTP 通道。
+     */
+    private void evictIdleSftp() {
+        long deadline = System.currentTimeMillis() - sftpIdleTimeoutMillis;
+        for (SharedSession shared : sessions.values()) {
+            List<ChannelSftp> evicted = new ArrayList<>();
+            synchronized (shared) {
+                // 最近归还的在队首，从队尾开始都是更早归还的
+                Iterator<IdleSftp> iterator = shared.idleSftp.descendingIterator();
+                while (iterator.hasNext()) {
+                    IdleSftp idle = iterator.next();
+                    if (idle.since() > deadline) {
+                        break;
+                    }
+                    iterator.remove();
+                    shared.sftpOpen--;
+                    evicted.add(idle.channel());
+                }
+                if (!evicted.isEmpty()) {
+                    shared.notifyAll();
+                }
+            }
+            evicted.forEach(ChannelSftp::disconnect);
+            if (!evicted.isEmpty()) {
+                logger.debug("已回收 {} 个空闲SFTP通道: {}", evicted.size(), shared.key);
+            }
         }
+    }
 
-        Session session = sessions.remove(operatorId);
-        if (session != null) {
-            session.disconnect();
+    private static double countSftp(Map<String, SharedSession> sessions, boolean idleOnly) {
+        // 不加锁读取，指标取近似值即可
+        int count = 0;
+        for (SharedSession shared : sessions.values()) {
+            count += idleOnly ? shared.idleSftp.size() : shared.sftpOpen;
         }
+        return count;
     }
 
-    public Channel getChannel(String operatorId) {
-        return channels.get(operatorId);
+    private static String fingerprint(Operator operator) {
+        return operator.getHost() + ":" + operator.getPort() + "/" + operator.getUsername() + "/"
+                + Objects.hashCode(operator.getPassword());
     }
 
-    public Session getSession(String operatorId) {
-        return sessions.get(operatorId);
+    @Override
+    public void destroy() {
+        idleReaper.shutdownNow();
+        sessions.values().forEach(shared -> {
+            synchronized (shared) {
+                shared.close();
+            }
+        });
+        sessions.clear();
+    }
+
+    private final class SharedSession {
+        private final String key;
+        private final String operatorName;
+        private final Tags tags;
+        private final String fingerprint;
+        private Session session;
+        // 正在进行的握手，其他获取者等待它的结果
+        private CompletableFuture<Session> connecting;
+        private int references;
+        // 租约占用的终端和 exec 通道名额
+        private int channelsReserved;
+        private boolean closed;
+        // operator 已修改，不再分配新的租约
+        private boolean retired;
+        private ScheduledFuture<?> idleClose;
+        // 空闲的池化 SFTP 通道，最近归还的在队首；sftpOpen 含借出的通道
+        private final Deque<IdleSftp> idleSftp = new ArrayDeque<>();
+        private int sftpOpen;
+
+        private SharedSession(String key, Operator operator) {
+            this.key = key;
+            this.operatorName = operator.getName();
+            this.tags = sshMetrics.tags(operator);
+            this.fingerprint = fingerprint(operator);
+        }
+
+        /**
+         * 判断 operator 的连接信息和指标标签与创建时一致。
+         */
+        private boolean matches(Operator operator) {
+            return fingerprint.equals(fingerprint(operator)) && tags.equals(sshMetrics.tags(operator));
+        }
+
+        /**
+         * 在锁外完成握手，然后发布连接并通知等待的获取者。调用方已占用一个引用，握手期间 Session 不会被回收。
+         */
+        private void connect(Operator operator, CompletableFuture<Session> result) {
+            Session newSession;
+            try {
+                JSch jsch = new JSch();
+                newSession = jsch.getSession(operator.getUsername(), operator.getHost(), operator.getPort());
+                newSession.setPassword(operator.getPassword());
+                newSession.setConfig("StrictHostKeyChecking", "no");
+                logger.info("正在连接SSH服务器: {}:{}", operator.getHost(), operator.getPort());
+                boolean connected = false;
+                sshMetrics.beginConnect();
+                try {
+                    newSession.connect(connectTimeoutMillis);
+                    connected = true;
+                } finally {
+                    sshMetrics.endConnect(tags, connected);
+                }
+            } catch (JSchException | RuntimeException e) {
+                synchronized (this) {
+                    connecting = null;
+                }
+                result.completeExceptionally(e);
+                return;
+            }
+            synchronized (this) {
+                connecting = null;
+                if (closed) {
+                    newSession.disconnect();
+                    result.completeExceptionally(new JSchException("SSH会话已关闭"));
+                    return;
+                }
+                session = newSession;
+            }
+            logger.info("SSH连接已建立: {}", operatorName);
+            result.complete(newSession);
+        }
+
+        /**
+         * 租约需要额外的终端或 exec 通道时占用一个名额，名额用完时失败。
+         */
+        private synchronized void reserveChannel() throws JSchException {
+            if (closed) {
+                throw new JSchException("SSH会话已关闭");
+            }
+            if (channelsReserved >= channelSlots) {
+                throw new JSchException("SSH会话的通道已用完，请关闭不用的终端后重试");
+            }
+            channelsReserved++;
+        }
+
+        private void close() {
+            closed = true;
+            if (idleClose != null) {
+                idleClose.cancel(false);
+                idleClose = null;
+            }
+            idleSftp.forEach(idle -> idle.channel().disconnect());
+            sftpOpen -= idleSftp.size();
+            idleSftp.clear();
+            notifyAll();
+            if (session != null) {
+                session.disconnect();
+                session = null;
+            }
+        }
+
+        /**
+         * 借出一个 SFTP 通道：优先复用最近归还的空闲通道，不足上限时新建，达到上限时等待归还。
+         *
+         * @param keepFree 借出后池中至少还要剩下的可用名额（空闲通道或未打开的名额），不够时等待
+         * @return 超时返回 null
+         */
+        private ChannelSftp borrowSftp(Session owner, long timeoutNanos, int keepFree) throws JSchException {
+            long deadline = System.nanoTime() + timeoutNanos;
+            while (true) {
+                IdleSftp idle;
+                synchronized (this) {
+                    while (true) {
+                        if (closed) {
+                            throw new JSchException("SSH会话已关闭");
+                        }
+                        int available = idleSftp.size() + sftpPoolMaxSize - sftpOpen;
+                        if (available > keepFree) {
+                            idle = idleSftp.pollFirst();
+                            if (idle != null || sftpOpen < sftpPoolMaxSize) {
+                                break;
+                            }
+                        }
+                        long remaining = deadline - System.nanoTime();
+                        if (remaining <= 0) {
+                            return null;
+                        }
+                        try {
+                            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new JSchException("等待SFTP通道被中断", e);
+                        }
+                    }
+                    if (idle == null) {
+                        // 先占用名额，在锁外建立通道
+                        sftpOpen++;
+                    }
+                }
+
+                if (idle != null) {
+                    if (isHealthy(idle)) {
+                        return idle.channel();
+                    }
+                    discardSftp(idle.channel());
+                    continue;
+                }
+
+                try {
+                    ChannelSftp sftp = (ChannelSftp) owner.openChannel("sftp");
+                    long start = System.nanoTime();
+                    sftp.connect(channelConnectTimeoutMillis);
+                    sshMetrics.recordChannelOpen(tags, System.nanoTime() - start);
+                    // 顺序读取时同时在途的读请求数，默认的 16 个在高延迟链路上填不满窗口
+                    sftp.setBulkRequests(sftpBulkRequests);
+                    logger.debug("SFTP通道已打开: {}", key);
+                    return sftp;
+                } catch (JSchException | RuntimeException e) {
+                    releaseSlot();
+                    throw e;
+                }
+            }
+        }
+
+        /**
+         * 健康检查：通道仍连接；空闲较久的通道再用 realpath 探测一次，服务端可能已单方面关闭子系统。
+         */
+        private boolean isHealthy(IdleSftp idle) {
+            ChannelSftp sftp = idle.channel();
+            if (!sftp.isConnected() || sftp.isClosed()) {
+                return false;
+            }
+            if (System.currentTimeMillis() - idle.since() < sftpValidateAfterMillis) {
+                return true;
+            }
+            try {
+                sftp.realpath(".");
+                return true;
+            } catch (SftpException | RuntimeException e) {
+                logger.debug("池化SFTP通道已失效: {}", key, e);
+                return false;
+            }
+        }
+
+        private void returnSftp(ChannelSftp sftp) {
+            synchronized (this) {
+                if (!closed && sftp.isConnected() && !sftp.isClosed()) {
+                    idleSftp.addFirst(new IdleSftp(sftp, System.currentTimeMillis()));
+                    notifyAll();
+                    return;
+                }
+            }
+            discardSftp(sftp);
+        }
+
+        private void discardSftp(ChannelSftp sftp) {
+            sftp.disconnect();
+            releaseSlot();
+        }
+
+        private synchronized void releaseSlot() {
+            sftpOpen--;
+            notifyAll();
+        }
+    }
+
+    private record IdleSftp(ChannelSftp channel, long since) {
+    }
+
+    /**
+     * 从池中借出的 SFTP 通道，用完调用 {@link #close()} 归还。借出期间只有持有者使用该通道；
+     * 池化通道会被不同操作复用，不要调用 {@code cd}，一律使用绝对路径或相对于登录目录的路径。
+     */
+    public final class PooledSftp implements AutoCloseable {
+        private final SharedSession shared;
+        private final ChannelSftp channel;
+        private final AtomicBoolean returned = new AtomicBoolean();
+
+        private PooledSftp(SharedSession shared, ChannelSftp channel) {
+            this.shared = shared;
+            this.channel = channel;
+        }
+
+        public ChannelSftp channel() {
+            return channel;
+        }
+
+        /**
+         * 通道状态不确定（例如传输中途出现 I/O 错误）时断开而不是归还。
+         */
+        public void invalidate() {
+            if (returned.compareAndSet(false, true)) {
+                shared.discardSftp(channel);
+            }
+        }
+
+        @Override
+        public void close() {
+            if (returned.compareAndSet(false, true)) {
+                shared.returnSftp(channel);
+            }
+        }
+    }
+
+    /**
+     * 对共享 Session 的一次引用，关闭时归还而不是断开连接。租约获取时占用一个终端或 exec 通道名额，
+     * 同时打开的终端和 exec 通道超过已占用的名额时再占用一个，归还时一并释放。
+     */
+    public final class SSHSessionLease implements AutoCloseable {
+        private final SharedSession shared;
+        private final Session session;
+        private final AtomicBoolean released = new AtomicBoolean();
+        // 本租约打开的终端和 exec 通道，以及占用的名额，访问都在 this 上同步
+        private final List<Channel> channels = new ArrayList<>();
+        private int channelsReserved = 1;
+
+        private SSHSessionLease(SharedSession shared, Session session) {
+            this.shared = shared;
+            this.session = session;
+        }
+
+        public Session getSession() {
+            return session;
+        }
+
+        public boolean isConnected() {
+            return !released.get() && session.isConnected();
+        }
+
+        /**
+         * operator 的指标标签。
+         */
+        public Tags getTags() {
+            return shared.tags;
+        }
+
+        /**
+         * 打开 shell 通道，未连接，调用方设置 PTY 后调用 {@link #connect}。
+         */
+        public ChannelShell openShell() throws JSchException {
+            return (ChannelShell) openChannel("shell");
+        }
+
+        /**
+         * 从共享会话的通道池借出一个已连接的 SFTP 通道，池满时最多等待 app.ssh.sftp-pool.borrow-timeout-ms。
+         */
+        public PooledSftp borrowSftp() throws JSchException {
+            if (released.get()) {
+                throw new JSchException("SSH会话已归还");
+            }
+            ChannelSftp channel = shared.borrowSftp(session,
+                    TimeUnit.MILLISECONDS.toNanos(sftpBorrowTimeoutMillis), 0);
+            if (channel == null) {
+                throw new JSchException("等待SFTP通道超时，同时进行的文件操作过多");
+            }
+            return new PooledSftp(shared, channel);
+        }
+
+        /**
+         * 不等待地借出一个附加的 SFTP 通道，用于并行传输。借出后池中至少还要剩下 keepFree 个可用名额，
+         * 否则返回 null，避免一个大文件传输占满通道池。
+         */
+        public PooledSftp tryBorrowSftp(int keepFree) throws JSchException {
+            if (released.get()) {
+                throw new JSchException("SSH会话已归还");
+            }
+            ChannelSftp channel = shared.borrowSftp(session, 0, keepFree);
+            return channel != null ? new PooledSftp(shared, channel) : null;
+        }
+
+        /**
+         * 连接通道并记录通道打开耗时。
+         */
+        public void connect(Channel channel) throws JSchException {
+            long start = System.nanoTime();
+            channel.connect(channelConnectTimeoutMillis);
+            sshMetrics.recordChannelOpen(shared.tags, System.nanoTime() - start);
+        }
+
+        /**
+         * 打开 exec 通道，未连接，调用方获取输入输出流后自行 connect。
+         */
+        public ChannelExec openExec(String command) throws JSchException {
+            ChannelExec exec = (ChannelExec) openChannel("exec");
+            exec.setCommand(command);
+            return exec;
+        }
+
+        /**
+         * 打开终端或 exec 通道。已断开的通道不再占用名额，仍打开的通道用完已占用的名额时再占用一个。
+         */
+        private synchronized Channel openChannel(String type) throws JSchException {
+            if (released.get()) {
+                throw new JSchException("SSH会话已归还");
+            }
+            channels.removeIf(Channel::isClosed);
+            if (channels.size() >= channelsReserved) {
+                shared.reserveChannel();
+                channelsReserved++;
+            }
+            Channel channel = session.openChannel(type);
+            channels.add(channel);
+            return channel;
+        }
+
+        @Override
+        public void close() {
+            if (released.compareAndSet(false, true)) {
+                int reserved;
+                synchronized (this) {
+                    reserved = channelsReserved;
+                    channels.clear();
+                }
+                release(shared, reserved);
+            }
+        }
     }
-} 
\ No newline at end of file
+}
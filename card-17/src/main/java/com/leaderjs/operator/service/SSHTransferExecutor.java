@@ -0,0 +1,68 @@
+package com.leaderjs.operator.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 文件传输执行器：WebSocket 上的文件传输在这里执行，不占用消息处理线程。
+ * 同时进行的传输数量有上限，超出时直接拒绝。
+ */
+@Service
+public class SSHTransferExecutor implements DisposableBean {
+    private static final Logger logger = LoggerFactory.getLogger(SSHTransferExecutor.class);
+
+    private final ThreadPoolExecutor executor;
+    private final Counter rejectedCounter;
+
+    public SSHTransferExecutor(MeterRegistry meterRegistry,
+                               @Value("${app.ssh.transfer.max-concurrent:32}") int maxConcurrent) {
+        AtomicInteger sequence = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(maxConcurrent, maxConcurrent, 60, TimeUnit.SECONDS,
+                new SynchronousQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "ssh-transfer-" + sequence.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.AbortPolicy());
+        this.executor.allowCoreThreadTimeOut(true);
+
+        Gauge.builder("ssh.transfer.active", executor, ThreadPoolExecutor::getActiveCount)
+                .description("正在进行的文件传输")
+                .register(meterRegistry);
+        this.rejectedCounter = Counter.builder("ssh.transfer.rejected")
+                .description("因达到上限被拒绝的文件传输")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 提交一个传输任务。
+     *
+     * @return 达到上限被拒绝时返回 false
+     */
+    public boolean submit(Runnable transfer) {
+        try {
+            executor.execute(transfer);
+            return true;
+        } catch (RejectedExecutionException e) {
+            rejectedCounter.increment();
+            logger.warn("文件传输已达上限，拒绝新的传输");
+            return false;
+        }
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdownNow();
+    }
+}
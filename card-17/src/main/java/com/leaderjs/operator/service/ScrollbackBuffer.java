@@ -0,0 +1,105 @@
+package com.leaderjs.operator.service;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+
+/**
+ * 终端输出的定长环形缓冲区，由若干池化的固定大小分段组成。
+ * 写满后回收最早的分段，只保留最新的输出。非线程安全，由 {@link TerminalSession} 加锁访问。
+ */
+public class ScrollbackBuffer {
+
+    /**
+     * 分段分配器，受全局内存上限约束，无法分配时返回 null。
+     */
+    public interface SegmentAllocator {
+        byte[] allocate();
+
+        void free(byte[] segment);
+    }
+
+    private final SegmentAllocator allocator;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final ArrayDeque<byte[]> segments = new ArrayDeque<>();
+    // 最后一个分段中已写入的字节数
+    private int tailLength;
+
+    public ScrollbackBuffer(SegmentAllocator allocator, int segmentSize, int capacityBytes) {
+        this.allocator = allocator;
+        this.segmentSize = segmentSize;
+        this.maxSegments = Math.max(1, capacityBytes / segmentSize);
+    }
+
+    public void write(byte[] buffer, int offset, int length) {
+        while (length > 0) {
+            if ((segments.isEmpty() || tailLength == segmentSize) && !nextSegment()) {
+                return;
+            }
+            int n = Math.min(length, segmentSize - tailLength);
+            System.arraycopy(buffer, offset, segments.peekLast(), tailLength, n);
+            tailLength += n;
+            offset += n;
+            length -= n;
+        }
+    }
+
+    private boolean nextSegment() {
+        byte[] segment = segments.size() < maxSegments ? allocator.allocate() : null;
+        if (segment == null) {
+            if (segments.isEmpty()) {
+                // 全局内存已用尽，暂不缓存
+                return false;
+            }
+            // 回收最早的分段
+            segment = segments.pollFirst();
+        }
+        segments.addLast(segment);
+        tailLength = 0;
+        return true;
+    }
+
+    public int size() {
+        return segments.isEmpty() ? 0 : (segments.size() - 1) * segmentSize + tailLength;
+    }
+
+    /**
+     * 按从旧到新的顺序把缓冲内容交给 sink。
+     */
+    public void replay(SSHOutputCoalescer.Sink sink) throws IOException {
+        int index = 0;
+        int last = segments.size() - 1;
+        for (byte[] segment : segments) {
+            int length = index == last ? tailLength : segmentSize;
+            if (length > 0) {
+                sink.write(segment, 0, length);
+            }
+            index++;
+        }
+    }
+
+    public byte[] toByteArray() {
+        byte[] bytes = new byte[size()];
+        int position = 0;
+        int index = 0;
+        int last = segments.size() - 1;
+        for (byte[] segment : segments) {
+            int length = index == last ? tailLength : segmentSize;
+            System.arraycopy(segment, 0, bytes, position, length);
+            position += length;
+            index++;
+        }
+        return bytes;
+    }
+
+    /**
+     * 归还全部分段。
+     */
+    public void release() {
+        byte[] segment;
+        while ((segment = segments.pollFirst()) != null) {
+            allocator.free(segment);
+        }
+        tailLength = 0;
+    }
+}
@@ -0,0 +1,658 @@
+package com.leaderjs.operator.service;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.SftpException;
+import com.leaderjs.operator.service.SSHSessionManager.PooledSftp;
+import com.leaderjs.operator.service.SSHSessionManager.SSHSessionLease;
+import com.leaderjs.operator.service.TransferBandwidthScheduler.Throttle;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 高延迟链路上的 SFTP 大文件传输。单个通道的吞吐受限于在途请求数和 SSH 通道窗口（约 2MB / RTT），
+ * 大文件在同一会话上借出多个池化通道并行传输：
+ * <ul>
+ * <li>下载按分段分配给各通道，每个通道把分段写入本地暂存文件，读取方按顺序读出。
+ * 暂存文件最多容纳 streams 个分段，读取方取完最早的分段后才分配新的分段。</li>
+ * <li>上传的源文件在本地可随机读取，按通道数切成连续的区间，各通道写入远程文件的对应偏移，不需要拼接。</li>
+ * </ul>
+ * 工作线程总是读完整个分段才停下：JSch 的会话线程把数据写入各通道容量很小的管道，
+ * 某个通道的读取方停止读取会阻塞整个会话（包括终端）。分段不能太小，每个分段都要重新打开文件，
+ * 并从一个在途请求开始逐步增加，在高延迟链路上约需 8 到 10 个往返。
+ * <p>
+ * 小文件、通道池没有富余通道或并行传输数已达上限时退化为单通道传输。单通道读取同样经过暂存文件：
+ * 读取方可能阻塞在限速、慢速 HTTP 客户端或 WebSocket 接收确认上，这些等待都不能让 JSch 通道停止读取。
+ * <p>
+ * 工作线程数不超过 app.ssh.sftp-transfer.max-workers，线程用完时新的传输直接失败。
+ */
+@Service
+public class SftpTransferEngine implements DisposableBean {
+    private static final Logger logger = LoggerFactory.getLogger(SftpTransferEngine.class);
+    private static final int CHUNK_SIZE = 64 * 1024;
+    // 并行传输借出附加通道后通道池至少保留的可用名额，留给目录列表等短操作
+    private static final int POOL_KEEP_FREE = 1;
+
+    private final int streams;
+    private final long segmentSize;
+    private final long minParallelSize;
+    private final Path spoolDirectory;
+    private final Semaphore parallelTransfers;
+    private final ThreadPoolExecutor workers;
+    private final Counter parallelCounter;
+    private final Counter singleCounter;
+
+    public SftpTransferEngine(MeterRegistry meterRegistry,
+                              @Value("${app.ssh.sftp-transfer.streams:3}") int streams,
+                              @Value("${app.ssh.sftp-transfer.segment-size:67108864}") long segmentSize,
+                              @Value("${app.ssh.sftp-transfer.min-parallel-size:33554432}") long minParallelSize,
+                              @Value("${app.ssh.sftp-transfer.max-parallel-transfers:4}") int maxParallelTransfers,
+                              @Value("${app.ssh.sftp-transfer.max-workers:128}") int maxWorkers,
+                              @Value("${app.ssh.sftp-transfer.spool-dir:${java.io.tmpdir}/operator-downloads}") String spoolDirectory)
+            throws IOException {
+        this.streams = Math.max(1, streams);
+        this.segmentSize = Math.max(CHUNK_SIZE, segmentSize);
+        this.minParallelSize = minParallelSize;
+        this.spoolDirectory = Files.createDirectories(Paths.get(spoolDirectory));
+        this.parallelTransfers = new Semaphore(Math.max(0, maxParallelTransfers));
+        AtomicInteger sequence = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(0, Math.max(1, maxWorkers), 60, TimeUnit.SECONDS,
+                new SynchronousQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "sftp-stream-" + sequence.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+
+        this.parallelCounter = Counter.builder("ssh.sftp.transfers").tag("mode", "parallel")
+                .description("SFTP 大文件传输次数").register(meterRegistry);
+        this.singleCounter = Counter.builder("ssh.sftp.transfers").tag("mode", "single")
+                .description("SFTP 大文件传输次数").register(meterRegistry);
+    }
+
+    /**
+     * 打开远程文件 [offset, offset + length) 的读取流，数据经过暂存文件，流在 offset + length 处结束。
+     * <p>
+     * first 由调用方借出并负责归还，必须先关闭返回的流再归还 first。
+     * 读取失败抛出 IOException，调用方按通道状态不确定处理 first。
+     */
+    public InputStream openRead(SSHSessionLease lease, PooledSftp first, String path, long offset, long length)
+            throws SftpException, IOException {
+        List<PooledSftp> extras = borrowExtras(lease, length);
+        boolean parallel = !extras.isEmpty();
+        ParallelRead read;
+        try {
+            read = new ParallelRead(path, offset, length, extras.size() + 1, parallel);
+        } catch (IOException e) {
+            extras.forEach(PooledSftp::close);
+            if (parallel) {
+                parallelTransfers.release();
+            }
+            throw e;
+        }
+        read.start(first, extras);
+        if (parallel) {
+            logger.info("并行下载: {}, {} bytes, {} 个通道", path, length, extras.size() + 1);
+        }
+        return read;
+    }
+
+    /**
+     * 读取方可能阻塞时读取 JSch 通道（例如 exec 命令的输出）之前调用：后台线程把 source 全速读入暂存文件，
+     * 返回的流从暂存文件读出。暂存文件不设上限，最多占用与输出相同的磁盘空间。
+     * 关闭返回的流不会关闭 source，调用方在关闭返回的流之后自行关闭 source 所属的通道。
+     */
+    public InputStream decouple(InputStream source) throws IOException {
+        SpooledPipe pipe = new SpooledPipe(source);
+        try {
+            workers.execute(pipe::pump);
+        } catch (RejectedExecutionException e) {
+            pipe.close();
+            throw new IOException("传输线程已用完，请稍后重试");
+        }
+        return pipe;
+    }
+
+    /**
+     * 把本地文件上传到 remotePath，覆盖已有文件。first 由调用方借出并负责归还，写入按 throttle 限速。
+     */
+    public void upload(SSHSessionLease lease, PooledSftp first, Path source, String remotePath, Throttle throttle)
+            throws SftpException, IOException {
+        try (FileChannel file = FileChannel.open(source, StandardOpenOption.READ)) {
+            long size = file.size();
+            List<PooledSftp> extras = borrowExtras(lease, size);
+            if (extras.isEmpty()) {
+                try (InputStream in = throttle.wrap(Channels.newInputStream(file))) {
+                    first.channel().put(in, remotePath);
+                }
+                return;
+            }
+            try {
+                uploadParallel(file, size, first, extras, remotePath, throttle);
+            } finally {
+                parallelTransfers.release();
+            }
+        }
+    }
+
+    /**
+     * 文件足够大且有富余通道时借出附加通道并占用一个并行传输名额，否则返回空列表（单通道传输）。
+     */
+    private List<PooledSftp> borrowExtras(SSHSessionLease lease, long size) {
+        List<PooledSftp> extras = new ArrayList<>();
+        if (streams < 2 || size < minParallelSize || !parallelTransfers.tryAcquire()) {
+            singleCounter.increment();
+            return extras;
+        }
+        try {
+            for (int i = 1; i < streams; i++) {
+                PooledSftp extra = lease.tryBorrowSftp(POOL_KEEP_FREE);
+                if (extra == null) {
+                    break;
+                }
+                extras.add(extra);
+            }
+        } catch (JSchException e) {
+            logger.debug("借出附加SFTP通道失败", e);
+        }
+        if (extras.isEmpty()) {
+            parallelTransfers.release();
+            singleCounter.increment();
+        } else {
+            parallelCounter.increment();
+        }
+        return extras;
+    }
+
+    /**
+     * 先截断远程文件，再在每个通道上以不截断的方式打开并写入各自的区间。
+     * 所有写入流在开始写数据之前打开，JSch 续传模式打开时读取的远程文件大小都是 0，偏移不受影响。
+     */
+    private void uploadParallel(FileChannel file, long size, PooledSftp first, List<PooledSftp> extras,
+                                String remotePath, Throttle throttle) throws IOException {
+        List<PooledSftp> channels = new ArrayList<>();
+        channels.add(first);
+        channels.addAll(extras);
+        List<Future<?>> futures = new ArrayList<>();
+        List<OutputStream> outputs = new ArrayList<>();
+        boolean failed = true;
+        try {
+            first.channel().put(remotePath, ChannelSftp.OVERWRITE).close();
+            long stripe = (size + channels.size() - 1) / channels.size();
+            for (int i = 0; i < channels.size(); i++) {
+                outputs.add(throttle.wrap(channels.get(i).channel().put(remotePath, null, ChannelSftp.RESUME, i * stripe)));
+            }
+            for (int i = 1; i < channels.size(); i++) {
+                long start = i * stripe;
+                OutputStream out = outputs.get(i);
+                futures.add(workers.submit(() -> {
+                    writeStripe(file, start, Math.min(stripe, size - start), out);
+                    return null;
+                }));
+            }
+            writeStripe(file, 0, Math.min(stripe, size), outputs.get(0));
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            failed = false;
+            logger.info("并行上传完成: {}, {} bytes, {} 个通道", remotePath, size, channels.size());
+        } catch (SftpException e) {
+            // first 上可能留有未关闭的写入句柄，按通道状态不确定处理
+            throw new IOException(e.getMessage(), e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException io ? io : new IOException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("上传被中断", e);
+        } catch (RejectedExecutionException e) {
+            throw new IOException("传输线程已用完，请稍后重试", e);
+        } finally {
+            if (failed) {
+                // 未完成的写入流不再等待确认，连同附加通道一起丢弃
+                futures.forEach(future -> future.cancel(true));
+                extras.forEach(PooledSftp::invalidate);
+            } else {
+                extras.forEach(PooledSftp::close);
+            }
+        }
+    }
+
+    private static void writeStripe(FileChannel file, long start, long length, OutputStream out) throws IOException {
+        try (out) {
+            ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE);
+            long position = start;
+            long end = start + length;
+            while (position < end) {
+                buffer.clear().limit((int) Math.min(CHUNK_SIZE, end - position));
+                int n = file.read(buffer, position);
+                if (n < 0) {
+                    throw new IOException("本地文件在上传过程中被截短");
+                }
+                out.write(buffer.array(), 0, n);
+                position += n;
+            }
+        }
+    }
+
+    @Override
+    public void destroy() {
+        workers.shutdownNow();
+    }
+
+    /**
+     * 已分配的分段，filled 是已写入暂存文件的字节数。
+     */
+    private static final class Segment {
+        private final long length;
+        private long filled;
+
+        private Segment(long length) {
+            this.length = length;
+        }
+    }
+
+    /**
+     * 多通道并行读取，按分段顺序输出。分段数据写入暂存文件中该分段所在的槽位，
+     * 同时存在的分段不超过槽位数，读取方取完最早的分段后其槽位才分配给新的分段。
+     */
+    private final class ParallelRead extends InputStream {
+        private final String path;
+        private final long offset;
+        private final long length;
+        private final long segmentLength;
+        private final long segmentCount;
+        private final int slots;
+        // 占用了一个并行传输名额，关闭时归还
+        private final boolean holdsPermit;
+        private final FileChannel spool;
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition progressed = lock.newCondition();
+        // 已分配但尚未被读取方取完的分段
+        private final Map<Long, Segment> segments = new HashMap<>();
+        private long nextSegment;
+        private long head;
+        private long headConsumed;
+        private int activeWorkers;
+        private boolean closed;
+        private IOException failure;
+
+        private ParallelRead(String path, long offset, long length, int channels, boolean holdsPermit)
+                throws IOException {
+            this.path = path;
+            this.offset = offset;
+            this.length = length;
+            // 文件不大时每个通道一个分段，大文件按上限切分
+            long perChannel = (length + channels - 1) / channels;
+            this.segmentLength = Math.max(CHUNK_SIZE, Math.min(segmentSize, perChannel));
+            this.segmentCount = (length + segmentLength - 1) / segmentLength;
+            this.slots = channels;
+            this.holdsPermit = holdsPermit;
+            Path file = Files.createTempFile(spoolDirectory, "download_", ".spool");
+            this.spool = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                    StandardOpenOption.DELETE_ON_CLOSE);
+        }
+
+        /**
+         * 启动工作线程。first 的工作线程无法启动时关闭本流并抛出异常；附加通道的线程无法启动时直接归还该通道。
+         */
+        private void start(PooledSftp first, List<PooledSftp> extras) throws IOException {
+            activeWorkers = extras.size() + 1;
+            try {
+                workers.execute(() -> work(first, false));
+            } catch (RejectedExecutionException e) {
+                activeWorkers = 0;
+                extras.forEach(PooledSftp::close);
+                close();
+                throw new IOException("传输线程已用完，请稍后重试");
+            }
+            for (PooledSftp extra : extras) {
+                try {
+                    workers.execute(() -> work(extra, true));
+                } catch (RejectedExecutionException e) {
+                    lock.lock();
+                    try {
+                        activeWorkers--;
+                    } finally {
+                        lock.unlock();
+                    }
+                    extra.close();
+                }
+            }
+        }
+
+        /**
+         * 工作线程：反复领取下一个分段并写入暂存文件。owned 为 true 时由工作线程归还通道。
+         */
+        private void work(PooledSftp sftp, boolean owned) {
+            boolean failed = false;
+            try {
+                while (true) {
+                    long index;
+                    Segment segment;
+                    lock.lock();
+                    try {
+                        while (!closed && failure == null && nextSegment < segmentCount
+                                && nextSegment >= head + slots) {
+                            progressed.await();
+                        }
+                        if (closed || failure != null || nextSegment >= segmentCount) {
+                            return;
+                        }
+                        index = nextSegment++;
+                        segment = new Segment(Math.min(segmentLength, length - index * segmentLength));
+                        segments.put(index, segment);
+                    } finally {
+                        lock.unlock();
+                    }
+                    readSegment(sftp.channel(), index, segment);
+                }
+            } catch (Exception e) {
+                failed = true;
+                lock.lock();
+                try {
+                    if (failure == null) {
+                        failure = e instanceof IOException io ? io : new IOException(e.getMessage(), e);
+                    }
+                    progressed.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+            } finally {
+                lock.lock();
+                try {
+                    activeWorkers--;
+                    progressed.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+                if (owned) {
+                    if (failed) {
+                        sftp.invalidate();
+                    } else {
+                        sftp.close();
+                    }
+                }
+            }
+        }
+
+        private void readSegment(ChannelSftp channel, long index, Segment segment) throws SftpException, IOException {
+            long slotStart = (index % slots) * segmentLength;
+            ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE);
+            long filled = 0;
+            // 关闭 JSch 流时会读完分段末尾多发出的请求，通道可以继续使用
+            try (InputStream in = channel.get(path, null, offset + index * segmentLength)) {
+                while (filled < segment.length) {
+                    int n = in.read(buffer.array(), 0, (int) Math.min(CHUNK_SIZE, segment.length - filled));
+                    if (n == -1) {
+                        throw new IOException("文件在下载过程中被截短: " + path);
+                    }
+                    buffer.clear().limit(n);
+                    while (buffer.hasRemaining()) {
+                        spool.write(buffer, slotStart + filled + buffer.position());
+                    }
+                    filled += n;
+                    lock.lock();
+                    try {
+                        if (closed) {
+                            return;
+                        }
+                        segment.filled = filled;
+                        progressed.signalAll();
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            int n = read(single, 0, 1);
+            return n == -1 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            long position;
+            int available;
+            lock.lock();
+            try {
+                while (true) {
+                    if (closed) {
+                        throw new IOException("流已关闭");
+                    }
+                    if (failure != null) {
+                        throw failure;
+                    }
+                    if (head >= segmentCount) {
+                        return -1;
+                    }
+                    Segment segment = segments.get(head);
+                    if (segment != null && headConsumed < segment.filled) {
+                        position = (head % slots) * segmentLength + headConsumed;
+                        available = (int) Math.min(len, segment.filled - headConsumed);
+                        break;
+                    }
+                    if (segment != null && headConsumed == segment.length) {
+                        // 最早的分段取完，槽位可以分配给新的分段
+                        segments.remove(head);
+                        head++;
+                        headConsumed = 0;
+                        progressed.signalAll();
+                    } else {
+                        progressed.await();
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("读取被中断", e);
+            } finally {
+                lock.unlock();
+            }
+
+            // 这段数据已写入且槽位在取完之前不会被复用，可以在锁外读取
+            int n = spool.read(ByteBuffer.wrap(b, off, available), position);
+            if (n <= 0) {
+                throw new IOException("读取下载暂存文件失败");
+            }
+            lock.lock();
+            try {
+                headConsumed += n;
+            } finally {
+                lock.unlock();
+            }
+            return n;
+        }
+
+        /**
+         * 通知工作线程停止并等待它们退出，之后调用方才能归还 first。
+         */
+        @Override
+        public void close() throws IOException {
+            lock.lock();
+            try {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                segments.clear();
+                progressed.signalAll();
+                while (activeWorkers > 0) {
+                    progressed.awaitUninterruptibly();
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (holdsPermit) {
+                parallelTransfers.release();
+            }
+            spool.close();
+        }
+    }
+
+    /**
+     * 单个生产者顺序追加、单个读取方顺序读出的暂存文件管道。
+     */
+    private final class SpooledPipe extends InputStream {
+        private final InputStream source;
+        private final FileChannel spool;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition progressed = lock.newCondition();
+        private long written;
+        private long consumed;
+        private boolean finished;
+        private boolean closed;
+        private IOException failure;
+
+        private SpooledPipe(InputStream source) throws IOException {
+            this.source = source;
+            Path file = Files.createTempFile(spoolDirectory, "stream_", ".spool");
+            this.spool = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                    StandardOpenOption.DELETE_ON_CLOSE);
+        }
+
+        /**
+         * 后台线程：读到 source 结束或读取方关闭为止。
+         */
+        private void pump() {
+            byte[] buffer = new byte[CHUNK_SIZE];
+            try {
+                int n;
+                while ((n = source.read(buffer)) != -1) {
+                    ByteBuffer data = ByteBuffer.wrap(buffer, 0, n);
+                    long position = written;
+                    while (data.hasRemaining()) {
+                        spool.write(data, position + data.position());
+                    }
+                    lock.lock();
+                    try {
+                        if (closed) {
+                            return;
+                        }
+                        written += n;
+                        progressed.signalAll();
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+            } catch (IOException e) {
+                lock.lock();
+                try {
+                    failure = e;
+                } finally {
+                    lock.unlock();
+                }
+            } finally {
+                lock.lock();
+                try {
+                    finished = true;
+                    progressed.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            int n = read(single, 0, 1);
+            return n == -1 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            long position;
+            int available;
+            lock.lock();
+            try {
+                while (consumed == written) {
+                    if (closed) {
+                        throw new IOException("流已关闭");
+                    }
+                    if (failure != null) {
+                        throw failure;
+                    }
+                    if (finished) {
+                        return -1;
+                    }
+                    progressed.await();
+                }
+                position = consumed;
+                available = (int) Math.min(len, written - consumed);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("读取被中断", e);
+            } finally {
+                lock.unlock();
+            }
+            int n = spool.read(ByteBuffer.wrap(b, off, available), position);
+            if (n <= 0) {
+                throw new IOException("读取暂存文件失败");
+            }
+            lock.lock();
+            try {
+                consumed += n;
+            } finally {
+                lock.unlock();
+            }
+            return n;
+        }
+
+        /**
+         * 关闭暂存文件。后台线程可能仍阻塞在 source 上，调用方关闭 source 所属的通道后它读到结束或写入失败而退出。
+         */
+        @Override
+        public void close() throws IOException {
+            lock.lock();
+            try {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                progressed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            spool.close();
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.leaderjs.operator.service;
+
+import com.fasterxml.jackson.annotation.JsonSubTypes;
+import com.fasterxml.jackson.annotation.JsonTypeInfo;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import org.springframework.web.socket.TextMessage;
+
+import java.io.IOException;
+
+/**
+ * /ws/ssh 文本帧协议：以 {@link #CONTROL_LEAD} 开头、后接 JSON 的帧是控制消息，其余都是终端输入（或终端输出）。
+ * 终端输入只比较首字符，不经过 JSON 解析；控制消息由预先构建的 {@link ObjectReader} 解码为类型化记录。
+ * 服务端发给客户端的控制消息同样带引导字符，客户端据此与终端输出区分。
+ */
+public final class TerminalProtocol {
+
+    /**
+     * 控制消息的引导字符 U+FFFF。它是 Unicode 非字符，键盘输入和粘贴的文本中不会出现，
+     * 以 JSON 开头的终端输入或输出不会被误当作控制消息；前端在发送终端输入前去掉它，
+     * 服务端把以它开头的终端输出替换为 U+FFFD。
+     */
+    public static final char CONTROL_LEAD = '\uFFFF';
+
+    private static final ObjectReader CONTROL_READER = new ObjectMapper()
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+            .disable(DeserializationFeature.FAIL_ON_INVALID_SUBTYPE)
+            .readerFor(Control.class);
+
+    private TerminalProtocol() {
+    }
+
+    public static boolean isControl(String payload) {
+        return !payload.isEmpty() && payload.charAt(0) == CONTROL_LEAD;
+    }
+
+    /**
+     * 解码控制消息（含引导字符），未知类型返回 null。
+     */
+    public static Control decode(String payload) throws IOException {
+        return CONTROL_READER.readValue(payload.substring(1));
+    }
+
+    /**
+     * 把 JSON 编码的控制消息加上引导字符，作为发给客户端的文本帧。
+     */
+    public static TextMessage control(String json) {
+        return new TextMessage(CONTROL_LEAD + json);
+    }
+
+    /**
+     * 以文本帧发送的终端输出：开头恰好是引导字符时替换为 U+FFFD，远端程序的输出不能伪造控制消息。
+     */
+    public static TextMessage output(String text) {
+        if (!text.isEmpty() && text.charAt(0) == CONTROL_LEAD) {
+            text = '\uFFFD' + text.substring(1);
+        }
+        return new TextMessage(text);
+    }
+
+    @JsonTypeInfo(use = JsonTypeInfo.Id.NAME, property = "type")
+    @JsonSubTypes({
+            @JsonSubTypes.Type(value = FileUploadStart.class, name = "file_upload_start"),
+            @JsonSubTypes.Type(value = FileUploadEnd.class, name = "file_upload_end"),
+            @JsonSubTypes.Type(value = FileDownload.class, name = "file_download"),
+            @JsonSubTypes.Type(value = FileDownloadAck.class, name = "file_download_ack"),
+            @JsonSubTypes.Type(value = FileDownloadCancel.class, name = "file_download_cancel"),
+            @JsonSubTypes.Type(value = UploadOpen.class, name = "upload_open"),
+            @JsonSubTypes.Type(value = UploadStatus.class, name = "upload_status"),
+            @JsonSubTypes.Type(value = UploadCommit.class, name = "upload_commit"),
+            @JsonSubTypes.Type(value = UploadAbort.class, name = "upload_abort"),
+            @JsonSubTypes.Type(value = ListFiles.class, name = "list_files"),
+            @JsonSubTypes.Type(value = Resize.class, name = "resize")
+    })
+    public sealed interface Control permits FileUploadStart, FileUploadEnd, FileDownload, FileDownloadAck,
+            FileDownloadCancel, UploadOpen, UploadStatus, UploadCommit, UploadAbort, ListFiles, Resize {
+    }
+
+    /**
+     * mode 为 buffered 时先写入本地临时文件，结束时再整体上传（便于客户端重试）；默认直接写入 SFTP。
+     */
+    public record FileUploadStart(String filename, long size, String directory, String mode) implements Control {
+    }
+
+    public record FileUploadEnd(String filename) implements Control {
+    }
+
+    /**
+     * mode 为 binary 时以二进制帧流式下载，否则沿用 Base64 JSON 分块。
+     */
+    public record FileDownload(String filename, String mode) implements Control {
+    }
+
+    public record FileDownloadAck(int downloadId, long received) implements Control {
+    }
+
+    public record FileDownloadCancel(int downloadId) implements Control {
+    }
+
+    /**
+     * 创建可续传上传；携带已有的 uploadId 时返回该上传的状态，用于断线后续传。
+     */
+    public record UploadOpen(String uploadId, String filename, String directory, long size) implements Control {
+    }
+
+    public record UploadStatus(String uploadId) implements Control {
+    }
+
+    public record UploadCommit(String uploadId) implements Control {
+    }
+
+    public record UploadAbort(String uploadId) implements Control {
+    }
+
+    /**
+     * 不带 pageSize 和 cursor 时一次返回整个目录（经过列表缓存）；带 pageSize 时分页返回，
+     * 之后带上一页返回的 cursor 取下一页。sort 为 name、size 或 modified，order 为 desc 时倒序，
+     * prefix 为名称前缀，filter 为名称包含的字符串（不区分大小写）。refresh 为 true 时跳过列表缓存重新读取，
+     * 用于用户主动刷新（目录可能刚在终端里被修改）。
+     */
+    public record ListFiles(String path, Integer pageSize, String cursor, String sort, String order, String prefix,
+                            String filter, Boolean refresh) implements Control {
+    }
+
+    public record Resize(int cols, int rows) implements Control {
+    }
+}
@@ -0,0 +1,235 @@
+package com.leaderjs.operator.service;
+
+import com.jcraft.jsch.ChannelShell;
+import com.leaderjs.operator.service.SSHSessionManager.SSHSessionLease;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.socket.CloseStatus;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * 一个终端：SSH shell 通道及其输出泵。终端可以脱离 WebSocket 存活一段时间，
+ * 期间输出写入回滚缓冲区，重新连接后先回放缓冲内容再继续实时输出。
+ */
+public class TerminalSession {
+    private static final Logger logger = LoggerFactory.getLogger(TerminalSession.class);
+    private static final CloseStatus RESUMED_ELSEWHERE = new CloseStatus(4000, "Terminal resumed elsewhere");
+
+    private final String id;
+    private final String operatorId;
+    private final String user;
+    private final SSHSessionLease lease;
+    private final ChannelShell shell;
+    private final ScrollbackBuffer scrollback;
+    private final SSHMetrics.TerminalMeters meters;
+    private final TransferBandwidthScheduler bandwidth;
+
+    private BufferedWebSocketSession attached;
+    private boolean binaryMode;
+    private volatile long detachedAt;
+    private volatile boolean terminated;
+    // 为 null 时不跟踪，只有一次 volatile 读的开销
+    private volatile TerminalTrace trace;
+    ScheduledFuture<?> expiry;
+
+    TerminalSession(String id, String operatorId, String user, SSHSessionLease lease, ChannelShell shell,
+                    ScrollbackBuffer scrollback, SSHMetrics.TerminalMeters meters, TransferBandwidthScheduler bandwidth) {
+        this.id = id;
+        this.operatorId = operatorId;
+        this.user = user;
+        this.lease = lease;
+        this.shell = shell;
+        this.scrollback = scrollback;
+        this.meters = meters;
+        this.bandwidth = bandwidth;
+    }
+
+    /**
+     * 终端ID，同时作为恢复令牌。
+     */
+    public String getId() {
+        return id;
+    }
+
+    public String getOperatorId() {
+        return operatorId;
+    }
+
+    public String getUser() {
+        return user;
+    }
+
+    public SSHSessionLease getLease() {
+        return lease;
+    }
+
+    public ChannelShell getShell() {
+        return shell;
+    }
+
+    public boolean isDetached() {
+        return detachedAt != 0;
+    }
+
+    public long getDetachedAt() {
+        return detachedAt;
+    }
+
+    public boolean isTerminated() {
+        return terminated;
+    }
+
+    public TerminalTrace getTrace() {
+        return trace;
+    }
+
+    public void setTrace(TerminalTrace trace) {
+        this.trace = trace;
+    }
+
+    /**
+     * 把终端输入原样写入 shell 通道。
+     */
+    public void writeInput(byte[] buffer, int offset, int length) throws IOException {
+        TerminalTrace currentTrace = trace;
+        if (currentTrace != null) {
+            currentTrace.record(TerminalTrace.INPUT, buffer, offset, length);
+        }
+        // 先计时再写入，避免回显先于计时到达
+        meters.input(length);
+        bandwidth.recordInteractive(length);
+        OutputStream out = shell.getOutputStream();
+        out.write(buffer, offset, length);
+        out.flush();
+    }
+
+    /**
+     * 调整伪终端窗口大小，远端程序收到 SIGWINCH 后重绘。
+     */
+    public void resize(int cols, int rows) {
+        shell.setPtySize(cols, rows, 0, 0);
+    }
+
+    /**
+     * 读取 shell 输出直到通道关闭，在输出泵线程上执行。
+     */
+    void pump(int flushBytes, long flushWindowMillis) throws IOException {
+        SSHOutputCoalescer coalescer = new SSHOutputCoalescer(shell.getInputStream(), this::onOutput,
+                flushBytes, flushWindowMillis);
+        coalescer.run();
+    }
+
+    private synchronized void onOutput(byte[] buffer, int offset, int length) throws IOException {
+        if (terminated) {
+            return;
+        }
+        TerminalTrace currentTrace = trace;
+        if (currentTrace != null) {
+            currentTrace.record(TerminalTrace.OUTPUT, buffer, offset, length);
+        }
+        if (scrollback != null) {
+            scrollback.write(buffer, offset, length);
+        }
+        if (attached != null) {
+            meters.output(length);
+            bandwidth.recordInteractive(length);
+            send(attached, binaryMode, buffer, offset, length);
+        }
+    }
+
+    /**
+     * 绑定到 WebSocket 会话，先回放回滚缓冲区中的内容。
+     * 终端在其他连接上被恢复时关闭旧连接；关闭可能阻塞在发送上，放在锁外进行，不阻塞输出泵。
+     */
+    public void attach(BufferedWebSocketSession outbound, boolean binary) throws IOException {
+        BufferedWebSocketSession previous;
+        synchronized (this) {
+            previous = attached != outbound ? attached : null;
+            this.attached = outbound;
+            this.binaryMode = binary;
+            this.detachedAt = 0;
+        }
+        try {
+            replay(outbound, binary);
+        } finally {
+            closeQuietly(previous, RESUMED_ELSEWHERE);
+        }
+    }
+
+    private synchronized void replay(BufferedWebSocketSession outbound, boolean binary) throws IOException {
+        // 回放期间持有锁，实时输出排在回放内容之后；回放前已被其他连接取代时不再回放
+        if (attached != outbound || scrollback == null || scrollback.size() == 0) {
+            return;
+        }
+        if (binary) {
+            scrollback.replay((buffer, offset, length) -> outbound.sendOutput(buffer, offset, length));
+        } else {
+            // 文本模式整体解码，避免多字节字符在分段边界被截断
+            byte[] bytes = scrollback.toByteArray();
+            int start = 0;
+            // 跳过被回收截断的 UTF-8 续字节
+            while (start < bytes.length && start < 3 && (bytes[start] & 0xC0) == 0x80) {
+                start++;
+            }
+            outbound.sendOutput(TerminalProtocol.output(new String(bytes, start, bytes.length - start, StandardCharsets.UTF_8)));
+        }
+    }
+
+    /**
+     * 与 WebSocket 会话解绑，shell 继续运行。
+     */
+    synchronized void detach(BufferedWebSocketSession outbound) {
+        if (attached == outbound) {
+            attached = null;
+            detachedAt = System.currentTimeMillis();
+        }
+    }
+
+    void closeAttached(CloseStatus status) {
+        BufferedWebSocketSession previous;
+        synchronized (this) {
+            previous = attached;
+            attached = null;
+        }
+        closeQuietly(previous, status);
+    }
+
+    synchronized void close() {
+        if (terminated) {
+            return;
+        }
+        terminated = true;
+        if (expiry != null) {
+            expiry.cancel(false);
+        }
+        shell.disconnect();
+        lease.close();
+        if (scrollback != null) {
+            scrollback.release();
+        }
+    }
+
+    private void closeQuietly(BufferedWebSocketSession outbound, CloseStatus status) {
+        if (outbound == null) {
+            return;
+        }
+        try {
+            outbound.close(status);
+        } catch (IOException e) {
+            logger.debug("关闭终端WebSocket失败: {}", id, e);
+        }
+    }
+
+    private static void send(BufferedWebSocketSession outbound, boolean binary, byte[] buffer, int offset, int length)
+            throws IOException {
+        if (binary) {
+            outbound.sendOutput(buffer, offset, length);
+        } else {
+            outbound.sendOutput(TerminalProtocol.output(new String(buffer, offset, length, StandardCharsets.UTF_8)));
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package com.leaderjs.operator.service;
+
+import com.jcraft.jsch.ChannelShell;
+import com.leaderjs.operator.service.SSHSessionManager.SSHSessionLease;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.socket.CloseStatus;
+
+import java.io.InterruptedIOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 终端注册表：管理终端的创建、脱离、恢复与销毁。
+ * 脱离的终端在宽限期内保持 shell 运行，输出写入回滚缓冲区；所有回滚缓冲区共享一个全局内存上限，
+ * 达到上限时按脱离时间从早到晚（LRU）淘汰脱离中的终端。
+ */
+@Service
+public class TerminalSessionRegistry implements DisposableBean {
+    private static final Logger logger = LoggerFactory.getLogger(TerminalSessionRegistry.class);
+
+    private static final int SEGMENT_SIZE = 16 * 1024;
+
+    private final SSHOutputPumpExecutor pumpExecutor;
+    private final SSHMetrics sshMetrics;
+    private final TransferBandwidthScheduler bandwidth;
+    private final Map<String, TerminalSession> terminals = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "terminal-reaper");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ByteArrayPool segmentPool;
+    private final AtomicLong scrollbackBytes = new AtomicLong();
+    private final Counter evictions;
+    private final ScrollbackBuffer.SegmentAllocator allocator = new ScrollbackBuffer.SegmentAllocator() {
+        @Override
+        public byte[] allocate() {
+            return allocateSegment();
+        }
+
+        @Override
+        public void free(byte[] segment) {
+            scrollbackBytes.addAndGet(-segment.length);
+            segmentPool.release(segment);
+        }
+    };
+
+    @Value("${app.ssh.detach.enabled:true}")
+    private boolean detachEnabled;
+
+    @Value("${app.ssh.detach.grace-period-ms:120000}")
+    private long gracePeriodMillis;
+
+    @Value("${app.ssh.detach.scrollback-bytes:262144}")
+    private int scrollbackCapacity;
+
+    @Value("${app.ssh.detach.max-total-bytes:67108864}")
+    private long maxTotalScrollbackBytes;
+
+    @Value("${app.ssh.output.flush-bytes:16384}")
+    private int outputFlushBytes;
+
+    @Value("${app.ssh.output.flush-window-ms:8}")
+    private long outputFlushWindowMillis;
+
+    @Value("${app.ssh.trace.capacity-bytes:262144}")
+    private int traceCapacityBytes;
+
+    public TerminalSessionRegistry(SSHOutputPumpExecutor pumpExecutor, SSHMetrics sshMetrics,
+                                   MeterRegistry meterRegistry, TransferBandwidthScheduler bandwidth) {
+        this.pumpExecutor = pumpExecutor;
+        this.sshMetrics = sshMetrics;
+        this.bandwidth = bandwidth;
+        this.segmentPool = new ByteArrayPool(SEGMENT_SIZE, 256);
+        Gauge.builder("ssh.terminals.open", terminals, Map::size)
+                .description("打开的终端")
+                .register(meterRegistry);
+        Gauge.builder("ssh.terminals.detached", terminals, t -> t.values().stream().filter(TerminalSession::isDetached).count())
+                .description("已脱离 WebSocket、等待恢复的终端")
+                .register(meterRegistry);
+        Gauge.builder("ssh.terminals.scrollback.bytes", scrollbackBytes, AtomicLong::get)
+                .description("回滚缓冲区占用的内存")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        this.evictions = Counter.builder("ssh.terminals.evicted")
+                .description("因回滚缓冲区内存上限被淘汰的脱离终端")
+                .register(meterRegistry);
+    }
+
+    public TerminalSession find(String id) {
+        return terminals.get(id);
+    }
+
+    public Collection<TerminalSession> list() {
+        return Collections.unmodifiableCollection(terminals.values());
+    }
+
+    /**
+     * 为终端开启 I/O 跟踪，已开启时保留现有记录。终端不存在时返回 null。
+     */
+    public TerminalTrace enableTrace(String id) {
+        TerminalSession terminal = terminals.get(id);
+        if (terminal == null) {
+            return null;
+        }
+        synchronized (terminal) {
+            if (terminal.getTrace() == null) {
+                terminal.setTrace(new TerminalTrace(traceCapacityBytes));
+                logger.info("终端I/O跟踪已开启: {}", id);
+            }
+            return terminal.getTrace();
+        }
+    }
+
+    /**
+     * 关闭终端的 I/O 跟踪并丢弃记录，返回是否存在该终端。
+     */
+    public boolean disableTrace(String id) {
+        TerminalSession terminal = terminals.get(id);
+        if (terminal == null) {
+            return false;
+        }
+        if (terminal.getTrace() != null) {
+            terminal.setTrace(null);
+            logger.info("终端I/O跟踪已关闭: {}", id);
+        }
+        return true;
+    }
+
+    public boolean isDetachEnabled() {
+        return detachEnabled;
+    }
+
+    /**
+     * 创建终端，此时输出泵尚未启动，调用方绑定 WebSocket 后调用 {@link #start}。
+     */
+    public TerminalSession open(String operatorId, String user, SSHSessionLease lease, ChannelShell shell) {
+        ScrollbackBuffer scrollback = detachEnabled
+                ? new ScrollbackBuffer(allocator, SEGMENT_SIZE, scrollbackCapacity)
+                : null;
+        TerminalSession terminal = new TerminalSession(UUID.randomUUID().toString(), operatorId, user, lease, shell,
+                scrollback, sshMetrics.terminalMeters(lease.getTags()), bandwidth);
+        terminals.put(terminal.getId(), terminal);
+        return terminal;
+    }
+
+    /**
+     * 启动输出泵，达到并发上限时返回 false。
+     */
+    public boolean start(TerminalSession terminal) {
+        return pumpExecutor.start(terminal.getId(), () -> {
+            try {
+                terminal.pump(outputFlushBytes, outputFlushWindowMillis);
+            } catch (Exception e) {
+                // 销毁终端时会中断输出泵，InterruptedIOException 属于正常退出
+                if (!terminal.isTerminated() && !(e instanceof InterruptedIOException)
+                        && terminal.getShell().isConnected()) {
+                    logger.error("读取SSH输出时发生错误", e);
+                } else {
+                    logger.debug("终端已关闭，输出泵退出: {}", terminal.getId());
+                }
+            } finally {
+                // shell 退出（如输入 exit）时关闭终端及其 WebSocket
+                if (!terminal.isTerminated()) {
+                    terminal.closeAttached(CloseStatus.NORMAL);
+                    terminate(terminal);
+                }
+            }
+        });
+    }
+
+    /**
+     * 按恢复令牌找回脱离中的终端，operator 和用户必须与创建时一致。
+     */
+    public TerminalSession resume(String token, String operatorId, String user) {
+        TerminalSession terminal = terminals.get(token);
+        if (terminal == null || terminal.isTerminated()
+                || !terminal.getOperatorId().equals(operatorId)
+                || !Objects.equals(terminal.getUser(), user)) {
+            return null;
+        }
+        synchronized (terminal) {
+            if (terminal.expiry != null) {
+                terminal.expiry.cancel(false);
+                terminal.expiry = null;
+            }
+        }
+        logger.info("终端已恢复: {}", token);
+        return terminal;
+    }
+
+    /**
+     * WebSocket 断开但 shell 保留，宽限期结束前未恢复则销毁。
+     */
+    public void detach(TerminalSession terminal, BufferedWebSocketSession outbound) {
+        if (!detachEnabled) {
+            terminate(terminal);
+            return;
+        }
+        synchronized (terminal) {
+            terminal.detach(outbound);
+            // 已被其他连接恢复或已销毁时无需计时
+            if (terminal.isTerminated() || !terminal.isDetached()) {
+                return;
+            }
+            terminal.expiry = scheduler.schedule(() -> {
+                if (terminal.isDetached()) {
+                    logger.info("终端脱离超过宽限期，已关闭: {}", terminal.getId());
+                    terminate(terminal);
+                }
+            }, gracePeriodMillis, TimeUnit.MILLISECONDS);
+            logger.info("终端已脱离，保留 {} ms: {}", gracePeriodMillis, terminal.getId());
+        }
+    }
+
+    public void terminate(TerminalSession terminal) {
+        terminals.remove(terminal.getId(), terminal);
+        pumpExecutor.stop(terminal.getId());
+        terminal.close();
+    }
+
+    private byte[] allocateSegment() {
+        while (true) {
+            long current = scrollbackBytes.get();
+            if (current + SEGMENT_SIZE > maxTotalScrollbackBytes) {
+                evictLeastRecentlyDetached();
+                return null;
+            }
+            if (scrollbackBytes.compareAndSet(current, current + SEGMENT_SIZE)) {
+                return segmentPool.acquire(SEGMENT_SIZE);
+            }
+        }
+    }
+
+    /**
+     * 淘汰最早脱离的终端。在调度线程上异步执行，避免在某个终端的输出锁内关闭另一个终端。
+     */
+    private void evictLeastRecentlyDetached() {
+        terminals.values().stream()
+                .filter(TerminalSession::isDetached)
+                .min(Comparator.comparingLong(TerminalSession::getDetachedAt))
+                .ifPresent(victim -> scheduler.execute(() -> {
+                    if (victim.isDetached() && !victim.isTerminated()) {
+                        logger.warn("回滚缓冲区达到内存上限，淘汰脱离终端: {}", victim.getId());
+                        evictions.increment();
+                        terminate(victim);
+                    }
+                }));
+    }
+
+    @Override
+    public void destroy() {
+        scheduler.shutdownNow();
+        terminals.values().forEach(TerminalSession::close);
+        terminals.clear();
+    }
+}
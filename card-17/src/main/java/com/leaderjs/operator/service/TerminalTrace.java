@@ -0,0 +1,85 @@
+package com.leaderjs.operator.service;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 单个终端的原始 I/O 跟踪记录，容量有界，超出时丢弃最早的记录。
+ * 只在通过 actuator 为该终端开启跟踪时创建，未开启时终端路径上没有任何开销。
+ */
+public class TerminalTrace {
+    public static final char INPUT = 'I';
+    public static final char OUTPUT = 'O';
+
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    private static final class Record {
+        final long timestamp;
+        final char direction;
+        final byte[] data;
+
+        Record(long timestamp, char direction, byte[] data) {
+            this.timestamp = timestamp;
+            this.direction = direction;
+            this.data = data;
+        }
+    }
+
+    private final int capacityBytes;
+    private final long startedAt = System.currentTimeMillis();
+    private final ArrayDeque<Record> records = new ArrayDeque<>();
+    private long bytes;
+    private long droppedRecords;
+
+    public TerminalTrace(int capacityBytes) {
+        this.capacityBytes = capacityBytes;
+    }
+
+    public synchronized void record(char direction, byte[] buffer, int offset, int length) {
+        byte[] data = new byte[Math.min(length, capacityBytes)];
+        System.arraycopy(buffer, offset + length - data.length, data, 0, data.length);
+        records.addLast(new Record(System.currentTimeMillis(), direction, data));
+        bytes += data.length;
+        while (bytes > capacityBytes && records.size() > 1) {
+            bytes -= records.pollFirst().data.length;
+            droppedRecords++;
+        }
+    }
+
+    /**
+     * 导出当前缓冲的记录，每条包含时间、方向、长度、十六进制和文本内容。
+     */
+    public synchronized Map<String, Object> dump() {
+        List<Map<String, Object>> entries = new ArrayList<>(records.size());
+        for (Record record : records) {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("time", Instant.ofEpochMilli(record.timestamp).toString());
+            entry.put("direction", record.direction == INPUT ? "in" : "out");
+            entry.put("length", record.data.length);
+            entry.put("hex", toHex(record.data));
+            entry.put("text", new String(record.data, StandardCharsets.UTF_8));
+            entries.add(entry);
+        }
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("startedAt", Instant.ofEpochMilli(startedAt).toString());
+        result.put("bufferedBytes", bytes);
+        result.put("droppedRecords", droppedRecords);
+        result.put("records", entries);
+        return result;
+    }
+
+    private static String toHex(byte[] data) {
+        char[] chars = new char[data.length * 3];
+        for (int i = 0; i < data.length; i++) {
+            chars[i * 3] = HEX[(data[i] >> 4) & 0x0F];
+            chars[i * 3 + 1] = HEX[data[i] & 0x0F];
+            chars[i * 3 + 2] = ' ';
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,373 @@
+package com.leaderjs.operator.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * 文件传输带宽调度：所有 SFTP 读写和 HTTP 下载在发送前向这里申请令牌。
+ * <p>
+ * 全局和每个用户各有一个令牌桶，速率为 0 表示不限。全局速率按正在传输的用户数平分，
+ * 再与每用户上限取较小值，一个用户的多 GB 下载不会挤占其他用户。申请按不超过 64KB 的份额进行，
+ * 等待令牌的线程在公平锁上排队，同一用户的多个传输轮流获得带宽。
+ * <p>
+ * 用户由 {@link #party} 确定：登录用户按用户名区分，未登录的请求（WebSocket 连接都没有身份）按客户端地址区分，
+ * 不会合并到同一个令牌桶。
+ * <p>
+ * 终端输入输出不等待令牌，但计入全局令牌桶（允许透支到一个突发容量），终端繁忙时批量传输自动让出带宽。
+ */
+@Service
+public class TransferBandwidthScheduler implements DisposableBean {
+    private static final int QUANTUM = 64 * 1024;
+
+    private final long globalBytesPerSecond;
+    private final long perUserBytesPerSecond;
+    private final long burstMillis;
+    private final TokenBucket global;
+    // 正在传输的用户，访问都在 this 上同步
+    private final Map<String, UserBucket> users = new HashMap<>();
+
+    private final AtomicLong queuedBytes = new AtomicLong();
+    private final Counter bulkBytes;
+    private final Counter interactiveBytes;
+    private final RateMeter bulkRate = new RateMeter();
+    private final RateMeter interactiveRate = new RateMeter();
+    private final ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "bandwidth-meter");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public TransferBandwidthScheduler(MeterRegistry meterRegistry,
+                                      @Value("${app.ssh.bandwidth.global-bytes-per-second:0}") long globalBytesPerSecond,
+                                      @Value("${app.ssh.bandwidth.per-user-bytes-per-second:0}") long perUserBytesPerSecond,
+                                      @Value("${app.ssh.bandwidth.burst-ms:500}") long burstMillis) {
+        this.globalBytesPerSecond = Math.max(0, globalBytesPerSecond);
+        this.perUserBytesPerSecond = Math.max(0, perUserBytesPerSecond);
+        this.burstMillis = Math.max(1, burstMillis);
+        this.global = new TokenBucket(this.globalBytesPerSecond, this.burstMillis);
+
+        this.bulkBytes = Counter.builder("ssh.transfer.bandwidth.bytes").tag("class", "bulk")
+                .description("经过带宽调度的字节数").baseUnit("bytes").register(meterRegistry);
+        this.interactiveBytes = Counter.builder("ssh.transfer.bandwidth.bytes").tag("class", "interactive")
+                .description("经过带宽调度的字节数").baseUnit("bytes").register(meterRegistry);
+        Gauge.builder("ssh.transfer.bandwidth.queued", queuedBytes, AtomicLong::get)
+                .description("等待令牌的字节数").baseUnit("bytes").register(meterRegistry);
+        Gauge.builder("ssh.transfer.bandwidth.rate", bulkRate, RateMeter::rate).tag("class", "bulk")
+                .description("最近一秒的实际速率").baseUnit("bytes").register(meterRegistry);
+        Gauge.builder("ssh.transfer.bandwidth.rate", interactiveRate, RateMeter::rate).tag("class", "interactive")
+                .description("最近一秒的实际速率").baseUnit("bytes").register(meterRegistry);
+        Gauge.builder("ssh.transfer.bandwidth.users", this, TransferBandwidthScheduler::activeUsers)
+                .description("正在传输文件的用户").register(meterRegistry);
+        sampler.scheduleAtFixedRate(() -> {
+            bulkRate.sample();
+            interactiveRate.sample();
+        }, 1, 1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 带宽份额的归属：登录用户按用户名，未登录时按客户端地址。
+     *
+     * @param user          用户名，未登录时为 null
+     * @param clientAddress 客户端地址或其他能区分来源的标识，不能为 null
+     */
+    public static String party(String user, String clientAddress) {
+        return user != null ? "user:" + user : "client:" + Objects.requireNonNull(clientAddress);
+    }
+
+    /**
+     * 开始一个批量传输，传输结束时必须关闭返回的 {@link Throttle}。
+     *
+     * @param party 带宽份额的归属，由 {@link #party} 生成
+     */
+    public Throttle open(String party) {
+        String key = Objects.requireNonNull(party);
+        UserBucket bucket;
+        synchronized (this) {
+            bucket = users.computeIfAbsent(key, k -> new UserBucket(burstMillis));
+            bucket.transfers++;
+            rebalance();
+        }
+        return new Throttle(key, bucket);
+    }
+
+    /**
+     * 记录终端流量：不等待，直接从全局令牌桶扣除。
+     */
+    public void recordInteractive(int bytes) {
+        interactiveBytes.increment(bytes);
+        interactiveRate.add(bytes);
+        global.consume(bytes);
+    }
+
+    private synchronized void close(String key, UserBucket bucket) {
+        if (--bucket.transfers == 0) {
+            users.remove(key);
+        }
+        rebalance();
+    }
+
+    /**
+     * 用户数变化后重新分配每个用户的速率。
+     */
+    private void rebalance() {
+        long share = globalBytesPerSecond > 0 && !users.isEmpty() ? globalBytesPerSecond / users.size() : 0;
+        long rate = share == 0 ? perUserBytesPerSecond
+                : perUserBytesPerSecond == 0 ? share : Math.min(share, perUserBytesPerSecond);
+        users.values().forEach(bucket -> bucket.tokens.setRate(rate));
+    }
+
+    private synchronized int activeUsers() {
+        return users.size();
+    }
+
+    @Override
+    public void destroy() {
+        sampler.shutdownNow();
+    }
+
+    private static final class UserBucket {
+        private final TokenBucket tokens;
+        private int transfers;
+
+        private UserBucket(long burstMillis) {
+            this.tokens = new TokenBucket(0, burstMillis);
+        }
+    }
+
+    /**
+     * 一个批量传输的带宽配额。
+     */
+    public final class Throttle implements AutoCloseable {
+        private final String key;
+        private final UserBucket bucket;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private Throttle(String key, UserBucket bucket) {
+            this.key = key;
+            this.bucket = bucket;
+        }
+
+        /**
+         * 发送或写入 bytes 字节之前调用，令牌不足时阻塞。
+         */
+        public void acquire(int bytes) throws InterruptedIOException {
+            queuedBytes.addAndGet(bytes);
+            int remaining = bytes;
+            try {
+                while (remaining > 0) {
+                    int quantum = Math.min(QUANTUM, remaining);
+                    bucket.tokens.acquire(quantum);
+                    global.acquire(quantum);
+                    queuedBytes.addAndGet(-quantum);
+                    remaining -= quantum;
+                }
+            } catch (InterruptedException e) {
+                queuedBytes.addAndGet(-remaining);
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("等待传输带宽被中断");
+            }
+            bulkBytes.increment(bytes);
+            bulkRate.add(bytes);
+        }
+
+        /**
+         * 不等待地记账，用于无法阻塞的发送方（例如在 WebSocket 消息处理线程上直接写入的上传），
+         * 透支的令牌让同一用户的其他传输让出带宽。
+         */
+        public void charge(int bytes) {
+            bucket.tokens.consume(bytes);
+            global.consume(bytes);
+            bulkBytes.increment(bytes);
+            bulkRate.add(bytes);
+        }
+
+        /**
+         * 包装读取流，每次读到数据后申请令牌。
+         */
+        public InputStream wrap(InputStream in) {
+            return new FilterInputStream(in) {
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b != -1) {
+                        acquire(1);
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] buffer, int offset, int length) throws IOException {
+                    int n = super.read(buffer, offset, length);
+                    if (n > 0) {
+                        acquire(n);
+                    }
+                    return n;
+                }
+            };
+        }
+
+        /**
+         * 包装写入流，每次写入前申请令牌。
+         */
+        public OutputStream wrap(OutputStream out) {
+            return new FilterOutputStream(out) {
+                @Override
+                public void write(int b) throws IOException {
+                    acquire(1);
+                    out.write(b);
+                }
+
+                @Override
+                public void write(byte[] buffer, int offset, int length) throws IOException {
+                    acquire(length);
+                    out.write(buffer, offset, length);
+                }
+            };
+        }
+
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                TransferBandwidthScheduler.this.close(key, bucket);
+            }
+        }
+    }
+
+    /**
+     * 令牌桶，容量为 burst 时长内的令牌数。等待令牌的线程在公平锁上排队，持锁者睡眠到令牌足够为止；
+     * 终端流量和速率调整不取锁，不会被睡眠中的持锁者阻塞。
+     */
+    static final class TokenBucket {
+        private final ReentrantLock lock = new ReentrantLock(true);
+        private final long burstMillis;
+        private final LongSupplier nanoClock;
+        private volatile long bytesPerSecond;
+        // 终端流量的透支，下次补充令牌时扣除
+        private final AtomicLong debt = new AtomicLong();
+        private double tokens;
+        private long refilledAt;
+
+        TokenBucket(long bytesPerSecond, long burstMillis) {
+            this(bytesPerSecond, burstMillis, System::nanoTime);
+        }
+
+        TokenBucket(long bytesPerSecond, long burstMillis, LongSupplier nanoClock) {
+            this.bytesPerSecond = bytesPerSecond;
+            this.burstMillis = burstMillis;
+            this.nanoClock = nanoClock;
+            this.tokens = capacity();
+            this.refilledAt = nanoClock.getAsLong();
+        }
+
+        void setRate(long rate) {
+            bytesPerSecond = rate;
+        }
+
+        void acquire(int bytes) throws InterruptedException {
+            if (bytesPerSecond == 0) {
+                return;
+            }
+            lock.lockInterruptibly();
+            try {
+                while (true) {
+                    long rate = bytesPerSecond;
+                    if (rate == 0) {
+                        return;
+                    }
+                    refill();
+                    // 份额大于桶容量时桶满即可放行，避免永远等不到
+                    double needed = Math.min(bytes, capacity());
+                    if (tokens >= needed) {
+                        tokens -= bytes;
+                        return;
+                    }
+                    long waitNanos = (long) ((needed - tokens) * 1e9 / rate);
+                    TimeUnit.NANOSECONDS.sleep(Math.max(waitNanos, 100_000));
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * 不等待地扣除令牌，最多透支一个桶容量。
+         */
+        void consume(int bytes) {
+            if (bytesPerSecond != 0) {
+                debt.addAndGet(bytes);
+            }
+        }
+
+        /**
+         * 补充后的可用令牌数，透支时为负数。
+         */
+        double available() {
+            lock.lock();
+            try {
+                refill();
+                return tokens;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void refill() {
+            long now = nanoClock.getAsLong();
+            double capacity = capacity();
+            tokens = Math.min(capacity, tokens + (now - refilledAt) * bytesPerSecond / 1e9);
+            tokens = Math.max(tokens - debt.getAndSet(0), -capacity);
+            refilledAt = now;
+        }
+
+        double capacity() {
+            return Math.max(QUANTUM, bytesPerSecond * burstMillis / 1000.0);
+        }
+    }
+
+    /**
+     * 每秒采样一次的速率。
+     */
+    private static final class RateMeter {
+        private final AtomicLong total = new AtomicLong();
+        private long lastTotal;
+        private long lastAt = System.nanoTime();
+        private volatile double rate;
+
+        private void add(long bytes) {
+            total.addAndGet(bytes);
+        }
+
+        private void sample() {
+            long now = System.nanoTime();
+            long current = total.get();
+            rate = (current - lastTotal) * 1e9 / Math.max(1, now - lastAt);
+            lastTotal = current;
+            lastAt = now;
+        }
+
+        private double rate() {
+            return rate;
+        }
+    }
+}
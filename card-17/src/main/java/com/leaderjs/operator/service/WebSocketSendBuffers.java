@@ -0,0 +1,168 @@
+package com.leaderjs.operator.service;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.adapter.NativeWebSocketSession;
+import org.springframework.web.socket.handler.WebSocketSessionDecorator;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 为 SSH 和 MySQL WebSocket 会话创建有界发送缓冲区，并统一上报缓冲区指标。
+ * <p>
+ * 所有会话共用发送线程池，慢客户端的一次发送最多占用一个发送线程 time-limit-ms：
+ * 底层 Tomcat 会话的阻塞发送超时设为该时长，巡检线程每秒检查一次，关闭发送超时的会话。
+ */
+@Service
+public class WebSocketSendBuffers implements DisposableBean {
+    public static final String HANDLER_SSH = "ssh";
+    public static final String HANDLER_MYSQL = "mysql";
+    private static final String BLOCKING_SEND_TIMEOUT_PROPERTY = "org.apache.tomcat.websocket.BLOCKING_SEND_TIMEOUT";
+
+    private final MeterRegistry meterRegistry;
+    private final ThreadPoolExecutor sendExecutor;
+    private final ScheduledExecutorService watchdog;
+    private final ByteArrayPool bufferPool;
+    private final Set<BufferedWebSocketSession> liveSessions = ConcurrentHashMap.newKeySet();
+    private final Map<String, DistributionSummary> highWaterSummaries = new ConcurrentHashMap<>();
+
+    @Value("${app.ssh.send-buffer.size-limit:1048576}")
+    private int sshBufferSizeLimit;
+
+    @Value("${app.ssh.send-buffer.time-limit-ms:30000}")
+    private long sshSendTimeLimitMillis;
+
+    @Value("${app.ssh.send-buffer.overflow-policy:drop}")
+    private String sshOverflowPolicy;
+
+    @Value("${app.mysql.send-buffer.size-limit:16777216}")
+    private int mysqlBufferSizeLimit;
+
+    @Value("${app.mysql.send-buffer.time-limit-ms:30000}")
+    private long mysqlSendTimeLimitMillis;
+
+    @Value("${app.mysql.send-buffer.overflow-policy:pause}")
+    private String mysqlOverflowPolicy;
+
+    public WebSocketSendBuffers(MeterRegistry meterRegistry,
+                                @Value("${app.websocket.send-threads:64}") int sendThreads,
+                                @Value("${app.ssh.output.flush-bytes:16384}") int outputFlushBytes) {
+        this.meterRegistry = meterRegistry;
+        AtomicInteger sequence = new AtomicInteger();
+        this.sendExecutor = new ThreadPoolExecutor(sendThreads, sendThreads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "ws-send-" + sequence.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.sendExecutor.allowCoreThreadTimeOut(true);
+        // 巡检和关闭卡住的会话不能依赖可能已被占满的发送线程
+        AtomicInteger watchdogSequence = new AtomicInteger();
+        this.watchdog = Executors.newScheduledThreadPool(2, runnable -> {
+            Thread thread = new Thread(runnable, "ws-send-watchdog-" + watchdogSequence.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.watchdog.scheduleWithFixedDelay(this::abortStalledSends, 1, 1, TimeUnit.SECONDS);
+        // 终端二进制输出最多是一个合并帧的大小
+        this.bufferPool = new ByteArrayPool(Math.max(outputFlushBytes, 1024), 1024);
+
+        for (String handler : new String[]{HANDLER_SSH, HANDLER_MYSQL}) {
+            Gauge.builder("websocket.send.buffer.bytes", liveSessions, sessions -> sessions.stream()
+                            .filter(s -> handler.equals(s.getHandler()))
+                            .mapToLong(BufferedWebSocketSession::getBufferedBytes)
+                            .sum())
+                    .tag("handler", handler)
+                    .description("WebSocket发送缓冲区中等待发送的字节数")
+                    .baseUnit("bytes")
+                    .register(meterRegistry);
+            Gauge.builder("websocket.send.buffer.high.water", liveSessions, sessions -> sessions.stream()
+                            .filter(s -> handler.equals(s.getHandler()))
+                            .mapToLong(BufferedWebSocketSession::getHighWaterMark)
+                            .max()
+                            .orElse(0))
+                    .tag("handler", handler)
+                    .description("当前会话中发送缓冲区的最高水位")
+                    .baseUnit("bytes")
+                    .register(meterRegistry);
+        }
+        Gauge.builder("websocket.send.pool.buffers", bufferPool, ByteArrayPool::getPooledCount)
+                .description("池中空闲的终端输出缓冲区")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 包装 WebSocket 会话，之后该会话上的所有发送都应通过返回的对象进行。
+     */
+    public BufferedWebSocketSession wrap(WebSocketSession session, String handler) {
+        limitBlockingSend(session, HANDLER_MYSQL.equals(handler) ? mysqlSendTimeLimitMillis : sshSendTimeLimitMillis);
+        BufferedWebSocketSession buffered = HANDLER_MYSQL.equals(handler)
+                ? new BufferedWebSocketSession(session, this, handler, mysqlBufferSizeLimit,
+                        mysqlSendTimeLimitMillis, parsePolicy(mysqlOverflowPolicy), sendExecutor, bufferPool)
+                : new BufferedWebSocketSession(session, this, handler, sshBufferSizeLimit,
+                        sshSendTimeLimitMillis, parsePolicy(sshOverflowPolicy), sendExecutor, bufferPool);
+        liveSessions.add(buffered);
+        return buffered;
+    }
+
+    /**
+     * Tomcat 的阻塞发送默认最多等待 20 秒，改为与发送时间上限一致。
+     */
+    private static void limitBlockingSend(WebSocketSession session, long timeLimitMillis) {
+        if (WebSocketSessionDecorator.unwrap(session) instanceof NativeWebSocketSession nativeSession) {
+            javax.websocket.Session wsSession = nativeSession.getNativeSession(javax.websocket.Session.class);
+            if (wsSession != null) {
+                wsSession.getUserProperties().put(BLOCKING_SEND_TIMEOUT_PROPERTY, timeLimitMillis);
+            }
+        }
+    }
+
+    private void abortStalledSends() {
+        long now = System.nanoTime();
+        for (BufferedWebSocketSession session : liveSessions) {
+            if (session.isSendStalled(now)) {
+                onOverflow(session.getHandler(), "send_time_limit");
+                // 关闭时 Tomcat 可能还要尝试发送关闭帧，不在巡检循环里等待
+                watchdog.execute(session::abortStalledSend);
+            }
+        }
+    }
+
+    void onOverflow(String handler, String policy) {
+        meterRegistry.counter("websocket.send.overflow", "handler", handler, "policy", policy).increment();
+    }
+
+    void onRelease(BufferedWebSocketSession session) {
+        liveSessions.remove(session);
+        highWaterSummaries.computeIfAbsent(session.getHandler(), handler ->
+                DistributionSummary.builder("websocket.send.buffer.session.high.water")
+                        .tag("handler", handler)
+                        .description("每个会话关闭时发送缓冲区的最高水位")
+                        .baseUnit("bytes")
+                        .register(meterRegistry))
+                .record(session.getHighWaterMark());
+    }
+
+    private static BufferedWebSocketSession.OverflowPolicy parsePolicy(String value) {
+        return BufferedWebSocketSession.OverflowPolicy.valueOf(value.trim().toUpperCase());
+    }
+
+    @Override
+    public void destroy() {
+        watchdog.shutdownNow();
+        sendExecutor.shutdownNow();
+    }
+}
@@ -0,0 +1,254 @@
+package com.leaderjs.operator.benchmark;
+
+import com.leaderjs.operator.model.Operator;
+import com.leaderjs.operator.service.SSHMetrics;
+import com.leaderjs.operator.service.SSHSessionManager;
+import com.leaderjs.operator.service.SSHSessionManager.PooledSftp;
+import com.leaderjs.operator.service.SSHSessionManager.SSHSessionLease;
+import com.leaderjs.operator.service.SftpTransferEngine;
+import com.leaderjs.operator.service.TransferBandwidthScheduler;
+import com.leaderjs.operator.service.TransferBandwidthScheduler.Throttle;
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.sshd.common.file.virtualfs.VirtualFileSystemFactory;
+import org.apache.sshd.server.SshServer;
+import org.apache.sshd.server.keyprovider.SimpleGeneratorHostKeyProvider;
+import org.apache.sshd.sftp.server.SftpSubsystemFactory;
+import org.slf4j.LoggerFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * SFTP 大文件传输吞吐：内嵌 MINA sshd（SFTP 子系统），客户端经过一个注入固定延迟的 TCP 代理连接，
+ * 模拟跨地域的 operator 主机。分别测单通道默认 16 个在途请求、单通道 64 个在途请求和多通道并行的上传下载速度，
+ * 并校验传输内容。
+ * <p>
+ * 运行方式（不随 mvn test 执行）：
+ * <pre>
+ * mvn test-compile dependency:build-classpath -Dmdep.outputFile=target/test.classpath
+ * java -cp target/test-classes:target/classes:$(cat target/test.classpath) \
+ *     -Dbench.rtt-ms=50 -Dbench.size-mb=64 com.leaderjs.operator.benchmark.SftpTransferBenchmark
+ * </pre>
+ */
+public class SftpTransferBenchmark {
+    private static final long RTT_MILLIS = Long.getLong("bench.rtt-ms", 50);
+    private static final int SIZE_MB = Integer.getInteger("bench.size-mb", 64);
+    private static final int STREAMS = Integer.getInteger("bench.streams", 3);
+    private static final int SEGMENT_MB = Integer.getInteger("bench.segment-mb", 64);
+
+    public static void main(String[] args) throws Exception {
+        // 没有 logback 配置时默认输出 DEBUG，sshd 的日志会淹没结果
+        ((Logger) LoggerFactory.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME)).setLevel(Level.WARN);
+        Path root = Files.createTempDirectory("sftp-bench");
+        Path source = root.resolve("source.bin");
+        byte[] block = new byte[1024 * 1024];
+        new Random(42).nextBytes(block);
+        try (OutputStream out = Files.newOutputStream(source)) {
+            for (int i = 0; i < SIZE_MB; i++) {
+                out.write(block);
+            }
+        }
+        long size = Files.size(source);
+        long expectedCrc = crc(source);
+
+        SshServer sshd = SshServer.setUpDefaultServer();
+        sshd.setHost("localhost");
+        sshd.setPort(0);
+        sshd.setKeyPairProvider(new SimpleGeneratorHostKeyProvider());
+        sshd.setPasswordAuthenticator((username, password, session) -> true);
+        sshd.setSubsystemFactories(List.of(new SftpSubsystemFactory()));
+        sshd.setFileSystemFactory(new VirtualFileSystemFactory(root));
+        sshd.start();
+        LatencyProxy proxy = new LatencyProxy(sshd.getPort(), RTT_MILLIS / 2);
+        proxy.start();
+
+        System.out.printf("文件 %d MB，往返延迟 %d ms%n", SIZE_MB, RTT_MILLIS);
+        System.out.printf("%-28s %14s %14s%n", "配置", "下载 MB/s", "上传 MB/s");
+        try {
+            run("单通道, 16 个在途请求", proxy.port(), 16, 1, source, size, expectedCrc);
+            run("单通道, 64 个在途请求", proxy.port(), 64, 1, source, size, expectedCrc);
+            run(STREAMS + " 通道并行, 64 个在途请求", proxy.port(), 64, STREAMS, source, size, expectedCrc);
+        } finally {
+            proxy.close();
+            sshd.stop(true);
+        }
+    }
+
+    private static void run(String label, int port, int bulkRequests, int streams, Path source, long size,
+                            long expectedCrc) throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        SSHSessionManager sessionManager = new SSHSessionManager(new SSHMetrics(registry), registry,
+                streams + 1, 10000, 30000, 60000, bulkRequests, Math.max(10, streams + 2));
+        ReflectionTestUtils.setField(sessionManager, "connectTimeoutMillis", 30000);
+        ReflectionTestUtils.setField(sessionManager, "channelConnectTimeoutMillis", 10000);
+        ReflectionTestUtils.setField(sessionManager, "idleTimeoutMillis", 300000L);
+        SftpTransferEngine engine = new SftpTransferEngine(registry, streams, SEGMENT_MB * 1024L * 1024, 0, 4, 16,
+                System.getProperty("java.io.tmpdir"));
+        TransferBandwidthScheduler bandwidth = new TransferBandwidthScheduler(registry, 0, 0, 500);
+
+        Operator operator = new Operator();
+        operator.setId("bench");
+        operator.setName("bench");
+        operator.setHost("localhost");
+        operator.setPort(port);
+        operator.setUsername("bench");
+        operator.setPassword("bench");
+
+        Path downloaded = Files.createTempFile("sftp-bench", ".bin");
+        try (SSHSessionLease lease = sessionManager.acquire(operator)) {
+            // 预热：建立通道
+            for (int i = 0; i < streams; i++) {
+                try (PooledSftp sftp = lease.borrowSftp()) {
+                    sftp.channel().realpath(".");
+                }
+            }
+
+            long start = System.nanoTime();
+            try (Throttle throttle = bandwidth.open("bench");
+                 PooledSftp sftp = lease.borrowSftp();
+                 InputStream in = engine.openRead(lease, sftp, "/source.bin", 0, size)) {
+                Files.copy(in, downloaded, StandardCopyOption.REPLACE_EXISTING);
+            }
+            double download = throughput(size, System.nanoTime() - start);
+            verify(downloaded, expectedCrc, "下载");
+
+            start = System.nanoTime();
+            try (Throttle throttle = bandwidth.open("bench");
+                 PooledSftp sftp = lease.borrowSftp()) {
+                engine.upload(lease, sftp, source, "/uploaded-" + streams + "-" + bulkRequests + ".bin", throttle);
+            }
+            double upload = throughput(size, System.nanoTime() - start);
+            verify(source.resolveSibling("uploaded-" + streams + "-" + bulkRequests + ".bin"), expectedCrc, "上传");
+
+            System.out.printf("%-28s %14.1f %14.1f%n", label, download, upload);
+        } finally {
+            Files.deleteIfExists(downloaded);
+            engine.destroy();
+            bandwidth.destroy();
+            sessionManager.destroy();
+        }
+    }
+
+    private static double throughput(long bytes, long nanos) {
+        return bytes / 1048576.0 / (nanos / 1e9);
+    }
+
+    private static void verify(Path file, long expectedCrc, String what) throws IOException {
+        if (crc(file) != expectedCrc) {
+            throw new IllegalStateException(what + "内容校验失败: " + file);
+        }
+    }
+
+    private static long crc(Path file) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[1024 * 1024];
+        try (InputStream in = Files.newInputStream(file)) {
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                crc.update(buffer, 0, n);
+            }
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * 在每个方向上把转发的数据延迟固定时长，不限制带宽。
+     */
+    private static final class LatencyProxy implements AutoCloseable {
+        private final int targetPort;
+        private final long delayNanos;
+        private final ServerSocket server;
+
+        LatencyProxy(int targetPort, long oneWayMillis) throws IOException {
+            this.targetPort = targetPort;
+            this.delayNanos = TimeUnit.MILLISECONDS.toNanos(oneWayMillis);
+            this.server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        }
+
+        int port() {
+            return server.getLocalPort();
+        }
+
+        void start() {
+            daemon(() -> {
+                while (!server.isClosed()) {
+                    try {
+                        Socket client = server.accept();
+                        Socket target = new Socket(InetAddress.getLoopbackAddress(), targetPort);
+                        client.setTcpNoDelay(true);
+                        target.setTcpNoDelay(true);
+                        pipe(client, target);
+                        pipe(target, client);
+                    } catch (IOException e) {
+                        return;
+                    }
+                }
+            });
+        }
+
+        private void pipe(Socket from, Socket to) {
+            BlockingQueue<Packet> queue = new LinkedBlockingQueue<>();
+            daemon(() -> {
+                byte[] buffer = new byte[64 * 1024];
+                try (InputStream in = from.getInputStream()) {
+                    int n;
+                    while ((n = in.read(buffer)) != -1) {
+                        queue.put(new Packet(Arrays.copyOf(buffer, n), System.nanoTime() + delayNanos));
+                    }
+                } catch (Exception ignored) {
+                    // 连接关闭
+                }
+                queue.add(new Packet(null, System.nanoTime() + delayNanos));
+            });
+            daemon(() -> {
+                try (OutputStream out = to.getOutputStream()) {
+                    while (true) {
+                        Packet packet = queue.take();
+                        long wait = packet.due() - System.nanoTime();
+                        if (wait > 0) {
+                            TimeUnit.NANOSECONDS.sleep(wait);
+                        }
+                        if (packet.data() == null) {
+                            to.shutdownOutput();
+                            return;
+                        }
+                        out.write(packet.data());
+                    }
+                } catch (Exception ignored) {
+                    // 连接关闭
+                }
+            });
+        }
+
+        private static void daemon(Runnable runnable) {
+            Thread thread = new Thread(runnable, "latency-proxy");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        @Override
+        public void close() throws IOException {
+            server.close();
+        }
+
+        private record Packet(byte[] data, long due) {
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.leaderjs.operator.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.leaderjs.operator.service.TerminalProtocol;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 每次按键的分发开销：旧实现先用 ObjectMapper 解析为 Map，失败抛异常后才写入通道；
+ * 新实现只比较首字符是否为控制消息的引导字符。
+ * <p>
+ * 运行方式（不随 mvn test 执行）：
+ * <pre>
+ * mvn test-compile dependency:build-classpath -Dmdep.outputFile=target/test.classpath
+ * java -cp target/test-classes:target/classes:$(cat target/test.classpath) \
+ *     com.leaderjs.operator.benchmark.TerminalInputBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TerminalInputBenchmark {
+
+    @Param({"a", "\r", "ls -la /var/log | grep -v journal | sort -k5 -n | tail -n 20\r"})
+    public String keystroke;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final String control = "{\"type\":\"list_files\",\"path\":\"/var/log\"}";
+    private final String framedControl = TerminalProtocol.CONTROL_LEAD + control;
+
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public void keystrokeBefore(Blackhole blackhole) {
+        try {
+            Map<String, Object> message = objectMapper.readValue(keystroke, Map.class);
+            blackhole.consume(message);
+        } catch (Exception e) {
+            blackhole.consume(keystroke.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    @Benchmark
+    public void keystrokeAfter(Blackhole blackhole) throws Exception {
+        if (TerminalProtocol.isControl(keystroke)) {
+            blackhole.consume(TerminalProtocol.decode(keystroke));
+        } else {
+            blackhole.consume(keystroke.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    @Benchmark
+    public Object controlBefore() throws Exception {
+        return objectMapper.readValue(control, Map.class);
+    }
+
+    @Benchmark
+    public Object controlAfter() throws Exception {
+        return TerminalProtocol.decode(framedControl);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(TerminalInputBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
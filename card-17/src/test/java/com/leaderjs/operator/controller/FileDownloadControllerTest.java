@@ -0,0 +1,65 @@
+package com.leaderjs.operator.controller;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FileDownloadControllerTest {
+    private static final long SIZE = 1000;
+
+    @Test
+    void singleRangeIsPartial() {
+        assertEquals(new FileDownloadController.ByteRange(0, 100, true),
+                FileDownloadController.selectRange("bytes=0-99", SIZE));
+        assertEquals(new FileDownloadController.ByteRange(900, 100, true),
+                FileDownloadController.selectRange("bytes=900-", SIZE));
+        assertEquals(new FileDownloadController.ByteRange(900, 100, true),
+                FileDownloadController.selectRange("bytes=-100", SIZE));
+        // 结束位置超出文件时截断到文件末尾
+        assertEquals(new FileDownloadController.ByteRange(500, 500, true),
+                FileDownloadController.selectRange("bytes=500-5000", SIZE));
+        assertEquals(new FileDownloadController.ByteRange(0, SIZE, true),
+                FileDownloadController.selectRange("bytes=-5000", SIZE));
+    }
+
+    @Test
+    void unsupportedRangesFallBackToTheWholeFile() {
+        FileDownloadController.ByteRange whole = new FileDownloadController.ByteRange(0, SIZE, false);
+        assertEquals(whole, FileDownloadController.selectRange(null, SIZE));
+        assertEquals(whole, FileDownloadController.selectRange("bytes=0-1,5-6", SIZE));
+        assertEquals(whole, FileDownloadController.selectRange("items=0-1", SIZE));
+        assertEquals(whole, FileDownloadController.selectRange("bytes=5-1", SIZE));
+    }
+
+    @Test
+    void rangesBeyondTheEndAreNotSatisfiable() {
+        assertNull(FileDownloadController.selectRange("bytes=1000-", SIZE));
+        assertNull(FileDownloadController.selectRange("bytes=2000-2999", SIZE));
+        assertNull(FileDownloadController.selectRange("bytes=0-", 0));
+        assertNull(FileDownloadController.selectRange("bytes=-0", SIZE));
+    }
+
+    @Test
+    void ifRangeComparesDatesToTheSecond() {
+        long lastModified = 1_700_000_000_000L;
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        assertTrue(FileDownloadController.ifRangeMatches(request, lastModified + 123));
+
+        request.addHeader(HttpHeaders.IF_RANGE, "Tue, 14 Nov 2023 22:13:20 GMT");
+        // 文件修改时间的毫秒部分不影响比较
+        assertTrue(FileDownloadController.ifRangeMatches(request, lastModified + 123));
+        assertFalse(FileDownloadController.ifRangeMatches(request, lastModified + 1000));
+    }
+
+    @Test
+    void ifRangeWithEtagNeverMatches() {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.addHeader(HttpHeaders.IF_RANGE, "\"abc\"");
+        assertFalse(FileDownloadController.ifRangeMatches(request, 0));
+    }
+}
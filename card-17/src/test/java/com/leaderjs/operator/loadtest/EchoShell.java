@@ -0,0 +1,100 @@
+package com.leaderjs.operator.loadtest;
+
+import org.apache.sshd.server.Environment;
+import org.apache.sshd.server.ExitCallback;
+import org.apache.sshd.server.channel.ChannelSession;
+import org.apache.sshd.server.command.Command;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * 压测用的模拟 shell：逐字节回显输入，回车时执行当前行。
+ * 支持 {@code bulk <字节数>} 命令，输出指定字节数的 ASCII 文本，每 80 个字节换行。
+ */
+class EchoShell implements Command, Runnable {
+    private static final byte[] NEWLINE = "\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private InputStream in;
+    private OutputStream out;
+    private ExitCallback exitCallback;
+    private Thread thread;
+
+    @Override
+    public void setInputStream(InputStream in) {
+        this.in = in;
+    }
+
+    @Override
+    public void setOutputStream(OutputStream out) {
+        this.out = out;
+    }
+
+    @Override
+    public void setErrorStream(OutputStream err) {
+    }
+
+    @Override
+    public void setExitCallback(ExitCallback callback) {
+        this.exitCallback = callback;
+    }
+
+    @Override
+    public void start(ChannelSession channel, Environment env) {
+        thread = new Thread(this, "echo-shell");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void destroy(ChannelSession channel) {
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    @Override
+    public void run() {
+        byte[] buffer = new byte[8192];
+        StringBuilder line = new StringBuilder();
+        try {
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                for (int i = 0; i < n; i++) {
+                    byte b = buffer[i];
+                    if (b == '\r' || b == '\n') {
+                        out.write(NEWLINE);
+                        execute(line.toString().trim());
+                        line.setLength(0);
+                    } else {
+                        out.write(b);
+                        line.append((char) b);
+                    }
+                }
+                out.flush();
+            }
+            exitCallback.onExit(0);
+        } catch (IOException e) {
+            exitCallback.onExit(1, e.getMessage());
+        }
+    }
+
+    private void execute(String command) throws IOException {
+        if (!command.startsWith("bulk ")) {
+            return;
+        }
+        long remaining = Long.parseLong(command.substring(5).trim());
+        byte[] row = new byte[80];
+        Arrays.fill(row, (byte) 'x');
+        row[78] = '\r';
+        row[79] = '\n';
+        while (remaining > 0) {
+            int n = (int) Math.min(row.length, remaining);
+            out.write(row, 0, n);
+            remaining -= n;
+        }
+    }
+}
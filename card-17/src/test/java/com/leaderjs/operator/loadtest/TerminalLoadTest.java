@@ -0,0 +1,354 @@
+package com.leaderjs.operator.loadtest;
+
+import com.leaderjs.operator.model.Operator;
+import com.leaderjs.operator.repository.OperatorRepository;
+import com.leaderjs.operator.service.TerminalProtocol;
+import org.apache.sshd.server.SshServer;
+import org.apache.sshd.server.keyprovider.SimpleGeneratorHostKeyProvider;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.handler.TextWebSocketHandler;
+
+import javax.websocket.ContainerProvider;
+import javax.websocket.WebSocketContainer;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.when;
+
+/**
+ * 终端并发压测：内嵌 MINA sshd 作为目标主机，Operator 由 mock 仓库提供，
+ * 启动 N 个 WebSocket 客户端连接 /ws/ssh/{operatorId}，逐字符输入测回显延迟，再拉取批量输出测吞吐。
+ * <p>
+ * 默认不运行，需显式开启：
+ * <pre>
+ * mvn test -Dtest=TerminalLoadTest -Dloadtest=true -Dloadtest.terminals=200
+ * </pre>
+ * 报告打印到控制台，同时写入 target/loadtest/ 便于前后对比。
+ * 服务端与客户端在同一个 JVM 中，堆和线程数包含客户端自身的开销。
+ */
+@EnabledIfSystemProperty(named = "loadtest", matches = "true")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = "spring.data.mongodb.uri=mongodb://localhost:1/loadtest")
+class TerminalLoadTest {
+    private static final int TERMINALS = Integer.getInteger("loadtest.terminals", 100);
+    private static final int OPERATORS = Integer.getInteger("loadtest.operators", 10);
+    private static final int KEYSTROKES = Integer.getInteger("loadtest.keystrokes", 50);
+    private static final long THINK_MILLIS = Long.getLong("loadtest.think-ms", 20);
+    private static final long BULK_BYTES = Long.getLong("loadtest.bulk-bytes", 1024 * 1024);
+    private static final long TIMEOUT_SECONDS = Long.getLong("loadtest.timeout-seconds", 120);
+
+    private static SshServer sshd;
+
+    @LocalServerPort
+    private int port;
+
+    @MockBean
+    private OperatorRepository operatorRepository;
+
+    @BeforeAll
+    static void startSshServer() throws IOException {
+        sshd = SshServer.setUpDefaultServer();
+        sshd.setHost("localhost");
+        sshd.setPort(0);
+        sshd.setKeyPairProvider(new SimpleGeneratorHostKeyProvider());
+        sshd.setPasswordAuthenticator((username, password, session) -> true);
+        sshd.setShellFactory(channel -> new EchoShell());
+        sshd.start();
+    }
+
+    @AfterAll
+    static void stopSshServer() throws IOException {
+        if (sshd != null) {
+            sshd.stop(true);
+        }
+    }
+
+    @Test
+    void concurrentTerminals() throws Exception {
+        when(operatorRepository.findById(anyString())).thenAnswer(invocation -> Optional.of(operator(invocation.getArgument(0))));
+
+        WebSocketContainer container = ContainerProvider.getWebSocketContainer();
+        container.setDefaultMaxTextMessageBufferSize(1024 * 1024);
+        StandardWebSocketClient client = new StandardWebSocketClient(container);
+
+        ResourceSampler sampler = new ResourceSampler();
+        sampler.start();
+
+        List<TerminalClient> terminals = new ArrayList<>(TERMINALS);
+        for (int i = 0; i < TERMINALS; i++) {
+            terminals.add(new TerminalClient());
+        }
+
+        ExecutorService drivers = Executors.newFixedThreadPool(TERMINALS);
+        try {
+            // 阶段一：建立连接（含 SSH 握手）
+            long connectStart = System.nanoTime();
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < TERMINALS; i++) {
+                TerminalClient terminal = terminals.get(i);
+                String operatorId = "loadtest-" + (i % OPERATORS);
+                futures.add(drivers.submit(() -> terminal.connect(client, port, operatorId)));
+            }
+            awaitAll(futures);
+            long connectNanos = System.nanoTime() - connectStart;
+
+            // 阶段二：逐字符输入
+            long typingStart = System.nanoTime();
+            futures.clear();
+            for (TerminalClient terminal : terminals) {
+                futures.add(drivers.submit(terminal::type));
+            }
+            awaitAll(futures);
+            long typingNanos = System.nanoTime() - typingStart;
+
+            // 阶段三：批量输出
+            long bulkStart = System.nanoTime();
+            futures.clear();
+            for (TerminalClient terminal : terminals) {
+                futures.add(drivers.submit(terminal::bulk));
+            }
+            awaitAll(futures);
+            long bulkNanos = System.nanoTime() - bulkStart;
+
+            sampler.stop();
+            report(terminals, connectNanos, typingNanos, bulkNanos, sampler);
+        } finally {
+            for (TerminalClient terminal : terminals) {
+                terminal.close();
+            }
+            drivers.shutdownNow();
+            sampler.stop();
+        }
+    }
+
+    private static Operator operator(String id) {
+        Operator operator = new Operator();
+        operator.setId(id);
+        operator.setName(id);
+        operator.setCategory("loadtest");
+        operator.setProvider("mina-sshd");
+        operator.setHost("localhost");
+        operator.setPort(sshd.getPort());
+        operator.setUsername("loadtest");
+        operator.setPassword("loadtest");
+        return operator;
+    }
+
+    private static void awaitAll(List<Future<?>> futures) throws Exception {
+        for (Future<?> future : futures) {
+            future.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    private void report(List<TerminalClient> terminals, long connectNanos, long typingNanos, long bulkNanos,
+                        ResourceSampler sampler) throws IOException {
+        List<Long> connectLatencies = new ArrayList<>();
+        List<Long> echoLatencies = new ArrayList<>();
+        int connected = 0;
+        int echoTimeouts = 0;
+        int bulkIncomplete = 0;
+        long bulkReceived = 0;
+        for (TerminalClient terminal : terminals) {
+            if (terminal.session != null) {
+                connected++;
+                connectLatencies.add(terminal.connectNanos);
+            }
+            echoLatencies.addAll(terminal.echoLatencies);
+            echoTimeouts += terminal.echoTimeouts;
+            bulkReceived += terminal.bulkReceived;
+            if (!terminal.bulkCompleted) {
+                bulkIncomplete++;
+            }
+        }
+
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("终端压测报告 %s%n", LocalDateTime.now()));
+        report.append(String.format("终端数: %d, operator数: %d, 每终端按键数: %d, 按键间隔: %d ms, 每终端批量输出: %d bytes%n",
+                TERMINALS, OPERATORS, KEYSTROKES, THINK_MILLIS, BULK_BYTES));
+        report.append(String.format("连接成功: %d/%d, 建连总耗时: %.1f ms, 单连接 %s%n",
+                connected, TERMINALS, connectNanos / 1e6, percentiles(connectLatencies)));
+        report.append(String.format("回显延迟(%d 次, 超时 %d 次): %s, 输入阶段耗时: %.1f ms%n",
+                echoLatencies.size(), echoTimeouts, percentiles(echoLatencies), typingNanos / 1e6));
+        report.append(String.format("批量输出: 收到 %d bytes, 耗时 %.1f ms, 吞吐 %.1f MB/s, 未完整收到的终端: %d%n",
+                bulkReceived, bulkNanos / 1e6, bulkReceived / 1048576.0 / (bulkNanos / 1e9), bulkIncomplete));
+        report.append(String.format("堆内存峰值: %.1f MB, 线程数峰值: %d, 结束时线程数: %d%n",
+                sampler.peakHeapBytes / 1048576.0, sampler.peakThreads, sampler.threads.getThreadCount()));
+
+        System.out.print(report);
+        Path directory = Paths.get("target", "loadtest");
+        Files.createDirectories(directory);
+        String timestamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss"));
+        Files.write(directory.resolve("terminal-load-" + timestamp + ".txt"),
+                report.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String percentiles(List<Long> nanos) {
+        if (nanos.isEmpty()) {
+            return "无数据";
+        }
+        long[] sorted = nanos.stream().mapToLong(Long::longValue).sorted().toArray();
+        return String.format("p50=%.2f ms p90=%.2f ms p99=%.2f ms p99.9=%.2f ms max=%.2f ms",
+                percentile(sorted, 0.50), percentile(sorted, 0.90), percentile(sorted, 0.99),
+                percentile(sorted, 0.999), sorted[sorted.length - 1] / 1e6);
+    }
+
+    private static double percentile(long[] sorted, double quantile) {
+        int index = (int) Math.ceil(quantile * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))] / 1e6;
+    }
+
+    /**
+     * 一个模拟的终端用户。
+     */
+    private static final class TerminalClient extends TextWebSocketHandler {
+        private final Queue<Long> echoLatencies = new ConcurrentLinkedQueue<>();
+        private final Semaphore echoed = new Semaphore(0);
+        private final AtomicLong pendingBytes = new AtomicLong();
+        private volatile long echoSentAt;
+        private volatile CountDownLatch bulkDone;
+        private volatile WebSocketSession session;
+        private long connectNanos;
+        private int echoTimeouts;
+        private long bulkReceived;
+        private boolean bulkCompleted;
+
+        void connect(StandardWebSocketClient client, int port, String operatorId) {
+            long start = System.nanoTime();
+            try {
+                session = client.doHandshake(this, "ws://localhost:{port}/ws/ssh/{operatorId}", port, operatorId)
+                        .get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                connectNanos = System.nanoTime() - start;
+            } catch (Exception e) {
+                System.err.println("终端连接失败: " + e);
+            }
+        }
+
+        void type() {
+            if (session == null) {
+                return;
+            }
+            try {
+                for (int i = 0; i <= KEYSTROKES; i++) {
+                    // 最后一次输入回车，清空 shell 的当前行
+                    String key = i == KEYSTROKES ? "\r" : String.valueOf((char) ('a' + ThreadLocalRandom.current().nextInt(26)));
+                    echoSentAt = System.nanoTime();
+                    session.sendMessage(new TextMessage(key));
+                    if (!echoed.tryAcquire(5, TimeUnit.SECONDS)) {
+                        echoTimeouts++;
+                        echoSentAt = 0;
+                    }
+                    Thread.sleep(THINK_MILLIS);
+                }
+            } catch (Exception e) {
+                System.err.println("终端输入失败: " + e);
+            }
+        }
+
+        void bulk() {
+            if (session == null) {
+                return;
+            }
+            String command = "bulk " + BULK_BYTES + "\r";
+            // 回显的命令 + 换行 + 批量输出，按 UTF-8 字节计
+            long expected = command.getBytes(StandardCharsets.UTF_8).length - 1 + 2 + BULK_BYTES;
+            CountDownLatch done = new CountDownLatch(1);
+            pendingBytes.set(expected);
+            bulkDone = done;
+            try {
+                session.sendMessage(new TextMessage(command));
+                bulkCompleted = done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            } catch (Exception e) {
+                System.err.println("批量输出失败: " + e);
+            }
+            bulkReceived = expected - Math.max(0, pendingBytes.get());
+            bulkDone = null;
+        }
+
+        @Override
+        protected void handleTextMessage(WebSocketSession session, TextMessage message) {
+            String payload = message.getPayload();
+            if (TerminalProtocol.isControl(payload)) {
+                return;
+            }
+            long sentAt = echoSentAt;
+            if (sentAt != 0) {
+                echoSentAt = 0;
+                echoLatencies.add(System.nanoTime() - sentAt);
+                echoed.release();
+            }
+            CountDownLatch done = bulkDone;
+            if (done != null && pendingBytes.addAndGet(-payload.getBytes(StandardCharsets.UTF_8).length) <= 0) {
+                done.countDown();
+            }
+        }
+
+        void close() {
+            WebSocketSession current = session;
+            if (current != null && current.isOpen()) {
+                try {
+                    current.close(CloseStatus.NORMAL);
+                } catch (IOException ignored) {
+                    // 压测结束，忽略关闭失败
+                }
+            }
+        }
+    }
+
+    /**
+     * 周期采样堆内存和线程数的峰值。
+     */
+    private static final class ResourceSampler {
+        private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        private volatile long peakHeapBytes;
+        private volatile int peakThreads;
+
+        void start() {
+            threads.resetPeakThreadCount();
+            scheduler.scheduleAtFixedRate(this::sample, 0, 100, TimeUnit.MILLISECONDS);
+        }
+
+        private void sample() {
+            peakHeapBytes = Math.max(peakHeapBytes, memory.getHeapMemoryUsage().getUsed());
+            peakThreads = Math.max(peakThreads, threads.getPeakThreadCount());
+        }
+
+        void stop() {
+            scheduler.shutdownNow();
+        }
+    }
+}
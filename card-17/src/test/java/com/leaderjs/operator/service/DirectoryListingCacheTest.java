@@ -0,0 +1,119 @@
+package com.leaderjs.operator.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class DirectoryListingCacheTest {
+    private static final List<RemoteEntry> FILES = List.of(
+            new RemoteEntry("a.txt", false, 1, 0),
+            new RemoteEntry("logs", true, 0, 0));
+    // 256 + 2 * 96 + 2 * ("a.txt" + "logs") 的字符数
+    private static final long FILES_BYTES = 256 + 2 * 96 + 2 * 9;
+
+    @Test
+    void normalizesPathsLiterally() {
+        assertEquals("", DirectoryListingCache.normalize(null));
+        assertEquals("", DirectoryListingCache.normalize(""));
+        assertEquals("/", DirectoryListingCache.normalize("/"));
+        assertEquals("/", DirectoryListingCache.normalize("//./"));
+        assertEquals("/var/log", DirectoryListingCache.normalize("/var//log/"));
+        assertEquals("/var/log", DirectoryListingCache.normalize("/var/./tmp/../log"));
+        // 根目录之上没有目录
+        assertEquals("/etc", DirectoryListingCache.normalize("/../../etc"));
+        // 相对路径相对于登录目录，开头的 ".." 保留
+        assertEquals("logs", DirectoryListingCache.normalize("./logs/"));
+        assertEquals("../shared", DirectoryListingCache.normalize("../shared"));
+        assertEquals("../../x", DirectoryListingCache.normalize("a/../../../x"));
+        assertEquals("", DirectoryListingCache.normalize("a/.."));
+    }
+
+    @Test
+    void equivalentPathsShareAnEntry() {
+        DirectoryListingCache cache = cache(60_000, 60_000, 1 << 20);
+        DirectoryListingCache.Listing listing = cache.put("1@alice", "/var/log/", FILES, cache.generation());
+
+        DirectoryListingCache.Lookup lookup = cache.get("1@alice", "/var//./log");
+        assertNotNull(lookup);
+        assertSame(listing, lookup.listing());
+        assertEquals(DirectoryListingCache.Freshness.FRESH, lookup.freshness());
+        assertNull(cache.get("2@alice", "/var/log"));
+    }
+
+    @Test
+    void putAfterInvalidationIsNotCached() {
+        DirectoryListingCache cache = cache(60_000, 60_000, 1 << 20);
+        long generation = cache.generation();
+        // 读取期间门户上传了文件
+        cache.invalidateParent("1@alice", "/var/log/app.log");
+
+        DirectoryListingCache.Listing listing = cache.put("1@alice", "/var/log", FILES, generation);
+        assertEquals(FILES, listing.entries());
+        assertNull(cache.get("1@alice", "/var/log"));
+        assertEquals(0, cache.getTotalBytes());
+
+        cache.put("1@alice", "/var/log", FILES, cache.generation());
+        assertNotNull(cache.get("1@alice", "/var/log"));
+    }
+
+    @Test
+    void invalidateParentDropsTheContainingDirectory() {
+        DirectoryListingCache cache = cache(60_000, 60_000, 1 << 20);
+        cache.put("1@alice", "/", FILES, cache.generation());
+        cache.put("1@alice", "", FILES, cache.generation());
+
+        cache.invalidateParent("1@alice", "/a.txt");
+        assertNull(cache.get("1@alice", "/"));
+        assertNotNull(cache.get("1@alice", ""));
+
+        // 相对路径的文件在登录目录下
+        cache.invalidateParent("1@alice", "a.txt");
+        assertNull(cache.get("1@alice", ""));
+    }
+
+    @Test
+    void expiredListingsAreStaleThenGone() {
+        DirectoryListingCache stale = cache(0, 60_000, 1 << 20);
+        stale.put("1@alice", "/tmp", FILES, stale.generation());
+        assertEquals(DirectoryListingCache.Freshness.STALE, stale.get("1@alice", "/tmp").freshness());
+
+        DirectoryListingCache expired = cache(0, 0, 1 << 20);
+        expired.put("1@alice", "/tmp", FILES, expired.generation());
+        assertNull(expired.get("1@alice", "/tmp"));
+        assertEquals(0, expired.getTotalBytes());
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedOverTheByteLimit() {
+        DirectoryListingCache cache = cache(60_000, 60_000, 2 * FILES_BYTES);
+        cache.put("1@alice", "/a", FILES, cache.generation());
+        cache.put("1@alice", "/b", FILES, cache.generation());
+        assertEquals(2 * FILES_BYTES, cache.getTotalBytes());
+
+        // 访问 /a 后 /b 成为最久未访问的目录
+        cache.get("1@alice", "/a");
+        cache.put("1@alice", "/c", FILES, cache.generation());
+        assertNotNull(cache.get("1@alice", "/a"));
+        assertNull(cache.get("1@alice", "/b"));
+        assertNotNull(cache.get("1@alice", "/c"));
+        assertEquals(2 * FILES_BYTES, cache.getTotalBytes());
+    }
+
+    @Test
+    void listingLargerThanTheCacheIsNotCached() {
+        DirectoryListingCache cache = cache(60_000, 60_000, FILES_BYTES - 1);
+        DirectoryListingCache.Listing listing = cache.put("1@alice", "/a", FILES, cache.generation());
+        assertEquals(FILES_BYTES, listing.estimatedBytes());
+        assertNull(cache.get("1@alice", "/a"));
+    }
+
+    private static DirectoryListingCache cache(long ttlMillis, long maxStaleMillis, long maxBytes) {
+        return new DirectoryListingCache(new SimpleMeterRegistry(), ttlMillis, maxStaleMillis, maxBytes);
+    }
+}
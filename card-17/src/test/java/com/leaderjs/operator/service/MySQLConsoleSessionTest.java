@@ -0,0 +1,114 @@
+package com.leaderjs.operator.service;
+
+import com.leaderjs.operator.service.MySQLConsoleSession.Kind;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MySQLConsoleSessionTest {
+
+    @Test
+    void readOnlyStatements() {
+        assertTrue(MySQLConsoleSession.isReadOnly("SELECT * FROM t"));
+        assertTrue(MySQLConsoleSession.isReadOnly("select 1;"));
+        assertTrue(MySQLConsoleSession.isReadOnly("SHOW TABLES"));
+        assertTrue(MySQLConsoleSession.isReadOnly("DESC t"));
+        assertTrue(MySQLConsoleSession.isReadOnly("DESCRIBE t"));
+        assertTrue(MySQLConsoleSession.isReadOnly("EXPLAIN SELECT * FROM t"));
+        assertFalse(MySQLConsoleSession.isReadOnly("DELETE FROM t"));
+        assertFalse(MySQLConsoleSession.isReadOnly("SELECTED"));
+    }
+
+    @Test
+    void lockingReadsAreNotReadOnly() {
+        assertFalse(MySQLConsoleSession.isReadOnly("SELECT * FROM t WHERE id = 1 FOR UPDATE"));
+        assertFalse(MySQLConsoleSession.isReadOnly("SELECT * FROM t FOR SHARE"));
+        assertFalse(MySQLConsoleSession.isReadOnly("SELECT * FROM t LOCK IN SHARE MODE"));
+        assertFalse(MySQLConsoleSession.isReadOnly("SELECT GET_LOCK('job', 10)"));
+    }
+
+    @Test
+    void intoAndAssignmentAreNotReadOnly() {
+        assertFalse(MySQLConsoleSession.isReadOnly("SELECT COUNT(*) INTO @n FROM t"));
+        assertFalse(MySQLConsoleSession.isReadOnly("SELECT * INTO OUTFILE '/tmp/t.csv' FROM t"));
+        assertFalse(MySQLConsoleSession.isReadOnly("SELECT @n := COUNT(*) FROM t"));
+        assertFalse(MySQLConsoleSession.isReadOnly("SELECT SLEEP(1)"));
+    }
+
+    @Test
+    void sessionScopedShowIsNotReadOnly() {
+        assertFalse(MySQLConsoleSession.isReadOnly("SHOW WARNINGS"));
+        assertFalse(MySQLConsoleSession.isReadOnly("show errors limit 5"));
+        assertFalse(MySQLConsoleSession.isReadOnly("SHOW COUNT(*) WARNINGS"));
+        assertFalse(MySQLConsoleSession.isReadOnly("SHOW STATUS LIKE 'Handler%'"));
+        assertFalse(MySQLConsoleSession.isReadOnly("SHOW SESSION STATUS"));
+        assertFalse(MySQLConsoleSession.isReadOnly("SHOW LOCAL VARIABLES"));
+        assertFalse(MySQLConsoleSession.isReadOnly("show variables like 'sql_mode'"));
+        assertFalse(MySQLConsoleSession.isReadOnly("SHOW PROFILES"));
+        assertTrue(MySQLConsoleSession.isReadOnly("SHOW GLOBAL STATUS"));
+        assertTrue(MySQLConsoleSession.isReadOnly("SHOW GLOBAL VARIABLES LIKE 'max_connections'"));
+        assertTrue(MySQLConsoleSession.isReadOnly("SHOW TABLE STATUS"));
+    }
+
+    @Test
+    void variableReadsAndSessionFunctionsAreNotReadOnly() {
+        assertFalse(MySQLConsoleSession.isReadOnly("SELECT @v"));
+        assertFalse(MySQLConsoleSession.isReadOnly("SELECT @@sql_mode"));
+        assertFalse(MySQLConsoleSession.isReadOnly("SELECT @@SESSION.time_zone"));
+        assertFalse(MySQLConsoleSession.isReadOnly("SELECT DATABASE()"));
+        assertFalse(MySQLConsoleSession.isReadOnly("select schema ()"));
+        assertFalse(MySQLConsoleSession.isReadOnly("SELECT CURRENT_USER()"));
+        assertFalse(MySQLConsoleSession.isReadOnly("SELECT CURRENT_USER"));
+        assertFalse(MySQLConsoleSession.isReadOnly("SELECT USER(), SESSION_USER()"));
+        assertFalse(MySQLConsoleSession.isReadOnly("SELECT CURRENT_ROLE()"));
+        assertTrue(MySQLConsoleSession.isReadOnly("SELECT user, host FROM mysql.user"));
+    }
+
+    @Test
+    void explainAnalyzeIsNotReadOnly() {
+        assertFalse(MySQLConsoleSession.isReadOnly("EXPLAIN ANALYZE SELECT * FROM t"));
+        assertFalse(MySQLConsoleSession.isReadOnly("explain  analyze\nselect * from t"));
+    }
+
+    @Test
+    void leadingCommentsAreSkipped() {
+        assertTrue(MySQLConsoleSession.isReadOnly("/* 看板 */ SELECT 1"));
+        assertTrue(MySQLConsoleSession.isReadOnly("-- 复制状态\nSHOW REPLICA STATUS"));
+        assertTrue(MySQLConsoleSession.isReadOnly("# 表大小\n  SELECT * FROM information_schema.TABLES"));
+        assertFalse(MySQLConsoleSession.isReadOnly("/* SELECT */ DELETE FROM t"));
+        assertFalse(MySQLConsoleSession.isReadOnly("-- SELECT\nUPDATE t SET a = 1"));
+    }
+
+    @Test
+    void executableCommentsAreNotSkipped() {
+        assertFalse(MySQLConsoleSession.isReadOnly("/*!80000 DELETE FROM t */"));
+        assertFalse(MySQLConsoleSession.isReadOnly("/*!40001 SQL_NO_CACHE */ SELECT 1"));
+        assertFalse(MySQLConsoleSession.isReadOnly("SELECT /*!50000 SLEEP(1) */ 1"));
+    }
+
+    @Test
+    void classifiesTransactionsAndUse() {
+        assertEquals(Kind.USE, MySQLConsoleSession.classify("USE db"));
+        assertEquals(Kind.USE, MySQLConsoleSession.classify("-- 切换\nuse `my db`;"));
+        assertEquals(Kind.BEGIN, MySQLConsoleSession.classify("BEGIN"));
+        assertEquals(Kind.BEGIN, MySQLConsoleSession.classify("/* tx */ start  transaction read only"));
+        assertEquals(Kind.END, MySQLConsoleSession.classify("COMMIT"));
+        assertEquals(Kind.END, MySQLConsoleSession.classify("rollback"));
+        assertEquals(Kind.OTHER, MySQLConsoleSession.classify("ROLLBACK TO SAVEPOINT s1"));
+        assertEquals(Kind.OTHER, MySQLConsoleSession.classify("SELECT * FROM t"));
+    }
+
+    @Test
+    void classifiesSessionState() {
+        assertEquals(Kind.SESSION_STATE, MySQLConsoleSession.classify("SET autocommit = 0"));
+        assertEquals(Kind.SESSION_STATE, MySQLConsoleSession.classify("LOCK TABLES t READ"));
+        assertEquals(Kind.SESSION_STATE, MySQLConsoleSession.classify("CREATE TEMPORARY TABLE tmp (id INT)"));
+        assertEquals(Kind.SESSION_STATE, MySQLConsoleSession.classify("PREPARE s FROM 'SELECT 1'"));
+        assertEquals(Kind.SESSION_STATE, MySQLConsoleSession.classify("select get_lock('job', 10)"));
+        assertEquals(Kind.SESSION_STATE, MySQLConsoleSession.classify("SELECT COUNT(*) INTO @n FROM t"));
+        assertEquals(Kind.SESSION_STATE, MySQLConsoleSession.classify("SELECT @n := COUNT(*) FROM t"));
+        assertEquals(Kind.OTHER, MySQLConsoleSession.classify("SELECT * INTO OUTFILE '/tmp/t.csv' FROM t"));
+    }
+}
@@ -0,0 +1,35 @@
+package com.leaderjs.operator.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+class MySQLResultCacheTest {
+
+    @Test
+    void collapsesWhitespaceAndTrailingSemicolons() {
+        assertEquals("SELECT * FROM t", MySQLResultCache.normalize("  SELECT  *\n\tFROM   t ;  "));
+        assertEquals("SELECT 1", MySQLResultCache.normalize("SELECT 1 ; ;"));
+    }
+
+    @Test
+    void keepsWhitespaceInsideQuotes() {
+        assertEquals("SELECT 'a   b'", MySQLResultCache.normalize("SELECT   'a   b'"));
+        assertEquals("SELECT \"a \\\"  b\"", MySQLResultCache.normalize("SELECT \"a \\\"  b\""));
+        assertEquals("SELECT 'it''s  x'", MySQLResultCache.normalize("SELECT 'it''s  x'"));
+        assertEquals("SELECT `a  b` FROM t", MySQLResultCache.normalize("SELECT `a  b`\nFROM t"));
+        assertEquals("SELECT ';  '", MySQLResultCache.normalize("SELECT ';  ';"));
+    }
+
+    @Test
+    void keepsCase() {
+        assertNotEquals(MySQLResultCache.normalize("select 1"), MySQLResultCache.normalize("SELECT 1"));
+    }
+
+    @Test
+    void keyUsesNormalizedSql() {
+        assertEquals(MySQLResultCache.Key.of("op", "db", "SELECT  1;"), MySQLResultCache.Key.of("op", "db", "SELECT 1"));
+        assertNotEquals(MySQLResultCache.Key.of("op", "db", "SELECT 1"), MySQLResultCache.Key.of("op", null, "SELECT 1"));
+    }
+}
@@ -0,0 +1,132 @@
+package com.leaderjs.operator.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.junit.jupiter.api.Test;
+
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class MySQLResultCodecTest {
+    private static final long MAX_SAFE_INTEGER = (1L << 53) - 1;
+
+    @Test
+    void tagsFollowColumnTypes() throws Exception {
+        ResultSetMetaData metaData = metaData(
+                column("id", Types.BIGINT, "BIGINT", true, 19),
+                column("counter", Types.BIGINT, "BIGINT UNSIGNED", false, 20),
+                column("flag", Types.BIT, "TINYINT", true, 1),
+                column("mask", Types.BIT, "BIT", false, 8),
+                column("amount", Types.DECIMAL, "DECIMAL", true, 10),
+                column("payload", Types.VARBINARY, "VARBINARY", false, 16),
+                column("created", Types.TIMESTAMP, "DATETIME", false, 19),
+                column("doc", Types.LONGVARCHAR, "JSON", false, 0));
+        MySQLResultCodec codec = MySQLResultCodec.of(metaData);
+
+        assertEquals(List.of("int", "decimal", "bool", "int", "decimal", "binary", "datetime", "string"), codec.tags());
+        assertEquals(List.of("id", "counter", "flag", "mask", "amount", "payload", "created", "doc"), codec.names());
+    }
+
+    @Test
+    void integersBeyondSafeRangeAreSentAsStrings() throws Exception {
+        MySQLResultCodec codec = MySQLResultCodec.of(metaData(column("id", Types.BIGINT, "BIGINT", true, 19)));
+        MySQLResultCodec.Batch batch = codec.newBatch(1);
+        ResultSet resultSet = mock(ResultSet.class);
+        when(resultSet.getLong(1)).thenReturn(MAX_SAFE_INTEGER, MAX_SAFE_INTEGER + 1, -MAX_SAFE_INTEGER - 1, 0L);
+        when(resultSet.wasNull()).thenReturn(false, false, false, true);
+        for (int i = 0; i < 4; i++) {
+            batch.read(resultSet);
+        }
+
+        // 容量为 1 的批在读取过程中扩容
+        assertEquals(4, batch.size());
+        assertEquals("[[9007199254740991,\"9007199254740992\",\"-9007199254740992\",null]]", json(batch));
+        assertEquals(Arrays.asList(MAX_SAFE_INTEGER, "9007199254740992", "-9007199254740992", null),
+                column(batch.toRows(), 0));
+    }
+
+    @Test
+    void unsignedBigintKeepsItsExactValue() throws Exception {
+        MySQLResultCodec codec = MySQLResultCodec.of(metaData(column("counter", Types.BIGINT, "BIGINT UNSIGNED", false, 20)));
+        MySQLResultCodec.Batch batch = codec.newBatch(2);
+        ResultSet resultSet = mock(ResultSet.class);
+        when(resultSet.getBigDecimal(1)).thenReturn(new BigDecimal("18446744073709551615"), null);
+        batch.read(resultSet);
+        batch.read(resultSet);
+
+        assertEquals("[[\"18446744073709551615\",null]]", json(batch));
+        assertEquals(Arrays.asList("18446744073709551615", null), column(batch.toRows(), 0));
+    }
+
+    @Test
+    void binaryColumnsAreBase64() throws Exception {
+        MySQLResultCodec codec = MySQLResultCodec.of(metaData(column("payload", Types.BLOB, "BLOB", false, 0)));
+        MySQLResultCodec.Batch batch = codec.newBatch(2);
+        ResultSet resultSet = mock(ResultSet.class);
+        byte[] data = {0, (byte) 0xff, 'h', 'i'};
+        when(resultSet.getBytes(1)).thenReturn(data, null);
+        batch.read(resultSet);
+        batch.read(resultSet);
+
+        assertEquals("[[\"AP9oaQ==\",null]]", json(batch));
+        assertEquals(Arrays.asList("AP9oaQ==", null), column(batch.toRows(), 0));
+    }
+
+    @Test
+    void clearedBatchIsReusable() throws Exception {
+        MySQLResultCodec codec = MySQLResultCodec.of(metaData(
+                column("flag", Types.BOOLEAN, "BOOLEAN", false, 1),
+                column("name", Types.VARCHAR, "VARCHAR", false, 32)));
+        MySQLResultCodec.Batch batch = codec.newBatch(4);
+        ResultSet resultSet = mock(ResultSet.class);
+        when(resultSet.getBoolean(1)).thenReturn(false, true);
+        when(resultSet.wasNull()).thenReturn(true, false);
+        when(resultSet.getString(2)).thenReturn("abc", "de");
+        batch.read(resultSet);
+        assertEquals("[[null],[\"abc\"]]", json(batch));
+
+        // clear 之后上一批的 NULL 标记不能残留
+        batch.clear();
+        assertEquals(0, batch.bytes());
+        batch.read(resultSet);
+        assertEquals("[[true],[\"de\"]]", json(batch));
+        assertEquals(8 + "de".length(), batch.bytes());
+    }
+
+    private static String json(MySQLResultCodec.Batch batch) throws Exception {
+        StringWriter writer = new StringWriter();
+        try (JsonGenerator generator = new JsonFactory().createGenerator(writer)) {
+            batch.writeColumns(generator);
+        }
+        return writer.toString();
+    }
+
+    private static List<Object> column(List<List<Object>> rows, int index) {
+        return rows.stream().map(row -> row.get(index)).toList();
+    }
+
+    private static Object[] column(String label, int type, String typeName, boolean signed, int precision) {
+        return new Object[]{label, type, typeName, signed, precision};
+    }
+
+    private static ResultSetMetaData metaData(Object[]... columns) throws Exception {
+        ResultSetMetaData metaData = mock(ResultSetMetaData.class);
+        when(metaData.getColumnCount()).thenReturn(columns.length);
+        when(metaData.getColumnLabel(anyInt())).thenAnswer(call -> columns[call.<Integer>getArgument(0) - 1][0]);
+        when(metaData.getColumnType(anyInt())).thenAnswer(call -> columns[call.<Integer>getArgument(0) - 1][1]);
+        when(metaData.getColumnTypeName(anyInt())).thenAnswer(call -> columns[call.<Integer>getArgument(0) - 1][2]);
+        when(metaData.isSigned(anyInt())).thenAnswer(call -> columns[call.<Integer>getArgument(0) - 1][3]);
+        when(metaData.getPrecision(anyInt())).thenAnswer(call -> columns[call.<Integer>getArgument(0) - 1][4]);
+        return metaData;
+    }
+}
@@ -0,0 +1,114 @@
+package com.leaderjs.operator.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ResumableUploadTest {
+    private static final int SIZE = 100;
+
+    @TempDir
+    Path directory;
+
+    private ResumableUpload upload;
+
+    @BeforeEach
+    void open() throws IOException {
+        upload = new ResumableUpload(1, "op@user", "data.bin", "/tmp", SIZE, directory.resolve("data.part"));
+    }
+
+    @AfterEach
+    void discard() {
+        upload.discard();
+    }
+
+    @Test
+    void mergesAdjacentRanges() throws IOException {
+        write(0, 10);
+        write(10, 20);
+        assertRanges(new long[][]{{0, 30}});
+        assertEquals(30, upload.getContiguousBytes());
+    }
+
+    @Test
+    void keepsGapsUntilFilled() throws IOException {
+        write(50, 10);
+        write(20, 10);
+        assertRanges(new long[][]{{20, 30}, {50, 60}});
+        assertEquals(0, upload.getContiguousBytes());
+
+        write(30, 20);
+        assertRanges(new long[][]{{20, 60}});
+        write(0, 20);
+        assertRanges(new long[][]{{0, 60}});
+        assertEquals(60, upload.getContiguousBytes());
+    }
+
+    @Test
+    void overlappingWritesAreCountedOnce() throws IOException {
+        write(10, 20);
+        write(15, 10);
+        write(25, 15);
+        assertRanges(new long[][]{{10, 40}});
+        assertEquals(30L, upload.status().get("receivedBytes"));
+    }
+
+    @Test
+    void oneWriteSwallowsSeveralRanges() throws IOException {
+        write(10, 5);
+        write(20, 5);
+        write(30, 5);
+        write(5, 40);
+        assertRanges(new long[][]{{5, 45}});
+        assertEquals(40L, upload.status().get("receivedBytes"));
+    }
+
+    @Test
+    void completesWhenAllBytesArrive() throws IOException {
+        write(60, 40);
+        write(0, 60);
+        assertTrue(upload.isComplete());
+        byte[] expected = new byte[SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            expected[i] = (byte) i;
+        }
+        assertArrayEquals(expected, Files.readAllBytes(upload.getStagingFile()));
+    }
+
+    @Test
+    void rejectsChunksOutsideTheFile() {
+        assertThrows(IOException.class, () -> write(90, 20));
+        assertThrows(IOException.class, () -> upload.write(-1, ByteBuffer.allocate(1)));
+        assertFalse(upload.isComplete());
+    }
+
+    private void write(int offset, int length) throws IOException {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (offset + i);
+        }
+        upload.write(offset, ByteBuffer.wrap(data));
+    }
+
+    @SuppressWarnings("unchecked")
+    private void assertRanges(long[][] expected) {
+        List<long[]> ranges = (List<long[]>) upload.status().get("ranges");
+        assertEquals(expected.length, ranges.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertArrayEquals(expected[i], ranges.get(i));
+        }
+    }
+}
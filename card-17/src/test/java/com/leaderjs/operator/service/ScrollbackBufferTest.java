@@ -0,0 +1,156 @@
+package com.leaderjs.operator.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class ScrollbackBufferTest {
+
+    @Test
+    void keepsNewestOutputAfterWrapping() throws Exception {
+        CountingAllocator allocator = new CountingAllocator(4, Integer.MAX_VALUE);
+        ScrollbackBuffer buffer = new ScrollbackBuffer(allocator, 4, 12);
+        write(buffer, "abcdefghij");
+        write(buffer, "klmn");
+
+        // 三个分段写满后回收最早的分段，只保留最新的输出
+        assertEquals("efghijklmn", new String(buffer.toByteArray(), StandardCharsets.US_ASCII));
+        assertEquals(10, buffer.size());
+        assertEquals("efghijklmn", replay(buffer));
+    }
+
+    @Test
+    void recyclesItsOwnSegmentsInsteadOfAllocating() {
+        CountingAllocator allocator = new CountingAllocator(4, Integer.MAX_VALUE);
+        ScrollbackBuffer buffer = new ScrollbackBuffer(allocator, 4, 12);
+        for (int i = 0; i < 100; i++) {
+            write(buffer, "0123456789");
+        }
+        assertEquals(3, allocator.allocated);
+        assertEquals(0, allocator.freed);
+        assertEquals(12, buffer.size());
+
+        buffer.release();
+        assertEquals(3, allocator.freed);
+        assertEquals(0, buffer.size());
+        assertEquals(0, buffer.toByteArray().length);
+    }
+
+    @Test
+    void wrapsWithinAllocatedSegmentsWhenAllocatorIsExhausted() throws Exception {
+        CountingAllocator allocator = new CountingAllocator(4, 1);
+        ScrollbackBuffer buffer = new ScrollbackBuffer(allocator, 4, 12);
+        write(buffer, "abcdefg");
+
+        assertEquals(1, allocator.allocated);
+        assertEquals("efg", replay(buffer));
+    }
+
+    @Test
+    void dropsOutputWhenNoSegmentCanBeAllocated() {
+        CountingAllocator allocator = new CountingAllocator(4, 0);
+        ScrollbackBuffer buffer = new ScrollbackBuffer(allocator, 4, 12);
+        write(buffer, "abcdefg");
+
+        assertEquals(0, buffer.size());
+        assertEquals(0, buffer.toByteArray().length);
+    }
+
+    @Test
+    void registryCapsSegmentsAcrossTerminals() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        SSHOutputPumpExecutor pumps = new SSHOutputPumpExecutor(registry, 1, 0);
+        TransferBandwidthScheduler bandwidth = new TransferBandwidthScheduler(registry, 0, 0, 500);
+        TerminalSessionRegistry terminals = new TerminalSessionRegistry(pumps, new SSHMetrics(registry), registry,
+                bandwidth);
+        try {
+            int segmentSize = 16 * 1024;
+            ReflectionTestUtils.setField(terminals, "maxTotalScrollbackBytes", 2L * segmentSize);
+            ScrollbackBuffer.SegmentAllocator allocator =
+                    (ScrollbackBuffer.SegmentAllocator) ReflectionTestUtils.getField(terminals, "allocator");
+            assertNotNull(allocator);
+
+            byte[] first = allocator.allocate();
+            byte[] second = allocator.allocate();
+            assertNotNull(first);
+            assertNotNull(second);
+            assertNull(allocator.allocate());
+            assertEquals(2.0 * segmentSize, registry.get("ssh.terminals.scrollback.bytes").gauge().value());
+
+            allocator.free(first);
+            assertEquals(1.0 * segmentSize, registry.get("ssh.terminals.scrollback.bytes").gauge().value());
+            byte[] third = allocator.allocate();
+            assertNotNull(third);
+            assertEquals(segmentSize, third.length);
+        } finally {
+            terminals.destroy();
+            pumps.destroy();
+            bandwidth.destroy();
+        }
+    }
+
+    @Test
+    void sharedCapLimitsBufferGrowth() {
+        CountingAllocator shared = new CountingAllocator(4, 3);
+        ScrollbackBuffer first = new ScrollbackBuffer(shared, 4, 12);
+        ScrollbackBuffer second = new ScrollbackBuffer(shared, 4, 12);
+        write(first, "abcdefgh");
+        write(second, "ijklmnop");
+
+        // 第一个缓冲区占用两个分段，第二个只分到剩下的一个，在这一个分段内循环
+        assertArrayEquals("abcdefgh".getBytes(StandardCharsets.US_ASCII), first.toByteArray());
+        assertArrayEquals("mnop".getBytes(StandardCharsets.US_ASCII), second.toByteArray());
+
+        first.release();
+        write(second, "qrstuvwx");
+        assertArrayEquals("mnopqrstuvwx".getBytes(StandardCharsets.US_ASCII), second.toByteArray());
+    }
+
+    private static void write(ScrollbackBuffer buffer, String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.US_ASCII);
+        buffer.write(bytes, 0, bytes.length);
+    }
+
+    private static String replay(ScrollbackBuffer buffer) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        buffer.replay(out::write);
+        return out.toString(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * 最多同时分配 limit 个分段的分配器，模拟全局内存上限。
+     */
+    private static final class CountingAllocator implements ScrollbackBuffer.SegmentAllocator {
+        private final int segmentSize;
+        private final int limit;
+        private int allocated;
+        private int freed;
+
+        CountingAllocator(int segmentSize, int limit) {
+            this.segmentSize = segmentSize;
+            this.limit = limit;
+        }
+
+        @Override
+        public byte[] allocate() {
+            if (allocated - freed >= limit) {
+                return null;
+            }
+            allocated++;
+            return new byte[segmentSize];
+        }
+
+        @Override
+        public void free(byte[] segment) {
+            freed++;
+        }
+    }
+}
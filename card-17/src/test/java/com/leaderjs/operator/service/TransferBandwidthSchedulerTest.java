@@ -0,0 +1,104 @@
+package com.leaderjs.operator.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TransferBandwidthSchedulerTest {
+    private static final int RATE = 1024 * 1024;
+    private static final int BURST_MS = 500;
+    private static final double CAPACITY = RATE * BURST_MS / 1000.0;
+
+    private final AtomicLong now = new AtomicLong();
+
+    @Test
+    void startsFullAndRefillsUpToCapacity() throws Exception {
+        TransferBandwidthScheduler.TokenBucket bucket = bucket(RATE);
+        assertEquals(CAPACITY, bucket.capacity());
+        assertEquals(CAPACITY, bucket.available());
+
+        bucket.acquire((int) CAPACITY);
+        assertEquals(0, bucket.available());
+
+        advance(250);
+        assertEquals(RATE / 4.0, bucket.available(), 1e-6);
+
+        // 空闲再久也只积累一个桶容量
+        advance(10_000);
+        assertEquals(CAPACITY, bucket.available());
+    }
+
+    @Test
+    void interactiveDebtIsDeductedOnRefill() {
+        TransferBandwidthScheduler.TokenBucket bucket = bucket(RATE);
+        bucket.consume(100_000);
+        assertEquals(CAPACITY - 100_000, bucket.available());
+
+        // 透支最多一个桶容量，补充从 -capacity 开始
+        bucket.consume(10 * RATE);
+        assertEquals(-CAPACITY, bucket.available());
+        advance(250);
+        assertEquals(-CAPACITY + RATE / 4.0, bucket.available(), 1e-6);
+        advance(1_000);
+        assertEquals(CAPACITY, bucket.available());
+    }
+
+    @Test
+    void acquireLargerThanCapacityPassesWhenFull() throws Exception {
+        TransferBandwidthScheduler.TokenBucket bucket = bucket(RATE);
+        bucket.acquire(2 * (int) CAPACITY);
+        assertEquals(-CAPACITY, bucket.available());
+    }
+
+    @Test
+    void unlimitedBucketIgnoresTraffic() throws Exception {
+        TransferBandwidthScheduler.TokenBucket bucket = bucket(0);
+        bucket.consume(10 * RATE);
+        bucket.acquire(10 * RATE);
+        assertEquals(64 * 1024, bucket.available());
+    }
+
+    @Test
+    void rateChangeAppliesToLaterRefills() {
+        TransferBandwidthScheduler.TokenBucket bucket = bucket(RATE);
+        bucket.consume((int) CAPACITY);
+        assertEquals(0, bucket.available());
+
+        bucket.setRate(RATE / 2);
+        advance(100);
+        assertEquals(RATE / 20.0, bucket.available(), 1e-6);
+    }
+
+    @Test
+    void acquireWaitsForTokens() throws Exception {
+        // 64KB 容量，速率 640KB/s，桶空后再取 64KB 需要约 100ms
+        TransferBandwidthScheduler.TokenBucket bucket = new TransferBandwidthScheduler.TokenBucket(640 * 1024, 100);
+        bucket.acquire(64 * 1024);
+        long start = System.nanoTime();
+        bucket.acquire(64 * 1024);
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(elapsed >= 80, "只等待了 " + elapsed + "ms");
+    }
+
+    @Test
+    void partiesWithoutPrincipalAreKeyedByClient() {
+        assertEquals("user:alice", TransferBandwidthScheduler.party("alice", "10.0.0.1"));
+        assertEquals("client:10.0.0.1", TransferBandwidthScheduler.party(null, "10.0.0.1"));
+        assertNotEquals(TransferBandwidthScheduler.party(null, "10.0.0.1"), TransferBandwidthScheduler.party(null, "10.0.0.2"));
+        // 用户名与客户端地址相同也不会落到同一个令牌桶
+        assertNotEquals(TransferBandwidthScheduler.party("10.0.0.1", "x"), TransferBandwidthScheduler.party(null, "10.0.0.1"));
+    }
+
+    private TransferBandwidthScheduler.TokenBucket bucket(long rate) {
+        return new TransferBandwidthScheduler.TokenBucket(rate, BURST_MS, now::get);
+    }
+
+    private void advance(long millis) {
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+}
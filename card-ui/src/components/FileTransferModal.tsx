@@ -1,4 +1,5 @@
 import React, { useEffect, useState, useRef } from 'react';
+import { decodeControl, encodeControl } from '../services/terminalProtocol';
 
 interface FileItem {
   name: string;
@@ -7,6 +8,9 @@ interface FileItem {
   modified?: string;
 }
 
+// 目录列表每页的项数
+const LIST_PAGE_SIZE = 500;
+
 interface FileTransferModalProps {
   isOpen: boolean;
   onClose: () => void;
@@ -20,6 +24,7 @@ interface ContextMenuProps {
   y: number;
   onClose: () => void;
   onDownload: () => void;
+  onDownloadArchive: () => void;
   isFile: boolean;
 }
 
@@ -35,6 +40,19 @@ interface UploadProgress {
   status: 'uploading' | 'success' | 'error';
 }
 
+interface ArchiveProgress {
+  filename: string;
+  received: number;
+  // 目录原始大小，未知时为 0；压缩后的字节数只能据此粗略估算进度
+  sourceBytes: number;
+  status: 'downloading' | 'success' | 'error';
+}
+
+// File System Access API（Chromium 系浏览器），TypeScript 的 DOM 类型中尚未包含
+type SaveFilePicker = (options: { suggestedName: string }) => Promise<FileSystemFileHandle>;
+
+const formatMegabytes = (bytes: number) => `${(bytes / 1048576).toFixed(1)} MB`;
+
 // 定义 Electron API 类型
 interface ElectronAPI {
   showOpenDialog: (options: {
@@ -94,7 +112,7 @@ const DirectorySelectModal: React.FC<DirectorySelectModalProps> = ({
   );
 };
 
-const ContextMenu: React.FC<ContextMenuProps> = ({ x, y, onClose, onDownload, isFile }) => {
+const ContextMenu: React.FC<ContextMenuProps> = ({ x, y, onClose, onDownload, onDownloadArchive, isFile }) => {
   const menuRef = useRef<HTMLDivElement>(null);
 
   useEffect(() => {
@@ -125,6 +143,17 @@ const ContextMenu: React.FC<ContextMenuProps> = ({ x, y, onClose, onDownload, is
           下载
         </button>
       )}
+      {!isFile && (
+        <button
+          onClick={() => {
+            onDownloadArchive();
+            onClose();
+          }}
+          className="w-full px-4 py-2 text-left text-gray-300 hover:bg-gray-700 hover:text-white"
+        >
+          打包下载
+        </button>
+      )}
     </div>
   );
 };
@@ -137,6 +166,8 @@ const FileTransferModal: React.FC<FileTransferModalProps> = ({
   onPathChange
 }) => {
   const [serverFiles, setServerFiles] = useState<FileItem[]>([]);
+  // 分页列表下一页的续传令牌，没有更多时为 null
+  const [listCursor, setListCursor] = useState<string | null>(null);
   const [isLoading, setIsLoading] = useState(false);
   const [contextMenu, setContextMenu] = useState<{
     x: number;
@@ -152,19 +183,35 @@ const FileTransferModal: React.FC<FileTransferModalProps> = ({
   const downloadReceivedSizeRef = useRef<number>(0);
   const [uploadProgress, setUploadProgress] = useState<UploadProgress[]>([]);
   const [showUploadSuccess, setShowUploadSuccess] = useState(false);
+  const [archiveProgress, setArchiveProgress] = useState<ArchiveProgress | null>(null);
 
-  // 刷新文件列表
-  const refreshFileList = () => {
+  // 刷新文件列表，force 为 true 时服务端跳过目录列表缓存（目录可能刚在终端里被修改）
+  const refreshFileList = (force = false) => {
     if (wsRef.current?.readyState === WebSocket.OPEN) {
       console.log('刷新文件列表，当前路径:', currentServerPath);
       setIsLoading(true);
-      wsRef.current.send(JSON.stringify({
+      wsRef.current.send(encodeControl({
         type: 'list_files',
-        path: currentServerPath
+        path: currentServerPath,
+        pageSize: LIST_PAGE_SIZE,
+        sort: 'name',
+        refresh: force
       }));
     }
   };
 
+  // 加载分页列表的下一页
+  const loadMoreFiles = () => {
+    if (listCursor && wsRef.current?.readyState === WebSocket.OPEN) {
+      wsRef.current.send(encodeControl({
+        type: 'list_files',
+        path: currentServerPath,
+        cursor: listCursor
+      }));
+      setListCursor(null);
+    }
+  };
+
   // 当模态框打开或路径改变时获取文件列表
   useEffect(() => {
     if (isOpen && wsRef.current?.readyState === WebSocket.OPEN) {
@@ -184,12 +231,23 @@ const FileTransferModal: React.FC<FileTransferModalProps> = ({
       
       console.log('收到WebSocket消息:', event.data);
       
+      // 二进制帧和终端输出不是控制消息
+      if (typeof event.data !== 'string') return;
+      const data = decodeControl(event.data);
+      if (!data) return;
       try {
-        const data = JSON.parse(event.data);
         console.log('解析后的消息:', data);
 
         if (data.type === 'file_list') {
-          setServerFiles(data.files);
+          // 后台刷新的列表可能晚于目录切换到达，只接受当前目录的列表
+          if (data.path !== undefined && data.path !== currentServerPath) return;
+          // 分页列表的后续页追加到已有列表
+          if (data.offset > 0) {
+            setServerFiles(prev => [...prev, ...data.files]);
+          } else {
+            setServerFiles(data.files);
+          }
+          setListCursor(data.cursor ?? null);
           setIsLoading(false);
         } else if (data.type === 'error') {
           console.error('获取文件列表失败:', data.message);
@@ -281,7 +339,7 @@ const FileTransferModal: React.FC<FileTransferModalProps> = ({
           ));
         }
       } catch (e) {
-        console.log('非JSON消息，忽略');
+        console.error('处理控制消息失败:', e);
       }
     };
 
@@ -334,7 +392,7 @@ const FileTransferModal: React.FC<FileTransferModalProps> = ({
               reader.onload = (e) => {
                 if (e.target?.result) {
                   // 发送上传开始消息
-                  wsRef.current?.send(JSON.stringify({
+                  wsRef.current?.send(encodeControl({
                     type: 'file_upload_start',
                     filename: file.name,
                     size: file.size,
@@ -345,7 +403,7 @@ const FileTransferModal: React.FC<FileTransferModalProps> = ({
                   wsRef.current?.send(e.target.result);
 
                   // 发送上传完成消息
-                  wsRef.current?.send(JSON.stringify({
+                  wsRef.current?.send(encodeControl({
                     type: 'file_upload_end',
                     filename: file.name
                   }));
@@ -388,7 +446,7 @@ const FileTransferModal: React.FC<FileTransferModalProps> = ({
   };
 
   const handleDownload = () => {
-    selectedFileForDownload && wsRef.current?.send(JSON.stringify({
+    selectedFileForDownload && wsRef.current?.send(encodeControl({
       type: 'file_download',
       filename: currentServerPath + '/' + selectedFileForDownload,
       downloadPath: selectedFileForDownload
@@ -462,10 +520,91 @@ const FileTransferModal: React.FC<FileTransferModalProps> = ({
     }
   };
 
+  const handleDownloadArchive = async (dirname: string) => {
+    const operatorId = wsRef.current?.url.split('/').pop();
+    if (!operatorId) {
+      console.error('无法获取 operatorId');
+      return;
+    }
+
+    const filename = `${dirname}.tar.gz`;
+    // 浏览器支持时先选择保存位置（需要在用户点击后立即调用），数据边接收边写入磁盘，不在内存中累积
+    let writable: FileSystemWritableFileStream | null = null;
+    const showSaveFilePicker = (window as unknown as { showSaveFilePicker?: SaveFilePicker }).showSaveFilePicker;
+    if (showSaveFilePicker) {
+      try {
+        const handle = await showSaveFilePicker({ suggestedName: filename });
+        writable = await handle.createWritable();
+      } catch (error) {
+        if (error instanceof DOMException && error.name === 'AbortError') {
+          return;
+        }
+        console.warn('无法直接写入磁盘，改为下载完成后保存:', error);
+      }
+    }
+
+    const chunks: Uint8Array[] = [];
+    try {
+      // 服务端流式打包为 tar.gz，大小事先未知
+      const archiveUrl = `/api/download/archive?path=${encodeURIComponent(currentServerPath + '/' + dirname)}&format=tar.gz`;
+      const token = localStorage.getItem('token');
+      const response = await fetch(archiveUrl, {
+        headers: {
+          'X-Operator-Id': operatorId,
+          ...(token ? { Authorization: `Bearer ${token}` } : {})
+        }
+      });
+
+      if (!response.ok || !response.body) {
+        throw new Error(`打包下载失败: ${response.statusText}`);
+      }
+
+      const sourceBytes = Number(response.headers.get('X-Archive-Source-Bytes')) || 0;
+      setArchiveProgress({ filename, received: 0, sourceBytes, status: 'downloading' });
+      const reader = response.body.getReader();
+      let received = 0;
+      let reportedAt = 0;
+      while (true) {
+        const { done, value } = await reader.read();
+        if (done) break;
+        if (writable) {
+          await writable.write(value);
+        } else {
+          chunks.push(value);
+        }
+        received += value.length;
+        // 每 200ms 更新一次进度，避免每个分块都重新渲染
+        const now = performance.now();
+        if (now - reportedAt >= 200) {
+          reportedAt = now;
+          setArchiveProgress({ filename, received, sourceBytes, status: 'downloading' });
+        }
+      }
+
+      if (writable) {
+        await writable.close();
+      } else {
+        const url = window.URL.createObjectURL(new Blob(chunks, { type: 'application/gzip' }));
+        const a = document.createElement('a');
+        a.href = url;
+        a.download = filename;
+        document.body.appendChild(a);
+        a.click();
+        window.URL.revokeObjectURL(url);
+        document.body.removeChild(a);
+      }
+      setArchiveProgress({ filename, received, sourceBytes, status: 'success' });
+    } catch (error) {
+      console.error('打包下载目录时出错:', error);
+      await writable?.abort().catch(() => undefined);
+      setArchiveProgress(prev => (prev ? { ...prev, status: 'error' } : { filename, received: 0, sourceBytes: 0, status: 'error' }));
+    }
+  };
+
   const handleDirectorySelect = (downloadPath: string) => {
     if (selectedFileForDownload) {
       console.log('下载文件:', selectedFileForDownload, '到目录:', downloadPath);
-      wsRef.current?.send(JSON.stringify({
+      wsRef.current?.send(encodeControl({
         type: 'file_download',
         filename: currentServerPath + '/' + selectedFileForDownload,
         downloadPath: downloadPath
@@ -546,7 +685,7 @@ const FileTransferModal: React.FC<FileTransferModalProps> = ({
               <div className="flex justify-between items-center mb-2">
                 <div className="text-white">服务器目录: {normalizePath(currentServerPath)}</div>
                 <button
-                  onClick={refreshFileList}
+                  onClick={() => refreshFileList(true)}
                   className="px-3 py-1 bg-blue-600 text-white rounded hover:bg-blue-700 flex items-center gap-1"
                 >
                   <svg className="w-4 h-4" fill="none" stroke="currentColor" viewBox="0 0 24 24">
@@ -555,6 +694,33 @@ const FileTransferModal: React.FC<FileTransferModalProps> = ({
                   刷新
                 </button>
               </div>
+              {archiveProgress && (
+                <div className="bg-gray-800 rounded p-2 mt-2">
+                  <div className="flex justify-between text-sm mb-1">
+                    <span className="text-gray-300 truncate">{archiveProgress.filename}</span>
+                    <span className={`${
+                      archiveProgress.status === 'success' ? 'text-green-500' :
+                      archiveProgress.status === 'error' ? 'text-red-500' :
+                      'text-gray-400'
+                    }`}>
+                      {archiveProgress.status === 'success' ? `完成，${formatMegabytes(archiveProgress.received)}` :
+                       archiveProgress.status === 'error' ? '失败' :
+                       archiveProgress.sourceBytes > 0
+                         ? `已接收 ${formatMegabytes(archiveProgress.received)}，目录原始大小 ${formatMegabytes(archiveProgress.sourceBytes)}`
+                         : `已接收 ${formatMegabytes(archiveProgress.received)}`}
+                    </span>
+                  </div>
+                  {archiveProgress.status === 'downloading' && archiveProgress.sourceBytes > 0 && (
+                    <div className="w-full bg-gray-700 rounded-full h-1.5">
+                      {/* 压缩后通常小于原始大小，按原始大小估算的进度偏低 */}
+                      <div
+                        className="h-1.5 rounded-full bg-blue-500"
+                        style={{ width: `${Math.min(100, archiveProgress.received / archiveProgress.sourceBytes * 100)}%` }}
+                      />
+                    </div>
+                  )}
+                </div>
+              )}
             </div>
             <div className="flex-1 relative">
               <div className="absolute inset-0 overflow-y-auto">
@@ -587,6 +753,14 @@ const FileTransferModal: React.FC<FileTransferModalProps> = ({
                           )}
                         </div>
                       ))}
+                      {listCursor && (
+                        <div
+                          onClick={loadMoreFiles}
+                          className="p-2 rounded cursor-pointer text-center text-blue-400 hover:bg-gray-700"
+                        >
+                          加载更多
+                        </div>
+                      )}
                     </div>
                   )}
                 </div>
@@ -609,6 +783,7 @@ const FileTransferModal: React.FC<FileTransferModalProps> = ({
           y={contextMenu.y}
           onClose={() => setContextMenu(null)}
           onDownload={() => handleDownloadFile(contextMenu.file.name)}
+          onDownloadArchive={() => handleDownloadArchive(contextMenu.file.name)}
           isFile={contextMenu.file.type === 'file'}
         />
       )}
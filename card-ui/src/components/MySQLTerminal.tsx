@@ -7,6 +7,13 @@ import { Operator } from '../services/operatorService';
 import { useNavigate, useParams } from 'react-router-dom';
 import { operatorService } from '../services/operatorService';
 
+// 流式查询每帧的行数和接收额度：额度为还能接收的行数，每处理完一批就归还同样的行数
+const QUERY_BATCH_SIZE = 500;
+const QUERY_CREDIT = 2000;
+
+// 单元格显示：NULL 与空字符串区分开，其余类型（含 int 列中以字符串发送的大整数）按文本显示
+const formatCell = (value: unknown) => (value === null || value === undefined ? 'NULL' : String(value));
+
 const MySQLTerminal: React.FC = () => {
   const terminalRef = useRef<HTMLDivElement>(null);
   const wsRef = useRef<WebSocket | null>(null);
@@ -72,10 +79,19 @@ const MySQLTerminal: React.FC = () => {
     const ws = new WebSocket(`ws://localhost:3000/ws/mysql/${operator.id}`);
     wsRef.current = ws;
 
+    let lineBuffer = '';
+    let querySeq = 0;
+    // \cache N 之后的只读查询使用服务端结果缓存（有效期 N 秒），\cache off 关闭
+    let cacheTtlSeconds = 0;
+    // 服务端已接收（收到过 query_status）且尚未结束的查询，Ctrl+C 取消其中最早的一条
+    const activeQueries: string[] = [];
+    const prompt = () => terminal.write('\r\nmysql> ');
+
     ws.onopen = () => {
       console.log('WebSocket连接已建立');
       terminal.write('\r\n\x1B[1;32m已连接到MySQL服务器\x1B[0m\r\n');
       terminal.write('\r\n\x1B[1;36m请输入SQL命令\x1B[0m\r\n');
+      prompt();
     };
 
     ws.onmessage = (event) => {
@@ -83,6 +99,55 @@ const MySQLTerminal: React.FC = () => {
         const data = JSON.parse(event.data);
         if (data.type === 'error') {
           terminal.write(`\r\n\x1B[1;31m错误: ${data.message}\x1B[0m\r\n`);
+          // 已接收的查询随后还有 query_status，由它显示提示符
+          if (!data.id || !activeQueries.includes(data.id)) {
+            prompt();
+          }
+          return;
+        }
+        if (data.type === 'query_status') {
+          if (data.state === 'queued' || data.state === 'running') {
+            if (!activeQueries.includes(data.id)) {
+              activeQueries.push(data.id);
+            }
+            return;
+          }
+          const index = activeQueries.indexOf(data.id);
+          if (index >= 0) {
+            activeQueries.splice(index, 1);
+          }
+          if (data.state === 'cancelled') {
+            terminal.write('\r\n\x1B[1;33m查询已取消\x1B[0m\r\n');
+          }
+          terminal.write(`\x1B[2m(排队 ${data.queuedMs} ms，执行 ${data.runMs} ms)\x1B[0m`);
+          prompt();
+          return;
+        }
+        if (data.type === 'result_columns') {
+          if (data.cached) {
+            terminal.write(`\r\n\x1B[2m(缓存结果，${Math.round(data.ageMs / 1000)} 秒前查询)\x1B[0m`);
+          }
+          terminal.write('\r\n' + data.columns.join('\t') + '\r\n');
+          terminal.write('-'.repeat(data.columns.join('\t').length) + '\r\n');
+          return;
+        }
+        if (data.type === 'result_rows') {
+          // 数据按列发送：data[列][行]，终端按行输出
+          const columns: unknown[][] = data.data;
+          let text = '';
+          for (let row = 0; row < data.count; row++) {
+            text += columns.map((column) => formatCell(column[row])).join('\t') + '\r\n';
+          }
+          terminal.write(text);
+          // 这一批已经显示，归还同样的额度
+          ws.send(JSON.stringify({ type: 'credit', id: data.id, rows: data.count }));
+          return;
+        }
+        if (data.type === 'result_end') {
+          terminal.write(`\r\n\x1B[1;32m查询完成，共 ${data.rowCount} 行\x1B[0m\r\n`);
+          if (data.truncated) {
+            terminal.write('\x1B[1;33m结果超过服务端行数上限，已截断\x1B[0m\r\n');
+          }
           return;
         }
         if (data.type === 'query_result') {
@@ -95,11 +160,14 @@ const MySQLTerminal: React.FC = () => {
           }
           if (data.rows) {
             // 显示数据行
-            data.rows.forEach((row: any[]) => {
-              terminal.write(row.join('\t') + '\r\n');
+            data.rows.forEach((row: unknown[]) => {
+              terminal.write(row.map(formatCell).join('\t') + '\r\n');
             });
           }
-          terminal.write(`\r\n\x1B[1;32m查询完成，影响行数: ${data.affectedRows || 0}\x1B[0m\r\n`);
+          terminal.write(`\r\n\x1B[1;32m查询完成，影响行数: ${data.affected_rows || 0}\x1B[0m\r\n`);
+          if (data.truncated) {
+            terminal.write('\x1B[1;33m结果超过服务端行数上限，已截断\x1B[0m\r\n');
+          }
         }
       } catch (e) {
         // 如果不是JSON，则作为普通终端输出处理
@@ -117,10 +185,55 @@ const MySQLTerminal: React.FC = () => {
       terminal.write('\r\n\x1B[1;33m连接已关闭\x1B[0m\r\n');
     };
 
-    // 处理终端输入
+    // 处理终端输入：按行编辑，回车后以流式查询发送，Ctrl+C 取消正在执行的查询
     terminal.onData((data) => {
-      if (ws.readyState === WebSocket.OPEN) {
-        ws.send(data);
+      if (ws.readyState !== WebSocket.OPEN) {
+        return;
+      }
+      for (const ch of data) {
+        if (ch === '\r') {
+          const sql = lineBuffer.trim();
+          lineBuffer = '';
+          if (!sql) {
+            prompt();
+            continue;
+          }
+          const cacheCommand = sql.match(/^\\cache\s+(\d+|off)$/i);
+          if (cacheCommand) {
+            cacheTtlSeconds = cacheCommand[1].toLowerCase() === 'off' ? 0 : parseInt(cacheCommand[1], 10);
+            terminal.write(`\r\n结果缓存${cacheTtlSeconds > 0 ? `已开启，有效期 ${cacheTtlSeconds} 秒` : '已关闭'}`);
+            prompt();
+            continue;
+          }
+          // \fresh <SQL> 跳过缓存重新查询，并刷新缓存的结果
+          const fresh = sql.match(/^\\fresh\s+([\s\S]+)$/i);
+          const queryId = `q${++querySeq}`;
+          ws.send(JSON.stringify({
+            type: 'query',
+            id: queryId,
+            sql: fresh ? fresh[1] : sql,
+            batchSize: QUERY_BATCH_SIZE,
+            credit: QUERY_CREDIT,
+            cacheTtlSeconds,
+            bypassCache: !!fresh
+          }));
+        } else if (ch === '\x03') {
+          if (activeQueries.length > 0) {
+            ws.send(JSON.stringify({ type: 'cancel', id: activeQueries[0] }));
+          } else {
+            lineBuffer = '';
+            terminal.write('^C');
+            prompt();
+          }
+        } else if (ch === '\x7f') {
+          if (lineBuffer.length > 0) {
+            lineBuffer = lineBuffer.slice(0, -1);
+            terminal.write('\b \b');
+          }
+        } else if (ch >= ' ') {
+          lineBuffer += ch;
+          terminal.write(ch);
+        }
       }
     });
 
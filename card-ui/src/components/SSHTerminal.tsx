@@ -8,6 +8,7 @@ import { useNavigate, useParams } from 'react-router-dom';
 import { operatorService } from '../services/operatorService';
 import FileTransferModal from './FileTransferModal';
 import { WS_ENDPOINTS } from '../config/api';
+import { CONTROL_LEAD, decodeControl, encodeControl, sanitizeInput } from '../services/terminalProtocol';
 
 const SSHTerminal: React.FC = () => {
   const terminalRef = useRef<HTMLDivElement>(null);
@@ -93,55 +94,59 @@ const SSHTerminal: React.FC = () => {
       // ws.send('export LC_ALL=en_US.UTF-8\n');
       // ws.send('export TERM=xterm\n');
       terminal.write('\r\n\x1B[1;32m已连接到SSH服务器\x1B[0m\r\n');
+      // 同步终端窗口大小
+      ws.send(encodeControl({ type: 'resize', cols: terminal.cols, rows: terminal.rows }));
     };
 
+    // 二进制下载：每个数据帧前 4 字节是 downloadId，收到半个窗口就回报一次累计字节数
+    ws.binaryType = 'arraybuffer';
+    const downloads = new Map<number, { filename: string; chunks: ArrayBuffer[]; received: number; acked: number; window: number }>();
+
     ws.onmessage = (event) => {
-      // 检查是否是文件下载数据
-      if (event.data instanceof Blob) {
-        const blob = event.data;
-        const reader = new FileReader();
-        reader.onload = () => {
-          const result = reader.result;
-          if (typeof result === 'string') {
-            try {
-              const data = JSON.parse(result);
-              if (data.type === 'file_download_start') {
-                // 开始接收文件数据
-                terminal.write(`\r\n\x1B[1;33m开始下载文件: ${data.filename}\x1B[0m\r\n`);
-              } else if (data.type === 'file_download_end') {
-                // 文件下载完成，创建下载链接
-                const url = URL.createObjectURL(new Blob([data.content]));
-                const a = document.createElement('a');
-                a.href = url;
-                a.download = data.filename;
-                document.body.appendChild(a);
-                a.click();
-                document.body.removeChild(a);
-                URL.revokeObjectURL(url);
-                terminal.write(`\r\n\x1B[1;32m文件下载完成: ${data.filename}\x1B[0m\r\n`);
-                terminal.write(`\r\n\x1B[1;36m文件已保存到浏览器的默认下载目录\x1B[0m\r\n`);
-              } else if (data.type === 'error') {
-                terminal.write(`\r\n\x1B[1;31m错误: ${data.message}\x1B[0m\r\n`);
-              }
-            } catch (e) {
-              // 如果不是JSON，则作为普通终端输出处理
-              terminal.write(event.data);
-            }
-          }
-        };
-        reader.readAsText(blob);
-      } else {
-        // 检查是否是JSON消息
-        try {
-          const data = JSON.parse(event.data);
-          if (data.type === 'error') {
-            terminal.write(`\r\n\x1B[1;31m错误: ${data.message}\x1B[0m\r\n`);
-            return;
-          }
-        } catch (e) {
-          // 如果不是JSON，则作为普通终端输出处理
-          terminal.write(event.data);
+      if (event.data instanceof ArrayBuffer) {
+        const downloadId = new DataView(event.data).getInt32(0);
+        const download = downloads.get(downloadId);
+        if (!download) return;
+        download.chunks.push(event.data.slice(4));
+        download.received += event.data.byteLength - 4;
+        if (download.received - download.acked >= download.window / 2) {
+          download.acked = download.received;
+          ws.send(encodeControl({ type: 'file_download_ack', downloadId, received: download.received }));
+        }
+        return;
+      }
+
+      // 控制消息以引导字符开头，其余都是终端输出
+      const data = decodeControl(event.data);
+      if (!data) {
+        terminal.write(event.data);
+        return;
+      }
+      if (data.type === 'file_download_start') {
+        if (data.mode === 'binary') {
+          downloads.set(data.downloadId, { filename: data.filename, chunks: [], received: 0, acked: 0, window: data.window });
         }
+        terminal.write(`\r\n\x1B[1;33m开始下载文件: ${data.filename}\x1B[0m\r\n`);
+      } else if (data.type === 'file_download_end') {
+        const download = downloads.get(data.downloadId);
+        if (!download) return;
+        downloads.delete(data.downloadId);
+        // 文件下载完成，创建下载链接
+        const url = URL.createObjectURL(new Blob(download.chunks));
+        const a = document.createElement('a');
+        a.href = url;
+        a.download = download.filename.split('/').pop() || download.filename;
+        document.body.appendChild(a);
+        a.click();
+        document.body.removeChild(a);
+        URL.revokeObjectURL(url);
+        terminal.write(`\r\n\x1B[1;32m文件下载完成: ${download.filename}\x1B[0m\r\n`);
+        terminal.write(`\r\n\x1B[1;36m文件已保存到浏览器的默认下载目录\x1B[0m\r\n`);
+      } else if (data.type === 'error') {
+        if (data.downloadId !== undefined) {
+          downloads.delete(data.downloadId);
+        }
+        terminal.write(`\r\n\x1B[1;31m错误: ${data.message}\x1B[0m\r\n`);
       }
     };
 
@@ -163,18 +168,24 @@ const SSHTerminal: React.FC = () => {
         if (data.trim().startsWith('download ')) {
           const filename = data.trim().substring(9).trim();
           if (filename) {
-            ws.send(JSON.stringify({
+            ws.send(encodeControl({
               type: 'file_download',
-              filename: filename
+              filename: filename,
+              mode: 'binary'
             }));
             return;
           }
         }
         //terminal.write(data); // 本地渲染
-        ws.send(data);
+        ws.send(sanitizeInput(data));
       }
     };
     terminal.onData(onDataHandler);
+    terminal.onResize(({ cols, rows }) => {
+      if (ws.readyState === WebSocket.OPEN) {
+        ws.send(encodeControl({ type: 'resize', cols, rows }));
+      }
+    });
 
     // 处理窗口大小变化
     const handleResize = () => {
@@ -233,6 +244,8 @@ const SSHTerminal: React.FC = () => {
 
         wsRef.current!.onmessage = (event) => {
           const output = event.data;
+          // 控制消息不是 pwd 的输出
+          if (typeof output !== 'string' || output.startsWith(CONTROL_LEAD)) return;
           if (output.includes("/")) {
             clearTimeout(timeout);
             wsRef.current!.onmessage = originalOnMessage;
@@ -258,7 +271,7 @@ const SSHTerminal: React.FC = () => {
           if (!e.target?.result) return;
           
           // 发送文件上传开始标记，包含当前目录
-          wsRef.current?.send(JSON.stringify({
+          wsRef.current?.send(encodeControl({
             type: 'file_upload_start',
             filename: file.name,
             size: file.size,
@@ -298,7 +311,7 @@ const SSHTerminal: React.FC = () => {
           }
 
           // 发送文件上传结束标记
-          wsRef.current?.send(JSON.stringify({
+          wsRef.current?.send(encodeControl({
             type: 'file_upload_end',
             filename: file.name
           }));
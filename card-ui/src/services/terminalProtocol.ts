@@ -0,0 +1,22 @@
+// /ws/ssh 文本帧协议：控制消息以引导字符 U+FFFF 开头、后接 JSON，其余文本帧都是终端输入或终端输出。
+// U+FFFF 是 Unicode 非字符，键盘输入和粘贴的文本中不会出现，以 JSON 开头的终端内容不会被误当作控制消息。
+export const CONTROL_LEAD = '\uFFFF';
+
+// 编码发给服务端的控制消息
+export const encodeControl = (message: { type: string } & Record<string, unknown>): string =>
+  CONTROL_LEAD + JSON.stringify(message);
+
+// 解码服务端发来的控制消息，终端输出或无法解析时返回 null
+// eslint-disable-next-line @typescript-eslint/no-explicit-any
+export const decodeControl = (data: string): any | null => {
+  if (!data.startsWith(CONTROL_LEAD)) return null;
+  try {
+    return JSON.parse(data.slice(CONTROL_LEAD.length));
+  } catch {
+    return null;
+  }
+};
+
+// 终端输入中去掉引导字符，保证输入不会被服务端当作控制消息
+export const sanitizeInput = (data: string): string =>
+  data.includes(CONTROL_LEAD) ? data.split(CONTROL_LEAD).join('') : data;